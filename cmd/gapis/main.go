@@ -71,7 +71,9 @@ func main() {
 // features is the reported list of features supported by the server.
 // This feature list can be used by the client to determine what new RPCs can be
 // called.
-var features = []string{}
+var features = []string{
+	"get-batch",
+}
 
 // addFallbackLogHandler adds a handler to b that calls to fallback, only when
 // nothing else is listening, i.e. nothing is listening to the log stream RPC.
@@ -21,22 +21,33 @@ import static com.google.gapid.views.WelcomeDialog.showFirstTimeDialog;
 import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.Server.GapisInitException;
 import com.google.gapid.models.Analytics;
+import com.google.gapid.models.Capture;
 import com.google.gapid.models.Devices;
 import com.google.gapid.models.Follower;
 import com.google.gapid.models.Models;
 import com.google.gapid.models.Settings;
+import com.google.gapid.perfetto.canvas.FrameProfiler;
 import com.google.gapid.perfetto.canvas.PanelCanvas;
+import com.google.gapid.proto.perfetto.Perfetto;
+import com.google.gapid.proto.service.GapidGrpc;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.proto.service.api.API;
+import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.GapiPaths;
 import com.google.gapid.server.GapisProcess;
 import com.google.gapid.util.Crash2ExceptionHandler;
 import com.google.gapid.util.ExceptionHandler;
 import com.google.gapid.util.Flags;
 import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Logging;
 import com.google.gapid.util.MacApplication;
 import com.google.gapid.util.Messages;
+import com.google.gapid.util.MoreFutures;
 import com.google.gapid.util.OS;
 import com.google.gapid.util.Scheduler;
 import com.google.gapid.views.TracerDialog;
@@ -57,9 +68,15 @@ import java.util.logging.Logger;
 public class Main {
   protected static final Logger LOG = Logger.getLogger(Main.class.getName());
 
+  public static final Flag<Boolean> startupBenchmark = Flags.value("startup-benchmark", false,
+      "Log the timings of the startup phases and exit once started up and the capture loaded.",
+      true);
+
   public static void main(String[] args) throws Exception {
+    StartupTimer timer = new StartupTimer();
     args = Flags.initFlags(ALL_FLAGS, args);
     Logging.init();
+    Scheduler.startStatsLogging();
 
     Display.setAppName(Messages.WINDOW_TITLE);
     Display.setAppVersion(GAPID_VERSION.toString());
@@ -73,9 +90,9 @@ public class Main {
     }
 
     try {
-      new UI(settings, theme, handler, args).show();
+      new UI(settings, theme, handler, args, timer).show();
     } finally {
-      Scheduler.EXECUTOR.shutdownNow();
+      Scheduler.shutdownNow();
     }
   }
 
@@ -87,22 +104,28 @@ public class Main {
     private final Theme theme;
     private final ExceptionHandler handler;
     private final String[] args;
+    private final StartupTimer timer;
     protected final MainWindow window;
     private final Server server;
+    private ListenableFuture<?> connection;
+    private volatile String lastStatus = "";
 
     private Models models;
     private Widgets widgets;
 
-    public UI(Settings settings, Theme theme, ExceptionHandler handler, String[] args) {
+    public UI(Settings settings, Theme theme, ExceptionHandler handler, String[] args,
+        StartupTimer timer) {
       this.settings = settings;
       this.theme = theme;
       this.handler = handler;
       this.args = args;
+      this.timer = timer;
       this.window = new MainWindow(settings, theme) {
         @Override
         public void create() {
           super.create();
-          scheduleIfNotDisposed(getShell(), () -> Scheduler.EXECUTOR.execute(UI.this::startup));
+          timer.mark("window created");
+          scheduleIfNotDisposed(getShell(), () -> uiStartup(getShell()));
         }
       };
       server = new Server(settings);
@@ -123,6 +146,10 @@ public class Main {
     }
 
     public void show() {
+      // Launch the server and warm up the classes needed once it is connected, while the UI and
+      // models are being created. Requests made by the models are queued until it is connected.
+      connection = Scheduler.IO.submit(this::startup);
+      Scheduler.COMPUTE.execute(UI::prewarm);
       try {
         window.open();
       } finally {
@@ -138,12 +165,24 @@ public class Main {
       }
     }
 
-    protected void startup() {
+    protected Void startup() throws GapisInitException {
+      server.connect(this);
+      timer.mark("server connected");
+      return null;
+    }
+
+    private static void prewarm() {
+      // Initializing the large proto descriptors and the gRPC transport takes a noticeable amount
+      // of time, so do it while waiting for the server, rather than on the first request.
+      Service.getDescriptor();
+      Path.getDescriptor();
+      API.getDescriptor();
+      Perfetto.getDescriptor();
+      GapidGrpc.getServiceDescriptor();
       try {
-        server.connect(this);
-        scheduleIfStillOpen(this::uiStartup);
-      } catch (GapisInitException e) {
-        onServerExit(-42, Throwables.getStackTraceAsString(e));
+        Class.forName("io.grpc.okhttp.OkHttpChannelBuilder");
+      } catch (ClassNotFoundException e) {
+        LOG.log(Level.FINE, "Failed to pre-load the gRPC transport", e);
       }
     }
 
@@ -151,11 +190,22 @@ public class Main {
       models = Models.create(shell, settings, handler, server.getClient(), window.getStatusBar());
       widgets = Widgets.create(shell.getDisplay(), theme, server.getClient(), models);
 
+      boolean loadCapture = args.length == 1;
       Runnable onStart = () -> {
-        if (args.length == 1) {
+        if (loadCapture) {
           models.capture.loadCapture(new File(args[0]));
         }
       };
+      if (loadCapture) {
+        models.capture.addListener(new Capture.Listener() {
+          @Override
+          public void onCaptureLoaded(Loadable.Message error) {
+            models.capture.removeListener(this);
+            timer.mark("capture loaded");
+            onStartupDone(shell, connection.isDone());
+          }
+        });
+      }
 
       window.initMainUi(server.getClient(), models, widgets);
       if (models.settings.preferences().getSkipFirstRunDialog()) {
@@ -164,12 +214,43 @@ public class Main {
         shell.getDisplay().asyncExec(() -> showFirstTimeDialog(shell, models, widgets, onStart));
       }
 
-      // Add the links on Loading Screen after the server set up.
-      window.updateLoadingScreen(server.getClient(), models, widgets);
+      timer.mark("UI created");
+      if (!connection.isDone()) {
+        window.showLoadingMessage(lastStatus);
+      }
+
+      MoreFutures.addCallback(connection, new FutureCallback<Object>() {
+        @Override
+        public void onSuccess(Object result) {
+          scheduleIfStillOpen(shell -> {
+            // Add the links on Loading Screen after the server set up.
+            window.updateLoadingScreen(server.getClient(), models, widgets);
+            onStartupDone(shell, !loadCapture);
+          });
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          onServerExit(-42, Throwables.getStackTraceAsString(t));
+        }
+      });
+    }
+
+    // Called once the server is connected and once the capture given on the command line has been
+    // loaded, with whether all of startup is done.
+    private void onStartupDone(Shell shell, boolean done) {
+      if (done) {
+        timer.mark("startup done");
+        if (startupBenchmark.get()) {
+          LOG.log(Level.INFO, "Startup benchmark: " + timer);
+          shell.close();
+        }
+      }
     }
 
     @Override
     public void onStatus(String message) {
+      lastStatus = message;
       scheduleIfStillOpen(shell -> window.showLoadingMessage(message));
     }
 
@@ -199,6 +280,26 @@ public class Main {
     }
   }
 
+  /**
+   * Measures the time since startup of the startup phases, logging each phase as it completes.
+   */
+  private static class StartupTimer {
+    private final long start = System.nanoTime();
+    private final StringBuilder phases = new StringBuilder();
+
+    public synchronized void mark(String phase) {
+      long ms = (System.nanoTime() - start) / 1000000;
+      LOG.log(Level.INFO, "Startup: " + phase + " after " + ms + "ms");
+      phases.append(phases.length() == 0 ? "" : ", ").append(phase).append(": ").append(ms)
+          .append("ms");
+    }
+
+    @Override
+    public synchronized String toString() {
+      return phases.toString();
+    }
+  }
+
   private static final Flag<?>[] ALL_FLAGS = {
     Flags.help,
     Flags.fullHelp,
@@ -217,7 +318,10 @@ public class Main {
     Logging.logDir,
     Follower.logFollowRequests,
     Server.useCache,
+    Server.useDiskCache,
+    startupBenchmark,
     PanelCanvas.showRedraws,
+    FrameProfiler.profileFrames,
     TracerDialog.maxFrames,
     TracerDialog.maxPerfetto,
   };
@@ -121,6 +121,11 @@ public class MainWindow extends ApplicationWindow {
         mainUi.startLoading();
       }
 
+      @Override
+      public void onCaptureLoadingProgress(String status) {
+        mainUi.showMessage(Message.loading(status));
+      }
+
       @Override
       public void onCaptureLoaded(Message error) {
         if (error != null) {
@@ -28,13 +28,19 @@ import com.google.gapid.proto.stringtable.Stringtable;
 import com.google.gapid.rpc.Rpc;
 import com.google.gapid.rpc.RpcException;
 import com.google.gapid.server.Client;
+import com.google.gapid.server.DeferredGapidClient;
+import com.google.gapid.server.GapidClient;
 import com.google.gapid.server.GapisConnection;
 import com.google.gapid.server.GapisProcess;
+import com.google.gapid.server.PersistentResponseCache;
+import com.google.gapid.util.Caches;
 import com.google.gapid.util.Flags;
 import com.google.gapid.util.Flags.Flag;
 import com.google.gapid.util.Logging;
+import com.google.gapid.util.OS;
 import com.google.gapid.util.Version;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -59,30 +65,46 @@ public class Server {
   public static final Flag<Boolean> useCache = Flags.value(
       "cache", true, "Whether to use a cache between the UI and the gapis server.", true);
 
+  public static final Flag<Boolean> useDiskCache = Flags.value("disk-cache", true,
+      "Whether to persist the immutable capture data received from the server on disk.", true);
+
   private final Settings settings;
+  private final DeferredGapidClient deferredClient = new DeferredGapidClient();
+  private final Client client = new Client(deferredClient);
   private GapisConnection gapisConnection;
-  private Client client;
+  private PersistentResponseCache diskCache = PersistentResponseCache.NONE;
 
   public Server(Settings settings) {
     this.settings = settings;
   }
 
+  /**
+   * Connects to the server. The {@link #getClient() client} can be used before the connection is
+   * established, its requests are queued and sent once the server has been set up.
+   */
   public void connect(GapisProcess.Listener listener) throws GapisInitException {
-    connectToServer(listener);
-    String status = "";
     try {
-      status = "Fetching server info";
-      listener.onStatus(status + "...");
-      fetchServerInfo();
-      status = "Fetching string table";
-      listener.onStatus(status + "...");
-      fetchStringTable();
-      status = "Monitoring logs";
-      listener.onStatus(status + "...");
-      client.streamLog(Logging::logMessage);
-    } catch (ExecutionException | RpcException | TimeoutException e) {
-      throw new GapisInitException(
-          GapisInitException.MESSAGE_FAILED_INIT, "Failed: " + status, e);
+      GapidClient connected = connectToServer(listener);
+      Client initClient = new Client(connected);
+      String status = "";
+      try {
+        status = "Fetching server info";
+        listener.onStatus(status + "...");
+        fetchServerInfo(initClient);
+        status = "Fetching string table";
+        listener.onStatus(status + "...");
+        fetchStringTable(initClient);
+        deferredClient.setDelegate(connected);
+        status = "Monitoring logs";
+        listener.onStatus(status + "...");
+        client.streamLog(Logging::logMessage);
+      } catch (ExecutionException | RpcException | TimeoutException e) {
+        throw new GapisInitException(
+            GapisInitException.MESSAGE_FAILED_INIT, "Failed: " + status, e);
+      }
+    } catch (GapisInitException e) {
+      deferredClient.setFailed(e);
+      throw e;
     }
   }
 
@@ -95,9 +117,11 @@ public class Server {
       gapisConnection.close();
       gapisConnection = null;
     }
+    diskCache.close();
+    diskCache = PersistentResponseCache.NONE;
   }
 
-  private void connectToServer(GapisProcess.Listener listener) throws GapisInitException {
+  private GapidClient connectToServer(GapisProcess.Listener listener) throws GapisInitException {
     GapisConnection connection = createConnection(listener);
     if (!connection.isConnected()) {
       throw new GapisInitException(GapisInitException.MESSAGE_FAILED_CONNECT, "not connected");
@@ -107,7 +131,13 @@ public class Server {
       if (!useCache.get()) {
         LOG.log(WARNING, "** Not using caching in the UI, this is only meant for testing. **");
       }
-      client = new Client(connection.createGapidClient(useCache.get()));
+      if (useCache.get() && useDiskCache.get()) {
+        diskCache = PersistentResponseCache.open(
+            new File(OS.userHomeDir, ".agic-cache"), GAPID_VERSION.toString());
+      }
+      return connection.createGapidClient(useCache.get(), Caches.Budgets.ofMegabytes(
+          settings.preferences().getMetadataCacheMb(), settings.preferences().getBlobCacheMb()),
+          diskCache);
     } catch (IOException e) {
       throw new GapisInitException(
           GapisInitException.MESSAGE_FAILED_CONNECT, "unable to create client", e);
@@ -127,7 +157,7 @@ public class Server {
   /**
    * Requests, blocks, and then checks the server info.
    */
-  private void fetchServerInfo()
+  private static void fetchServerInfo(Client client)
       throws RpcException, TimeoutException, ExecutionException, GapisInitException {
     Service.ServerInfo info = Rpc.get(client.getSeverInfo(), FETCH_INFO_TIMEOUT_MS, MILLISECONDS);
     LOG.log(INFO, "Server info: {0}", info);
@@ -142,7 +172,8 @@ public class Server {
   /**
    * Requests, blocks, and then makes current the string table from the server.
    */
-  private void fetchStringTable() throws ExecutionException, RpcException, TimeoutException {
+  private static void fetchStringTable(Client client)
+      throws ExecutionException, RpcException, TimeoutException {
     List<Stringtable.Info> infos =
         Rpc.get(client.getAvailableStringTables(), FETCH_STRING_TABLE_TIMEOUT_MS, MILLISECONDS);
     if (infos.size() == 0) {
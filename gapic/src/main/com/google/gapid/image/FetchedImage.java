@@ -33,6 +33,7 @@ import com.google.gapid.proto.service.api.API;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.server.Client;
 import com.google.gapid.util.MoreFutures;
+import com.google.gapid.util.Scheduler;
 import com.google.gapid.util.Values;
 
 import org.eclipse.swt.graphics.ImageData;
@@ -114,10 +115,11 @@ public class FetchedImage implements MultiLayerAndLevelImage {
 
   public static ListenableFuture<ImageData> loadImage(
       ListenableFuture<FetchedImage> futureImage, final int layer, final int level) {
-    return MoreFutures.transformAsync(futureImage, image -> MoreFutures.transform(
+    return MoreFutures.transformAsync(futureImage, image -> Futures.transform(
         image.getImage(
             Math.min(layer, image.getLayerCount() - 1),
-            Math.min(level, image.getLevelCount() - 1)), (l) -> l.getImageData()));
+            Math.min(level, image.getLevelCount() - 1)), (l) -> l.getImageData(),
+        Scheduler.COMPUTE));
   }
 
   public static ListenableFuture<ImageData> loadThumbnail(
@@ -392,8 +394,8 @@ public class FetchedImage implements MultiLayerAndLevelImage {
 
     @Override
     protected ListenableFuture<Image> doLoad() {
-      return MoreFutures.transform(client.get(blob(imageInfo.getBytes()), device), data ->
-        convertImage(imageInfo, format, Values.getBytes(data)));
+      return Futures.transform(client.get(blob(imageInfo.getBytes()), device), data ->
+        convertImage(imageInfo, format, Values.getBytes(data)), Scheduler.COMPUTE);
     }
 
     @Override
@@ -429,13 +431,13 @@ public class FetchedImage implements MultiLayerAndLevelImage {
       for (int i = 0; i < imageInfos.length; i++) {
         futures[i] = client.get(blob(imageInfos[i].getBytes()), device);
       }
-      return MoreFutures.transform(Futures.allAsList(futures), values -> {
+      return Futures.transform(Futures.allAsList(futures), values -> {
         byte[][] data = new byte[values.size()][];
         for (int i = 0; i < data.length; i++) {
           data[i] = Values.getBytes(values.get(i));
         }
         return convertImage(imageInfos, format, data);
-      });
+      }, Scheduler.COMPUTE);
     }
 
     @Override
@@ -19,12 +19,18 @@ import static com.google.gapid.rpc.UiErrorCallback.error;
 import static com.google.gapid.rpc.UiErrorCallback.success;
 import static com.google.gapid.util.Logging.throttleLogRpcError;
 import static com.google.gapid.util.Paths.stateTree;
+import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 import static com.google.gapid.widgets.Widgets.submitIfNotDisposed;
+import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.WARNING;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gapid.models.CommandStream.CommandIndex;
 import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.box.Box;
@@ -43,6 +49,13 @@ import com.google.gapid.util.Paths;
 
 import org.eclipse.swt.widgets.Shell;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
@@ -53,9 +66,19 @@ import java.util.logging.Logger;
 public class ApiState
     extends DeviceDependentModel.ForPath<ApiState.Node, Loadable.Message, ApiState.Listener> {
   protected static final Logger LOG = Logger.getLogger(ApiState.class.getName());
+  // How many levels below an expanded node are prefetched.
+  private static final int PREFETCH_DEPTH = 3;
+  // Maximum number of concurrent prefetch requests.
+  private static final int PREFETCH_MAX_IN_FLIGHT = 16;
+  // Maximum number of children of a single node that are prefetched, e.g. for large arrays.
+  private static final int PREFETCH_MAX_CHILDREN = 100;
 
   private final ConstantSets constants;
   private final ObjectStore<Path.Any> selection = ObjectStore.create();
+  private StatePrefetcher prefetcher;
+  // The last successfully loaded state, which is patched in place when the next command is loaded.
+  private RootNode current;
+  private Set<Node> expandedNodes = Collections.emptySet();
 
   public ApiState(Shell shell, Analytics analytics, Client client, Devices devices,
       Follower follower, CommandStream commands, ConstantSets constants) {
@@ -78,9 +101,126 @@ public class ApiState
 
   @Override
   protected ListenableFuture<Node> doLoad(Path.Any path, Path.Device device) {
-    return MoreFutures.transformAsync(client.get(path, device),
-        tree -> MoreFutures.transform(client.get(stateTree(tree.getStateTree().getRoot()), device),
-            val -> new RootNode(device, tree.getStateTree().getRoot().getTree(), val.getStateTreeNode())));
+    RootNode previous = (current != null && current.device.equals(device)) ? current : null;
+    Set<Node> expanded = expandedNodes;
+    return MoreFutures.transformAsync(client.get(path, device), tree -> {
+      Path.ID treeId = tree.getStateTree().getRoot().getTree();
+      return MoreFutures.transformAsync(client.get(stateTree(tree.getStateTree().getRoot()), device),
+          val -> (previous != null && canPatch(previous, val.getStateTreeNode())) ?
+              patch(previous, treeId, val.getStateTreeNode(), expanded) :
+              Futures.immediateFuture(new RootNode(device, treeId, val.getStateTreeNode())));
+    });
+  }
+
+  /**
+   * Sets the nodes of the current state that are expanded in the UI. When the state of the next
+   * command is loaded, only the loaded children of these nodes are re-requested and the current
+   * tree is patched in place, rather than being reloaded from the root.
+   */
+  public void setExpandedNodes(Collection<Node> nodes) {
+    expandedNodes = Sets.newIdentityHashSet();
+    expandedNodes.addAll(nodes);
+  }
+
+  private static boolean canPatch(RootNode previous, Service.StateTreeNode root) {
+    Service.StateTreeNode old = previous.getData();
+    if (old == null || !sameShape(old, root)) {
+      return false;
+    }
+    Path.ID capture = captureOf(old);
+    return capture != null && capture.equals(captureOf(root));
+  }
+
+  /**
+   * @return the ID of the capture of the state of the given node or {@code null} if the node's
+   * value path is not rooted at a global state.
+   */
+  private static Path.ID captureOf(Service.StateTreeNode node) {
+    Path.Any state = Paths.find(node.getValuePath(), n -> n instanceof Path.GlobalState);
+    return (state == null) ? null : state.getGlobalState().getAfter().getCapture().getID();
+  }
+
+  /**
+   * Re-requests the loaded children of the root and of all the expanded nodes from the given new
+   * tree, descending only into nodes whose shape has not changed. The results are applied to the
+   * previous tree in a single UI update, once they have all been received.
+   */
+  private ListenableFuture<Node> patch(
+      RootNode previous, Path.ID tree, Service.StateTreeNode root, Set<Node> expanded) {
+    return MoreFutures.transformAsync(patchChildren(previous, tree, expanded), patches ->
+        submitIfNotDisposed(shell, () -> {
+          previous.apply(tree, root, patches);
+          LOG.log(FINE, "Patched state tree with {0} updated nodes", patches.size());
+          return previous;
+        }));
+  }
+
+  private ListenableFuture<List<NodePatch>> patchChildren(
+      Node parent, Path.ID tree, Set<Node> expanded) {
+    // The nodes are only ever updated on the UI thread, so collect the loaded children there. The
+    // previous tree may still be loading. Nodes that finish loading after this point simply have
+    // no patch and are unloaded once the patches are applied.
+    return MoreFutures.transformAsync(submitIfNotDisposed(shell, () -> {
+      Map<Node, Service.StateTreeNode> loaded = Maps.newLinkedHashMap();
+      Node[] children = parent.getChildrenIfCreated();
+      if (children != null) {
+        for (Node child : children) {
+          if (child.getData() != null) {
+            loaded.put(child, child.getData());
+          }
+        }
+      }
+      return loaded;
+    }), loaded -> patchChildren(loaded, tree, expanded));
+  }
+
+  private ListenableFuture<List<NodePatch>> patchChildren(
+      Map<Node, Service.StateTreeNode> children, Path.ID tree, Set<Node> expanded) {
+    List<ListenableFuture<List<NodePatch>>> futures = Lists.newArrayList();
+    for (Map.Entry<Node, Service.StateTreeNode> entry : children.entrySet()) {
+      Node child = entry.getKey();
+      Service.StateTreeNode old = entry.getValue();
+      Path.StateTreeNode path = child.getPath(Path.StateTreeNode.newBuilder()).setTree(tree).build();
+      futures.add(MoreFutures.transformAsync(client.get(stateTree(path), child.device), value -> {
+        Service.StateTreeNode data = value.getStateTreeNode();
+        return MoreFutures.transformAsync(constants.loadConstants(data), ignore -> {
+          NodePatch patch = new NodePatch(child, data, !sameShape(old, data));
+          if (patch.reshaped || !expanded.contains(child)) {
+            return Futures.immediateFuture(Collections.singletonList(patch));
+          }
+          return MoreFutures.transform(patchChildren(child, tree, expanded), childPatches -> {
+            List<NodePatch> result = Lists.newArrayList(patch);
+            result.addAll(childPatches);
+            return result;
+          });
+        });
+      }));
+    }
+    return MoreFutures.transform(Futures.allAsList(futures), lists -> {
+      List<NodePatch> result = Lists.newArrayList();
+      lists.forEach(result::addAll);
+      return result;
+    });
+  }
+
+  /**
+   * @return whether the two nodes have the same name and number of children, i.e. whether the
+   * loaded children of the old node are still valid for the new node.
+   */
+  private static boolean sameShape(Service.StateTreeNode a, Service.StateTreeNode b) {
+    return a.getNumChildren() == b.getNumChildren() && a.getName().equals(b.getName());
+  }
+
+  @Override
+  protected void updateSuccess(Node result) {
+    current = (RootNode)result;
+    super.updateSuccess(result);
+    // Loading the state cancelled any prefetches. If the tree was patched in place, its expanded
+    // nodes are still part of it, so prefetch below them again. Nodes of a previous tree are
+    // ignored by the prefetcher.
+    for (Node node : expandedNodes) {
+      prefetch(node);
+    }
   }
 
   @Override
@@ -102,11 +242,13 @@ public class ApiState
 
   @Override
   protected void updateError(Loadable.Message error) {
+    current = null;
     listeners.fire().onStateLoaded(error);
   }
 
   @Override
   protected void fireLoadStartEvent() {
+    cancelPrefetch();
     listeners.fire().onStateLoadingStart();
   }
 
@@ -115,6 +257,13 @@ public class ApiState
     listeners.fire().onStateLoaded(null);
   }
 
+  @Override
+  public void reset() {
+    super.reset();
+    current = null;
+    expandedNodes = Collections.emptySet();
+  }
+
   public ListenableFuture<Node> load(Node node) {
     return node.load(shell, () -> MoreFutures.transformAsync(
         client.get(Paths.stateTree(node.getPath(Path.StateTreeNode.newBuilder())), node.device),
@@ -167,16 +316,141 @@ public class ApiState
   }
 
   public ListenableFuture<Box.Value> loadValue(Node node) {
-    return MoreFutures.transform(
+    ListenableFuture<Box.Value> cached = node.valueFuture;
+    if (cached != null && !cached.isCancelled() &&
+        !(cached.isDone() && MoreFutures.Result.getUninterruptibly(cached).hasFailed())) {
+      return cached;
+    }
+    return node.valueFuture = MoreFutures.transform(
         client.get(node.getData().getValuePath(), node.device), Service.Value::getBox);
   }
 
+  /**
+   * Prefetches the sub-tree of the given, loaded, node of the current state, breadth first and a
+   * few levels deep, as well as the values of its direct children. Should be called on the UI
+   * thread, e.g. when the node is expanded. Outstanding prefetches are cancelled once the state
+   * of another command starts loading.
+   */
+  public void prefetch(Node node) {
+    Node root = getData();
+    if (root == null || node.getData() == null || node.getRoot() != root) {
+      return;
+    }
+
+    if (prefetcher == null || prefetcher.root != root) {
+      cancelPrefetch();
+      prefetcher = new StatePrefetcher(root);
+    }
+    prefetcher.enqueueChildren(node, PREFETCH_DEPTH, true);
+  }
+
+  private void cancelPrefetch() {
+    if (prefetcher != null) {
+      prefetcher.cancel();
+      prefetcher = null;
+    }
+  }
+
+  /**
+   * Breadth first prefetcher of the state tree. Nodes are queued level by level and siblings are
+   * requested together, with at most {@link #PREFETCH_MAX_IN_FLIGHT} requests outstanding. All
+   * state is confined to the UI thread, as that is where the nodes are updated.
+   */
+  private class StatePrefetcher {
+    public final Node root;
+    private final Deque<PrefetchRequest> queue = new ArrayDeque<PrefetchRequest>();
+    private final Set<ListenableFuture<?>> inFlight = Sets.newIdentityHashSet();
+    private boolean cancelled = false;
+
+    public StatePrefetcher(Node root) {
+      this.root = root;
+    }
+
+    public void enqueueChildren(Node node, int depth, boolean withValues) {
+      if (depth <= 0 || node.getChildCount() == 0) {
+        return;
+      }
+      int count = Math.min(node.getChildCount(), PREFETCH_MAX_CHILDREN);
+      for (int i = 0; i < count; i++) {
+        queue.add(new PrefetchRequest(node.getChild(i), depth - 1, withValues));
+      }
+      pump();
+    }
+
+    private void pump() {
+      while (!cancelled && inFlight.size() < PREFETCH_MAX_IN_FLIGHT && !queue.isEmpty()) {
+        PrefetchRequest request = queue.poll();
+        ListenableFuture<Node> future = load(request.node);
+        if (future == null) {
+          onLoaded(request);
+        } else {
+          track(future, () -> onLoaded(request));
+        }
+      }
+    }
+
+    private void onLoaded(PrefetchRequest request) {
+      Service.StateTreeNode data = request.node.getData();
+      if (cancelled || data == null) {
+        return;
+      }
+
+      if (request.withValue && data.hasValuePath() && data.hasPreview() &&
+          !data.getPreviewIsValue()) {
+        track(loadValue(request.node), () -> { /* do nothing */ });
+      }
+      enqueueChildren(request.node, request.depth, false);
+    }
+
+    private void track(ListenableFuture<?> future, Runnable onDone) {
+      if (future.isDone()) {
+        onDone.run();
+        return;
+      }
+
+      inFlight.add(future);
+      future.addListener(() -> scheduleIfNotDisposed(shell, () -> {
+        inFlight.remove(future);
+        if (!cancelled) {
+          onDone.run();
+          pump();
+        }
+      }), MoreExecutors.directExecutor());
+    }
+
+    public void cancel() {
+      if (!inFlight.isEmpty() || !queue.isEmpty()) {
+        LOG.log(FINE, "Cancelling state prefetch with {0} requests in flight and {1} queued",
+            new Object[] { inFlight.size(), queue.size() });
+      }
+      cancelled = true;
+      queue.clear();
+      for (ListenableFuture<?> future : inFlight) {
+        future.cancel(true);
+      }
+      inFlight.clear();
+    }
+  }
+
+  private static class PrefetchRequest {
+    public final Node node;
+    public final int depth;
+    public final boolean withValue;
+
+    public PrefetchRequest(Node node, int depth, boolean withValue) {
+      this.node = node;
+      this.depth = depth;
+      this.withValue = withValue;
+    }
+  }
+
   public static class Node extends DeviceDependentModel.Data {
     private final Node parent;
     private final int index;
     private Node[] children;
     private Service.StateTreeNode data;
     private ListenableFuture<Node> loadFuture;
+    private ListenableFuture<Box.Value> valueFuture;
 
     public Node(Path.Device device, Service.StateTreeNode data) {
       super(device);
@@ -195,6 +469,14 @@ public class ApiState
       return parent;
     }
 
+    public Node getRoot() {
+      Node root = this;
+      while (root.parent != null) {
+        root = root.parent;
+      }
+      return root;
+    }
+
     public int getChildCount() {
       return (data == null) ? 0 : (int)data.getNumChildren();
     }
@@ -207,6 +489,10 @@ public class ApiState
       return getOrCreateChildren().clone();
     }
 
+    protected Node[] getChildrenIfCreated() {
+      return children;
+    }
+
     private Node[] getOrCreateChildren() {
       if (children == null) {
         Preconditions.checkState(data != null, "Querying children before loaded");
@@ -222,10 +508,52 @@ public class ApiState
       return data;
     }
 
+    protected void setData(Service.StateTreeNode data) {
+      this.data = data;
+    }
+
     public Path.StateTreeNode.Builder getPath(Path.StateTreeNode.Builder path) {
       return parent.getPath(path).addIndices(index);
     }
 
+    /**
+     * Updates this node and its loaded descendants from the given patches. Nodes without a patch
+     * are unloaded, so they will be re-requested from the new state once they are shown.
+     * Must be called on the UI thread.
+     */
+    protected void update(Map<Node, NodePatch> patches) {
+      if (loadFuture != null) {
+        // Any in-flight load is for the previous state.
+        loadFuture.cancel(true);
+        loadFuture = null;
+      }
+      valueFuture = null;
+
+      NodePatch patch = patches.get(this);
+      if (patch == null) {
+        data = null;
+        children = null;
+        return;
+      }
+
+      data = patch.data;
+      if (patch.reshaped) {
+        children = null;
+      } else {
+        updateChildren(patches);
+      }
+    }
+
+    protected void updateChildren(Map<Node, NodePatch> patches) {
+      if (children != null) {
+        for (Node child : children) {
+          if (child.data != null || child.loadFuture != null) {
+            child.update(patches);
+          }
+        }
+      }
+    }
+
     public ListenableFuture<Node> load(Shell shell, Supplier<ListenableFuture<NodeData>> loader) {
       if (data != null) {
         // Already loaded.
@@ -265,13 +593,27 @@ public class ApiState
   }
 
   private static class RootNode extends Node {
-    public final Path.ID tree;
+    public Path.ID tree;
 
     public RootNode(Path.Device device, Path.ID tree, Service.StateTreeNode data) {
       super(device, data);
       this.tree = tree;
     }
 
+    /**
+     * Moves this tree to the given new state tree, updating its loaded nodes from the patches.
+     * Must be called on the UI thread.
+     */
+    public void apply(Path.ID newTree, Service.StateTreeNode newData, List<NodePatch> patches) {
+      Map<Node, NodePatch> byNode = Maps.newIdentityHashMap();
+      for (NodePatch patch : patches) {
+        byNode.put(patch.node, patch);
+      }
+      tree = newTree;
+      setData(newData);
+      updateChildren(byNode);
+    }
+
     @Override
     public Path.StateTreeNode.Builder getPath(Path.StateTreeNode.Builder path) {
       return path.setTree(tree);
@@ -295,7 +637,24 @@ public class ApiState
 
     @Override
     public int hashCode() {
-      return device.hashCode() * 31 + tree.hashCode();
+      // The tree changes when patched, so is not part of the hash.
+      return device.hashCode();
+    }
+  }
+
+  /**
+   * The new data of a node of the previous state tree.
+   */
+  private static class NodePatch {
+    public final Node node;
+    public final Service.StateTreeNode data;
+    // Whether the node's children have changed and need to be re-created.
+    public final boolean reshaped;
+
+    public NodePatch(Node node, Service.StateTreeNode data, boolean reshaped) {
+      this.node = node;
+      this.data = data;
+      this.reshaped = reshaped;
     }
   }
 
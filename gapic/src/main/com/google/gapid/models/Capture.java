@@ -15,13 +15,16 @@
  */
 package com.google.gapid.models;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gapid.rpc.UiErrorCallback.error;
 import static com.google.gapid.rpc.UiErrorCallback.success;
 import static com.google.gapid.util.Logging.throttleLogRpcError;
 import static com.google.gapid.util.Paths.capture;
 import static com.google.gapid.views.ErrorDialog.showErrorDialog;
+import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 import static java.util.logging.Level.INFO;
 
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.proto.service.Service;
@@ -40,6 +43,7 @@ import org.eclipse.swt.widgets.Shell;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,8 +57,10 @@ public class Capture extends ModelBase<Capture.Data, File, Loadable.Message, Cap
   // Don't try to open files with 16 or less bytes. An empty graphics trace, without the
   // capture header is already 16 bytes.
   private static final int MIN_FILE_SIZE = 16;
+  private static final float STATUS_UPDATE_INTERVAL_S = 0.25f;
 
   private final Settings settings;
+  final CaptureLoadOrder loadOrder = new CaptureLoadOrder();
   private String name = "";
 
   public Capture(Shell shell, Analytics analytics, Client client, Settings settings) {
@@ -110,10 +116,22 @@ public class Capture extends ModelBase<Capture.Data, File, Loadable.Message, Cap
     }
 
     settings.addToRecent(canonicalPath);
-    return MoreFutures.transformAsync(client.loadCapture(canonicalPath), path ->
-      MoreFutures.transform(client.get(
+    LoadProgress progress = new LoadProgress();
+    progress.setStage("Opening the trace file...");
+    ListenableFuture<Void> status =
+        client.streamStatus(0, STATUS_UPDATE_INTERVAL_S, progress::onServerStatus);
+    ListenableFuture<Data> result = MoreFutures.transformAsync(client.loadCapture(canonicalPath),
+        path -> {
+      progress.setStage("Reading the capture...");
+      return MoreFutures.transform(client.get(
           capture(path.getID(), true), Path.Device.getDefaultInstance()),
-          val -> new Data(path, val.getCapture())));
+          val -> new Data(path, val.getCapture()));
+    });
+    result.addListener(() -> {
+      progress.done();
+      status.cancel(true);
+    }, directExecutor());
+    return result;
   }
 
   @Override
@@ -142,11 +160,13 @@ public class Capture extends ModelBase<Capture.Data, File, Loadable.Message, Cap
 
   @Override
   protected void fireLoadStartEvent() {
+    loadOrder.reset();
     listeners.fire().onCaptureLoadingStart(false);
   }
 
   @Override
   protected void fireLoadedEvent() {
+    loadOrder.onCaptureLoaded();
     listeners.fire().onCaptureLoaded(null);
   }
 
@@ -214,11 +234,91 @@ public class Capture extends ModelBase<Capture.Data, File, Loadable.Message, Cap
     } else {
       name = newName;
     }
+    loadOrder.reset();
     listeners.fire().onCaptureLoadingStart(newName == null);
     // TODO: maybe reload the capture?
     updateSuccess(new Data(newPath, getData().capture));
   }
 
+  /**
+   * Tracks the progress of loading a capture, combining the current stage of the load with the
+   * progress of the server tasks running while loading.
+   */
+  private class LoadProgress {
+    // The running, non-background server tasks, in the order they were started.
+    private final Map<Long, Service.TaskUpdate> tasks = Maps.newLinkedHashMap();
+    private String stage = "";
+    private String shown = "";
+    private boolean done = false;
+
+    public void setStage(String newStage) {
+      synchronized (this) {
+        stage = newStage;
+      }
+      update();
+    }
+
+    public synchronized void done() {
+      done = true;
+    }
+
+    public void onServerStatus(Service.ServerStatusResponse status) {
+      if (status.getResCase() != Service.ServerStatusResponse.ResCase.TASK) {
+        return;
+      }
+
+      Service.TaskUpdate task = status.getTask();
+      synchronized (this) {
+        switch (task.getStatus()) {
+          case STARTING:
+            if (!task.getBackground()) {
+              tasks.put(task.getId(), task);
+            }
+            break;
+          case PROGRESS:
+            tasks.computeIfPresent(task.getId(), (id, old) ->
+                old.toBuilder().setCompletePercent(task.getCompletePercent()).build());
+            break;
+          case FINISHED:
+            tasks.remove(task.getId());
+            break;
+          default:
+            return;
+        }
+      }
+      update();
+    }
+
+    private void update() {
+      String text;
+      synchronized (this) {
+        text = stage;
+        Service.TaskUpdate task = null;
+        for (Service.TaskUpdate t : tasks.values()) {
+          task = t;
+        }
+        if (task != null) {
+          text += " - " + task.getName() +
+              ((task.getCompletePercent() > 0) ? " (" + task.getCompletePercent() + "%)" : "");
+        }
+        if (done || text.equals(shown)) {
+          return;
+        }
+        shown = text;
+      }
+
+      String status = text;
+      scheduleIfNotDisposed(shell, () -> {
+        synchronized (this) {
+          if (done) {
+            return;
+          }
+        }
+        listeners.fire().onCaptureLoadingProgress(status);
+      });
+    }
+  }
+
   public static class Data {
     public final Path.Capture path;
     public final Service.Capture capture;
@@ -245,6 +345,13 @@ public class Capture extends ModelBase<Capture.Data, File, Loadable.Message, Cap
      */
     public default void onCaptureLoadingStart(boolean maintainState) { /* empty */ }
 
+    /**
+     * Event indicating the progress of loading the capture, while it is being loaded.
+     *
+     * @param status a description of the current stage of loading the capture.
+     */
+    public default void onCaptureLoadingProgress(String status) { /* empty */ }
+
     /**
      * Event indicating that the capture has finished loading.
      *
@@ -31,15 +31,18 @@ import java.util.logging.Logger;
 
 /**
  * Base class for models that depend on a capture. I.e. models that will trigger a load whenever
- * the capture changes and require a capture to be loaded.
+ * the capture changes and require a capture to be loaded. The loads are held back until the data
+ * needed first has been loaded, see {@link CaptureLoadOrder}.
  */
 abstract class CaptureDependentModel
     <T extends DeviceDependentModel.Data, S, E, L extends Events.Listener>
     extends DeviceDependentModel<T, S, E, L> {
+  private final CaptureLoadOrder loadOrder;
 
   public CaptureDependentModel(Logger log, Shell shell, Analytics analytics, Client client,
       Class<L> listenerClass, Capture capture, Devices devices) {
     super(log, shell, analytics, client, listenerClass, devices);
+    this.loadOrder = capture.loadOrder;
 
     capture.addListener(new Capture.Listener() {
       @Override
@@ -58,6 +61,11 @@ abstract class CaptureDependentModel
     });
   }
 
+  @Override
+  protected ListenableFuture<T> doLoad(DeviceDependentModel.Source<S> source) {
+    return loadOrder.later(() -> super.doLoad(source));
+  }
+
   /**
    * Whether this model should be loaded for the given capture.
    */
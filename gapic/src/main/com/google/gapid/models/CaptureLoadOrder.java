@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.models;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gapid.util.Scheduler;
+
+import java.util.function.Supplier;
+
+/**
+ * Orders the loads of the models depending on a capture, once the capture has been loaded. The data
+ * backing the views shown first, i.e. the command tree or the Perfetto tracks, is loaded first,
+ * while the loads of the other models, such as the timeline, resources and profile, are held back
+ * until then, so they don't compete with it for the server.
+ */
+class CaptureLoadOrder {
+  // How long to wait for a first load to start, before no longer holding back the later loads.
+  private static final long FIRST_LOAD_GRACE_MS = 500;
+
+  private SettableFuture<Void> firstLoaded = SettableFuture.create();
+  private int pending = 0;
+  private boolean started = false;
+
+  /**
+   * Resets the order for a new capture. Loads still held back for the previous capture are
+   * released, they are discarded by their models.
+   */
+  public synchronized void reset() {
+    firstLoaded.set(null);
+    firstLoaded = SettableFuture.create();
+    pending = 0;
+    started = false;
+  }
+
+  /**
+   * Called once the capture has been loaded. If none of the first loads start shortly after, e.g.
+   * because the capture has no such data, the later loads proceed.
+   */
+  public void onCaptureLoaded() {
+    SettableFuture<Void> gate;
+    synchronized (this) {
+      gate = firstLoaded;
+    }
+    Scheduler.TIMERS.schedule(() -> {
+      synchronized (this) {
+        if (gate == firstLoaded && !started) {
+          gate.set(null);
+        }
+      }
+    }, FIRST_LOAD_GRACE_MS, MILLISECONDS);
+  }
+
+  /**
+   * Registers a load of data needed first. The later loads are held back until it completes.
+   */
+  public synchronized <T> ListenableFuture<T> first(ListenableFuture<T> load) {
+    if (firstLoaded.isDone()) {
+      return load;
+    }
+
+    SettableFuture<Void> gate = firstLoaded;
+    started = true;
+    pending++;
+    load.addListener(() -> {
+      synchronized (this) {
+        if (gate == firstLoaded && --pending == 0) {
+          gate.set(null);
+        }
+      }
+    }, directExecutor());
+    return load;
+  }
+
+  /**
+   * Starts the given load once all the first loads have completed.
+   */
+  public <T> ListenableFuture<T> later(Supplier<ListenableFuture<T>> load) {
+    ListenableFuture<Void> gate;
+    synchronized (this) {
+      gate = firstLoaded;
+    }
+    if (gate.isDone()) {
+      return load.get();
+    }
+    // Cancelling one of the later loads must not cancel the shared gate.
+    return Futures.transformAsync(
+        Futures.nonCancellationPropagating(gate), $ -> load.get(), Scheduler.UI_FEED);
+  }
+}
@@ -25,9 +25,12 @@ import static java.util.logging.Level.FINE;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gapid.proto.device.Device.Instance;
 import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.api.API;
@@ -43,8 +46,13 @@ import com.google.gapid.util.Paths;
 
 import org.eclipse.swt.widgets.Shell;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 
@@ -98,14 +106,67 @@ public class CommandStream
 
   @Override
   protected ListenableFuture<Node> doLoad(Path.Any path, Path.Device device) {
-    return MoreFutures.transformAsync(client.get(path, device),
+    return capture.loadOrder.first(MoreFutures.transformAsync(client.get(path, device),
         tree -> MoreFutures.transform(client.get(commandTree(tree.getCommandTree().getRoot()), device),
             val -> new RootNode(
-                device, tree.getCommandTree().getRoot().getTree(), val.getCommandTreeNode())));
+                device, tree.getCommandTree().getRoot().getTree(), val.getCommandTreeNode()))));
   }
 
   public ListenableFuture<Node> load(Node node) {
-    return node.load(shell, () -> MoreFutures.transformAsync(
+    return node.load(shell, () -> fetch(node));
+  }
+
+  /**
+   * Loads the given nodes in bulk. The nodes are grouped into runs of contiguous siblings, each of
+   * which is requested at once and committed in a single update, see {@link Node#loadRange}. The
+   * callback is invoked on the UI thread, once, after all the nodes have been loaded.
+   */
+  public void load(List<Node> nodes, Runnable callback) {
+    Map<Node, List<Node>> byParent = Maps.newLinkedHashMap();
+    for (Node node : nodes) {
+      if (!node.isLoaded() && node.getParent() != null) {
+        byParent.computeIfAbsent(node.getParent(), p -> Lists.newArrayList()).add(node);
+      }
+    }
+
+    List<ListenableFuture<?>> futures = Lists.newArrayList();
+    for (List<Node> siblings : byParent.values()) {
+      siblings.sort(Comparator.comparingInt(Node::getIndexInParent));
+      int start = 0;
+      for (int i = 1; i <= siblings.size(); i++) {
+        if (i == siblings.size() ||
+            siblings.get(i).getIndexInParent() != siblings.get(i - 1).getIndexInParent() + 1) {
+          ListenableFuture<?> future =
+              Node.loadRange(shell, siblings.subList(start, i), this::fetch);
+          if (future != null) {
+            futures.add(future);
+          }
+          start = i;
+        }
+      }
+    }
+
+    if (!futures.isEmpty()) {
+      LOG.log(FINE, "Loading {0} command tree nodes in {1} ranges",
+          new Object[] { nodes.size(), futures.size() });
+      Rpc.listen(Futures.successfulAsList(futures), new UiCallback<List<Object>, Void>(shell, LOG) {
+        @Override
+        protected Void onRpcThread(Rpc.Result<List<Object>> result)
+            throws RpcException, ExecutionException {
+          result.get();
+          return null;
+        }
+
+        @Override
+        protected void onUiThread(Void result) {
+          callback.run();
+        }
+      });
+    }
+  }
+
+  private ListenableFuture<NodeData> fetch(Node node) {
+    return MoreFutures.transformAsync(
         client.get(commandTree(node.getPath(Path.CommandTreeNode.newBuilder())), node.device),
         v1 -> {
           Service.CommandTreeNode data = v1.getCommandTreeNode();
@@ -114,7 +175,7 @@ public class CommandStream
                 cmd -> new NodeData(data, cmd));
           }
           return Futures.immediateFuture(new NodeData(data, null));
-        }));
+        });
   }
 
   public ListenableFuture<API.Command> loadCommand(Path.Command path, Path.Device device) {
@@ -141,24 +202,22 @@ public class CommandStream
     }
   }
 
-  public ListenableFuture<Service.FindResponse> search(
-      CommandStream.Node parent, String text, boolean regex) {
-    SettableFuture<Service.FindResponse> result = SettableFuture.create();
-    client.streamSearch(searchRequest(parent, text, regex), result::set);
-    return result;
-  }
-
-  private static Service.FindRequest searchRequest(
-      CommandStream.Node parent, String text, boolean regex) {
-    return Service.FindRequest.newBuilder()
-        .setCommandTreeNode(parent.getPath(Path.CommandTreeNode.newBuilder()))
+  /**
+   * Streams all the nodes under the given root that match the search to the given consumer, in
+   * tree order, as they are found. The consumer is invoked on the RPC thread. Cancelling the
+   * returned future cancels the search on the server.
+   */
+  public ListenableFuture<Void> searchAll(CommandStream.Node root, String text, boolean regex,
+      Consumer<Path.CommandTreeNode> onResult) {
+    return client.streamSearch(Service.FindRequest.newBuilder()
+        .setCommandTreeNode(root.getPath(Path.CommandTreeNode.newBuilder()))
         .setText(text)
         .setIsRegex(regex)
-        .setMaxItems(1)
-        .setWrap(true)
+        .setMaxItems(0)
+        .setWrap(false)
         .setConfig(Path.ResolveConfig.newBuilder()
-            .setReplayDevice(parent.device))
-        .build();
+            .setReplayDevice(root.device))
+        .build(), r -> onResult.accept(r.getCommandTreeNode()));
   }
 
   @Override
@@ -308,49 +367,52 @@ public class CommandStream
   }
 
   public static class Node extends DeviceDependentModel.Data {
+    private static final long[] NO_INDICES = new long[0];
+
     private final Node parent;
     private final int index;
-    private Node[] children;
-    private Service.CommandTreeNode data;
-    private API.Command command;
+    private Children children;
     private ListenableFuture<Node> loadFuture;
 
-    public Node(Path.Device device, Service.CommandTreeNode data) {
+    protected Node(Path.Device device) {
       super(device);
       this.parent = null;
       this.index = 0;
-      this.data = data;
     }
 
-    public Node(Node parent, int index) {
+    protected Node(Node parent, int index) {
       super(parent.device);
       this.parent = parent;
       this.index = index;
     }
 
+    /**
+     * @return the arrays holding the data of this node, at {@link #index}.
+     */
+    Children rows() {
+      return parent.children;
+    }
+
     public Node getParent() {
       return parent;
     }
 
-    public int getChildCount() {
-      return (data == null) ? 0 : (int)data.getNumChildren();
+    public int getIndexInParent() {
+      return index;
     }
 
-    public Node getChild(int child) {
-      return getOrCreateChildren()[child];
+    public int getChildCount() {
+      return isLoaded() ? (int)rows().numChildren[index] : 0;
     }
 
-    public Node[] getChildren() {
-      return getOrCreateChildren().clone();
+    public Node getChild(int child) {
+      return getOrCreateChildren().get(child);
     }
 
-    private Node[] getOrCreateChildren() {
+    private Children getOrCreateChildren() {
       if (children == null) {
-        Preconditions.checkState(data != null, "Querying children before loaded");
-        children = new Node[(int)data.getNumChildren()];
-        for (int i = 0; i < children.length; i++) {
-          children[i] = new Node(this, i);
-        }
+        Preconditions.checkState(isLoaded(), "Querying children before loaded");
+        children = new Children(this, getChildCount());
       }
       return children;
     }
@@ -359,12 +421,68 @@ public class CommandStream
       return parent == null || (parent.getChildCount() - 1 == index);
     }
 
-    public Service.CommandTreeNode getData() {
-      return data;
+    public boolean isLoaded() {
+      return rows().isLoaded(index);
+    }
+
+    /**
+     * @return the group name of this node, empty if the node is a command, or {@code null} if the
+     *     node has not been loaded yet.
+     */
+    public String getGroup() {
+      return rows().groups[index];
+    }
+
+    public long getNumCommands() {
+      return rows().numCommands[index];
+    }
+
+    /**
+     * @return whether the range of commands of this node is known.
+     */
+    public boolean hasCommands() {
+      return rows().froms[index] != null;
+    }
+
+    /**
+     * @return the indices of the first command of this node, empty if not known. The returned
+     *     array must not be modified.
+     */
+    public long[] getFirstCommandIndices() {
+      long[] from = rows().froms[index];
+      return (from == null) ? NO_INDICES : from;
+    }
+
+    /**
+     * @return the indices of the last command of this node, empty if not known. The returned
+     *     array must not be modified.
+     */
+    public long[] getLastCommandIndices() {
+      long[] to = rows().tos[index];
+      return (to == null) ? NO_INDICES : to;
+    }
+
+    /**
+     * @return the path to the last command of this node, or {@code null} if not known.
+     */
+    public Path.Command getLastCommand() {
+      return rows().commandPath(rows().tos[index]);
+    }
+
+    /**
+     * @return the path to the command representing this node, or {@code null} if not known.
+     */
+    public Path.Command getRepresentation() {
+      return rows().commandPath(rows().representations[index]);
     }
 
     public API.Command getCommand() {
-      return command;
+      return rows().commands[index];
+    }
+
+    protected void setData(NodeData newData) {
+      rows().setData(index, newData.data);
+      rows().commands[index] = newData.command;
     }
 
     public Path.CommandTreeNode.Builder getPath(Path.CommandTreeNode.Builder path) {
@@ -372,12 +490,17 @@ public class CommandStream
     }
 
     public CommandIndex getIndex() {
-      return (data == null) ? null : CommandIndex.forNode(data.getRepresentation(),
+      if (!isLoaded()) {
+        return null;
+      }
+      Path.Command representation = getRepresentation();
+      return CommandIndex.forNode(
+          (representation == null) ? Path.Command.getDefaultInstance() : representation,
           getPath(Path.CommandTreeNode.newBuilder()).build());
     }
 
     public ListenableFuture<Node> load(Shell shell, Supplier<ListenableFuture<NodeData>> loader) {
-      if (data != null) {
+      if (isLoaded()) {
         // Already loaded.
         return null;
       } else if (loadFuture != null && !loadFuture.isCancelled()) {
@@ -386,13 +509,60 @@ public class CommandStream
 
       return loadFuture = MoreFutures.transformAsync(loader.get(), newData ->
         submitIfNotDisposed(shell, () -> {
-          data = newData.data;
-          command = newData.command;
+          setData(newData);
           loadFuture = null; // Don't hang on to listeners.
           return Node.this;
         }));
     }
 
+    /**
+     * Loads the given run of contiguous siblings as a single unit. The data of all the nodes is
+     * requested at once and committed to the parent's arrays in one UI update. Nodes that are
+     * already loaded are skipped, nodes that are already being loaded are waited on.
+     * @return the future completing once all nodes of the run are loaded, or {@code null} if there
+     *     is nothing to load.
+     */
+    public static ListenableFuture<?> loadRange(
+        Shell shell, List<Node> run, Function<Node, ListenableFuture<NodeData>> loader) {
+      List<Node> toLoad = Lists.newArrayList();
+      List<ListenableFuture<NodeData>> requests = Lists.newArrayList();
+      List<ListenableFuture<?>> pending = Lists.newArrayList();
+      for (Node node : run) {
+        if (node.isLoaded()) {
+          continue;
+        } else if (node.loadFuture != null && !node.loadFuture.isCancelled()) {
+          pending.add(node.loadFuture);
+        } else {
+          toLoad.add(node);
+          requests.add(loader.apply(node));
+        }
+      }
+
+      if (!toLoad.isEmpty()) {
+        ListenableFuture<List<NodeData>> committed = MoreFutures.transformAsync(
+            Futures.successfulAsList(requests), results -> submitIfNotDisposed(shell, () -> {
+              for (int i = 0; i < results.size(); i++) {
+                Node node = toLoad.get(i);
+                if (results.get(i) != null && !node.isLoaded()) {
+                  node.setData(results.get(i));
+                }
+                node.loadFuture = null;
+              }
+              return results;
+            }));
+        for (int i = 0; i < toLoad.size(); i++) {
+          Node node = toLoad.get(i);
+          ListenableFuture<NodeData> request = requests.get(i);
+          // Completes once committed, but carries the failure of the node's own request.
+          node.loadFuture = Futures.transformAsync(committed,
+              ignored -> Futures.transform(request, data -> node, MoreExecutors.directExecutor()),
+              MoreExecutors.directExecutor());
+        }
+        pending.add(committed);
+      }
+      return pending.isEmpty() ? null : Futures.successfulAsList(pending);
+    }
+
     @Override
     public boolean equals(Object obj) {
       if (obj == this) {
@@ -412,16 +582,25 @@ public class CommandStream
     @Override
     public String toString() {
       return parent + "/" + index +
-          (data == null ? "" : " " + data.getGroup() + data.getCommands().getToList());
+          (isLoaded() ? " " + getGroup() + Arrays.toString(getLastCommandIndices()) : "");
     }
   }
 
   private static class RootNode extends Node {
     public final Path.ID tree;
+    // The root is loaded on creation and, having no parent, holds its own data.
+    private final Children row;
 
     public RootNode(Path.Device device, Path.ID tree, Service.CommandTreeNode data) {
-      super(device, data);
+      super(device);
       this.tree = tree;
+      this.row = new Children(null, 1);
+      row.setData(0, data);
+    }
+
+    @Override
+    Children rows() {
+      return row;
     }
 
     @Override
@@ -451,6 +630,83 @@ public class CommandStream
     }
   }
 
+  /**
+   * The children of a {@link Node}. The data of the children is kept in compact, per field arrays
+   * indexed by child index, rather than as one proto per child, and the child {@link Node} objects
+   * themselves are only materialized in pages of {@link #PAGE_SIZE} as they are accessed.
+   */
+  private static class Children {
+    private static final int PAGE_SIZE = 256;
+
+    private final Node parent;
+    private final Node[][] pages;
+    // All nodes of a tree refer to the same capture, so it is only stored once.
+    private Path.Capture capture;
+    // The group of each child, or null if the child has not been loaded yet.
+    private final String[] groups;
+    private final long[] numChildren;
+    private final long[] numCommands;
+    // The command indices of the paths of each child, null if the path is not set.
+    private final long[][] representations;
+    private final long[][] froms;
+    private final long[][] tos;
+    public final API.Command[] commands;
+
+    public Children(Node parent, int count) {
+      this.parent = parent;
+      this.pages = new Node[(count + PAGE_SIZE - 1) / PAGE_SIZE][];
+      this.groups = new String[count];
+      this.numChildren = new long[count];
+      this.numCommands = new long[count];
+      this.representations = new long[count][];
+      this.froms = new long[count][];
+      this.tos = new long[count][];
+      this.commands = new API.Command[count];
+    }
+
+    public Node get(int child) {
+      return getPage(child / PAGE_SIZE)[child % PAGE_SIZE];
+    }
+
+    public boolean isLoaded(int child) {
+      return groups[child] != null;
+    }
+
+    public Path.Command commandPath(long[] indices) {
+      return (indices == null) ? null : Path.Command.newBuilder()
+          .setCapture(capture)
+          .addAllIndices(Longs.asList(indices))
+          .build();
+    }
+
+    public void setData(int child, Service.CommandTreeNode data) {
+      if (data.hasRepresentation()) {
+        capture = data.getRepresentation().getCapture();
+        representations[child] = Longs.toArray(data.getRepresentation().getIndicesList());
+      }
+      if (data.hasCommands()) {
+        capture = data.getCommands().getCapture();
+        froms[child] = Longs.toArray(data.getCommands().getFromList());
+        tos[child] = Longs.toArray(data.getCommands().getToList());
+      }
+      numChildren[child] = data.getNumChildren();
+      numCommands[child] = data.getNumCommands();
+      groups[child] = data.getGroup();
+    }
+
+    private Node[] getPage(int page) {
+      if (pages[page] == null) {
+        int start = page * PAGE_SIZE;
+        Node[] nodes = new Node[Math.min(PAGE_SIZE, groups.length - start)];
+        for (int i = 0; i < nodes.length; i++) {
+          nodes[i] = new Node(parent, start + i);
+        }
+        pages[page] = nodes;
+      }
+      return pages[page];
+    }
+  }
+
   private static class NodeData {
     public final Service.CommandTreeNode data;
     public final API.Command command;
@@ -15,14 +15,17 @@
  */
 package com.google.gapid.models;
 
-import static com.google.gapid.util.Paths.lastCommand;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.WARNING;
 
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gapid.proto.service.api.API;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.rpc.Rpc;
@@ -30,10 +33,12 @@ import com.google.gapid.rpc.RpcException;
 import com.google.gapid.rpc.UiCallback;
 import com.google.gapid.server.Client;
 import com.google.gapid.server.Client.PathNotFollowableException;
+import com.google.gapid.util.Caches;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Events.ListenerCollection;
 import com.google.gapid.util.Flags;
 import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.Loadable;
 import com.google.gapid.util.MoreFutures;
 import com.google.gapid.util.ObjectStore;
 import com.google.gapid.util.Paths;
@@ -50,7 +55,7 @@ import java.util.logging.Logger;
 /**
  * Model handling link following throughout the UI.
  */
-public class Follower {
+public class Follower implements Capture.Listener {
   public static final Flag<Boolean> logFollowRequests =
       Flags.value("logFollowRequests", false, "Whether to log follow prefetch requests.", true);
 
@@ -58,41 +63,142 @@ public class Follower {
 
   protected static final Logger LOG = Logger.getLogger(Follower.class.getName());
   private static final int FOLLOW_TIMEOUT_MS = 1000;
+  // Marker stored in the follow cache for paths that the server reported as not followable.
+  private static final Path.Any NOT_FOLLOWABLE = Path.Any.getDefaultInstance();
 
   private final Shell shell;
   private final Client client;
   private final ListenerCollection<Listener> listeners = Events.listeners(Listener.class);
+  // Follow results of command parameters for the current capture.
+  private final Cache<FollowKey, Path.Any> commandFollows = Caches.softCache();
+  private final Map<FollowKey, ListenableFuture<Path.Any>> pendingFollows = Maps.newHashMap();
+  // Incremented whenever the capture changes, guarded by pendingFollows.
+  private int generation = 0;
 
-  public Follower(Shell shell, Client client) {
+  public Follower(Shell shell, Client client, Capture capture) {
     this.shell = shell;
     this.client = client;
+
+    capture.addListener(this);
+  }
+
+  @Override
+  public void onCaptureLoadingStart(boolean maintainState) {
+    clearCommandFollows();
+  }
+
+  @Override
+  public void onCaptureLoaded(Loadable.Message error) {
+    clearCommandFollows();
+  }
+
+  private void clearCommandFollows() {
+    synchronized (pendingFollows) {
+      generation++;
+      pendingFollows.clear();
+      commandFollows.invalidateAll();
+    }
   }
 
   /**
-   * Prefetches all the follow paths for the given command tree node.
+   * Prefetches all the follow paths of the given, loaded, command tree nodes. All the follow
+   * requests are issued at once, so they are pipelined over the server connection, and the results
+   * are stored in the capture's follow cache. Paths that are already known or being requested are
+   * skipped. Results that arrive after the capture has changed are discarded.
+   */
+  public void prefetch(List<CommandStream.Node> nodes) {
+    int requests = 0;
+    for (CommandStream.Node node : nodes) {
+      if (node.getCommand() == null) {
+        continue;
+      }
+
+      Path.Command path = node.getLastCommand();
+      API.Command command = node.getCommand();
+      for (API.Parameter p : command.getParametersList()) {
+        requests += requestFollow(Paths.commandField(path, p.getName()), node.device) ? 1 : 0;
+      }
+      if (command.hasResult()) {
+        requests += requestFollow(Paths.commandResult(path), node.device) ? 1 : 0;
+      }
+    }
+
+    if (logFollowRequests.get() && requests > 0) {
+      LOG.log(FINE, "Prefetching {0} follow paths for {1} commands",
+          new Object[] { requests, nodes.size() });
+    }
+  }
+
+  /**
+   * Requests the follow path for the given command field, unless it is already cached or pending.
+   * @return whether a request was issued.
+   */
+  private boolean requestFollow(Path.Any follow, Path.Device device) {
+    FollowKey key = new FollowKey(follow, device);
+    synchronized (pendingFollows) {
+      if (commandFollows.getIfPresent(key) != null || pendingFollows.containsKey(key)) {
+        return false;
+      }
+
+      startFollow(key);
+      return true;
+    }
+  }
+
+  /**
+   * Issues the follow request for the given key and registers it as pending. Once done, the
+   * result is stored in the follow cache, unless the capture has changed in the meantime. Must be
+   * called while holding the lock on pendingFollows.
+   */
+  private ListenableFuture<Path.Any> startFollow(FollowKey key) {
+    int gen = generation;
+    ListenableFuture<Path.Any> future = client.follow(key.path, key.device);
+    pendingFollows.put(key, future);
+    future.addListener(() -> {
+      Path.Any result = null;
+      if (!future.isCancelled()) {
+        try {
+          result = Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof PathNotFollowableException) {
+            result = NOT_FOLLOWABLE;
+          } else if (logFollowRequests.get()) {
+            LOG.log(FINE, "Follow failure:", e.getCause());
+          }
+        }
+      }
+
+      synchronized (pendingFollows) {
+        if (pendingFollows.remove(key, future) && gen == generation && result != null) {
+          commandFollows.put(key, result);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+    return future;
+  }
+
+  /**
+   * Prefetches all the follow paths for the given command tree node. Paths that have already been
+   * resolved, e.g. by {@link #prefetch(List)}, are served from the follow cache.
    */
   public Prefetcher<String> prepare(CommandStream.Node node, Runnable onResult) {
-    if (node.getData() == null || node.getCommand() == null) {
+    if (node.getCommand() == null) {
       return nullPrefetcher();
     }
 
-    Path.Command path = lastCommand(node.getData().getCommands());
+    Path.Command path = node.getLastCommand();
     API.Command command = node.getCommand();
 
     LazyMap<String, Path.Any> paths = new LazyMap<String, Path.Any>();
     List<ListenableFuture<Path.Any>> futures = Lists.newArrayList();
     for (API.Parameter p : command.getParametersList()) {
-      Path.Any follow = Paths.commandField(path, p.getName());
-      ListenableFuture<Path.Any> future = client.follow(follow, node.device);
-      MoreFutures.addCallback(future, callback(follow, v -> paths.put(p.getName(), v), onResult));
-      futures.add(future);
+      prepare(Paths.commandField(path, p.getName()), node.device,
+          v -> paths.put(p.getName(), v), onResult, futures);
     }
 
     if (command.hasResult()) {
-      Path.Any follow = Paths.commandResult(path);
-      ListenableFuture<Path.Any> future = client.follow(follow, node.device);
-      MoreFutures.addCallback(future, callback(follow, v -> paths.put(RESULT_NAME, v), onResult));
-      futures.add(future);
+      prepare(Paths.commandResult(path), node.device,
+          v -> paths.put(RESULT_NAME, v), onResult, futures);
     }
 
     return new Prefetcher<String>() {
@@ -108,6 +214,37 @@ public class Follower {
     };
   }
 
+  private void prepare(Path.Any follow, Path.Device device, Consumer<Path.Any> store,
+      Runnable onResult, List<ListenableFuture<Path.Any>> futures) {
+    FollowKey key = new FollowKey(follow, device);
+    ListenableFuture<Path.Any> future;
+    boolean owned = false;
+    synchronized (pendingFollows) {
+      Path.Any cached = commandFollows.getIfPresent(key);
+      if (cached != null) {
+        if (cached != NOT_FOLLOWABLE) {
+          store.accept(cached);
+        }
+        return;
+      }
+      future = pendingFollows.get(key);
+      if (future == null) {
+        future = startFollow(key);
+        owned = true;
+      }
+    }
+
+    MoreFutures.addCallback(future, callback(follow, v -> {
+      if (v != null) {
+        store.accept(v);
+      }
+    }, onResult));
+    if (owned) {
+      // Only cancel our own request if the hover changes, not a shared batched prefetch.
+      futures.add(future);
+    }
+  }
+
   /**
    * Prefetches the follow path for the given API state node.
    */
@@ -121,8 +258,10 @@ public class Follower {
     ObjectStore<Path.Any> result = ObjectStore.create();
     ListenableFuture<Path.Any> future = client.follow(path, node.device);
     MoreFutures.addCallback(future, callback(path, v -> {
-      synchronized(result) {
-        result.update(v);
+      if (v != null) {
+        synchronized(result) {
+          result.update(v);
+        }
       }
     }, onResult));
 
@@ -155,6 +294,7 @@ public class Follower {
       @Override
       public void onFailure(Throwable t) {
         if (t instanceof PathNotFollowableException) {
+          store.accept(null);
           onResult.run();
 
           if (logFollowRequests.get()) {
@@ -282,6 +422,37 @@ public class Follower {
     public void cancel();
   }
 
+  /**
+   * Key of the follow cache: the path to follow and the replay device used to resolve it.
+   */
+  private static class FollowKey {
+    private final Path.Any path;
+    private final Path.Device device;
+    private final int hash;
+
+    public FollowKey(Path.Any path, Path.Device device) {
+      this.path = path;
+      this.device = device;
+      this.hash = 31 * path.hashCode() + ((device == null) ? 0 : device.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof FollowKey)) {
+        return false;
+      }
+      FollowKey k = (FollowKey)obj;
+      return path.equals(k.path) && Objects.equal(device, k.device);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
   /**
    * Map that synchronizes access and only allocates backing storage once non-empty.
    */
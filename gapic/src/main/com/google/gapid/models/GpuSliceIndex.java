@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.models;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.models.ArgSet;
+import com.google.gapid.perfetto.models.IdBuckets;
+import com.google.gapid.perfetto.models.SliceTrack;
+import com.google.gapid.perfetto.models.Track.DataRequest;
+import com.google.gapid.perfetto.models.Track.Window;
+import com.google.gapid.proto.service.Service;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * In-memory index of the GPU slices of a {@link Profile}. The slices are grouped by track into
+ * primitive arrays sorted by start time, with an interval index per depth, so that the slices
+ * overlapping a time range can be found without scanning all the slices of the profile.
+ */
+public class GpuSliceIndex {
+  public static final GpuSliceIndex EMPTY =
+      new GpuSliceIndex(ImmutableList.of(), TimeSpan.ZERO);
+
+  // The maximum length of the label of a quantized slice, before it is truncated.
+  private static final int MAX_QUANT_LABEL_LENGTH = 100;
+  // The size of the buckets of the quantized data in pixels.
+  private static final int QUANT_BUCKET_SIZE = 5;
+
+  private final ImmutableList<Track> tracks;
+  private final TimeSpan span;
+
+  private GpuSliceIndex(ImmutableList<Track> tracks, TimeSpan span) {
+    this.tracks = tracks;
+    this.span = span;
+  }
+
+  public static GpuSliceIndex build(Service.ProfilingData.GpuSlices slices) {
+    if (slices.getSlicesCount() == 0 || slices.getTracksCount() == 0) {
+      return EMPTY;
+    }
+
+    // Group the slices by track in a single pass.
+    Map<Integer, List<Service.ProfilingData.GpuSlices.Slice>> byTrack = Maps.newHashMap();
+    long start = Long.MAX_VALUE, end = 0;
+    for (Service.ProfilingData.GpuSlices.Slice slice : slices.getSlicesList()) {
+      byTrack.computeIfAbsent(slice.getTrackId(), $ -> Lists.newArrayList()).add(slice);
+      start = Math.min(slice.getTs(), start);
+      end = Math.max(slice.getTs() + slice.getDur(), end);
+    }
+
+    ImmutableList.Builder<Track> tracks = ImmutableList.builder();
+    for (Service.ProfilingData.GpuSlices.Track track : slices.getTracksList()) {
+      tracks.add(new Track(track.getId(), track.getName(),
+          byTrack.getOrDefault(track.getId(), ImmutableList.of())));
+    }
+    return new GpuSliceIndex(tracks.build(), new TimeSpan(start, end));
+  }
+
+  public List<Track> getTracks() {
+    return tracks;
+  }
+
+  public TimeSpan getTimeSpan() {
+    return span;
+  }
+
+  /**
+   * The slices of a single track.
+   */
+  public static class Track {
+    public final int id;
+    public final String name;
+    public final int maxDepth;
+
+    // The slices, sorted by start time.
+    private final long[] ids;
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] depths;
+    private final String[] labels;
+    private final Map<Long, Integer> idToIndex;
+    private final Depth[] byDepth;
+
+    private Track(int id, String name, List<Service.ProfilingData.GpuSlices.Slice> slices) {
+      this.id = id;
+      this.name = name;
+
+      Service.ProfilingData.GpuSlices.Slice[] sorted =
+          slices.toArray(new Service.ProfilingData.GpuSlices.Slice[slices.size()]);
+      Arrays.sort(sorted, Comparator.comparingLong(Service.ProfilingData.GpuSlices.Slice::getTs));
+
+      int n = sorted.length, depthCount = 0;
+      this.ids = new long[n];
+      this.starts = new long[n];
+      this.ends = new long[n];
+      this.depths = new int[n];
+      this.labels = new String[n];
+      this.idToIndex = Maps.newHashMapWithExpectedSize(n);
+      for (int i = 0; i < n; i++) {
+        Service.ProfilingData.GpuSlices.Slice slice = sorted[i];
+        ids[i] = slice.getId();
+        starts[i] = slice.getTs();
+        ends[i] = slice.getTs() + slice.getDur();
+        depths[i] = slice.getDepth();
+        labels[i] = slice.getLabel();
+        idToIndex.put(ids[i], i);
+        depthCount = Math.max(depthCount, depths[i] + 1);
+      }
+      this.maxDepth = Math.max(0, depthCount - 1);
+
+      int[] counts = new int[depthCount];
+      for (int depth : depths) {
+        counts[depth]++;
+      }
+      this.byDepth = new Depth[depthCount];
+      for (int d = 0; d < depthCount; d++) {
+        byDepth[d] = new Depth(counts[d]);
+      }
+      for (int i = 0; i < n; i++) {
+        byDepth[depths[i]].add(i, ends[i]);
+      }
+    }
+
+    public int size() {
+      return ids.length;
+    }
+
+    public long getId(int index) {
+      return ids[index];
+    }
+
+    public long getStart(int index) {
+      return starts[index];
+    }
+
+    public long getEnd(int index) {
+      return ends[index];
+    }
+
+    public int getDepth(int index) {
+      return depths[index];
+    }
+
+    public String getLabel(int index) {
+      return labels[index];
+    }
+
+    /**
+     * @return the index of the slice with the given id, or -1 if there is no such slice.
+     */
+    public int indexOf(long sliceId) {
+      Integer index = idToIndex.get(sliceId);
+      return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Invokes the consumer with the index of each of the slices identified by the given comma
+     * separated ids, as used for the ids of quantized slices.
+     */
+    public void forEachIndex(String concatedIds, IntConsumer consumer) {
+      long value = 0;
+      boolean negative = false, empty = true;
+      for (int i = 0; i <= concatedIds.length(); i++) {
+        char c = (i == concatedIds.length()) ? ',' : concatedIds.charAt(i);
+        if (c == ',') {
+          int index = empty ? -1 : indexOf(negative ? -value : value);
+          if (index >= 0) {
+            consumer.accept(index);
+          }
+          value = 0;
+          negative = false;
+          empty = true;
+        } else if (c == '-') {
+          negative = true;
+        } else if (c >= '0' && c <= '9') {
+          value = value * 10 + (c - '0');
+          empty = false;
+        }
+      }
+    }
+
+    /**
+     * Invokes the consumer with the index of each of the slices within the given depth range that
+     * overlap the given time span. The slices are visited by depth, then start time.
+     */
+    public void forEachOverlapping(TimeSpan ts, int minDepth, int maxDepth, IntConsumer consumer) {
+      for (int d = Math.max(0, minDepth); d <= maxDepth && d < byDepth.length; d++) {
+        byDepth[d].forEachOverlapping(starts, ends, ts, consumer);
+      }
+    }
+
+    /**
+     * @return the slice data for the given request, quantized if the resolution is coarse.
+     */
+    public SliceTrack.Data getData(DataRequest req) {
+      Window window = Window.compute(req, QUANT_BUCKET_SIZE);
+      return window.quantized ? getQuantizedData(req, window) : getSliceData(req);
+    }
+
+    private SliceTrack.Data getSliceData(DataRequest req) {
+      int[] count = { 0 };
+      forEachOverlapping(req.range, 0, byDepth.length - 1, i -> count[0]++);
+
+      int n = count[0];
+      SliceTrack.Data data = new SliceTrack.Data(req, new long[n], new long[n], new long[n],
+          new int[n], new String[n], new String[n], new ArgSet[n]);
+      int[] row = { 0 };
+      forEachOverlapping(req.range, 0, byDepth.length - 1, i -> {
+        int r = row[0]++;
+        data.ids[r] = ids[i];
+        data.starts[r] = starts[i];
+        data.ends[r] = ends[i];
+        data.depths[r] = depths[i];
+        data.titles[r] = labels[i];
+        data.categories[r] = "";
+        data.args[r] = ArgSet.EMPTY;
+      });
+      return data;
+    }
+
+    // Summarizes the slices into buckets of the window's bucket size. Each bucket, at each depth,
+    // is labelled by its slices, longest first, and consecutive buckets with the same label are
+    // combined into a single slice. This matches the quantized slices of the trace processor
+    // backed slice tracks.
+    private SliceTrack.Data getQuantizedData(DataRequest req, Window window) {
+      QuantBuilder builder = new QuantBuilder();
+      List<Integer> bucket = Lists.newArrayList();
+      StringBuilder label = new StringBuilder();
+      StringBuilder runIds = new StringBuilder();
+      int buckets = window.getNumberOfBuckets();
+      for (int d = 0; d < byDepth.length; d++) {
+        Depth depth = byDepth[d];
+        String runLabel = null;
+        long runStart = 0, runEnd = 0;
+        int runLastIndex = -1;
+        int next = depth.firstOverlapping(window.start);
+        for (int b = 0; b < buckets; b++) {
+          long bucketStart = window.start + b * window.bucketSize;
+          long bucketEnd = bucketStart + window.bucketSize;
+
+          // Slices of the same depth are nested within their parents, thus don't overlap and once
+          // sorted by start are also sorted by end.
+          while (next < depth.size() && ends[depth.get(next)] <= bucketStart) {
+            next++;
+          }
+          bucket.clear();
+          for (int k = next; k < depth.size() && starts[depth.get(k)] < bucketEnd; k++) {
+            int i = depth.get(k);
+            if (ends[i] > bucketStart) {
+              bucket.add(i);
+            }
+          }
+
+          if (bucket.isEmpty()) {
+            if (runLabel != null) {
+              builder.add(-1, runStart, runEnd, d, runLabel, runIds.toString());
+              runLabel = null;
+            }
+            continue;
+          }
+
+          bucket.sort((a, c) -> Long.compare(ends[c] - starts[c], ends[a] - starts[a]));
+          label.setLength(0);
+          for (int i : bucket) {
+            if (label.length() > 0) {
+              label.append(',');
+            }
+            label.append(labels[i]);
+            if (label.length() >= MAX_QUANT_LABEL_LENGTH) {
+              break;
+            }
+          }
+          if (label.length() >= MAX_QUANT_LABEL_LENGTH) {
+            label.setLength(MAX_QUANT_LABEL_LENGTH);
+            if (bucket.size() > 1) {
+              label.append("...");
+            }
+          }
+
+          String bucketLabel = label.toString();
+          if (runLabel != null && !runLabel.equals(bucketLabel)) {
+            builder.add(-1, runStart, runEnd, d, runLabel, runIds.toString());
+            runLabel = null;
+          }
+          if (runLabel == null) {
+            runLabel = bucketLabel;
+            runStart = Long.MAX_VALUE;
+            runEnd = Long.MIN_VALUE;
+            runLastIndex = -1;
+            runIds.setLength(0);
+          }
+          for (int i : bucket) {
+            runStart = Math.min(runStart, starts[i]);
+            runEnd = Math.max(runEnd, ends[i]);
+            // Slices spanning multiple buckets have already been added with the previous bucket.
+            if (i > runLastIndex) {
+              if (runIds.length() > 0) {
+                runIds.append(',');
+              }
+              runIds.append(ids[i]);
+            }
+          }
+          for (int i : bucket) {
+            runLastIndex = Math.max(runLastIndex, i);
+          }
+        }
+        if (runLabel != null) {
+          builder.add(-1, runStart, runEnd, d, runLabel, runIds.toString());
+        }
+      }
+      return builder.build(req);
+    }
+  }
+
+  /**
+   * The indices of the slices of a single depth, sorted by start time, together with the running
+   * maximum of their end times, allowing binary searching for the first overlapping slice.
+   */
+  private static class Depth {
+    private final int[] indices;
+    private final long[] maxEnds;
+    private int count = 0;
+
+    public Depth(int size) {
+      this.indices = new int[size];
+      this.maxEnds = new long[size];
+    }
+
+    public void add(int index, long end) {
+      indices[count] = index;
+      maxEnds[count] = (count == 0) ? end : Math.max(maxEnds[count - 1], end);
+      count++;
+    }
+
+    public int size() {
+      return count;
+    }
+
+    public int get(int k) {
+      return indices[k];
+    }
+
+    // Returns the position of the first slice that may end after the given time.
+    public int firstOverlapping(long time) {
+      int lo = 0, hi = count;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (maxEnds[mid] <= time) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    public void forEachOverlapping(long[] starts, long[] ends, TimeSpan ts, IntConsumer consumer) {
+      for (int k = firstOverlapping(ts.start); k < count; k++) {
+        int i = indices[k];
+        if (starts[i] >= ts.end) {
+          break;
+        } else if (ts.overlaps(starts[i], ends[i])) {
+          consumer.accept(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Accumulates the rows of a quantized {@link SliceTrack.Data}.
+   */
+  private static class QuantBuilder {
+    private final List<Long> ids = Lists.newArrayList();
+    private final List<Long> starts = Lists.newArrayList();
+    private final List<Long> ends = Lists.newArrayList();
+    private final List<Integer> depths = Lists.newArrayList();
+    private final List<String> titles = Lists.newArrayList();
+    private final List<String> concatedIds = Lists.newArrayList();
+
+    public QuantBuilder() {
+    }
+
+    public void add(long id, long start, long end, int depth, String title, String concatedId) {
+      ids.add(id);
+      starts.add(start);
+      ends.add(end);
+      depths.add(depth);
+      titles.add(title);
+      concatedIds.add(concatedId);
+    }
+
+    public SliceTrack.Data build(DataRequest req) {
+      int n = ids.size();
+      SliceTrack.Data data = new SliceTrack.Data(req, new long[n], new long[n], new long[n],
+          new int[n], new String[n], new String[n], new ArgSet[n]);
+      for (int i = 0; i < n; i++) {
+        data.ids[i] = ids.get(i);
+        data.starts[i] = starts.get(i);
+        data.ends[i] = ends.get(i);
+        data.depths[i] = depths.get(i);
+        data.titles[i] = titles.get(i);
+        data.categories[i] = "";
+        data.args[i] = ArgSet.EMPTY;
+      }
+      String[] concated = concatedIds.toArray(new String[n]);
+      data.putExtraStrings("concatedIds", concated);
+      data.idBuckets = IdBuckets.parse(concated);
+      return data;
+    }
+  }
+}
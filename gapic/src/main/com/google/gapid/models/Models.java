@@ -68,8 +68,8 @@ public class Models {
   public static Models create(
       Shell shell, Settings settings, ExceptionHandler handler, Client client, StatusBar status) {
     Analytics analytics = new Analytics(client, settings, handler);
-    Follower follower = new Follower(shell, client);
     Capture capture = new Capture(shell, analytics, client, settings);
+    Follower follower = new Follower(shell, client, capture);
     Devices devices = new Devices(shell, analytics, client, capture, settings);
     ConstantSets constants = new ConstantSets(client, devices);
     Timeline timeline = new Timeline(shell, analytics, client, capture, devices);
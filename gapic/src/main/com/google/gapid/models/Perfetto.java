@@ -19,7 +19,6 @@ import static com.google.common.collect.ImmutableListMultimap.toImmutableListMul
 import static com.google.gapid.rpc.UiErrorCallback.error;
 import static com.google.gapid.rpc.UiErrorCallback.success;
 import static com.google.gapid.util.Logging.throttleLogRpcError;
-import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
 import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 import static java.util.function.Function.identity;
@@ -36,6 +35,7 @@ import com.google.gapid.perfetto.models.CpuInfo;
 import com.google.gapid.perfetto.models.GpuInfo;
 import com.google.gapid.perfetto.models.ProcessInfo;
 import com.google.gapid.perfetto.models.QueryEngine;
+import com.google.gapid.perfetto.models.SubmissionFlows;
 import com.google.gapid.perfetto.models.ThreadInfo;
 import com.google.gapid.perfetto.models.TrackConfig;
 import com.google.gapid.perfetto.models.Tracks;
@@ -47,6 +47,7 @@ import com.google.gapid.rpc.UiErrorCallback.ResultOrError;
 import com.google.gapid.server.Client;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.Loadable;
+import com.google.gapid.util.Scheduler;
 import com.google.gapid.views.StatusBar;
 
 import org.eclipse.swt.widgets.Shell;
@@ -61,11 +62,13 @@ import java.util.logging.Logger;
 public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Message, Perfetto.Listener> {
   private static final Logger LOG = Logger.getLogger(Perfetto.class.getName());
 
+  private final Capture capture;
   private final StatusBar status;
 
   public Perfetto(
       Shell shell, Analytics analytics, Client client, Capture capture, StatusBar status) {
     super(LOG, shell, analytics, client, Listener.class);
+    this.capture = capture;
     this.status = status;
 
     capture.addListener(new Capture.Listener() {
@@ -88,13 +91,17 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
   @Override
   protected ListenableFuture<Data> doLoad(Path.Capture source) {
     Data.Builder data = new Data.Builder(new QueryEngine(client, source, status));
-    return
-        transformAsync(withStatus("Examining the trace...", examineTrace(data)), $1 ->
-          transformAsync(withStatus("Querying threads...", queryThreads(data)), $2 ->
-            transformAsync(withStatus("Querying GPU info...", queryGpu(data)), $3 ->
-              transformAsync(withStatus("Querying counters...", queryCounters(data)), $4 ->
-                transform(withStatus("Enumerating tracks...", enumerateTracks(data)), $5 ->
-                  data.build())))));
+    // The queries are independent of each other and run concurrently. The tracks are enumerated
+    // as the queries they depend on complete and shown as soon as they are available.
+    ListenableFuture<Data.Builder> cpus = examineTrace(data);
+    ListenableFuture<Data.Builder> threads = queryThreads(data);
+    ListenableFuture<Data.Builder> gpu = queryGpu(data);
+    ListenableFuture<Data.Builder> counters = queryCounters(data);
+    ListenableFuture<Data.Builder> flows = queryFlows(data);
+    ListenableFuture<Data.Builder> tracks = withStatus("Examining the trace...",
+        Tracks.enumerate(data, cpus, threads, gpu, counters, b -> publishTracks(source, b)));
+    return capture.loadOrder.first(
+        Futures.whenAllSucceed(tracks, flows).call(data::build, Scheduler.UI_FEED));
   }
 
   private static ListenableFuture<Data.Builder> examineTrace(Data.Builder data) {
@@ -116,8 +123,18 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
     return CounterInfo.listCounters(data);
   }
 
-  private static ListenableFuture<Data.Builder> enumerateTracks(Data.Builder data) {
-    return Tracks.enumerate(data);
+  private static ListenableFuture<Data.Builder> queryFlows(Data.Builder data) {
+    return SubmissionFlows.listFlows(data);
+  }
+
+  private void publishTracks(Path.Capture source, Data.Builder data) {
+    Data tracks = data.build();
+    scheduleIfNotDisposed(shell, () -> {
+      // Ignore the tracks of a previous load.
+      if (!isLoaded() && source.equals(getSource())) {
+        listeners.fire().onPerfettoTracksLoaded(tracks);
+      }
+    });
   }
 
   private <T> ListenableFuture<T> withStatus(String msg, ListenableFuture<T> future) {
@@ -178,11 +195,13 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
     public final GpuInfo gpu;
     public final ImmutableMap<Long, CounterInfo> counters;
     public final VSync vsync;
+    public final SubmissionFlows flows;
     public final TrackConfig tracks;
 
     public Data(QueryEngine queries, TimeSpan traceTime, CpuInfo cpu,
         ImmutableMap<Long, ProcessInfo> processes, ImmutableMap<Long, ThreadInfo> threads,
-        GpuInfo gpu, ImmutableMap<Long, CounterInfo> counters, VSync vsync, TrackConfig tracks) {
+        GpuInfo gpu, ImmutableMap<Long, CounterInfo> counters, VSync vsync,
+        SubmissionFlows flows, TrackConfig tracks) {
       this.qe = queries;
       this.traceTime = traceTime;
       this.cpu = cpu;
@@ -191,6 +210,7 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
       this.gpu = gpu;
       this.counters = counters;
       this.vsync = vsync;
+      this.flows = flows;
       this.tracks = tracks;
     }
 
@@ -198,12 +218,15 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
       public final QueryEngine qe;
       private TimeSpan traceTime;
       private CpuInfo cpu = CpuInfo.NONE;
-      private ImmutableMap<Long, ProcessInfo> processes;
-      private ImmutableMap<Long, ThreadInfo> threads;
+      // The maps default to empty, so the tracks can be shown before all queries have completed.
+      private volatile ImmutableMap<Long, ProcessInfo> processes = ImmutableMap.of();
+      private volatile ImmutableMap<Long, ThreadInfo> threads = ImmutableMap.of();
       private GpuInfo gpu = GpuInfo.NONE;
-      private ImmutableMap<Long, CounterInfo> counters;
-      private Map<CounterInfo.Type, ImmutableListMultimap<String, CounterInfo>> countersByName;
+      private volatile ImmutableMap<Long, CounterInfo> counters = ImmutableMap.of();
+      private volatile Map<CounterInfo.Type, ImmutableListMultimap<String, CounterInfo>>
+          countersByName = ImmutableMap.of();
       private VSync vsync = VSync.EMPTY;
+      private volatile SubmissionFlows flows = SubmissionFlows.EMPTY;
       public final TrackConfig.Builder tracks = new TrackConfig.Builder();
 
       public Builder(QueryEngine qe) {
@@ -280,9 +303,18 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
         return this;
       }
 
+      public SubmissionFlows getSubmissionFlows() {
+        return flows;
+      }
+
+      public Builder setSubmissionFlows(SubmissionFlows flows) {
+        this.flows = flows;
+        return this;
+      }
+
       public Data build() {
         return new Data(
-            qe, traceTime, cpu, processes, threads, gpu, counters, vsync, tracks.build());
+            qe, traceTime, cpu, processes, threads, gpu, counters, vsync, flows, tracks.build());
       }
     }
   }
@@ -294,6 +326,13 @@ public class Perfetto extends ModelBase<Perfetto.Data, Path.Capture, Loadable.Me
      * @param msg message communicating the currently executed work.
      */
     public default void onPerfettoLoadingStatus(Loadable.Message msg) { /* empty */ }
+    /**
+     * Event indicating that some of the tracks of the Perfetto trace being loaded are available.
+     * Fired, possibly repeatedly, before {@link #onPerfettoLoaded(Loadable.Message)}.
+     *
+     * @param data the data loaded so far.
+     */
+    public default void onPerfettoTracksLoaded(Data data) { /* empty */ }
     /**
      * Event indicating that the Perfetto trace has finished loading.
      *
@@ -119,10 +119,13 @@ public class Profile
 
   public static class Data extends DeviceDependentModel.Data {
     public final Service.ProfilingData profile;
+    // Built once, when the profile is loaded, off the UI thread.
+    private final GpuSliceIndex sliceIndex;
 
     public Data(Path.Device device, Service.ProfilingData profile) {
       super(device);
       this.profile = profile;
+      this.sliceIndex = GpuSliceIndex.build(profile.getSlices());
     }
 
     public boolean hasSlices() {
@@ -134,17 +137,12 @@ public class Profile
       return profile.getSlices();
     }
 
-    public TimeSpan getSlicesTimeSpan() {
-      if (!hasSlices()) {
-        return TimeSpan.ZERO;
-      }
+    public GpuSliceIndex getSliceIndex() {
+      return sliceIndex;
+    }
 
-      long start = Long.MAX_VALUE, end = 0;
-      for (Service.ProfilingData.GpuSlices.Slice slice : profile.getSlices().getSlicesList()) {
-        start = Math.min(slice.getTs(), start);
-        end = Math.max(slice.getTs() + slice.getDur(), end);
-      }
-      return new TimeSpan(start, end);
+    public TimeSpan getSlicesTimeSpan() {
+      return sliceIndex.getTimeSpan();
     }
   }
 
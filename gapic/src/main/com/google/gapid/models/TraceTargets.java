@@ -15,13 +15,19 @@
  */
 package com.google.gapid.models;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gapid.rpc.UiErrorCallback.error;
 import static com.google.gapid.rpc.UiErrorCallback.success;
 import static com.google.gapid.util.Logging.throttleLogRpcError;
+import static com.google.gapid.widgets.Widgets.scheduleIfNotDisposed;
 import static com.google.gapid.widgets.Widgets.submitIfNotDisposed;
+import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.WARNING;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.path.Path;
@@ -39,6 +45,11 @@ import com.google.gapid.util.MoreFutures;
 import org.eclipse.swt.internal.DPIUtil;
 import org.eclipse.swt.widgets.Shell;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
@@ -50,9 +61,14 @@ public class TraceTargets
     extends ModelBase<TraceTargets.Node, Void, Loadable.Message, TraceTargets.Listener> {
   protected static final Logger LOG = Logger.getLogger(TraceTargets.class.getName());
   private static final String ROOT_URI = "";
+  // The depth up to which the tree is fetched in bulk and indexed, i.e. packages and activities.
+  private static final int CATALOG_DEPTH = 2;
+  // The maximum number of node requests in flight while building the catalog.
+  private static final int MAX_CATALOG_REQUESTS = 16;
 
   private final Path.Device device;
   private final float density;
+  private Catalog catalog;
 
   public TraceTargets(Shell shell, Analytics analytics, Client client, Path.Device device) {
     super(LOG, shell, analytics, client, Listener.class);
@@ -84,7 +100,8 @@ public class TraceTargets
 
   @Override
   protected void fireLoadStartEvent() {
-    // Don't care about this event.
+    // The index is of the previous tree, it is rebuilt once the new root is loaded.
+    catalog = null;
   }
 
   @Override
@@ -95,6 +112,7 @@ public class TraceTargets
   @Override
   protected void fireLoadedEvent() {
     listeners.fire().onTreeRootLoaded(null);
+    new CatalogBuilder(getData()).start();
   }
 
   public void load() {
@@ -103,6 +121,13 @@ public class TraceTargets
     }
   }
 
+  /**
+   * Returns the index of the top levels of the tree, or {@code null} if it is still being built.
+   */
+  public Catalog getCatalog() {
+    return catalog;
+  }
+
   public ListenableFuture<Node> load(Node node) {
     return node.load(shell, () -> client.getTraceTargetTreeNode(device, node.getUri(), density));
   }
@@ -125,6 +150,179 @@ public class TraceTargets
     }
   }
 
+  /**
+   * Fetches the nodes of the top {@link #CATALOG_DEPTH} levels of the tree, a bounded number of
+   * requests at a time, and indexes them once all have been loaded. Runs on the UI thread, as that
+   * is where the nodes are updated.
+   */
+  private class CatalogBuilder {
+    private final Node root;
+    private final Deque<Node> queue = new ArrayDeque<Node>();
+    private final List<Node> nodes = Lists.newArrayList();
+    private final long start = System.currentTimeMillis();
+    private int inFlight = 0;
+
+    public CatalogBuilder(Node root) {
+      this.root = root;
+      addChildren(root);
+    }
+
+    public void start() {
+      if (getData() != root) {
+        return; // The tree has been reloaded since, stop indexing the old one.
+      }
+
+      while (inFlight < MAX_CATALOG_REQUESTS && !queue.isEmpty()) {
+        Node node = queue.removeFirst();
+        ListenableFuture<Node> future = load(node);
+        if (future == null) {
+          onLoaded(node);
+        } else {
+          inFlight++;
+          future.addListener(() -> scheduleIfNotDisposed(shell, () -> {
+            inFlight--;
+            onLoaded(node);
+            start();
+          }), directExecutor());
+        }
+      }
+
+      if (inFlight == 0 && queue.isEmpty()) {
+        catalog = new Catalog(nodes);
+        LOG.log(FINE, "Indexed {0} trace targets in {1}ms",
+            new Object[] { nodes.size(), System.currentTimeMillis() - start });
+        listeners.fire().onCatalogLoaded();
+      }
+    }
+
+    private void onLoaded(Node node) {
+      // Nodes that failed to load are left out of the index and are loaded lazily again.
+      if (node.getData() != null) {
+        nodes.add(node);
+        if (node.getDepth() < CATALOG_DEPTH) {
+          addChildren(node);
+        }
+      }
+    }
+
+    private void addChildren(Node node) {
+      for (int i = 0; i < node.getChildCount(); i++) {
+        queue.addLast(node.getChild(i));
+      }
+    }
+  }
+
+  /**
+   * A substring index over the names of the nodes of the top levels of the tree, allowing the tree
+   * to be filtered without any further requests.
+   */
+  public static class Catalog {
+    // Length of the substrings indexed. Shorter queries scan the names.
+    private static final int GRAM = 3;
+
+    private final Node[] nodes;
+    private final String[] names;
+    private final Map<Node, Integer> ids = Maps.newHashMap();
+    private final Map<String, List<Integer>> grams = Maps.newHashMap();
+
+    Catalog(List<Node> nodes) {
+      this.nodes = nodes.toArray(new Node[nodes.size()]);
+      this.names = new String[this.nodes.length];
+      for (int i = 0; i < this.nodes.length; i++) {
+        names[i] = this.nodes[i].getData().getName().toLowerCase();
+        ids.put(this.nodes[i], i);
+        for (int j = 0; j + GRAM <= names[i].length(); j++) {
+          List<Integer> postings =
+              grams.computeIfAbsent(names[i].substring(j, j + GRAM), $ -> Lists.newArrayList());
+          if (postings.isEmpty() || postings.get(postings.size() - 1) != i) {
+            postings.add(i);
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the depth up to which the tree is indexed.
+     */
+    public int getDepth() {
+      return CATALOG_DEPTH;
+    }
+
+    /**
+     * Returns whether the given node is indexed.
+     */
+    public boolean contains(Node node) {
+      return ids.containsKey(node);
+    }
+
+    /**
+     * Returns the indexed nodes matching the given lower case search path, where each part of the
+     * path has to be contained in the name of the node at the corresponding depth. A node matches
+     * if its name matches and, unless it is at the depth of the last part, one of its descendants
+     * matches. Nodes at the depth of the index are returned if their name and their ancestors'
+     * names match, their descendants below the index are not checked.
+     */
+    public Set<Node> search(String[] parts) {
+      Set<Node> result = Sets.newHashSet();
+      if (parts.length == 0) {
+        return result;
+      }
+
+      int depth = Math.min(parts.length, CATALOG_DEPTH);
+      for (int id : find(parts[depth - 1])) {
+        Node node = nodes[id];
+        if (node.getDepth() == depth && ancestorsMatch(node.getParent(), parts)) {
+          // Add the node and all its ancestors not yet added.
+          Node n = node;
+          while (n.getDepth() > 0 && result.add(n)) {
+            n = n.getParent();
+          }
+        }
+      }
+      return result;
+    }
+
+    private boolean ancestorsMatch(Node node, String[] parts) {
+      for (; node != null && node.getDepth() > 0; node = node.getParent()) {
+        Integer id = ids.get(node);
+        if (id == null || !names[id].contains(parts[node.getDepth() - 1])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Returns the ids of all nodes whose name contains the given lower case string.
+    private List<Integer> find(String part) {
+      List<Integer> result = Lists.newArrayList();
+      if (part.length() < GRAM) {
+        for (int i = 0; i < names.length; i++) {
+          if (names[i].contains(part)) {
+            result.add(i);
+          }
+        }
+        return result;
+      }
+
+      // Verify the candidates of the least common substring of the part.
+      List<Integer> candidates = null;
+      for (int j = 0; j + GRAM <= part.length(); j++) {
+        List<Integer> postings = grams.get(part.substring(j, j + GRAM));
+        if (postings == null) {
+          return result;
+        } else if (candidates == null || postings.size() < candidates.size()) {
+          candidates = postings;
+        }
+      }
+      for (int id : candidates) {
+        if (names[id].contains(part)) {
+          result.add(id);
+        }
+      }
+      return result;
+    }
+  }
+
   public static class Node {
     private final Node parent;
     private final String uri;
@@ -247,5 +445,10 @@ public class TraceTargets
      * @param error the loading error or {@code null} if loading was successful.
      */
     public default void onTreeRootLoaded(Loadable.Message error) { /* empty */ }
+
+    /**
+     * Event indicating that the top levels of the trace target tree have been fetched and indexed.
+     */
+    public default void onCatalogLoaded() { /* empty */ }
   }
 }
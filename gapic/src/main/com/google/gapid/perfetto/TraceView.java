@@ -15,12 +15,17 @@
  */
 package com.google.gapid.perfetto;
 
+import static com.google.gapid.widgets.Widgets.createComposite;
+import static com.google.gapid.widgets.Widgets.withLayoutData;
+import static com.google.gapid.widgets.Widgets.withMargin;
+
 import com.google.gapid.models.Capture;
 import com.google.gapid.models.Models;
 import com.google.gapid.models.Perfetto;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.views.RootPanel;
 import com.google.gapid.perfetto.views.SelectionView;
+import com.google.gapid.perfetto.views.SliceSearchBar;
 import com.google.gapid.perfetto.views.State;
 import com.google.gapid.perfetto.views.TraceComposite;
 import com.google.gapid.util.Loadable;
@@ -31,6 +36,8 @@ import com.google.gapid.widgets.Widgets;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.FillLayout;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 
 /**
@@ -41,6 +48,7 @@ public class TraceView extends Composite
   private final Models models;
   private final LoadablePanel<DrawerComposite> loading;
   private final TraceComposite<State.ForSystemTrace> traceUi;
+  private final SliceSearchBar searchBar;
 
   public TraceView(Composite parent, Models models, Widgets widgets) {
     super(parent, SWT.NONE);
@@ -53,7 +61,13 @@ public class TraceView extends Composite
 
     DrawerComposite container = loading.getContents();
     container.setText("Selection");
-    traceUi = createTraceUi(container.getMain(), models, widgets.theme);
+    Composite main =
+        createComposite(container.getMain(), withMargin(new GridLayout(1, false), 0, 0));
+    traceUi = withLayoutData(createTraceUi(main, models, widgets.theme),
+        new GridData(SWT.FILL, SWT.FILL, true, true));
+    searchBar = withLayoutData(new SliceSearchBar(main, traceUi.getState(), traceUi::repaint),
+        new GridData(SWT.FILL, SWT.TOP, true, false));
+    searchBar.moveAbove(traceUi);
     new SelectionView(container.getDrawer(), traceUi.getState());
 
     models.capture.addListener(this);
@@ -102,6 +116,12 @@ public class TraceView extends Composite
     loading.showMessage(msg);
   }
 
+  @Override
+  public void onPerfettoTracksLoaded(Perfetto.Data data) {
+    loading.stopLoading();
+    traceUi.getState().update(data);
+  }
+
   @Override
   public void onPerfettoLoaded(Loadable.Message error) {
     if (error != null) {
@@ -109,6 +129,7 @@ public class TraceView extends Composite
     } else {
       loading.stopLoading();
       traceUi.getState().update(models.perfetto.getData());
+      searchBar.update(models.perfetto.getData());
       traceUi.requestFocus();
     }
   }
@@ -17,8 +17,7 @@ package com.google.gapid.perfetto.canvas;
 
 import static com.google.gapid.perfetto.canvas.RenderContext.scale;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Device;
@@ -28,7 +27,7 @@ import org.eclipse.swt.graphics.FontMetrics;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.widgets.Control;
 
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,12 +47,11 @@ public class Fonts {
     public double getDescent(Style style);
   }
 
+  /**
+   * Measures text and applies fonts. Not thread safe, only to be used on the UI thread.
+   */
   public static class Context implements TextMeasurer {
     private final FontAndGC[] fonts = new FontAndGC[Style.values().length];
-    private final Cache<SizeCacheKey, Size> textExtentCache = CacheBuilder.newBuilder()
-        .softValues()
-        .recordStats()
-        .build();
 
     public Context(Control owner) {
       this.fonts[Style.Normal.ordinal()] = FontAndGC.get(owner, SWT.NORMAL);
@@ -62,12 +60,39 @@ public class Fonts {
 
     @Override
     public Size measure(Style style, String text) {
-      try {
-        return textExtentCache.get(new SizeCacheKey(style, text),
-            () -> fonts[style.ordinal()].measure(text));
-      } catch (ExecutionException e) {
-        throw new RuntimeException(e.getCause());
+      return fonts[style.ordinal()].measure(text);
+    }
+
+    /**
+     * @return the number of leading characters of the text that fit into the given width, based
+     * on the advance widths of the individual glyphs.
+     */
+    public int fitPrefix(Style style, String text, double width) {
+      FontAndGC font = fonts[style.ordinal()];
+      double w = 0;
+      for (int i = 0; i < text.length(); i++) {
+        w += font.getCharWidth(text.charAt(i));
+        if (w >= width) {
+          return i;
+        }
+      }
+      return text.length();
+    }
+
+    /**
+     * @return the number of trailing characters of the text that fit into the given width, based
+     * on the advance widths of the individual glyphs.
+     */
+    public int fitSuffix(Style style, String text, double width) {
+      FontAndGC font = fonts[style.ordinal()];
+      double w = 0;
+      for (int i = text.length() - 1; i >= 0; i--) {
+        w += font.getCharWidth(text.charAt(i));
+        if (w >= width) {
+          return text.length() - 1 - i;
+        }
       }
+      return text.length();
     }
 
     @Override
@@ -88,15 +113,21 @@ public class Fonts {
       for (FontAndGC fgc : fonts) {
         fgc.dispose();
       }
-
-      LOG.log(Level.FINE, "Text extent cache stats: {0}", textExtentCache.stats());
-      textExtentCache.invalidateAll();
     }
 
     private static class FontAndGC {
+      // The cache is simply cleared once it grows to this many entries.
+      private static final int MAX_CACHED_SIZES = 20000;
+      private static final int CHAR_PAGE_BITS = 8;
+
       private final Font font;
       private final GC gc;
       private final double ascent, descent;
+      // Keyed by the text only, so the lookups don't need to allocate.
+      private final Map<String, Size> sizes = Maps.newHashMap();
+      // The advance widths of the individual characters, paged and lazily measured.
+      private final double[][] charWidths = new double[1 << (16 - CHAR_PAGE_BITS)][];
+      private long hits, misses;
 
       private FontAndGC(Font font, GC gc, double ascent, double descent) {
         this.font = font;
@@ -114,7 +145,35 @@ public class Fonts {
       }
 
       public Size measure(String text) {
-        return Size.of(gc.textExtent(text, SWT.DRAW_TRANSPARENT), 1 / scale);
+        Size size = sizes.get(text);
+        if (size != null) {
+          hits++;
+          return size;
+        }
+
+        misses++;
+        if (sizes.size() >= MAX_CACHED_SIZES) {
+          sizes.clear();
+        }
+        size = Size.of(gc.textExtent(text, SWT.DRAW_TRANSPARENT), 1 / scale);
+        sizes.put(text, size);
+        return size;
+      }
+
+      public double getCharWidth(char c) {
+        double[] page = charWidths[c >>> CHAR_PAGE_BITS];
+        if (page == null) {
+          page = charWidths[c >>> CHAR_PAGE_BITS] = new double[1 << CHAR_PAGE_BITS];
+          for (int i = 0; i < page.length; i++) {
+            page[i] = -1;
+          }
+        }
+
+        int idx = c & ((1 << CHAR_PAGE_BITS) - 1);
+        if (page[idx] < 0) {
+          page[idx] = gc.getAdvanceWidth(c) / scale;
+        }
+        return page[idx];
       }
 
       public double getAscent() {
@@ -130,7 +189,10 @@ public class Fonts {
       }
 
       public void dispose() {
+        LOG.log(Level.FINE, "Text extent cache: {0} hits, {1} misses", new Object[] { hits, misses });
+        gc.dispose();
         font.dispose();
+        sizes.clear();
       }
 
       private static Font scaleFont(Device display, Font font, int style) {
@@ -142,31 +204,5 @@ public class Fonts {
         return new Font(display, fds);
       }
     }
-
-    private static class SizeCacheKey {
-      public final Style style;
-      public final String text;
-
-      public SizeCacheKey(Style style, String text) {
-        this.style = style;
-        this.text = text;
-      }
-
-      @Override
-      public int hashCode() {
-        return style.hashCode() ^ text.hashCode();
-      }
-
-      @Override
-      public boolean equals(Object obj) {
-        if (obj == this) {
-          return true;
-        } else if (!(obj instanceof SizeCacheKey)) {
-          return false;
-        }
-        SizeCacheKey o = (SizeCacheKey)obj;
-        return style == o.style && text.equals(o.text);
-      }
-    }
   }
 }
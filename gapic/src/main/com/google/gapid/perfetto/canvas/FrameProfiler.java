@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.canvas;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gapid.util.Flags;
+import com.google.gapid.util.Flags.Flag;
+import com.google.gapid.util.Logging;
+
+import org.eclipse.swt.graphics.RGBA;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Collects render and data loading statistics of the Perfetto timeline, to help find the panels
+ * and tracks that cause slow frames. Keeps rolling histograms of the frame times, of the times
+ * recorded via {@link RenderContext#trace}, e.g. per panel type, of the data fetch latencies per
+ * track type, and the hit rate of the track data cache. The statistics are shown as an overlay on
+ * the canvas and can be exported as CSV. Only collects anything if enabled via the flag, and is
+ * only to be used on the UI thread.
+ */
+public class FrameProfiler {
+  private static final Logger LOG = Logger.getLogger(FrameProfiler.class.getName());
+
+  public static final Flag<Boolean> profileFrames = Flags.value(
+      "profile-frames", false, "Show and collect timeline render statistics", true);
+
+  private static final FrameProfiler INSTANCE = new FrameProfiler();
+
+  // The number of samples kept per histogram.
+  private static final int WINDOW_SIZE = 256;
+  // The maximum number of histograms shown in the overlay.
+  private static final int MAX_OVERLAY_ROWS = 12;
+  private static final String FRAME_LABEL = "Frame";
+  private static final String FETCH_PREFIX = "Fetch ";
+  private static final double OVERLAY_MARGIN = 10;
+  private static final double OVERLAY_PADDING = 4;
+  private static final RGBA OVERLAY_BACKGROUND = new RGBA(0, 0, 0, 200);
+  private static final RGBA OVERLAY_TEXT = new RGBA(255, 255, 255, 255);
+
+  private final Map<String, Histogram> histograms = Maps.newTreeMap();
+  private long cacheHits, cacheMisses;
+
+  private FrameProfiler() {
+  }
+
+  public static boolean isEnabled() {
+    return profileFrames.get();
+  }
+
+  public static FrameProfiler get() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return the simple name of the given class, or of its closest named super class, if the
+   *     class is anonymous. Used to label the statistics by panel or track type.
+   */
+  public static String typeName(Class<?> cls) {
+    while (cls.isAnonymousClass()) {
+      cls = cls.getSuperclass();
+    }
+    return cls.getSimpleName();
+  }
+
+  /**
+   * Records a rendered frame, with the traces recorded by its {@link RenderContext}.
+   */
+  public void recordFrame(long nanos, Map<String, Long> traces) {
+    record(FRAME_LABEL, nanos);
+    traces.forEach(this::record);
+  }
+
+  /**
+   * Records the latency between the start of a data query of a track and the update of the
+   * track with the result.
+   */
+  public void recordFetch(String trackType, long nanos) {
+    record(FETCH_PREFIX + trackType, nanos);
+  }
+
+  public void recordCacheLookup(boolean hit) {
+    if (hit) {
+      cacheHits++;
+    } else {
+      cacheMisses++;
+    }
+  }
+
+  private void record(String label, long nanos) {
+    Histogram histogram = histograms.get(label);
+    if (histogram == null) {
+      histograms.put(label, histogram = new Histogram());
+    }
+    histogram.add(nanos);
+  }
+
+  public void reset() {
+    histograms.clear();
+    cacheHits = cacheMisses = 0;
+  }
+
+  /**
+   * Draws the statistics, slowest first, in the top right corner of the given width.
+   */
+  public void render(RenderContext ctx, double w) {
+    List<String[]> rows = Lists.newArrayList();
+    rows.add(new String[] { "", "count", "p50 ms", "p95 ms", "max ms" });
+    histograms.entrySet().stream()
+        .sorted((a, b) -> Long.compare(b.getValue().percentile(95), a.getValue().percentile(95)))
+        .limit(MAX_OVERLAY_ROWS)
+        .forEach(e -> rows.add(new String[] {
+            e.getKey(),
+            String.valueOf(e.getValue().getCount()),
+            String.format("%.2f", toMillis(e.getValue().percentile(50))),
+            String.format("%.2f", toMillis(e.getValue().percentile(95))),
+            String.format("%.2f", toMillis(e.getValue().max())),
+        }));
+    String footer = String.format("Data cache hit rate: %.1f%% of %d. Press 'p' to export as CSV.",
+        getCacheHitRate() * 100, cacheHits + cacheMisses);
+
+    double[] widths = new double[rows.get(0).length];
+    double rowHeight = 0;
+    for (String[] row : rows) {
+      for (int i = 0; i < row.length; i++) {
+        Size size = ctx.measure(Fonts.Style.Normal, row[i]);
+        widths[i] = Math.max(widths[i], size.w);
+        rowHeight = Math.max(rowHeight, size.h);
+      }
+    }
+    double width = (widths.length - 1) * OVERLAY_PADDING;
+    for (double cw : widths) {
+      width += cw;
+    }
+    width = Math.max(width, ctx.measure(Fonts.Style.Normal, footer).w);
+    double height = (rows.size() + 1) * rowHeight;
+
+    double x = w - width - 2 * OVERLAY_PADDING - OVERLAY_MARGIN, y = OVERLAY_MARGIN;
+    ctx.setBackgroundColor(OVERLAY_BACKGROUND);
+    ctx.fillRect(x, y, width + 2 * OVERLAY_PADDING, height + 2 * OVERLAY_PADDING);
+    ctx.setForegroundColor(OVERLAY_TEXT);
+    x += OVERLAY_PADDING;
+    y += OVERLAY_PADDING;
+    for (String[] row : rows) {
+      ctx.drawText(Fonts.Style.Normal, row[0], x, y);
+      double cx = x + widths[0];
+      for (int i = 1; i < row.length; i++) {
+        cx += OVERLAY_PADDING + widths[i];
+        ctx.drawTextRightJustified(Fonts.Style.Normal, row[i], cx, y, rowHeight);
+      }
+      y += rowHeight;
+    }
+    ctx.drawText(Fonts.Style.Normal, footer, x, y);
+  }
+
+  /**
+   * @return the statistics as CSV, with one row per histogram.
+   */
+  public String toCsv() {
+    StringBuilder sb = new StringBuilder()
+        .append("label,count,total,mean_ms,p50_ms,p95_ms,p99_ms,max_ms\n");
+    histograms.forEach((label, h) -> sb.append('"').append(label.replace("\"", "\"\"")).append('"')
+        .append(',').append(h.getCount())
+        .append(',').append(h.getTotalCount())
+        .append(',').append(toMillis(h.mean()))
+        .append(',').append(toMillis(h.percentile(50)))
+        .append(',').append(toMillis(h.percentile(95)))
+        .append(',').append(toMillis(h.percentile(99)))
+        .append(',').append(toMillis(h.max()))
+        .append('\n'));
+    sb.append("\"Data cache hits\",").append(cacheHits).append(",,,,,,\n");
+    sb.append("\"Data cache misses\",").append(cacheMisses).append(",,,,,,\n");
+    return sb.toString();
+  }
+
+  /**
+   * Writes the statistics as CSV to a new file in the log directory, or the temp directory.
+   */
+  public void export() {
+    File dir = Logging.getLogDir();
+    if (dir == null) {
+      dir = new File(System.getProperty("java.io.tmpdir"));
+    }
+    File file = new File(dir, "perfetto-frames-" + System.currentTimeMillis() + ".csv");
+    try {
+      Files.write(file.toPath(), toCsv().getBytes(UTF_8));
+      LOG.log(INFO, "Wrote timeline render statistics to {0}", file);
+    } catch (IOException e) {
+      LOG.log(WARNING, "Failed to write the timeline render statistics to " + file, e);
+    }
+  }
+
+  private double getCacheHitRate() {
+    long total = cacheHits + cacheMisses;
+    return (total == 0) ? 0 : (double)cacheHits / total;
+  }
+
+  private static double toMillis(double nanos) {
+    return nanos / NANOSECONDS.convert(1, MILLISECONDS);
+  }
+
+  /**
+   * A rolling window of the most recent samples.
+   */
+  private static class Histogram {
+    private final long[] samples = new long[WINDOW_SIZE];
+    private final long[] sorted = new long[WINDOW_SIZE];
+    private int count = 0;
+    private long total = 0;
+    private boolean dirty = false;
+
+    public Histogram() {
+    }
+
+    public void add(long value) {
+      samples[(int)(total % WINDOW_SIZE)] = value;
+      count = Math.min(count + 1, WINDOW_SIZE);
+      total++;
+      dirty = true;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public long getTotalCount() {
+      return total;
+    }
+
+    public double mean() {
+      long sum = 0;
+      for (int i = 0; i < count; i++) {
+        sum += samples[i];
+      }
+      return (count == 0) ? 0 : (double)sum / count;
+    }
+
+    public long percentile(int p) {
+      if (count == 0) {
+        return 0;
+      }
+      sort();
+      return sorted[Math.min(count - 1, (count * p) / 100)];
+    }
+
+    public long max() {
+      if (count == 0) {
+        return 0;
+      }
+      sort();
+      return sorted[count - 1];
+    }
+
+    private void sort() {
+      if (dirty) {
+        System.arraycopy(samples, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        dirty = false;
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.canvas;
+
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Control;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the rendered content of a {@link Panel} in an offscreen {@link Image}, so that repaints
+ * which don't change the content, such as hover feedback, only need to copy the image to the
+ * screen. The content is identified by a key, which should combine everything the rendering
+ * depends on, e.g. the data version and the visible time. See
+ * {@link RenderContext#withOffscreenCache}.
+ */
+public class OffscreenCache {
+  private Object key;
+  private Image image;
+
+  public OffscreenCache() {
+  }
+
+  /**
+   * Drops the cached image, forcing the content to be rendered again on the next repaint.
+   */
+  public void invalidate() {
+    key = null;
+  }
+
+  // Returns the cached image, if it was rendered for the given key and size.
+  Image get(Object newKey, int width, int height) {
+    if (image == null || image.isDisposed() || key == null || !key.equals(newKey)) {
+      return null;
+    }
+    Rectangle bounds = image.getBounds();
+    return (bounds.width == width && bounds.height == height) ? image : null;
+  }
+
+  void set(Object newKey, Image newImage) {
+    dispose();
+    key = newKey;
+    image = newImage;
+  }
+
+  void dispose() {
+    if (image != null && !image.isDisposed()) {
+      image.dispose();
+    }
+    image = null;
+    key = null;
+  }
+
+  /**
+   * Bounds the total size of the offscreen images of a canvas. Panels are not disposed when they
+   * are removed from the canvas, thus the images are owned by the pool and the least recently used
+   * images are disposed once the budget is exceeded.
+   */
+  static class Pool {
+    // The budget in number of screens worth of pixels.
+    private static final int BUDGET_SCREENS = 3;
+    private static final long MIN_BUDGET = 4 * 1024 * 1024;
+
+    private final Control owner;
+    // Access ordered, thus iterates the least recently used caches first.
+    private final LinkedHashMap<OffscreenCache, Long> caches =
+        new LinkedHashMap<OffscreenCache, Long>(16, 0.75f, true);
+    private long size = 0;
+
+    public Pool(Control owner) {
+      this.owner = owner;
+    }
+
+    public void used(OffscreenCache cache) {
+      caches.get(cache);
+    }
+
+    public void added(OffscreenCache cache, int width, int height) {
+      Long old = caches.put(cache, (long)width * height);
+      size += (long)width * height - ((old == null) ? 0 : old);
+
+      Rectangle area = owner.getClientArea();
+      long budget = Math.max(MIN_BUDGET, BUDGET_SCREENS * (long)area.width * area.height);
+      for (Iterator<Map.Entry<OffscreenCache, Long>> it = caches.entrySet().iterator();
+          size > budget && it.hasNext(); ) {
+        Map.Entry<OffscreenCache, Long> entry = it.next();
+        if (entry.getKey() != cache) {
+          entry.getKey().dispose();
+          size -= entry.getValue();
+          it.remove();
+        }
+      }
+    }
+
+    public void dispose() {
+      for (OffscreenCache cache : caches.keySet()) {
+        cache.dispose();
+      }
+      caches.clear();
+      size = 0;
+    }
+  }
+}
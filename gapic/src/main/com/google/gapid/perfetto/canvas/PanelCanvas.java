@@ -64,11 +64,18 @@ public class PanelCanvas extends Canvas {
         panel.render(ctx, a -> scheduleIfNotDisposed(this, () -> redraw(a, false)));
         ctx.renderOverlays();
         traces = ctx.getTraces();
+        if (FrameProfiler.isEnabled()) {
+          // Shows the statistics up to the previous frame.
+          FrameProfiler.get().render(ctx, getClientArea().width);
+        }
       }
       long end = System.nanoTime();
       if (LOG.isLoggable(Level.FINE)) {
         LOG.log(Level.FINE, size + " (" + (end - start) / 1000000.0 + ") " + traces);
       }
+      if (FrameProfiler.isEnabled()) {
+        FrameProfiler.get().recordFrame(end - start, traces);
+      }
 
       if (showRedraws.get()) {
         size.width--;
@@ -15,6 +15,8 @@
  */
 package com.google.gapid.perfetto.canvas;
 
+import static com.google.gapid.perfetto.views.StyleConstants.colors;
+
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -31,6 +33,7 @@ import org.eclipse.swt.graphics.Transform;
 import org.eclipse.swt.internal.DPIUtil;
 import org.eclipse.swt.widgets.Control;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -43,7 +46,7 @@ import java.util.logging.Logger;
 public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   protected static final Logger LOG = Logger.getLogger(RenderContext.class.getName());
 
-  private static final int textSizeGreediness = 3; // must be >= 1.
+  private static final String ELLIPSIS = "...";
   protected static final double scale = DPIUtil.autoScaleDown(8f);
 
   public final Theme theme;
@@ -51,16 +54,32 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   private final GC gc;
   private final ColorCache colors;
   private final Fonts.Context fontContext;
+  private final OffscreenCache.Pool offscreen;
   private final LinkedList<TransformAndClip> transformStack = Lists.newLinkedList();
   private final List<Overlay> overlays = Lists.newArrayList();
   private final Map<String, Long> traces = Maps.newHashMap();
   private Fonts.Style lastFontStyle = Fonts.Style.Normal;
+  // The current colors, null if not set via this context. The alpha is shared by both colors.
+  private RGBA background, foreground;
+  private int alpha = 255;
+  private final Batch batch = new Batch();
+  private boolean batching = false;
+  // Whether the colors of the GC are out of date, due to color changes while batching.
+  private boolean stale = false;
+  // The sum of the vertical translations, i.e. the y of the origin of the current transform.
+  private double offsetY = 0;
 
   public RenderContext(Theme theme, GC gc, ColorCache colors, Fonts.Context fontContext) {
+    this(theme, gc, colors, fontContext, null);
+  }
+
+  RenderContext(Theme theme, GC gc, ColorCache colors, Fonts.Context fontContext,
+      OffscreenCache.Pool offscreen) {
     this.theme = theme;
     this.gc = gc;
     this.colors = colors;
     this.fontContext = fontContext;
+    this.offscreen = offscreen;
 
     Area clip = Area.of(gc.getClipping());
     Transform transform = new Transform(gc.getDevice());
@@ -79,6 +98,7 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   }
 
   public void renderOverlays() {
+    flush();
     if (!overlays.isEmpty()) {
       trace("Overlays", () -> {
         for (Overlay overlay : overlays) {
@@ -109,6 +129,7 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
 
   @Override
   public void close() {
+    flush();
     Preconditions.checkState(
         transformStack.size() == 1, "transform stack size != 1: %s", transformStack.size());
     for (TransformAndClip t : transformStack) {
@@ -123,26 +144,66 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   }
 
   public void setForegroundColor(RGBA color) {
-    gc.setForeground(colors.get(color));
-    gc.setAlpha(color.alpha);
+    foreground = color;
+    alpha = color.alpha;
+    if (batching) {
+      stale = true;
+    } else {
+      gc.setForeground(colors.get(color));
+      gc.setAlpha(color.alpha);
+    }
   }
 
   public void setForegroundColor(int sysColor) {
-    gc.setForeground(gc.getDevice().getSystemColor(sysColor));
-    gc.setAlpha(255);
+    setForegroundColor(gc.getDevice().getSystemColor(sysColor).getRGBA());
   }
 
   public void setBackgroundColor(RGBA color) {
-    gc.setBackground(colors.get(color));
-    gc.setAlpha(color.alpha);
+    background = color;
+    alpha = color.alpha;
+    if (batching) {
+      stale = true;
+    } else {
+      gc.setBackground(colors.get(color));
+      gc.setAlpha(color.alpha);
+    }
   }
 
   public void setBackgroundColor(int sysColor) {
-    gc.setBackground(gc.getDevice().getSystemColor(sysColor));
-    gc.setAlpha(255);
+    setBackgroundColor(gc.getDevice().getSystemColor(sysColor).getRGBA());
+  }
+
+  /**
+   * Batches the filled rectangles and the text drawn by the given runnable. The rectangles are
+   * grouped by color and filled first, followed by the text, in order, when the runnable returns
+   * or before any other drawing operation. Thus, this should only be used if none of the
+   * rectangles overlap each other and the text is meant to be on top, e.g. for rows of slices.
+   */
+  public void batch(Runnable run) {
+    if (batching) {
+      run.run();
+      return;
+    }
+
+    batching = true;
+    try {
+      run.run();
+    } finally {
+      flush();
+      batching = false;
+    }
+  }
+
+  // Draws the batched rectangles and text. Has to be called before drawing anything not batched.
+  private void flush() {
+    if (batching && (stale || !batch.isEmpty())) {
+      batch.render();
+      stale = false;
+    }
   }
 
   public void drawLine(double x1, double y1, double x2, double y2) {
+    flush();
     gc.drawLine(scale(x1), scale(y1), scale(x2), scale(y2));
   }
 
@@ -157,6 +218,7 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   }
 
   public void drawRect(double x, double y, double w, double h) {
+    flush();
     gc.drawRectangle(rect(x, y, w, h));
   }
 
@@ -171,15 +233,22 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   }
 
   public void fillRect(double x, double y, double w, double h) {
-    gc.fillRectangle(rect(x, y, w, h));
+    if (batching && background != null) {
+      batch.addRect(background, alpha, scale(x), scale(y), scale(w), scale(h));
+    } else {
+      flush();
+      gc.fillRectangle(rect(x, y, w, h));
+    }
   }
 
   public void drawCircle(double cx, double cy, double r) {
+    flush();
     int d = 2 * scale(r);
     gc.drawOval(scale(cx - r), scale(cy - r), d, d);
   }
 
   public void fillPolygon(double[] xPoints, double[] yPoints, int n) {
+    flush();
     int[] points = new int[2 * n];
     for (int i = 0, j = 0; i < n; i++, j += 2) {
       points[j + 0] = scale(xPoints[i]);
@@ -189,6 +258,7 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   }
 
   public void drawPolygon(double[] xPoints, double[] yPoints, int n) {
+    flush();
     int[] points = new int[2 * n];
     for (int i = 0, j = 0; i < n; i++, j += 2) {
       points[j + 0] = scale(xPoints[i]);
@@ -199,11 +269,20 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
 
   // x, y is top left corner of text.
   public void drawText(Fonts.Style style, String text, double x, double y) {
+    if (batching && foreground != null) {
+      batch.addText(style, text, scale(x), scale(y), foreground, alpha);
+    } else {
+      flush();
+      drawText(style, text, scale(x), scale(y));
+    }
+  }
+
+  private void drawText(Fonts.Style style, String text, int x, int y) {
     if (style != lastFontStyle) {
       lastFontStyle = style;
       fontContext.setFont(gc, style);
     }
-    gc.drawText(text, scale(x), scale(y), SWT.DRAW_TRANSPARENT);
+    gc.drawText(text, x, y, SWT.DRAW_TRANSPARENT);
   }
 
   // draws text centered vertically
@@ -225,21 +304,41 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   private void drawText(
       Fonts.Style style, String text, double x, double y, double w, double h, boolean truncate) {
     String toDisplay = text;
-    for (int l = text.length(); ; ) {
-      Size size = fontContext.measure(style, toDisplay);
-      if (size.w < w) {
-        drawText(style, toDisplay, x + (w - size.w) / 2 , y + (h - size.h) / 2);
-        break;
-      } else if (!truncate) {
-        break;
+    Size size = fontContext.measure(style, text);
+    if (size.w >= w) {
+      toDisplay = truncate ? truncateRight(style, text, w) : null;
+      if (toDisplay == null) {
+        return;
       }
+      size = fontContext.measure(style, toDisplay);
+    }
+    drawText(style, toDisplay, x + (w - size.w) / 2 , y + (h - size.h) / 2);
+  }
+
+  // Returns the text, right truncated to fit into the given width, or null if nothing fits.
+  private String truncateRight(Fonts.Style style, String text, double w) {
+    double available = w - fontContext.measure(style, ELLIPSIS).w;
+    // The sum of the glyph widths is a close estimate of the width of the text, only adjust it if
+    // kerning, etc. makes the text wider.
+    for (int l = fontContext.fitPrefix(style, text, available); l > 0; l--) {
+      String result = text.substring(0, l) + ELLIPSIS;
+      if (fontContext.measure(style, result).w < w) {
+        return result;
+      }
+    }
+    return null;
+  }
 
-      l = Math.min(l - textSizeGreediness, (int)(w / (size.w / toDisplay.length())));
-      if (l <= 0) {
-        break;
+  // Returns the text, left truncated to fit into the given width, or null if nothing fits.
+  private String truncateLeft(Fonts.Style style, String text, double w) {
+    double available = w - fontContext.measure(style, ELLIPSIS).w;
+    for (int l = fontContext.fitSuffix(style, text, available); l > 0; l--) {
+      String result = ELLIPSIS + text.substring(text.length() - l);
+      if (fontContext.measure(style, result).w < w) {
+        return result;
       }
-      toDisplay = text.substring(0, l) + "...";
     }
+    return null;
   }
 
   // draws text centered vertically, left truncated to fit into the given width.
@@ -257,19 +356,15 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   private void drawTextLeftTruncate(
       Fonts.Style style, String text, double x, double y, double w, double h, boolean centered) {
     String toDisplay = text;
-    for (int l = text.length(); ; ) {
-      Size size = fontContext.measure(style, toDisplay);
-      if (size.w < w) {
-        drawText(style, toDisplay, x + (centered ? (w - size.w) / 2 : 0), y + (h - size.h) / 2);
-        break;
-      }
-
-      l = Math.min(l - textSizeGreediness, (int)(w / (size.w / toDisplay.length())));
-      if (l <= 0) {
-        break;
+    Size size = fontContext.measure(style, text);
+    if (size.w >= w) {
+      toDisplay = truncateLeft(style, text, w);
+      if (toDisplay == null) {
+        return;
       }
-      toDisplay = "..." + text.substring(text.length() - l);
+      size = fontContext.measure(style, toDisplay);
     }
+    drawText(style, toDisplay, x + (centered ? (w - size.w) / 2 : 0), y + (h - size.h) / 2);
   }
 
   // draws text centered vertically and horizontally, left truncated to fit into the given width.
@@ -299,19 +394,15 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   private void drawTextRightTruncate(
       Fonts.Style style, String text, double x, double y, double w, double h, boolean centered) {
     String toDisplay = text;
-    for (int l = text.length(); ; ) {
-      Size size = fontContext.measure(style, toDisplay);
-      if (size.w < w) {
-        drawText(style, toDisplay, x + (centered ? (w - size.w) / 2 : 0), y + (h - size.h) / 2);
-        break;
-      }
-
-      l = Math.min(l - textSizeGreediness, (int)(w / (size.w / toDisplay.length())));
-      if (l <= 0) {
-        break;
+    Size size = fontContext.measure(style, text);
+    if (size.w >= w) {
+      toDisplay = truncateRight(style, text, w);
+      if (toDisplay == null) {
+        return;
       }
-      toDisplay = text.substring(0, l) + "...";
+      size = fontContext.measure(style, toDisplay);
     }
+    drawText(style, toDisplay, x + (centered ? (w - size.w) / 2 : 0), y + (h - size.h) / 2);
   }
 
   public void drawTextTruncate(
@@ -330,14 +421,17 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
   }
 
   public void drawPath(Path path) {
+    flush();
     gc.drawPath(path.path);
   }
 
   public void fillPath(Path path) {
+    flush();
     gc.fillPath(path.path);
   }
 
   public void drawImage(Image image, double x, double y) {
+    flush();
     Rectangle bounds = image.getBounds();
     int sx = scale(x), sy = scale(y), sw = scale(bounds.width), sh = scale(bounds.height);
     gc.drawImage(image, 0, 0, bounds.width, bounds.height, sx, sy, sw, sh);
@@ -345,6 +439,7 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
 
   // draws the icon centered vertically
   public void drawIcon(Image image, double x, double y, double h) {
+    flush();
     Rectangle size = image.getBounds();
     gc.drawImage(image, 0, 0, size.width,size.height,
         scale(x), scale(y + (h - size.height) / 2), scale(size.width), scale(size.height));
@@ -363,7 +458,62 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
     return transformStack.getLast().clip;
   }
 
+  /**
+   * Returns the y coordinate of the origin of the current translation, relative to the origin of
+   * this context.
+   */
+  public double getOffsetY() {
+    return offsetY;
+  }
+
+  /**
+   * Renders the content of the given area through the given cache. If the cache holds an image of
+   * the content for the given key and size, the image is drawn. Otherwise, the renderer is invoked
+   * to draw the content into a new offscreen image first, with the top left corner of the area as
+   * its origin. A {@code null} key disables the caching, e.g. while the content is still loading,
+   * and simply invokes the renderer with this context.
+   */
+  public void withOffscreenCache(OffscreenCache cache, Object key,
+      double x, double y, double w, double h, Consumer<RenderContext> renderer) {
+    int iw = (int)Math.ceil(w), ih = (int)Math.ceil(h);
+    if (key == null || offscreen == null || iw <= 0 || ih <= 0) {
+      withTranslation(x, y, () -> renderer.accept(this));
+      return;
+    } else if (getClip().intersect(x, y, w, h).isEmpty()) {
+      return;
+    }
+
+    flush();
+    Image image = cache.get(key, iw, ih);
+    if (image == null) {
+      image = new Image(gc.getDevice(), iw, ih);
+      GC imageGc = new GC(image);
+      try {
+        imageGc.setBackground(colors.get(colors().background));
+        imageGc.fillRectangle(0, 0, iw, ih);
+        try (RenderContext ctx =
+            new RenderContext(theme, imageGc, colors, fontContext, offscreen)) {
+          trace("Offscreen", () -> {
+            renderer.accept(ctx);
+            ctx.renderOverlays();
+          });
+          ctx.getTraces().forEach((label, time) -> traces.merge(label, time, Long::sum));
+        }
+      } finally {
+        imageGc.dispose();
+      }
+      cache.set(key, image);
+      offscreen.added(cache, iw, ih);
+    } else {
+      offscreen.used(cache);
+    }
+
+    gc.setAlpha(alpha = 255);
+    drawImage(image, x, y);
+  }
+
   public void withTranslation(double x, double y, Runnable run) {
+    flush();
     Area clip = getClip().translate(-x, -y);
     Transform transform = new Transform(gc.getDevice());
     try {
@@ -371,7 +521,10 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
       transform.translate((float)(x * scale), (float)(y * scale));
       gc.setTransform(transform);
       transformStack.add(new TransformAndClip(transform, clip));
+      offsetY += y;
       run.run();
+      flush();
+      offsetY -= y;
       transformStack.removeLast(); // == transform
       gc.setTransform(transformStack.getLast().transform);
     } finally {
@@ -388,9 +541,11 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
       return;
     }
 
+    flush();
     gc.setClipping(rect(clip.x, clip.y, clip.w, clip.h));
     transformStack.add(new TransformAndClip(transformStack.getLast().transform, clip));
     run.run();
+    flush();
     transformStack.removeLast();
     gc.setClipping(rect(old.x, old.y, old.w, old.h));
   }
@@ -446,15 +601,17 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
     private final Theme theme;
     private final ColorCache colors;
     private final Fonts.Context fontContext;
+    private final OffscreenCache.Pool offscreen;
 
     public Global(Theme theme, Control owner) {
       this.theme = theme;
       this.colors = new ColorCache(owner.getDisplay());
       this.fontContext = new Fonts.Context(owner);
+      this.offscreen = new OffscreenCache.Pool(owner);
     }
 
     public RenderContext newContext(GC gc) {
-      return new RenderContext(theme, gc, colors, fontContext);
+      return new RenderContext(theme, gc, colors, fontContext, offscreen);
     }
 
     public Color getColor(RGBA rgba) {
@@ -477,6 +634,7 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
     }
 
     public void dispose() {
+      offscreen.dispose();
       colors.dispose();
       fontContext.dispose();
     }
@@ -498,6 +656,135 @@ public class RenderContext implements Fonts.TextMeasurer, AutoCloseable {
     }
   }
 
+  /**
+   * Filled rectangles grouped by color and text to be drawn on top, in order.
+   */
+  private class Batch {
+    // Keyed by the color, with the alpha in use when the rectangles were added.
+    private final Map<RGBA, Rects> rects = Maps.newLinkedHashMap();
+    private final List<Text> texts = Lists.newArrayList();
+
+    public Batch() {
+    }
+
+    public boolean isEmpty() {
+      return rects.isEmpty() && texts.isEmpty();
+    }
+
+    public void addRect(RGBA color, int a, int x, int y, int w, int h) {
+      RGBA key = (color.alpha == a) ? color :
+          new RGBA(color.rgb.red, color.rgb.green, color.rgb.blue, a);
+      Rects group = rects.get(key);
+      if (group == null) {
+        rects.put(key, group = new Rects());
+      }
+      group.add(x, y, w, h);
+    }
+
+    public void addText(Fonts.Style style, String text, int x, int y, RGBA color, int a) {
+      texts.add(new Text(style, text, x, y, color, a));
+    }
+
+    public void render() {
+      for (Map.Entry<RGBA, Rects> entry : rects.entrySet()) {
+        gc.setBackground(colors.get(entry.getKey()));
+        gc.setAlpha(entry.getKey().alpha);
+        entry.getValue().fill(gc);
+      }
+      rects.clear();
+
+      RGBA lastColor = null;
+      int lastAlpha = -1;
+      for (Text text : texts) {
+        if (text.color != lastColor) {
+          gc.setForeground(colors.get(lastColor = text.color));
+        }
+        if (text.alpha != lastAlpha) {
+          gc.setAlpha(lastAlpha = text.alpha);
+        }
+        drawText(text.style, text.text, text.x, text.y);
+      }
+      texts.clear();
+
+      // Restore the state expected by the following, not batched, drawing operations.
+      if (background != null) {
+        gc.setBackground(colors.get(background));
+      }
+      if (foreground != null) {
+        gc.setForeground(colors.get(foreground));
+      }
+      gc.setAlpha(alpha);
+    }
+  }
+
+  // Rectangles of a single color. Adjacent rectangles of the same row are merged, and the
+  // remaining ones filled as a single path.
+  private static class Rects {
+    private int[] xywh = new int[4 * 16];
+    private int count = 0;
+
+    public Rects() {
+    }
+
+    public void add(int x, int y, int w, int h) {
+      if (count > 0) {
+        int last = 4 * (count - 1);
+        int lastEnd = xywh[last] + xywh[last + 2];
+        // Allow for rounding errors of a single (sub-pixel) unit.
+        if (xywh[last + 1] == y && xywh[last + 3] == h && Math.abs(lastEnd - x) <= 1) {
+          xywh[last + 2] = Math.max(lastEnd, x + w) - xywh[last];
+          return;
+        }
+      }
+
+      if (4 * count == xywh.length) {
+        xywh = Arrays.copyOf(xywh, 2 * xywh.length);
+      }
+      int i = 4 * count++;
+      xywh[i + 0] = x;
+      xywh[i + 1] = y;
+      xywh[i + 2] = w;
+      xywh[i + 3] = h;
+    }
+
+    public void fill(GC gc) {
+      if (count == 1) {
+        gc.fillRectangle(xywh[0], xywh[1], xywh[2], xywh[3]);
+      } else {
+        org.eclipse.swt.graphics.Path path = new org.eclipse.swt.graphics.Path(gc.getDevice());
+        // Overlapping rectangles would cancel each other out with the even-odd rule.
+        int fillRule = gc.getFillRule();
+        try {
+          for (int i = 0; i < 4 * count; i += 4) {
+            path.addRectangle(xywh[i + 0], xywh[i + 1], xywh[i + 2], xywh[i + 3]);
+          }
+          gc.setFillRule(SWT.FILL_WINDING);
+          gc.fillPath(path);
+        } finally {
+          gc.setFillRule(fillRule);
+          path.dispose();
+        }
+      }
+    }
+  }
+
+  private static class Text {
+    public final Fonts.Style style;
+    public final String text;
+    public final int x, y;
+    public final RGBA color;
+    public final int alpha;
+
+    public Text(Fonts.Style style, String text, int x, int y, RGBA color, int alpha) {
+      this.style = style;
+      this.text = text;
+      this.x = x;
+      this.y = y;
+      this.color = color;
+      this.alpha = alpha;
+    }
+  }
+
   private static class Overlay {
     public final Transform transform;
     public final Runnable renderer;
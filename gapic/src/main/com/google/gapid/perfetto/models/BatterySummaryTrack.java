@@ -38,6 +38,7 @@ import com.google.gapid.perfetto.views.State;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.IntStream;
 import org.eclipse.swt.widgets.Composite;
 
@@ -89,16 +90,24 @@ public class BatterySummaryTrack extends Track.WithQueryEngine<BatterySummaryTra
 
   @Override
   protected ListenableFuture<?> initialize() {
+    String vals = tableName("vals");
+    String span = tableName("span");
+    String window = tableName("window");
+    return transformAsync(cleanup(), $ -> qe.queries(
+        createView(vals, viewSql()),
+        createWindow(window),
+        createSpan(span, vals + ", " + window)));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
     String vals = tableName("vals");
     String span = tableName("span");
     String window = tableName("window");
     return qe.queries(
         dropTable(span),
         dropTable(window),
-        dropView(vals),
-        createView(vals, viewSql()),
-        createWindow(window),
-        createSpan(span, vals + ", " + window));
+        dropView(vals));
   }
 
   private String viewSql() {
@@ -252,6 +261,11 @@ public class BatterySummaryTrack extends Track.WithQueryEngine<BatterySummaryTra
       return valueKeys.contains(key);
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      valueKeys.forEach(keys::accept);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new BatterySelectionView(parent, state, this);
@@ -39,6 +39,7 @@ import org.eclipse.swt.widgets.Composite;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
   private static final String VIEW_SQL_DELTA =
@@ -70,16 +71,24 @@ public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
 
   @Override
   protected ListenableFuture<?> initialize() {
+    String vals = tableName("vals");
+    String span = tableName("span");
+    String window = tableName("window");
+    return transformAsync(cleanup(), $ -> qe.queries(
+        createView(vals, viewSql()),
+        createWindow(window),
+        createSpan(span, vals + ", " + window)));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
     String vals = tableName("vals");
     String span = tableName("span");
     String window = tableName("window");
     return qe.queries(
         dropTable(span),
         dropTable(window),
-        dropView(vals),
-        createView(vals, viewSql()),
-        createWindow(window),
-        createSpan(span, vals + ", " + window));
+        dropView(vals));
   }
 
   private String viewSql() {
@@ -219,6 +228,11 @@ public class CounterTrack extends Track.WithQueryEngine<CounterTrack.Data> {
       return valueKeys.contains(key);
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      valueKeys.forEach(keys::accept);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new CountersSelectionView(parent, state, this);
@@ -61,6 +61,23 @@ public class CpuFrequencyTrack extends Track.WithQueryEngine<CpuFrequencyTrack.D
 
   @Override
   protected ListenableFuture<?> initialize() {
+    String activity = tableName("activity");
+    String span = tableName("span");
+    String idle = tableName("idle");
+    String freq = tableName("freq");
+    String freqIdle = tableName("freq_idle");
+    String window = tableName("window");
+    return transformAsync(cleanup(), $ -> qe.queries(
+        createWindow(window),
+        createView(freq, format(FREQ_VIEW_SQL, cpu.id, cpu.freqId)),
+        createView(idle, format(IDLE_VIEW_SQL, cpu.id, cpu.idleId)),
+        createSpan(freqIdle, freq + " PARTITIONED cpu, " + idle + " PARTITIONED cpu"),
+        createSpan(span, freqIdle + " PARTITIONED cpu, " + window),
+        createView(activity, format(ACT_VIEW_SQL, span))));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
     String activity = tableName("activity");
     String span = tableName("span");
     String idle = tableName("idle");
@@ -73,14 +90,7 @@ public class CpuFrequencyTrack extends Track.WithQueryEngine<CpuFrequencyTrack.D
         dropView(idle),
         dropView(freq),
         dropTable(freqIdle),
-        dropTable(window),
-        createWindow(window),
-        createView(freq, format(FREQ_VIEW_SQL, cpu.id, cpu.freqId)),
-        createView(idle, format(IDLE_VIEW_SQL, cpu.id, cpu.idleId)),
-        createSpan(freqIdle, freq + " PARTITIONED cpu, " + idle + " PARTITIONED cpu"),
-        createSpan(span, freqIdle + " PARTITIONED cpu, " + window),
-        createView(activity, format(ACT_VIEW_SQL, span))
-    );
+        dropTable(window));
   }
 
   @Override
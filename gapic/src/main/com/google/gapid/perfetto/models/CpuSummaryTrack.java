@@ -53,12 +53,18 @@ public class CpuSummaryTrack extends Track.WithQueryEngine<CpuSummaryTrack.Data>
 
   @Override
   protected ListenableFuture<?> initialize() {
+    String span = tableName("span"), window = tableName("window");
+    return transformAsync(cleanup(), $ -> qe.queries(
+        createWindow(window),
+        createSpan(span, "sched PARTITIONED cpu, " + window)));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
     String span = tableName("span"), window = tableName("window");
     return qe.queries(
         dropTable(span),
-        dropTable(window),
-        createWindow(window),
-        createSpan(span, "sched PARTITIONED cpu, " + window));
+        dropTable(window));
   }
 
   @Override
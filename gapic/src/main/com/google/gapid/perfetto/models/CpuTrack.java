@@ -44,6 +44,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 /**
  * {@link Track} containing CPU slices for a single core.
@@ -84,12 +85,18 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
 
   @Override
   protected ListenableFuture<?> initialize() {
+    String span = tableName("span"), window = tableName("window");
+    return transformAsync(cleanup(), $ -> qe.queries(
+        createWindow(window),
+        createSpan(span, "sched PARTITIONED cpu, " + window)));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
     String span = tableName("span"), window = tableName("window");
     return qe.queries(
         dropTable(span),
-        dropTable(window),
-        createWindow(window),
-        createSpan(span, "sched PARTITIONED cpu, " + window));
+        dropTable(window));
   }
 
   @Override
@@ -104,12 +111,12 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
       int len = w.getNumberOfBuckets();
       String[] concatedIds = new String[len];
       Arrays.fill(concatedIds, "");
-      Data data = new Data(req, w.bucketSize, concatedIds, new double[len]);
+      double[] utilizations = new double[len];
       result.forEachRow(($, r) -> {
-        data.concatedIds[r.getInt(0)] = r.getString(1);
-        data.utilizations[r.getInt(0)] = r.getDouble(2);
+        concatedIds[r.getInt(0)] = r.getString(1);
+        utilizations[r.getInt(0)] = r.getDouble(2);
       });
-      return data;
+      return new Data(req, w.bucketSize, concatedIds, utilizations);
     });
   }
 
@@ -189,6 +196,7 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
     // Summary.
     public final long bucketSize;
     public final String[] concatedIds;    // Concated ids for all cpu slices in a each time bucket.
+    public final IdBuckets idBuckets;     // The parsed concatedIds.
     public final double[] utilizations;
     // Slice.
     public final long[] ids;
@@ -201,6 +209,7 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
       this.kind = Kind.summary;
       this.bucketSize = bucketSize;
       this.concatedIds = concatedIds;
+      this.idBuckets = IdBuckets.parse(concatedIds);
       this.utilizations = utilizations;
       this.ids = null;
       this.starts = null;
@@ -217,6 +226,7 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
       this.utids = utids;
       this.bucketSize = 0;
       this.concatedIds = null;
+      this.idBuckets = null;
       this.utilizations = null;
     }
 
@@ -263,6 +273,11 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
       return id == key;
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      keys.accept(id);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new CpuSliceSelectionView(parent, state, this);
@@ -308,6 +323,11 @@ public class CpuTrack extends Track.WithQueryEngine<CpuTrack.Data> {
       return sliceKeys.contains(key);
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      sliceKeys.forEach(keys::accept);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new CpuSlicesSelectionView(parent, state, this);
@@ -44,6 +44,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 /**
  * Data about a Surface Flinger Frame Events in the trace.
@@ -84,16 +85,24 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
 
   @Override
   protected ListenableFuture<?> initialize() {
+    String slices = tableName("slices");
+    String window = tableName("window");
+    String span = tableName("span");
+    return transformAsync(cleanup(), $ -> qe.queries(
+        createWindow(window),
+        createView(slices, format(SLICES_VIEW, trackId)),
+        createSpan(span, window + ", " + slices + " PARTITIONED depth")));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
     String slices = tableName("slices");
     String window = tableName("window");
     String span = tableName("span");
     return qe.queries(
         dropTable(span),
         dropView(slices),
-        dropTable(window),
-        createWindow(window),
-        createView(slices, format(SLICES_VIEW, trackId)),
-        createSpan(span, window + ", " + slices + " PARTITIONED depth"));
+        dropTable(window));
   }
 
   @Override
@@ -132,12 +141,12 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
       int len = w.getNumberOfBuckets();
       String[] concatedIds = new String[len];
       Arrays.fill(concatedIds, "");
-      Data data = new Data(req, w.bucketSize, concatedIds, new long[len]);
+      long[] numEvents = new long[len];
       result.forEachRow(($, r) -> {
-        data.concatedIds[r.getInt(1)] = r.getString(0);
-        data.numEvents[r.getInt(1)] = r.getLong(2);
+        concatedIds[r.getInt(1)] = r.getString(0);
+        numEvents[r.getInt(1)] = r.getLong(2);
       });
-      return data;
+      return new Data(req, w.bucketSize, concatedIds, numEvents);
     });
   }
 
@@ -181,6 +190,7 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
     // Summary.
     public final long bucketSize;
     public final String[] concatedIds;
+    public final IdBuckets idBuckets;     // The parsed concatedIds.
     public final long[] numEvents;
     // slices
     public final long[] ids;
@@ -201,6 +211,7 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
       this.kind = Kind.summary;
       this.bucketSize = bucketSize;
       this.concatedIds = concatedIds;
+      this.idBuckets = IdBuckets.parse(concatedIds);
       this.numEvents = numEvents;
       this.ids = null;
       this.starts = null;
@@ -217,6 +228,7 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
       this.kind = Kind.slices;
       this.bucketSize = 0;
       this.concatedIds = null;
+      this.idBuckets = null;
       this.numEvents = null;
       this.ids = ids;
       this.starts = starts;
@@ -272,6 +284,11 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
       return id == key;
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      keys.accept(id);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new FrameEventsSelectionView(parent, state, this);
@@ -317,6 +334,11 @@ public class FrameEventsTrack extends Track.WithQueryEngine<FrameEventsTrack.Dat
       return sliceKeys.contains(key);
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      sliceKeys.forEach(keys::accept);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new FrameEventsMultiSelectionView(parent, this);
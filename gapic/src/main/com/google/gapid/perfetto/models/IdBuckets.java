@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import java.util.Arrays;
+
+/**
+ * The ids contained in each bucket of quantized track data. Parsed once, when the data is loaded,
+ * from the comma separated ids returned by the trace processor, so that selection highlights can
+ * be tested while rendering without any string parsing.
+ */
+public class IdBuckets {
+  public static final IdBuckets EMPTY = new IdBuckets(new long[0], new int[] { 0 });
+
+  // The ids of all buckets, sorted within each bucket.
+  private final long[] ids;
+  // The ids of bucket i are ids[offsets[i]] to ids[offsets[i + 1] - 1].
+  private final int[] offsets;
+
+  private IdBuckets(long[] ids, int[] offsets) {
+    this.ids = ids;
+    this.offsets = offsets;
+  }
+
+  /**
+   * @param concatedIds the comma separated ids of each bucket, may contain {@code null} or empty
+   *     entries for empty buckets.
+   */
+  public static IdBuckets parse(String[] concatedIds) {
+    if (concatedIds == null || concatedIds.length == 0) {
+      return EMPTY;
+    }
+
+    int count = 0;
+    for (String bucket : concatedIds) {
+      if (bucket != null && !bucket.isEmpty()) {
+        count++;
+        for (int i = 0; i < bucket.length(); i++) {
+          if (bucket.charAt(i) == ',') {
+            count++;
+          }
+        }
+      }
+    }
+
+    long[] ids = new long[count];
+    int[] offsets = new int[concatedIds.length + 1];
+    int n = 0;
+    for (int b = 0; b < concatedIds.length; b++) {
+      offsets[b] = n;
+      String bucket = concatedIds[b];
+      if (bucket == null || bucket.isEmpty()) {
+        continue;
+      }
+
+      long value = 0;
+      boolean negative = false;
+      for (int i = 0; i <= bucket.length(); i++) {
+        char c = (i == bucket.length()) ? ',' : bucket.charAt(i);
+        if (c == ',') {
+          ids[n++] = negative ? -value : value;
+          value = 0;
+          negative = false;
+        } else if (c == '-') {
+          negative = true;
+        } else if (c >= '0' && c <= '9') {
+          value = value * 10 + (c - '0');
+        }
+      }
+      Arrays.sort(ids, offsets[b], n);
+    }
+    offsets[concatedIds.length] = n;
+    return new IdBuckets(ids, offsets);
+  }
+
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * @return whether any of the ids in the given bucket are contained in the given keys.
+   */
+  public boolean intersects(int bucket, Selection.Keys keys) {
+    if (keys.isEmpty() || bucket < 0 || bucket >= size()) {
+      return false;
+    }
+
+    int start = offsets[bucket], end = offsets[bucket + 1];
+    if (start == end || !keys.mayIntersect(ids[start], ids[end - 1])) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (keys.contains(ids[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -70,13 +70,19 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
     String tids = process.utids.stream()
         .map(String::valueOf)
         .collect(joining(","));
+    return transformAsync(cleanup(), $ -> qe.queries(
+        createWindow(window),
+        createView(sched, format(PROCESS_VIEW_SQL, tids)),
+        createSpan(span, sched + " PARTITIONED cpu, " + window)));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
+    String sched = tableName("sched"), span = tableName("span"), window = tableName("window");
     return qe.queries(
         dropTable(span),
         dropView(sched),
-        dropTable(window),
-        createWindow(window),
-        createView(sched, format(PROCESS_VIEW_SQL, tids)),
-        createSpan(span, sched + " PARTITIONED cpu, " + window));
+        dropTable(window));
   }
 
   @Override
@@ -91,12 +97,12 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
       int len = w.getNumberOfBuckets();
       String[] concatedIds = new String[len];
       Arrays.fill(concatedIds, "");
-      Data data = new Data(req, w.bucketSize, concatedIds, new double[len]);
+      double[] utilizations = new double[len];
       result.forEachRow(($, r) -> {
-        data.concatedIds[r.getInt(0)] = r.getString(1);
-        data.utilizations[r.getInt(0)] = r.getDouble(2);
+        concatedIds[r.getInt(0)] = r.getString(1);
+        utilizations[r.getInt(0)] = r.getDouble(2);
       });
-      return data;
+      return new Data(req, w.bucketSize, concatedIds, utilizations);
     });
   }
 
@@ -158,6 +164,7 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
     // Summary.
     public final long bucketSize;
     public final String[] concatedIds;    // Concated ids for all cpu slices in a each time bucket.
+    public final IdBuckets idBuckets;     // The parsed concatedIds.
     public final double[] utilizations;
     // Slice.
     public final long[] ids;
@@ -171,6 +178,7 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
       this.kind = Kind.summary;
       this.bucketSize = bucketSize;
       this.concatedIds = concatedIds;
+      this.idBuckets = IdBuckets.parse(concatedIds);
       this.utilizations = utilizations;
       this.ids = null;
       this.starts = null;
@@ -190,6 +198,7 @@ public class ProcessSummaryTrack extends Track.WithQueryEngine<ProcessSummaryTra
       this.utids = utids;
       this.bucketSize = 0;
       this.concatedIds = null;
+      this.idBuckets = null;
       this.utilizations = null;
     }
 
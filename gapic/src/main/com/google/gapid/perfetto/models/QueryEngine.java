@@ -180,7 +180,7 @@ public class QueryEngine {
         }
 
         if (s != 0 && d == s) {
-          logFailure(LOG, Scheduler.EXECUTOR.schedule(() -> {
+          logFailure(LOG, Scheduler.TIMERS.schedule(() -> {
             int dd = done.get();
             if (scheduled.compareAndSet(dd, 0)) {
               done.updateAndGet(x -> x - dd);
@@ -28,11 +28,14 @@ import com.google.gapid.perfetto.views.State;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Composite;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 /**
  * Data about the current selection in the UI.
@@ -40,6 +43,7 @@ import java.util.function.Consumer;
 public interface Selection {
   public String getTitle();
   public boolean contains(Long key);
+  public void forEachKey(LongConsumer keys);
   public Composite buildUi(Composite parent, State state);
   public Selection.Builder<?> getBuilder();
 
@@ -68,6 +72,11 @@ public interface Selection {
       return false;
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      // Do nothing.
+    }
+
     @Override
     public boolean isEmpty() {
       return true;
@@ -99,6 +108,7 @@ public interface Selection {
    * */
   public static class MultiSelection {
     private final NavigableMap<Kind, Selection> selections;
+    private final Map<Kind, Keys> keys = Maps.newHashMap();
 
     public MultiSelection(Kind type, Selection selection) {
       this.selections = Maps.newTreeMap();
@@ -121,6 +131,14 @@ public interface Selection {
       return selections.containsKey(type) ? selections.get(type) : Selection.emptySelection();
     }
 
+    /**
+     * @return the compiled keys of the selection of the given kind. The keys are compiled once
+     * and cached until the selection changes.
+     */
+    public Keys getKeys(Kind type) {
+      return keys.computeIfAbsent(type, k -> Keys.of(getSelection(k)));
+    }
+
     @SuppressWarnings({"rawtypes" })
     public void addSelection(MultiSelection other) {
       for (Selection.Kind k : other.selections.keySet()) {
@@ -130,6 +148,7 @@ public interface Selection {
 
     @SuppressWarnings("unchecked")
     public <T extends Builder<T>> void addSelection(Kind kind, Selection selection) {
+      keys.remove(kind);
       Selection old = getSelection(kind);
       if (old == null || old == Selection.EMPTY_SELECTION) {
         selections.put(kind, selection);
@@ -159,6 +178,86 @@ public interface Selection {
     }
   }
 
+  /**
+   * The keys of a selection, compiled for fast, allocation free, membership tests while rendering.
+   * Dense keys are stored in a bitset, others in a sorted array.
+   */
+  public static class Keys {
+    public static final Keys EMPTY = new Keys(new long[0]);
+
+    // Maximum number of bits per key to use a bitset rather than the sorted array.
+    private static final long MAX_BITS_PER_KEY = 64;
+
+    private final long[] sorted;
+    private final long min, max;
+    private final BitSet bits;
+
+    private Keys(long[] sorted) {
+      this.sorted = sorted;
+      this.min = (sorted.length == 0) ? 0 : sorted[0];
+      this.max = (sorted.length == 0) ? -1 : sorted[sorted.length - 1];
+      if (sorted.length > 1 && (max - min) / sorted.length < MAX_BITS_PER_KEY &&
+          max - min < Integer.MAX_VALUE) {
+        bits = new BitSet((int)(max - min + 1));
+        for (long key : sorted) {
+          bits.set((int)(key - min));
+        }
+      } else {
+        bits = null;
+      }
+    }
+
+    public static Keys of(Selection selection) {
+      if (selection.isEmpty()) {
+        return EMPTY;
+      }
+
+      long[][] keys = { new long[16] };
+      int[] count = { 0 };
+      selection.forEachKey(key -> {
+        if (count[0] == keys[0].length) {
+          keys[0] = Arrays.copyOf(keys[0], 2 * count[0]);
+        }
+        keys[0][count[0]++] = key;
+      });
+      long[] sorted = Arrays.copyOf(keys[0], count[0]);
+      Arrays.sort(sorted);
+      return (sorted.length == 0) ? EMPTY : new Keys(dedupe(sorted));
+    }
+
+    private static long[] dedupe(long[] sorted) {
+      int n = 1;
+      for (int i = 1; i < sorted.length; i++) {
+        if (sorted[i] != sorted[n - 1]) {
+          sorted[n++] = sorted[i];
+        }
+      }
+      return (n == sorted.length) ? sorted : Arrays.copyOf(sorted, n);
+    }
+
+    public boolean isEmpty() {
+      return sorted.length == 0;
+    }
+
+    public boolean contains(long key) {
+      if (key < min || key > max) {
+        return false;
+      } else if (bits != null) {
+        return bits.get((int)(key - min));
+      } else {
+        return Arrays.binarySearch(sorted, key) >= 0;
+      }
+    }
+
+    /**
+     * @return whether any of the keys in the given sorted range overlap this set's key range, which
+     * is a quick test to avoid checking the individual keys.
+     */
+    public boolean mayIntersect(long rangeMin, long rangeMax) {
+      return rangeMin <= max && rangeMax >= min;
+    }
+  }
+
   /**
    * Selection builder for combining selections across different {@link Kind}s.
    * */
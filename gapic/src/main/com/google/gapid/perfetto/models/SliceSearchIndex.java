@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static com.google.gapid.perfetto.models.QueryEngine.expectOneRow;
+import static com.google.gapid.util.MoreFutures.transformAsync;
+import static java.lang.String.format;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.perfetto.TimeSpan;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * An in-memory index of the names of all thread and GPU queue slices of a trace, allowing to find
+ * all occurrences of a slice name across all tracks without querying the trace processor. The
+ * index is populated by scanning the slice table once, in time ordered chunks, and keeps the slices
+ * in time order in primitive arrays, with the distinct names stored only once.
+ */
+public class SliceSearchIndex {
+  public static final SliceSearchIndex EMPTY = new Builder().build();
+
+  // The approximate number of slices fetched per query while building the index.
+  private static final int CHUNK_SIZE = 100_000;
+
+  private static final String SLICE_WHERE =
+      "t.utid is not null or " +
+      "s.track_id in (select id from gpu_track where scope = 'gpu_render_stage')";
+  private static final String STATS_SQL =
+      "select count(1), min(s.ts), max(s.ts) " +
+      "from slice s left join thread_track t on (s.track_id = t.id) " +
+      "where " + SLICE_WHERE;
+  private static final String SLICES_SQL =
+      "select s.id, s.ts, s.dur, s.depth, s.stack_id, s.parent_stack_id, s.name, t.utid " +
+      "from slice s left join thread_track t on (s.track_id = t.id) " +
+      "where (" + SLICE_WHERE + ") and s.ts >= %d and s.ts < %d " +
+      "order by s.ts";
+
+  // The distinct slice names, sorted by their lower case version.
+  private final String[] names;
+  private final String[] lowerNames;
+  // Per slice, in time order.
+  private final long[] ids;
+  private final long[] starts;
+  private final long[] durs;
+  private final long[] utids; // -1 for GPU queue slices.
+  private final long[] stackIds;
+  private final long[] parentIds;
+  private final int[] depths;
+  private final int[] nameIds;
+  // The positions of the slices of each name, i.e. the slices of name i are at the positions
+  // postings[postingStarts[i]] to postings[postingStarts[i + 1] - 1], in time order.
+  private final int[] postingStarts;
+  private final int[] postings;
+
+  private SliceSearchIndex(String[] names, long[] ids, long[] starts, long[] durs, long[] utids,
+      long[] stackIds, long[] parentIds, int[] depths, int[] nameIds) {
+    this.ids = ids;
+    this.starts = starts;
+    this.durs = durs;
+    this.utids = utids;
+    this.stackIds = stackIds;
+    this.parentIds = parentIds;
+    this.depths = depths;
+    this.nameIds = nameIds;
+
+    // Sort the names and remap the name ids of the slices to the sorted order.
+    String[] lower = new String[names.length];
+    Integer[] order = new Integer[names.length];
+    for (int i = 0; i < names.length; i++) {
+      lower[i] = names[i].toLowerCase(Locale.ROOT);
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> {
+      int r = lower[a].compareTo(lower[b]);
+      return (r != 0) ? r : names[a].compareTo(names[b]);
+    });
+    int[] remap = new int[names.length];
+    this.names = new String[names.length];
+    this.lowerNames = new String[names.length];
+    for (int i = 0; i < order.length; i++) {
+      remap[order[i]] = i;
+      this.names[i] = names[order[i]];
+      this.lowerNames[i] = lower[order[i]];
+    }
+
+    this.postingStarts = new int[names.length + 1];
+    for (int i = 0; i < nameIds.length; i++) {
+      nameIds[i] = remap[nameIds[i]];
+      postingStarts[nameIds[i] + 1]++;
+    }
+    for (int i = 0; i < names.length; i++) {
+      postingStarts[i + 1] += postingStarts[i];
+    }
+    this.postings = new int[nameIds.length];
+    int[] next = Arrays.copyOf(postingStarts, names.length);
+    for (int i = 0; i < nameIds.length; i++) {
+      postings[next[nameIds[i]]++] = i;
+    }
+  }
+
+  public static ListenableFuture<SliceSearchIndex> build(QueryEngine qe) {
+    return transformAsync(expectOneRow(qe.query(STATS_SQL)), stats -> {
+      long count = stats.getLong(0);
+      if (count == 0) {
+        return Futures.immediateFuture(EMPTY);
+      }
+
+      long start = stats.getLong(1), end = stats.getLong(2) + 1;
+      long chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      long step = Math.max(1, (end - start + chunks - 1) / chunks);
+      return scan(qe, new Builder(), start, end, step);
+    });
+  }
+
+  // Fetches the slices one time chunk at a time, so the results are in time order.
+  private static ListenableFuture<SliceSearchIndex> scan(
+      QueryEngine qe, Builder builder, long start, long end, long step) {
+    if (start >= end) {
+      return Futures.immediateFuture(builder.build());
+    }
+    long chunkEnd = Math.min(end, start + step);
+    return transformAsync(qe.query(format(SLICES_SQL, start, chunkEnd)), res -> {
+      res.forEachRow(($, row) -> builder.add(row));
+      return scan(qe, builder, chunkEnd, end, step);
+    });
+  }
+
+  public int getNumberOfSlices() {
+    return ids.length;
+  }
+
+  /**
+   * Returns the slices with a name starting with, or containing, the given query, ignoring case.
+   */
+  public Matches search(String query, boolean prefix) {
+    List<int[]> ranges = findNames(query, prefix);
+    int[] positions = new int[countSlices(ranges)];
+    int n = 0;
+    for (int[] range : ranges) {
+      int len = postingStarts[range[1]] - postingStarts[range[0]];
+      System.arraycopy(postings, postingStarts[range[0]], positions, n, len);
+      n += len;
+    }
+    // The positions are in time order, since the slices are.
+    Arrays.sort(positions);
+    return new Matches(positions);
+  }
+
+  /**
+   * Returns the number of slices {@link #search} would return, without collecting them.
+   */
+  public int count(String query, boolean prefix) {
+    return countSlices(findNames(query, prefix));
+  }
+
+  // Returns the matching names as [first name, last name + 1) ranges.
+  private List<int[]> findNames(String query, boolean prefix) {
+    String q = query.toLowerCase(Locale.ROOT);
+    List<int[]> ranges = Lists.newArrayList();
+    if (q.isEmpty()) {
+      return ranges;
+    } else if (prefix) {
+      int first = lowerBound(q), last = lowerBound(q + Character.MAX_VALUE);
+      if (first < last) {
+        ranges.add(new int[] { first, last });
+      }
+    } else {
+      for (int i = 0; i < lowerNames.length; i++) {
+        if (lowerNames[i].contains(q)) {
+          ranges.add(new int[] { i, i + 1 });
+        }
+      }
+    }
+    return ranges;
+  }
+
+  private int countSlices(List<int[]> ranges) {
+    int count = 0;
+    for (int[] range : ranges) {
+      count += postingStarts[range[1]] - postingStarts[range[0]];
+    }
+    return count;
+  }
+
+  private int lowerBound(String key) {
+    int lo = 0, hi = lowerNames.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (lowerNames[mid].compareTo(key) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * The result of a search, the matching slices in time order.
+   */
+  public class Matches {
+    private final int[] positions;
+
+    protected Matches(int[] positions) {
+      this.positions = positions;
+    }
+
+    public int size() {
+      return positions.length;
+    }
+
+    public boolean isEmpty() {
+      return positions.length == 0;
+    }
+
+    public TimeSpan getSpan(int match) {
+      int p = positions[match];
+      return new TimeSpan(starts[p], starts[p] + Math.max(0, durs[p]));
+    }
+
+    /**
+     * Returns the index of the first match starting at or after the given time, or
+     * {@link #size()}, if there is none.
+     */
+    public int indexOfFirstAtOrAfter(long ts) {
+      int lo = 0, hi = positions.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (starts[positions[mid]] < ts) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    /**
+     * Returns the first {@code limit} matches as a selection of thread and GPU slices.
+     */
+    public Selection.MultiSelection toSelection(LongFunction<ThreadInfo> threads, int limit) {
+      List<SliceTrack.Slice> threadSlices = Lists.newArrayList();
+      List<SliceTrack.Slice> gpuSlices = Lists.newArrayList();
+      for (int i = 0; i < Math.min(limit, positions.length); i++) {
+        int p = positions[i];
+        if (utids[p] >= 0) {
+          threadSlices.add(threadSlice(p, threads.apply(utids[p])));
+        } else {
+          gpuSlices.add(gpuSlice(p));
+        }
+      }
+
+      Selection.MultiSelection result = new Selection.MultiSelection(Maps.newTreeMap());
+      if (!threadSlices.isEmpty()) {
+        result.addSelection(Selection.Kind.Thread,
+            new SliceTrack.SlicesBuilder(threadSlices).build());
+      }
+      if (!gpuSlices.isEmpty()) {
+        result.addSelection(Selection.Kind.Gpu, new SliceTrack.SlicesBuilder(gpuSlices).build());
+      }
+      return result;
+    }
+
+    private SliceTrack.Slice threadSlice(int p, ThreadInfo thread) {
+      return new SliceTrack.Slice(ids[p], starts[p], durs[p], "", names[nameIds[p]], depths[p],
+          stackIds[p], parentIds[p], ArgSet.EMPTY) {
+        @Override
+        public String getTitle() {
+          return "Thread Slices";
+        }
+
+        @Override
+        public ThreadInfo getThread() {
+          return thread;
+        }
+      };
+    }
+
+    private SliceTrack.Slice gpuSlice(int p) {
+      return new SliceTrack.Slice(ids[p], starts[p], durs[p], "", names[nameIds[p]], depths[p],
+          stackIds[p], parentIds[p], ArgSet.EMPTY) {
+        @Override
+        public String getTitle() {
+          return "GPU Queue Events";
+        }
+      };
+    }
+  }
+
+  private static class Builder {
+    private final Map<String, Integer> names = Maps.newHashMap();
+    private long[] ids = new long[0];
+    private long[] starts = new long[0];
+    private long[] durs = new long[0];
+    private long[] utids = new long[0];
+    private long[] stackIds = new long[0];
+    private long[] parentIds = new long[0];
+    private int[] depths = new int[0];
+    private int[] nameIds = new int[0];
+    private int count = 0;
+
+    public Builder() {
+    }
+
+    public void add(QueryEngine.Row row) {
+      if (count == ids.length) {
+        grow(Math.max(1024, 2 * count));
+      }
+      ids[count] = row.getLong(0);
+      starts[count] = row.getLong(1);
+      durs[count] = row.getLong(2);
+      depths[count] = row.getInt(3);
+      stackIds[count] = row.getLong(4);
+      parentIds[count] = row.getLong(5);
+      nameIds[count] = names.computeIfAbsent(row.getString(6), $ -> names.size());
+      utids[count] = row.getLong(7, -1);
+      count++;
+    }
+
+    private void grow(int size) {
+      ids = Arrays.copyOf(ids, size);
+      starts = Arrays.copyOf(starts, size);
+      durs = Arrays.copyOf(durs, size);
+      utids = Arrays.copyOf(utids, size);
+      stackIds = Arrays.copyOf(stackIds, size);
+      parentIds = Arrays.copyOf(parentIds, size);
+      depths = Arrays.copyOf(depths, size);
+      nameIds = Arrays.copyOf(nameIds, size);
+    }
+
+    public SliceSearchIndex build() {
+      grow(count);
+      String[] byId = new String[names.size()];
+      names.forEach((name, id) -> byId[id] = name);
+      return new SliceSearchIndex(
+          byId, ids, starts, durs, utids, stackIds, parentIds, depths, nameIds);
+    }
+  }
+}
@@ -46,6 +46,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 /**
  * {@link Track} containing slices.
@@ -157,6 +158,8 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
     public final ArgSet[] args;
     public Map<String, long[]> extraLongs = Maps.newHashMap();
     public Map<String, String[]> extraStrings = Maps.newHashMap();
+    // The parsed "concatedIds" of quantized data.
+    public IdBuckets idBuckets = IdBuckets.EMPTY;
 
     public Data(DataRequest request) {
       super(request);
@@ -241,6 +244,11 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
       return key == id;
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      keys.accept(id);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new SliceSelectionView(parent, state, this);
@@ -343,6 +351,11 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
       return sliceKeys.contains(key);
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      sliceKeys.forEach(keys::accept);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new SlicesSelectionView(parent, this);
@@ -518,7 +531,9 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
     }
 
     protected void appendForQuant(Data data, QueryEngine.Result res) {
-      data.putExtraStrings("concatedIds", res.stream().map(r -> r.getString(5)).toArray(String[]::new));
+      String[] concatedIds = res.stream().map(r -> r.getString(5)).toArray(String[]::new);
+      data.putExtraStrings("concatedIds", concatedIds);
+      data.idBuckets = IdBuckets.parse(concatedIds);
     }
 
     protected WithQueryEngine(QueryEngine qe, String table, long trackId) {
@@ -530,16 +545,24 @@ public abstract class SliceTrack extends Track<SliceTrack.Data> {/*extends Track
 
     @Override
     protected ListenableFuture<?> initialize() {
+      String slices = tableName("slices");
+      String window = tableName("window");
+      String span = tableName("span");
+      return transformAsync(cleanup(), $ -> qe.queries(
+          createWindow(window),
+          createView(slices, format(SLICES_VIEW, table, trackId)),
+          createSpan(span, window + ", " + slices + " PARTITIONED depth")));
+    }
+
+    @Override
+    protected ListenableFuture<?> cleanup() {
       String slices = tableName("slices");
       String window = tableName("window");
       String span = tableName("span");
       return qe.queries(
           dropTable(span),
           dropView(slices),
-          dropTable(window),
-          createWindow(window),
-          createView(slices, format(SLICES_VIEW, table, trackId)),
-          createSpan(span, window + ", " + slices + " PARTITIONED depth"));
+          dropTable(window));
     }
 
     @Override
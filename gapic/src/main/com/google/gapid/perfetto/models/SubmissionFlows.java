@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static com.google.gapid.util.MoreFutures.transform;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.models.Perfetto;
+import com.google.gapid.perfetto.TimeSpan;
+
+import java.util.logging.Logger;
+
+/**
+ * The flows from the Vulkan API events submitting work to the GPU queue slices executing the
+ * submitted work, linked via their submission id. Each flow links a submitting Vulkan event to the
+ * first slice of the submission on each GPU queue. The flows are kept in an interval tree, so the
+ * flows overlapping the visible time can be found without considering all flows of the trace.
+ */
+public class SubmissionFlows {
+  private static final Logger LOG = Logger.getLogger(SubmissionFlows.class.getName());
+
+  public static final SubmissionFlows EMPTY = new SubmissionFlows(0);
+
+  private static final String FLOWS_SQL =
+      "with queue_starts as (" +
+        "select id, track_id, depth, ts, submission_id, row_number() over (" +
+          "partition by submission_id, track_id order by ts) rn " +
+        "from gpu_slice " +
+        "where submission_id is not null and track_id in (" +
+          "select id from gpu_track where scope = 'gpu_render_stage')) " +
+      "select e.id, e.track_id, e.depth, e.ts + e.dur, q.id, q.track_id, q.depth, q.ts " +
+      "from gpu_slice e join queue_starts q on (e.submission_id = q.submission_id and q.rn = 1) " +
+      "where e.track_id in (select id from gpu_track where scope = 'vulkan_events') " +
+      "order by min(e.ts + e.dur, q.ts)";
+
+  // Per flow, ordered by the start of the flow, i.e. the earlier of the two ends.
+  private final long[] srcIds;
+  private final long[] srcTracks;
+  private final int[] srcDepths;
+  private final long[] srcTs;
+  private final long[] dstIds;
+  private final long[] dstTracks;
+  private final int[] dstDepths;
+  private final long[] dstTs;
+  // The maximum end of the flows in the subtree rooted at each flow. The tree is implicit: the
+  // root of the flows [lo, hi) is at (lo + hi) / 2, with its subtrees being [lo, mid) and
+  // [mid + 1, hi), so a subtree can be skipped if it ends before the queried time.
+  private final long[] maxEnds;
+
+  private SubmissionFlows(int count) {
+    this.srcIds = new long[count];
+    this.srcTracks = new long[count];
+    this.srcDepths = new int[count];
+    this.srcTs = new long[count];
+    this.dstIds = new long[count];
+    this.dstTracks = new long[count];
+    this.dstDepths = new int[count];
+    this.dstTs = new long[count];
+    this.maxEnds = new long[count];
+  }
+
+  /**
+   * Loads the flows of the trace. The flows only decorate the tracks, so a failure to load them is
+   * logged and results in no flows, rather than failing the load of the trace.
+   */
+  public static ListenableFuture<Perfetto.Data.Builder> listFlows(Perfetto.Data.Builder data) {
+    ListenableFuture<SubmissionFlows> flows =
+        Futures.catching(load(data.qe), Exception.class, e -> {
+          LOG.log(WARNING, "Failed to load the submission flows", e);
+          return EMPTY;
+        }, directExecutor());
+    return transform(flows, data::setSubmissionFlows);
+  }
+
+  private static ListenableFuture<SubmissionFlows> load(QueryEngine qe) {
+    return transform(qe.query(FLOWS_SQL), res -> {
+      if (res.getNumRows() == 0) {
+        return EMPTY;
+      }
+
+      SubmissionFlows flows = new SubmissionFlows(res.getNumRows());
+      res.forEachRow((i, row) -> {
+        flows.srcIds[i] = row.getLong(0);
+        flows.srcTracks[i] = row.getLong(1);
+        flows.srcDepths[i] = row.getInt(2);
+        flows.srcTs[i] = row.getLong(3);
+        flows.dstIds[i] = row.getLong(4);
+        flows.dstTracks[i] = row.getLong(5);
+        flows.dstDepths[i] = row.getInt(6);
+        flows.dstTs[i] = row.getLong(7);
+      });
+      flows.computeMaxEnds(0, flows.maxEnds.length);
+      return flows;
+    });
+  }
+
+  private long computeMaxEnds(int lo, int hi) {
+    if (lo >= hi) {
+      return Long.MIN_VALUE;
+    }
+    int mid = (lo + hi) >>> 1;
+    maxEnds[mid] = Math.max(end(mid),
+        Math.max(computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi)));
+    return maxEnds[mid];
+  }
+
+  public boolean isEmpty() {
+    return maxEnds.length == 0;
+  }
+
+  /**
+   * Invokes the consumer with each flow overlapping the given time span, stopping after the given
+   * maximum number of flows. Returns the number of flows passed to the consumer.
+   */
+  public int forEachFlow(TimeSpan ts, int limit, FlowConsumer consumer) {
+    return visit(0, maxEnds.length, ts, limit, 0, consumer);
+  }
+
+  private int visit(int lo, int hi, TimeSpan ts, int limit, int count, FlowConsumer consumer) {
+    if (lo >= hi || count >= limit || maxEnds[(lo + hi) >>> 1] < ts.start) {
+      return count;
+    }
+
+    int mid = (lo + hi) >>> 1;
+    count = visit(lo, mid, ts, limit, count, consumer);
+    // The flows are sorted by their start, so none of the following flows overlaps either.
+    if (count >= limit || start(mid) > ts.end) {
+      return count;
+    }
+    if (end(mid) >= ts.start) {
+      consumer.accept(srcIds[mid], srcTracks[mid], srcDepths[mid], srcTs[mid],
+          dstIds[mid], dstTracks[mid], dstDepths[mid], dstTs[mid]);
+      count++;
+    }
+    return visit(mid + 1, hi, ts, limit, count, consumer);
+  }
+
+  private long start(int flow) {
+    return Math.min(srcTs[flow], dstTs[flow]);
+  }
+
+  private long end(int flow) {
+    return Math.max(srcTs[flow], dstTs[flow]);
+  }
+
+  /**
+   * Consumer of the flows returned by {@link SubmissionFlows#forEachFlow}.
+   */
+  public static interface FlowConsumer {
+    /**
+     * @param srcId the id of the submitting Vulkan event.
+     * @param srcTrack the GPU track id of the submitting Vulkan event.
+     * @param srcDepth the depth of the submitting Vulkan event.
+     * @param srcTs the end of the submitting Vulkan event.
+     * @param dstId the id of the first slice of the submission on the GPU queue.
+     * @param dstTrack the GPU track id of the GPU queue.
+     * @param dstDepth the depth of the first slice of the submission on the GPU queue.
+     * @param dstTs the start of the first slice of the submission on the GPU queue.
+     */
+    public void accept(long srcId, long srcTrack, int srcDepth, long srcTs,
+        long dstId, long dstTrack, int dstDepth, long dstTs);
+  }
+}
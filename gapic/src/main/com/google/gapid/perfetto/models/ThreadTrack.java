@@ -46,6 +46,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 /**
  * {@link Track} containing thread state and slices of a thread.
@@ -101,19 +102,31 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
     String spanView = tableName("span_view");
     String span = tableName("span");
     String window = tableName("window");
-    return transformAsync(sliceTrack.initialize(), $ -> qe.queries(
-        dropTable(span),
-        dropView(spanView),
-        dropTable(spanJoin),
-        dropView(sched),
-        dropView(wakeup),
-        dropTable(window),
+    return transformAsync(cleanup(), $1 ->
+      transformAsync(sliceTrack.initialize(), $2 -> qe.queries(
         createWindow(window),
         createView(sched, format(SCHED_VIEW, thread.utid)),
         createView(wakeup, format(INSTANT_VIEW, thread.utid, sched)),
         createSpanLeftJoin(spanJoin, wakeup + ", " + sched),
         createView(spanView, format(STATE_SPAN_VIEW, spanJoin, spanJoin)),
-        createSpan(span, window + ", " + spanView)));
+        createSpan(span, window + ", " + spanView))));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
+    String wakeup = tableName("wakeup");
+    String sched = tableName("sched");
+    String spanJoin = tableName("span_join");
+    String spanView = tableName("span_view");
+    String span = tableName("span");
+    String window = tableName("window");
+    return transformAsync(sliceTrack.cleanup(), $ -> qe.queries(
+        dropTable(span),
+        dropView(spanView),
+        dropTable(spanJoin),
+        dropView(sched),
+        dropView(wakeup),
+        dropTable(window)));
   }
 
   @Override
@@ -235,6 +248,11 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
       return key == id;
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      keys.accept(id);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State uiState) {
       return new ThreadStateSliceSelectionView(parent, uiState, this);
@@ -275,6 +293,11 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
       return sliceKeys.contains(key);
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      sliceKeys.forEach(keys::accept);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new ThreadStateSlicesSelectionView(parent, this);
@@ -347,6 +370,10 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
       return Futures.immediateFuture(null);
     }
 
+    public default ListenableFuture<?> cleanup() {
+      return Futures.immediateFuture(null);
+    }
+
     @SuppressWarnings("unused")
     public default ListenableFuture<SliceTrack.Data> computeData(DataRequest req) {
       return Futures.immediateFuture(new SliceTrack.Data(req));
@@ -379,6 +406,11 @@ public class ThreadTrack extends Track.WithQueryEngine<ThreadTrack.Data> {
           return track.initialize();
         }
 
+        @Override
+        public ListenableFuture<?> cleanup() {
+          return track.cleanup();
+        }
+
         @Override
         public ListenableFuture<SliceTrack.Data> computeData(DataRequest req) {
           return track.computeData(req);
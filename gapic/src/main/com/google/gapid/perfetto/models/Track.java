@@ -18,7 +18,7 @@ package com.google.gapid.perfetto.models;
 import static com.google.gapid.util.MoreFutures.logFailure;
 import static com.google.gapid.util.MoreFutures.transform;
 import static com.google.gapid.util.MoreFutures.transformAsync;
-import static com.google.gapid.util.Scheduler.EXECUTOR;
+import static com.google.gapid.util.Scheduler.UI_FEED;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -27,10 +27,13 @@ import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.canvas.FrameProfiler;
 import com.google.gapid.util.Caches;
 
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
@@ -57,6 +60,7 @@ public abstract class Track<D extends Track.Data> {
   private static final long PAGE_SIZE = 3600;
 
   private static DataCache cache = new DataCache();
+  private static TrackInitializer initializer = new TrackInitializer();
 
   private final String trackId;
 
@@ -66,7 +70,9 @@ public abstract class Track<D extends Track.Data> {
   private final AtomicReference<ScheduledRequest<D>> scheduledRequest =
       new AtomicReference<ScheduledRequest<D>>(null);
   private final Semaphore getDataLock = new Semaphore(1);
-  private boolean initialized; // guarded by getDataLock
+  private volatile boolean initialized; // written while holding getDataLock
+  private final AtomicBoolean warming = new AtomicBoolean(false);
+  private volatile long lastUsed = System.currentTimeMillis();
 
   public Track(String trackId) {
     this.trackId = trackId.replace("-", "_");
@@ -76,14 +82,35 @@ public abstract class Track<D extends Track.Data> {
     return trackId;
   }
 
+  /**
+   * Sets the tracks that are currently on screen, which keep their tables until they are hidden.
+   * Called on the UI thread on each paint.
+   */
+  public static void setShown(Set<Track<?>> tracks) {
+    initializer.setShown(tracks);
+  }
+
   // on UI Thread
   public D getData(DataRequest req, OnUiThread<D> onUiThread) {
+    lastUsed = System.currentTimeMillis();
     if (checkScheduledRequest(req, onUiThread) && (data == null || !data.request.satisfies(req))) {
       schedule(req.pageAlign(), onUiThread);
     }
     return data;
   }
 
+  /**
+   * Initializes this track in the background, if it isn't yet, so its data can be fetched
+   * quickly once it is shown. Called on the UI thread for the tracks just outside of the visible
+   * area.
+   */
+  public void prefetch() {
+    lastUsed = System.currentTimeMillis();
+    if (!initialized && warming.compareAndSet(false, true)) {
+      initializer.warm(this);
+    }
+  }
+
   // on UI Thread. returns true, if a new request may be scheduled.
   private boolean checkScheduledRequest(DataRequest req, OnUiThread<D> callback) {
     ScheduledRequest<D> scheduled = scheduledRequest.get();
@@ -103,6 +130,9 @@ public abstract class Track<D extends Track.Data> {
   // on UI Thread
   private void schedule(DataRequest request, OnUiThread<D> onUiThread) {
     D newData = cache.getIfPresent(this, request);
+    if (FrameProfiler.isEnabled()) {
+      FrameProfiler.get().recordCacheLookup(newData != null);
+    }
     if (newData != null) {
       data = newData;
       return;
@@ -110,7 +140,7 @@ public abstract class Track<D extends Track.Data> {
 
     ScheduledRequest<D> scheduled = new ScheduledRequest<D>(request, onUiThread);
     scheduledRequest.set(scheduled);
-    scheduledFuture = EXECUTOR.schedule(
+    scheduledFuture = UI_FEED.schedule(
         () -> query(scheduled), REQUEST_DELAY_MS, MILLISECONDS);
   }
 
@@ -118,7 +148,7 @@ public abstract class Track<D extends Track.Data> {
   private void query(ScheduledRequest<D> scheduled) {
     try {
       if (!getDataLock.tryAcquire(ACQUIRE_TIMEOUT_MS, MILLISECONDS)) {
-        logFailure(LOG, EXECUTOR.schedule(
+        logFailure(LOG, UI_FEED.schedule(
             () -> query(scheduled), ACQUIRE_RETRY_MS, MILLISECONDS));
         return;
       }
@@ -134,10 +164,11 @@ public abstract class Track<D extends Track.Data> {
     }
 
     try {
+      scheduled.queryStart = System.nanoTime();
       ListenableFuture<D> future = transformAsync(setup(), $ -> computeData(scheduled.request));
       scheduled.scheduleCallbacks(future, newData -> update(scheduled, newData));
       // Always unlock when the future completes/fails/is cancelled.
-      future.addListener(getDataLock::release, EXECUTOR);
+      future.addListener(getDataLock::release, UI_FEED);
     } catch (RuntimeException e) {
       getDataLock.release();
       throw e;
@@ -146,6 +177,10 @@ public abstract class Track<D extends Track.Data> {
 
   // on UI Thread
   private void update(ScheduledRequest<D> scheduled, D newData) {
+    if (FrameProfiler.isEnabled()) {
+      FrameProfiler.get().recordFetch(
+          FrameProfiler.typeName(getClass()), System.nanoTime() - scheduled.queryStart);
+    }
     cache.put(this, scheduled.request, newData);
     if (scheduledRequest.compareAndSet(scheduled, null)) {
       data = newData;
@@ -157,10 +192,70 @@ public abstract class Track<D extends Track.Data> {
     if (initialized) {
       return Futures.immediateFuture(null);
     }
-    return transform(initialize(), $ -> initialized = true);
+    return transform(initialize(), $ -> {
+      initialized = true;
+      initializer.register(this);
+      return null;
+    });
+  }
+
+  // *not* on UI Thread. Called by the TrackInitializer.
+  ListenableFuture<?> warm() {
+    if (initialized || !getDataLock.tryAcquire()) {
+      // Already initialized, or a data request is running, which will initialize the track.
+      warming.set(false);
+      return Futures.immediateFuture(null);
+    }
+
+    try {
+      ListenableFuture<?> future = setup();
+      future.addListener(() -> {
+        warming.set(false);
+        getDataLock.release();
+      }, UI_FEED);
+      return future;
+    } catch (RuntimeException e) {
+      warming.set(false);
+      getDataLock.release();
+      throw e;
+    }
+  }
+
+  // *not* on UI Thread. Called by the TrackInitializer. Drops the tables of this track, unless
+  // its data is currently being fetched. Returns whether the tables were dropped.
+  boolean release() {
+    if (!initialized) {
+      return true;
+    } else if (!getDataLock.tryAcquire()) {
+      return false;
+    }
+
+    try {
+      initialized = false;
+      ListenableFuture<?> future = cleanup();
+      logFailure(LOG, future);
+      future.addListener(getDataLock::release, UI_FEED);
+      return true;
+    } catch (RuntimeException e) {
+      getDataLock.release();
+      throw e;
+    }
+  }
+
+  long getLastUsed() {
+    return lastUsed;
   }
 
   protected abstract ListenableFuture<?> initialize();
+
+  /**
+   * Drops the tables and views created by {@link #initialize()}. The track is initialized again,
+   * if its data is requested after this.
+   */
+  protected ListenableFuture<?> cleanup() {
+    return Futures.immediateFuture(null);
+  }
+
   protected abstract ListenableFuture<D> computeData(DataRequest req);
 
   protected String tableName(String prefix) {
@@ -269,6 +364,8 @@ public abstract class Track<D extends Track.Data> {
   private static class ScheduledRequest<D extends Track.Data> {
     public final DataRequest request;
     private final List<OnUiThread<D>> callbacks;
+    // Set on the executor thread, when the data query is started.
+    public volatile long queryStart;
 
     public ScheduledRequest(DataRequest request, OnUiThread<D> callback) {
       this.request = request;
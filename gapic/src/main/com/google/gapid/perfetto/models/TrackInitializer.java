@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.models;
+
+import static com.google.gapid.util.MoreFutures.logFailure;
+import static com.google.gapid.util.Scheduler.TIMERS;
+import static com.google.gapid.util.Scheduler.UI_FEED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.WARNING;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Schedules the creation and removal of the tables of the {@link Track Tracks}. A track creates
+ * its tables when its data is first requested, i.e. when it is scrolled into view. In addition,
+ * the tracks just outside of the visible area are warmed up in the background, a few at a time,
+ * and the tables of the tracks that have not been shown for a while are dropped, to bound the
+ * memory used by the trace processor.
+ */
+class TrackInitializer {
+  private static final Logger LOG = Logger.getLogger(TrackInitializer.class.getName());
+
+  // The number of tracks initialized concurrently in the background.
+  private static final int MAX_WARMING = 2;
+  private static final long SWEEP_INTERVAL_MS = SECONDS.toMillis(15);
+  private static final long RELEASE_AFTER_MS = SECONDS.toMillis(60);
+
+  private final Queue<Track<?>> warmQueue = Queues.newArrayDeque(); // guarded by this
+  private int warming = 0; // guarded by this
+  // Weak, so the tracks of a previously loaded trace don't leak.
+  private final Set<Track<?>> initialized =
+      Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+  private final AtomicBoolean sweeping = new AtomicBoolean(false);
+  // The tracks on screen as of the last paint. Replaced, not modified, on the UI thread.
+  private volatile Set<Track<?>> shown = Collections.emptySet();
+
+  public TrackInitializer() {
+  }
+
+  /**
+   * Queues the given track to be initialized in the background.
+   */
+  public void warm(Track<?> track) {
+    synchronized (this) {
+      warmQueue.add(track);
+    }
+    warmNext();
+  }
+
+  private void warmNext() {
+    Track<?> track;
+    synchronized (this) {
+      if (warming >= MAX_WARMING || warmQueue.isEmpty()) {
+        return;
+      }
+      track = warmQueue.remove();
+      warming++;
+    }
+
+    ListenableFuture<?> future = track.warm();
+    logFailure(LOG, future);
+    future.addListener(() -> {
+      synchronized (this) {
+        warming--;
+      }
+      warmNext();
+    }, UI_FEED);
+  }
+
+  /**
+   * Registers the given, now initialized, track to have its tables dropped once hidden.
+   */
+  public void register(Track<?> track) {
+    initialized.add(track);
+    if (sweeping.compareAndSet(false, true)) {
+      TIMERS.scheduleWithFixedDelay(
+          this::sweep, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, MILLISECONDS);
+    }
+  }
+
+  /**
+   * Sets the tracks that are currently on screen. These are never released, even if they have
+   * not been painted for a while, e.g. because the view is idle.
+   */
+  public void setShown(Set<Track<?>> tracks) {
+    shown = tracks;
+  }
+
+  private void sweep() {
+    long cutoff = System.currentTimeMillis() - RELEASE_AFTER_MS;
+    Set<Track<?>> onScreen = shown;
+    List<Track<?>> hidden;
+    synchronized (initialized) {
+      hidden = initialized.stream()
+          .filter(track -> track.getLastUsed() < cutoff && !onScreen.contains(track))
+          .collect(toList());
+    }
+
+    for (Track<?> track : hidden) {
+      try {
+        if (track.release()) {
+          initialized.remove(track);
+        }
+      } catch (RuntimeException e) {
+        LOG.log(WARNING, "Failed to release track " + track.getId(), e);
+        initialized.remove(track);
+      }
+    }
+  }
+}
@@ -23,6 +23,7 @@ import static java.util.stream.Collectors.toList;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.models.Perfetto;
 import com.google.gapid.perfetto.canvas.Panel;
@@ -43,6 +44,7 @@ import com.google.gapid.util.Scheduler;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -59,15 +61,36 @@ public class Tracks {
   private Tracks() {
   }
 
-  public static ListenableFuture<Perfetto.Data.Builder> enumerate(Perfetto.Data.Builder data) {
-    return Scheduler.EXECUTOR.submit(() -> {
+  /**
+   * Enumerates the tracks once the trace queries they depend on have completed. The track groups
+   * are enumerated in their display order, each as soon as its own queries and the previous
+   * group are done, and the progress callback is invoked with the builder after each group that
+   * is followed by another, allowing the timeline to be shown progressively.
+   *
+   * @param cpus completes once the trace time and CPUs have been queried.
+   * @param threads completes once the processes and threads have been queried.
+   * @param gpu completes once the GPU info has been queried.
+   * @param counters completes once the counters have been queried.
+   */
+  public static ListenableFuture<Perfetto.Data.Builder> enumerate(Perfetto.Data.Builder data,
+      ListenableFuture<?> cpus, ListenableFuture<?> threads, ListenableFuture<?> gpu,
+      ListenableFuture<?> counters, Consumer<Perfetto.Data.Builder> progress) {
+    ListenableFuture<?> cpuTracks = Futures.whenAllSucceed(cpus).call(() -> {
       enumerateCpu(data);
+      progress.accept(data);
+      return data;
+    }, Scheduler.UI_FEED);
+    ListenableFuture<?> gpuTracks = Futures.whenAllSucceed(cpuTracks, gpu, counters).call(() -> {
       enumerateCounters(data);
       enumerateGpu(data);
+      progress.accept(data);
+      return data;
+    }, Scheduler.UI_FEED);
+    return Futures.whenAllSucceed(gpuTracks, threads).call(() -> {
       enumerateProcesses(data);
       enumerateVSync(data);
       return data;
-    });
+    }, Scheduler.UI_FEED);
   }
 
   private static Perfetto.Data.Builder enumerateCpu(Perfetto.Data.Builder data) {
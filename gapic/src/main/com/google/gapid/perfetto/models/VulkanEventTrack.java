@@ -39,6 +39,7 @@ import org.eclipse.swt.widgets.Composite;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 public class VulkanEventTrack extends Track.WithQueryEngine<VulkanEventTrack.Data> {
@@ -72,13 +73,20 @@ public class VulkanEventTrack extends Track.WithQueryEngine<VulkanEventTrack.Dat
 
   @Override
   protected ListenableFuture<?> initialize() {
+    String slices = tableName("slices");
+    String window = tableName("window");
+    return transformAsync(cleanup(), $ -> qe.queries(
+        createWindow(window),
+        createView(slices, format(SLICES_VIEW, trackId))));
+  }
+
+  @Override
+  protected ListenableFuture<?> cleanup() {
     String slices = tableName("slices");
     String window = tableName("window");
     return qe.queries(
         dropView(slices),
-        dropTable(window),
-        createWindow(window),
-        createView(slices, format(SLICES_VIEW, trackId)));
+        dropTable(window));
   }
 
   @Override
@@ -199,6 +207,11 @@ public class VulkanEventTrack extends Track.WithQueryEngine<VulkanEventTrack.Dat
       return id == key;
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      keys.accept(id);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new VulkanEventSelectionView(parent, state, this);
@@ -238,6 +251,11 @@ public class VulkanEventTrack extends Track.WithQueryEngine<VulkanEventTrack.Dat
       return sliceKeys.contains(key);
     }
 
+    @Override
+    public void forEachKey(LongConsumer keys) {
+      sliceKeys.forEach(keys::accept);
+    }
+
     @Override
     public Composite buildUi(Composite parent, State state) {
       return new VulkanEventsSelectionView(parent, this);
@@ -33,6 +33,7 @@ import com.google.gapid.perfetto.models.BatterySummaryTrack;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.Selection.CombiningBuilder;
 import com.google.gapid.perfetto.models.Selection.Kind;
+import com.google.gapid.perfetto.models.Track;
 import java.util.List;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Cursor;
@@ -64,6 +65,11 @@ public class BatterySummaryPanel extends TrackPanel<BatterySummaryPanel> impleme
     return "Battery Usage";
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public double getHeight() {
     return HEIGHT;
@@ -80,7 +86,7 @@ public class BatterySummaryPanel extends TrackPanel<BatterySummaryPanel> impleme
       }
 
       double maxAbs = track.getMaxAbsCurrent();
-      Selection selected = state.getSelection(Selection.Kind.Battery);
+      Selection.Keys selected = state.getSelectedKeys(Selection.Kind.Battery);
       List<Integer> visibleSelected = Lists.newArrayList();
 
       // Draw outgoing battery current above the x axis.
@@ -130,32 +136,44 @@ public class BatterySummaryPanel extends TrackPanel<BatterySummaryPanel> impleme
             batteryOutGradient().highlight : batteryInGradient().highlight);
         ctx.fillRect(startX, h / 2 - h / 2 * data.current[index] / maxAbs - 1, endX - startX, 3);
       }
+    });
+  }
+
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    if (hovered == null) {
+      return;
+    }
 
-      // Draw hovered card.
-      if (hovered != null) {
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(mouseXpos + HOVER_MARGIN, mouseYpos,
-            hovered.allSize.w + 3 * HOVER_PADDING + LEGEND_SIZE, hovered.allSize.h);
+    double maxAbs = track.getMaxAbsCurrent();
+    ctx.addOverlay(() -> {
+      ctx.setBackgroundColor(colors().hoverBackground);
+      ctx.fillRect(mouseXpos + HOVER_MARGIN, mouseYpos,
+          hovered.allSize.w + 3 * HOVER_PADDING + LEGEND_SIZE, hovered.allSize.h);
 
-        double x = mouseXpos + HOVER_MARGIN + HOVER_PADDING, y = mouseYpos;
-        double dy = hovered.allSize.h / 2;
+      double x = mouseXpos + HOVER_MARGIN + HOVER_PADDING, y = mouseYpos;
+      double dy = hovered.allSize.h / 2;
 
-        (hovered.current > 0 ? batteryOutGradient() : batteryInGradient()).applyBase(ctx);
-        ctx.fillRect(x, y + dy + (dy - LEGEND_SIZE) / 2, LEGEND_SIZE, LEGEND_SIZE);
+      (hovered.current > 0 ? batteryOutGradient() : batteryInGradient()).applyBase(ctx);
+      ctx.fillRect(x, y + dy + (dy - LEGEND_SIZE) / 2, LEGEND_SIZE, LEGEND_SIZE);
 
-        x += LEGEND_SIZE + HOVER_PADDING;
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Bold, HoverCard.REMAINING_POWER_LABEL, x, y, dy);
-        String s = hovered.current > 0 ? HoverCard.CURRENT_OUT_LABEL : HoverCard.CURRENT_IN_LABEL;
-        ctx.drawText(Fonts.Style.Bold, s, x, y + dy, dy);
+      x += LEGEND_SIZE + HOVER_PADDING;
+      ctx.setForegroundColor(colors().textMain);
+      ctx.drawText(Fonts.Style.Bold, HoverCard.REMAINING_POWER_LABEL, x, y, dy);
+      String s = hovered.current > 0 ? HoverCard.CURRENT_OUT_LABEL : HoverCard.CURRENT_IN_LABEL;
+      ctx.drawText(Fonts.Style.Bold, s, x, y + dy, dy);
 
-        x += hovered.labelSize.w + HOVER_PADDING + hovered.valueSize.w;
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.remainingS, x, y, dy);
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.currentAbsS, x, y + dy, dy);
+      x += hovered.labelSize.w + HOVER_PADDING + hovered.valueSize.w;
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.remainingS, x, y, dy);
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.currentAbsS, x, y + dy, dy);
 
-        ctx.drawCircle(mouseXpos, h / 2 - h / 2 * hovered.current / maxAbs,
-            CURSOR_SIZE / 2);
-      }
+      ctx.drawCircle(mouseXpos, h / 2 - h / 2 * hovered.current / maxAbs,
+          CURSOR_SIZE / 2);
     });
   }
 
@@ -31,6 +31,7 @@ import com.google.gapid.perfetto.models.CounterInfo;
 import com.google.gapid.perfetto.models.CounterTrack;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.Selection.CombiningBuilder;
+import com.google.gapid.perfetto.models.Track;
 
 import org.eclipse.swt.SWT;
 
@@ -45,6 +46,7 @@ public class CounterPanel extends TrackPanel<CounterPanel> implements Selectable
 
   protected final CounterTrack track;
   protected final double trackHeight;
+  private RangeIndex index;
   protected HoverCard hovered = null;
 
   public CounterPanel(State state, CounterTrack track, double trackHeight) {
@@ -67,6 +69,11 @@ public class CounterPanel extends TrackPanel<CounterPanel> implements Selectable
     return track.getCounter().name;
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public String getTooltip() {
     CounterInfo counter = track.getCounter();
@@ -95,22 +102,37 @@ public class CounterPanel extends TrackPanel<CounterPanel> implements Selectable
       CounterInfo counter = track.getCounter();
       double min = counter.range.min, range = counter.range.range();
 
-      Selection selected = state.getSelection(Selection.Kind.Counter);
+      Selection.Keys selected = state.getSelectedKeys(Selection.Kind.Counter);
       List<Integer> visibleSelected = Lists.newArrayList();
       mainGradient().applyBaseAndBorder(ctx);
+      // Only the samples within the visible range, plus the ones just outside, are drawn.
+      TimeSpan visible = state.getVisibleTime();
+      index = RangeIndex.update(index, data.ts, data.ts, null);
+      int first = Math.max(0, index.first(0, visible.start) - 1);
+      int last = Math.min(data.ts.length, index.last(0, visible.end) + 1);
       ctx.path(path -> {
-        double lastX = state.timeToPx(data.ts[0]), lastY = h;
+        double lastX = state.timeToPx(data.ts[index.get(0, first)]), lastY = h, peakY = h;
         path.moveTo(lastX, lastY);
-        for (int i = 0; i < data.ts.length; i++) {
+        for (int k = first; k < last; k++) {
+          int i = index.get(0, k);
           double nextX = state.timeToPx(data.ts[i]);
           double nextY = (trackHeight - 1) * (1 - (data.values[i] - min) / range);
-          path.lineTo(nextX, lastY);
-          path.lineTo(nextX, nextY);
-          lastX = nextX;
-          lastY = nextY;
           if (selected.contains(data.ids[i])) {
             visibleSelected.add(i);
           }
+          if (k != first && nextX - lastX < 1) {
+            // Collapse the samples within the same pixel column into a line to their peak.
+            if (nextY < peakY) {
+              path.lineTo(lastX, peakY = nextY);
+            }
+            lastY = nextY;
+            continue;
+          }
+          path.lineTo(lastX, lastY);
+          path.lineTo(nextX, lastY);
+          path.lineTo(nextX, nextY);
+          lastX = nextX;
+          lastY = peakY = nextY;
         }
         path.lineTo(lastX, h);
         ctx.fillPath(path);
@@ -125,35 +147,49 @@ public class CounterPanel extends TrackPanel<CounterPanel> implements Selectable
         double y = (trackHeight - 1) * (1 - (data.values[index] - min) / range);
         ctx.fillRect(startX, y - 1, endX - startX, 3);
       }
+    });
+  }
 
-      if (hovered != null) {
-        double y = (trackHeight - 1) * (1 - (hovered.value - min) / range);
-        ctx.setBackgroundColor(mainGradient().highlight);
-        ctx.fillRect(hovered.startX, y - 1, hovered.endX - hovered.startX, trackHeight - y + 1);
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawCircle(hovered.mouseX, y, CURSOR_SIZE / 2);
-
-        ctx.setBackgroundColor(colors().hoverBackground);
-        double bgH = Math.max(hovered.size.h, trackHeight);
-        double x = hovered.getTooltipX();
-        ctx.fillRect(x, Math.min((trackHeight - bgH) / 2, 0),
-            2 * HOVER_PADDING + hovered.size.w, bgH);
-        ctx.setForegroundColor(colors().textMain);
-        x += HOVER_PADDING;
-        y = (trackHeight - hovered.size.h) / 2;
-        double dx = hovered.leftWidth + HOVER_PADDING, dy = hovered.size.h / 2;
-        ctx.drawText(Fonts.Style.Normal, "Value:", x, y);
-        ctx.drawText(Fonts.Style.Normal, "Avg:", x, y + dy);
-        ctx.drawText(Fonts.Style.Normal, "Min:", x + dx, y);
-        ctx.drawText(Fonts.Style.Normal, "Max:", x + dx, y + dy);
-
-        x += hovered.leftWidth;
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.label, x, y, dy);
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.avg, x, y + dy, dy);
-        x = hovered.getTooltipX() + HOVER_PADDING + hovered.size.w;
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.min, x, y, dy);
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.max, x, y + dy, dy);
-      }
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    if (hovered == null) {
+      return;
+    }
+
+    CounterInfo counter = track.getCounter();
+    double min = counter.range.min, range = counter.range.range();
+    ctx.addOverlay(() -> {
+      double y = (trackHeight - 1) * (1 - (hovered.value - min) / range);
+      ctx.setBackgroundColor(mainGradient().highlight);
+      ctx.fillRect(hovered.startX, y - 1, hovered.endX - hovered.startX, trackHeight - y + 1);
+      ctx.setForegroundColor(colors().textMain);
+      ctx.drawCircle(hovered.mouseX, y, CURSOR_SIZE / 2);
+
+      ctx.setBackgroundColor(colors().hoverBackground);
+      double bgH = Math.max(hovered.size.h, trackHeight);
+      double x = hovered.getTooltipX();
+      ctx.fillRect(x, Math.min((trackHeight - bgH) / 2, 0),
+          2 * HOVER_PADDING + hovered.size.w, bgH);
+      ctx.setForegroundColor(colors().textMain);
+      x += HOVER_PADDING;
+      y = (trackHeight - hovered.size.h) / 2;
+      double dx = hovered.leftWidth + HOVER_PADDING, dy = hovered.size.h / 2;
+      ctx.drawText(Fonts.Style.Normal, "Value:", x, y);
+      ctx.drawText(Fonts.Style.Normal, "Avg:", x, y + dy);
+      ctx.drawText(Fonts.Style.Normal, "Min:", x + dx, y);
+      ctx.drawText(Fonts.Style.Normal, "Max:", x + dx, y + dy);
+
+      x += hovered.leftWidth;
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.label, x, y, dy);
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.avg, x, y + dy, dy);
+      x = hovered.getTooltipX() + HOVER_PADDING + hovered.size.w;
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.min, x, y, dy);
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.max, x, y + dy, dy);
     });
   }
 
@@ -25,6 +25,7 @@ import com.google.gapid.perfetto.canvas.Fonts;
 import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.CpuFrequencyTrack;
+import com.google.gapid.perfetto.models.Track;
 
 /**
  * Draws the CPU frequency and idle graph.
@@ -56,6 +57,11 @@ public class CpuFrequencyPanel extends TrackPanel<CpuFrequencyPanel> {
     return "CPU " + track.getCpu().id + " Frequency";
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public double getHeight() {
     return HEIGHT;
@@ -77,8 +83,7 @@ public class CpuFrequencyPanel extends TrackPanel<CpuFrequencyPanel> {
 
       final String[] kUnits = new String[] { "", "K", "M", "G", "T", "E" };
       double exp = Math.ceil(Math.log10(Math.max(track.getCpu().maxFreq, 1)));
-      double pow10 = Math.pow(10, exp);
-      double yMax = Math.ceil(track.getCpu().maxFreq / (pow10 / 4)) * (pow10 / 4);
+      double yMax = getMaxY();
       int unitGroup = (int)Math.floor(exp / 3);
       // The values we have for cpufreq are in kHz so +1 to unitGroup.
       String yLabel = (yMax / Math.pow(10, unitGroup * 3)) + " " + kUnits[unitGroup + 1] + "Hz";
@@ -126,41 +131,6 @@ public class CpuFrequencyPanel extends TrackPanel<CpuFrequencyPanel> {
         }
       }
 
-      if (hoveredValue != null && hoveredTs != null) {
-        gradient(track.getCpu().id).applyBaseAndBorder(ctx);
-
-        Size textSize = ctx.measure(Fonts.Style.Normal, hoverLabel);
-        double xStart = Math.floor(state.timeToPx(hoveredTs));
-        double xEnd = hoveredTsEnd == null ? endPx : Math.floor(state.timeToPx(hoveredTsEnd));
-        double y = (1 - hoveredValue / yMax) * h;
-
-        // Highlight line.
-        ctx.path(path -> {
-          path.moveTo(xStart, y);
-          path.lineTo(xEnd, y);
-          //ctx.setLineWidth(3);
-          ctx.drawPath(path);
-          //ctx.setLineWidth(1);
-        });
-
-        // Draw change marker.
-        ctx.path(path -> {
-          path.circle(xStart, y, 3);
-          ctx.fillPath(path);
-          ctx.drawPath(path);
-        });
-
-        // Draw the tooltip.
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(mouseXpos + 5, 0, textSize.w + 16, h);
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Normal, hoverLabel, mouseXpos + 5 + 8, (h - 2 * textSize.h) / 4);
-        if (hoveredIdle != null && hoveredIdle != -1) {
-          String idle = "Idle: " + (hoveredIdle + 1);
-          ctx.drawText(Fonts.Style.Normal, idle, mouseXpos + 5 + 8, (3 * h - 2 * textSize.h) / 4);
-        }
-      }
-
       // Write the Y scale on the top left corner.
       Size labelSize = ctx.measure(Fonts.Style.Normal, yLabel);
       ctx.setBackgroundColor(colors().hoverBackground);
@@ -171,6 +141,61 @@ public class CpuFrequencyPanel extends TrackPanel<CpuFrequencyPanel> {
     });
   }
 
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    if (hoveredValue == null || hoveredTs == null) {
+      return;
+    }
+
+    double endPx = state.timeToPx(state.getVisibleTime().end);
+    double yMax = getMaxY();
+    ctx.addOverlay(() -> {
+      gradient(track.getCpu().id).applyBaseAndBorder(ctx);
+
+      Size textSize = ctx.measure(Fonts.Style.Normal, hoverLabel);
+      double xStart = Math.floor(state.timeToPx(hoveredTs));
+      double xEnd = hoveredTsEnd == null ? endPx : Math.floor(state.timeToPx(hoveredTsEnd));
+      double y = (1 - hoveredValue / yMax) * h;
+
+      // Highlight line.
+      ctx.path(path -> {
+        path.moveTo(xStart, y);
+        path.lineTo(xEnd, y);
+        //ctx.setLineWidth(3);
+        ctx.drawPath(path);
+        //ctx.setLineWidth(1);
+      });
+
+      // Draw change marker.
+      ctx.path(path -> {
+        path.circle(xStart, y, 3);
+        ctx.fillPath(path);
+        ctx.drawPath(path);
+      });
+
+      // Draw the tooltip.
+      ctx.setBackgroundColor(colors().hoverBackground);
+      ctx.fillRect(mouseXpos + 5, 0, textSize.w + 16, h);
+      ctx.setForegroundColor(colors().textMain);
+      ctx.drawText(Fonts.Style.Normal, hoverLabel, mouseXpos + 5 + 8, (h - 2 * textSize.h) / 4);
+      if (hoveredIdle != null && hoveredIdle != -1) {
+        String idle = "Idle: " + (hoveredIdle + 1);
+        ctx.drawText(Fonts.Style.Normal, idle, mouseXpos + 5 + 8, (3 * h - 2 * textSize.h) / 4);
+      }
+    });
+  }
+
+  private double getMaxY() {
+    double exp = Math.ceil(Math.log10(Math.max(track.getCpu().maxFreq, 1)));
+    double pow10 = Math.pow(10, exp);
+    return Math.ceil(track.getCpu().maxFreq / (pow10 / 4)) * (pow10 / 4);
+  }
+
   @Override
   public Hover onTrackMouseMove(Fonts.TextMeasurer m, double x, double y, int mods) {
     CpuFrequencyTrack.Data data = track.getData(state.toRequest(), onUiThread());
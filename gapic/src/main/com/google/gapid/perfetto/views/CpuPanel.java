@@ -33,6 +33,7 @@ import com.google.gapid.perfetto.models.CpuTrack;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.Selection.CombiningBuilder;
 import com.google.gapid.perfetto.models.ThreadInfo;
+import com.google.gapid.perfetto.models.Track;
 
 import com.google.gapid.util.Arrays;
 import org.eclipse.swt.SWT;
@@ -53,6 +54,8 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
   private static final int BOUNDING_BOX_LINE_WIDTH = 3;
 
   protected final CpuTrack track;
+  private RangeIndex index;
+  private RangeIndex.Marks selectedMarks;
   protected double mouseXpos;
   protected ThreadInfo.Display hoveredThread;
   protected double hoveredWidth;
@@ -73,6 +76,11 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
     return "CPU " + track.getCpu().id;
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public double getHeight() {
     return HEIGHT;
@@ -95,10 +103,28 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
     });
   }
 
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    CpuTrack.Data data = track.getData(state.toRequest(), onUiThread());
+    if (data == null) {
+      return;
+    }
+
+    switch (data.kind) {
+      case slice: renderSliceHover(ctx, h); break;
+      case summary: renderSummaryHover(ctx, data, w, h); break;
+    }
+  }
+
   private void renderSummary(RenderContext ctx, CpuTrack.Data data, double w, double h) {
     long tStart = data.request.range.start;
     int start = Math.max(0, (int)((state.getVisibleTime().start - tStart) / data.bucketSize));
-    Selection selected = state.getSelection(Selection.Kind.Cpu);
+    Selection.Keys selected = state.getSelectedKeys(Selection.Kind.Cpu);
     List<Integer> visibleSelected = Lists.newArrayList();
 
     gradient(track.getCpu().id).applyBase(ctx);
@@ -111,11 +137,8 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
         path.lineTo(x, y);
         path.lineTo(x, nextY);
         y = nextY;
-        for (String id : Arrays.getOrDefault(data.concatedIds, i, "").split(",")) {
-          if (!id.isEmpty() && !selected.isEmpty() && selected.contains(Long.parseLong(id))) {
-            visibleSelected.add(i);
-            break;
-          }
+        if (data.idBuckets.intersects(i, selected)) {
+          visibleSelected.add(i);
         }
       }
       path.lineTo(x, h);
@@ -130,79 +153,86 @@ public class CpuPanel extends TrackPanel<CpuPanel> implements Selectable {
           Math.round(h * (1 - data.utilizations[index])) - 1,
           state.durationToDeltaPx(data.bucketSize), 3);
     }
+  }
 
+  private void renderSummaryHover(RenderContext ctx, CpuTrack.Data data, double w, double h) {
+    long tStart = data.request.range.start;
+    int start = Math.max(0, (int)((state.getVisibleTime().start - tStart) / data.bucketSize));
     if (hovered != null && hovered.bucket >= start) {
       double x = state.timeToPx(tStart + hovered.bucket * data.bucketSize + data.bucketSize / 2);
       if (x < w) {
-        double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
-        double dy = HOVER_PADDING + hovered.size.h + HOVER_PADDING;
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(x + HOVER_MARGIN, h - HOVER_PADDING - dy, dx, dy);
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Normal, hovered.text, x + HOVER_MARGIN + HOVER_PADDING, h - dy);
-
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawCircle(x, h * (1 - hovered.utilization), CURSOR_SIZE / 2);
+        ctx.addOverlay(() -> {
+          double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
+          double dy = HOVER_PADDING + hovered.size.h + HOVER_PADDING;
+          ctx.setBackgroundColor(colors().hoverBackground);
+          ctx.fillRect(x + HOVER_MARGIN, h - HOVER_PADDING - dy, dx, dy);
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawText(Fonts.Style.Normal, hovered.text, x + HOVER_MARGIN + HOVER_PADDING, h - dy);
+
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawCircle(x, h * (1 - hovered.utilization), CURSOR_SIZE / 2);
+        });
       }
     }
   }
 
   private void renderSlices(RenderContext ctx, CpuTrack.Data data, double h) {
-    TimeSpan visible = state.getVisibleTime();
-    Selection selected = state.getSelection(Selection.Kind.Cpu);
+    Selection.Keys selected = state.getSelectedKeys(Selection.Kind.Cpu);
     List<Highlight> visibleSelected = Lists.newArrayList();
-    for (int i = 0; i < data.starts.length; i++) {
-      long tStart = data.starts[i];
-      long tEnd = data.ends[i];
-      long utid = data.utids[i];
-      if (tEnd <= visible.start || tStart >= visible.end) {
-        continue;
-      }
-      double rectStart = state.timeToPx(tStart);
-      double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-
-      ThreadInfo.Display threadInfo = ThreadInfo.getDisplay(state, utid, false);
+    index = RangeIndex.update(index, data.starts, data.ends, null);
+    selectedMarks = RangeIndex.Marks.update(selectedMarks, index, state.getContentVersion(),
+        () -> selected.isEmpty() ? null : i -> selected.contains(data.ids[i]));
+    ctx.batch(() -> {
+      index.forEachVisible(state, 0, selectedMarks, (i, rectStart, rectWidth) -> {
+        long utid = data.utids[i];
+        ThreadInfo.Display threadInfo = ThreadInfo.getDisplay(state, utid, false);
 
-      ctx.setBackgroundColor(state.getSliceColorForThread(threadInfo.thread));
-      ctx.fillRect(rectStart, 0, rectWidth, h);
+        ctx.setBackgroundColor(state.getSliceColorForThread(threadInfo.thread));
+        ctx.fillRect(rectStart, 0, rectWidth, h);
 
-      if (selected.contains(data.ids[i])) {
-        visibleSelected.add(
-            new Highlight(threadInfo.thread.getColor().border, rectStart, rectWidth));
-      }
+        if (selected.contains(data.ids[i])) {
+          visibleSelected.add(
+              new Highlight(threadInfo.thread.getColor().border, rectStart, rectWidth));
+        }
 
-      // Don't render text when we have less than 7px to play with.
-      if (rectWidth < 7) {
-        continue;
-      }
+        // Don't render text when we have less than 7px to play with.
+        if (rectWidth < 7) {
+          return;
+        }
 
-      ctx.setForegroundColor(colors().textMain);
-      ctx.drawTextLeftTruncate(Fonts.Style.Normal, threadInfo.title, threadInfo.shortTitle,
-          rectStart + 2, 2, rectWidth - 4, (h / 2) - 4);
-      if (!threadInfo.subTitle.isEmpty()) {
-        ctx.setForegroundColor(colors().textAlt);
-        ctx.drawTextLeftTruncate(Fonts.Style.Normal, threadInfo.subTitle, threadInfo.shortSubTitle,
-            rectStart + 2, (h / 2) + 2, rectWidth - 4, (h / 2) - 4);
-      }
-    }
+        ctx.setForegroundColor(colors().textMain);
+        ctx.drawTextLeftTruncate(Fonts.Style.Normal, threadInfo.title, threadInfo.shortTitle,
+            rectStart + 2, 2, rectWidth - 4, (h / 2) - 4);
+        if (!threadInfo.subTitle.isEmpty()) {
+          ctx.setForegroundColor(colors().textAlt);
+          ctx.drawTextLeftTruncate(Fonts.Style.Normal,
+              threadInfo.subTitle, threadInfo.shortSubTitle,
+              rectStart + 2, (h / 2) + 2, rectWidth - 4, (h / 2) - 4);
+        }
+      });
+    });
 
     // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
     for (Highlight highlight : visibleSelected) {
       ctx.setForegroundColor(highlight.color);
       ctx.drawRect(highlight.x, 0, highlight.w, h, BOUNDING_BOX_LINE_WIDTH);
     }
+  }
 
+  private void renderSliceHover(RenderContext ctx, double h) {
     if (hoveredThread != null) {
-      ctx.setBackgroundColor(colors().hoverBackground);
-      ctx.fillRect(mouseXpos + HOVER_MARGIN, 0, hoveredWidth + 2 * HOVER_PADDING, h);
-
-      ctx.setForegroundColor(colors().textMain);
-      ctx.drawText(Fonts.Style.Normal, hoveredThread.title,
-          mouseXpos + HOVER_MARGIN + HOVER_PADDING, 2, (h / 2) - 4);
-      if (!hoveredThread.subTitle.isEmpty()) {
-        ctx.drawText(Fonts.Style.Normal, hoveredThread.subTitle,
-            mouseXpos+ HOVER_MARGIN + HOVER_PADDING, (h / 2) + 2, (h / 2) - 4);
-      }
+      ctx.addOverlay(() -> {
+        ctx.setBackgroundColor(colors().hoverBackground);
+        ctx.fillRect(mouseXpos + HOVER_MARGIN, 0, hoveredWidth + 2 * HOVER_PADDING, h);
+
+        ctx.setForegroundColor(colors().textMain);
+        ctx.drawText(Fonts.Style.Normal, hoveredThread.title,
+            mouseXpos + HOVER_MARGIN + HOVER_PADDING, 2, (h / 2) - 4);
+        if (!hoveredThread.subTitle.isEmpty()) {
+          ctx.drawText(Fonts.Style.Normal, hoveredThread.subTitle,
+              mouseXpos + HOVER_MARGIN + HOVER_PADDING, (h / 2) + 2, (h / 2) - 4);
+        }
+      });
     }
   }
 
@@ -31,6 +31,7 @@ import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.CpuSummaryTrack;
 import com.google.gapid.perfetto.models.CpuTrack;
 import com.google.gapid.perfetto.models.Selection;
+import com.google.gapid.perfetto.models.Track;
 
 /**
  * Draws the CPU usage summary, aggregating the usage of all cores.
@@ -59,6 +60,11 @@ public class CpuSummaryPanel extends TrackPanel<CpuSummaryPanel> implements Sele
     return "CPU Usage";
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public String getSubTitle() {
     return track.getNumCpus() + " cores";
@@ -99,10 +105,27 @@ public class CpuSummaryPanel extends TrackPanel<CpuSummaryPanel> implements Sele
         ctx.fillPath(path);
         ctx.drawPath(path);
       });
+    });
+  }
+
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
 
-      if (hovered != null && hovered.bucket >= start) {
-        double x = state.timeToPx(tStart + hovered.bucket * data.bucketSize + data.bucketSize / 2);
-        if (x < w) {
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    CpuSummaryTrack.Data data = track.getData(state.toRequest(), onUiThread());
+    if (data == null || hovered == null) {
+      return;
+    }
+
+    long tStart = data.request.range.start;
+    int start = Math.max(0, (int)((state.getVisibleTime().start - tStart) / data.bucketSize));
+    if (hovered.bucket >= start) {
+      double x = state.timeToPx(tStart + hovered.bucket * data.bucketSize + data.bucketSize / 2);
+      if (x < w) {
+        ctx.addOverlay(() -> {
           double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
           double dy = HOVER_PADDING + hovered.size.h + HOVER_PADDING;
           ctx.setBackgroundColor(colors().hoverBackground);
@@ -112,9 +135,9 @@ public class CpuSummaryPanel extends TrackPanel<CpuSummaryPanel> implements Sele
 
           ctx.setForegroundColor(colors().textMain);
           ctx.drawCircle(x, h * (1 - hovered.utilization), CURSOR_SIZE / 2);
-        }
+        });
       }
-    });
+    }
   }
 
   @Override
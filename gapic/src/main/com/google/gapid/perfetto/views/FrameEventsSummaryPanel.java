@@ -35,6 +35,7 @@ import com.google.gapid.perfetto.models.FrameEventsTrack.Slice;
 import com.google.gapid.perfetto.models.GpuInfo;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.Selection.CombiningBuilder;
+import com.google.gapid.perfetto.models.Track;
 
 import com.google.gapid.util.Arrays;
 import org.eclipse.swt.SWT;
@@ -76,6 +77,11 @@ public class FrameEventsSummaryPanel extends TrackPanel<FrameEventsSummaryPanel>
     return buffer.getDisplay();
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public String getTooltip() {
     return "\\b" + buffer.getDisplay();
@@ -108,7 +114,7 @@ public class FrameEventsSummaryPanel extends TrackPanel<FrameEventsSummaryPanel>
       RenderContext ctx, FrameEventsTrack.Data data, double w, double h) {
     long tStart = data.request.range.start;
     int start = Math.max(0, (int)((state.getVisibleTime().start - tStart) / data.bucketSize));
-    Selection selected = state.getSelection(Selection.Kind.FrameEvents);
+    Selection.Keys selected = state.getSelectedKeys(Selection.Kind.FrameEvents);
     List<Integer> visibleSelected = Lists.newArrayList();
 
     mainGradient().applyBaseAndBorder(ctx);
@@ -121,11 +127,8 @@ public class FrameEventsSummaryPanel extends TrackPanel<FrameEventsSummaryPanel>
         path.lineTo(x, y);
         path.lineTo(x, nextY);
         y = nextY;
-        for (String id : Arrays.getOrDefault(data.concatedIds, i, "").split(",")) {
-          if (!id.isEmpty() && !selected.isEmpty() && selected.contains(Long.parseLong(id))) {
-            visibleSelected.add(i);
-            break;
-          }
+        if (data.idBuckets.intersects(i, selected)) {
+          visibleSelected.add(i);
         }
       }
       path.lineTo(x, h);
@@ -141,97 +144,129 @@ public class FrameEventsSummaryPanel extends TrackPanel<FrameEventsSummaryPanel>
           Math.round(Math.max(0,h - (h * (data.numEvents[index])))) - 1,
           state.durationToDeltaPx(data.bucketSize), 3);
     }
-
-    if (hovered != null && hovered.bucket >= start) {
-      double x = state.timeToPx(tStart + hovered.bucket * data.bucketSize + data.bucketSize / 2);
-      if (x < w) {
-        double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
-        double dy = HOVER_PADDING + hovered.size.h + HOVER_PADDING;
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(x + HOVER_MARGIN, h - HOVER_PADDING - dy, dx, dy);
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Normal, hovered.text, x + HOVER_MARGIN + HOVER_PADDING, h - dy);
-
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawCircle(x, Math.round(Math.max(0,h - (h * (hovered.numEvents)))), CURSOR_SIZE / 2);
-      }
-    }
   }
 
 
   public void renderSlices(RenderContext ctx, FrameEventsTrack.Data data) {
     TimeSpan visible = state.getVisibleTime();
-    Selection selected = state.getSelection(Selection.Kind.FrameEvents);
+    Selection.Keys selected = state.getSelectedKeys(Selection.Kind.FrameEvents);
     List<Highlight> visibleSelected = Lists.newArrayList();
 
-    for (int i = 0; i < data.starts.length; i++) {
-      long tStart = data.starts[i];
-      long tEnd = data.ends[i];
-      int depth = data.depths[i];
-      String title = buildSliceTitle(data.titles[i], data.args[i]);
+    ctx.batch(() -> {
+      for (int i = 0; i < data.starts.length; i++) {
+        long tStart = data.starts[i];
+        long tEnd = data.ends[i];
+        int depth = data.depths[i];
+        String title = buildSliceTitle(data.titles[i], data.args[i]);
 
-      if (tEnd <= visible.start || tStart >= visible.end) {
-        continue;
-      }
-      double rectStart = state.timeToPx(tStart);
-      StyleConstants.Gradient color = getSliceColor(data.titles[i]);
-      color.applyBase(ctx);
+        if (tEnd <= visible.start || tStart >= visible.end) {
+          continue;
+        }
+        double rectStart = state.timeToPx(tStart);
+        StyleConstants.Gradient color = getSliceColor(data.titles[i]);
+        color.applyBase(ctx);
 
-      if (tEnd - tStart > 3 ) {
-        double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-        double y = depth * SLICE_HEIGHT;
-        ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
+        if (tEnd - tStart > 3 ) {
+          double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
+          double y = depth * SLICE_HEIGHT;
+          ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
 
-        if (selected.contains(data.ids[i])) {
-          visibleSelected.add(Highlight.slice(color.border, rectStart, y, rectWidth));
-        }
+          if (selected.contains(data.ids[i])) {
+            visibleSelected.add(Highlight.slice(color.border, rectStart, y, rectWidth));
+          }
 
-        // Don't render text when we have less than 7px to play with.
-        if (rectWidth < 7) {
-          continue;
-        }
+          // Don't render text when we have less than 7px to play with.
+          if (rectWidth < 7) {
+            continue;
+          }
 
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(
-            Fonts.Style.Normal, title, rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
-      } else {
-        double rectWidth = 20;
-        double y = depth * SLICE_HEIGHT;
-        double[] diamondX = { rectStart - (rectWidth / 2), rectStart, rectStart + (rectWidth / 2), rectStart};
-        double[] diamondY = { y + (SLICE_HEIGHT / 2), y, y + (SLICE_HEIGHT / 2), SLICE_HEIGHT };
-        ctx.fillPolygon(diamondX, diamondY, 4);
-
-        if (selected.contains(data.ids[i])) {
-          visibleSelected.add(Highlight.diamond(color.border, diamondX, diamondY));
-        }
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawText(
+              Fonts.Style.Normal, title, rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
+        } else {
+          double rectWidth = 20;
+          double y = depth * SLICE_HEIGHT;
+          double[] diamondX = { rectStart - (rectWidth / 2), rectStart, rectStart + (rectWidth / 2), rectStart};
+          double[] diamondY = { y + (SLICE_HEIGHT / 2), y, y + (SLICE_HEIGHT / 2), SLICE_HEIGHT };
+          ctx.fillPolygon(diamondX, diamondY, 4);
+
+          if (selected.contains(data.ids[i])) {
+            visibleSelected.add(Highlight.diamond(color.border, diamondX, diamondY));
+          }
 
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(
-            Fonts.Style.Normal, title.substring(0,1), rectStart - rectWidth/2 + 1, y + 1, rectWidth - 1, SLICE_HEIGHT - 4);
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawText(
+              Fonts.Style.Normal, title.substring(0,1), rectStart - rectWidth/2 + 1, y + 1, rectWidth - 1, SLICE_HEIGHT - 4);
+        }
       }
-    }
+    });
 
     for (Highlight highlight : visibleSelected) {
       highlight.draw(ctx);
     }
+  }
 
-    if (hoveredTitle != null) {
-      ctx.setBackgroundColor(colors().hoverBackground);
-      ctx.fillRect(
-          mouseXpos + HOVER_MARGIN, mouseYpos, hoveredSize.w + 2 * HOVER_PADDING, hoveredSize.h);
-
-      ctx.setForegroundColor(colors().textMain);
-      ctx.drawText(Fonts.Style.Normal, hoveredTitle,
-          mouseXpos + HOVER_MARGIN + HOVER_PADDING, mouseYpos + HOVER_PADDING / 2);
-      if (!hoveredCategory.isEmpty()) {
-        ctx.setForegroundColor(colors().textAlt);
-        ctx.drawText(Fonts.Style.Normal, hoveredCategory,
-            mouseXpos + HOVER_MARGIN + HOVER_PADDING,
-            mouseYpos + hoveredSize.h / 2, hoveredSize.h / 2);
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    FrameEventsTrack.Data data = track.getData(state.toRequest(), onUiThread());
+    if (data == null) {
+      return;
+    }
+
+    switch(data.kind) {
+      case slices: renderSliceHover(ctx); break;
+      case summary: renderSummaryHover(ctx, data, w, h); break;
+    }
+  }
+
+  private void renderSummaryHover(
+      RenderContext ctx, FrameEventsTrack.Data data, double w, double h) {
+    long tStart = data.request.range.start;
+    int start = Math.max(0, (int)((state.getVisibleTime().start - tStart) / data.bucketSize));
+    if (hovered != null && hovered.bucket >= start) {
+      double x = state.timeToPx(tStart + hovered.bucket * data.bucketSize + data.bucketSize / 2);
+      if (x < w) {
+        ctx.addOverlay(() -> {
+          double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
+          double dy = HOVER_PADDING + hovered.size.h + HOVER_PADDING;
+          ctx.setBackgroundColor(colors().hoverBackground);
+          ctx.fillRect(x + HOVER_MARGIN, h - HOVER_PADDING - dy, dx, dy);
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawText(Fonts.Style.Normal, hovered.text, x + HOVER_MARGIN + HOVER_PADDING, h - dy);
+
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawCircle(
+              x, Math.round(Math.max(0,h - (h * (hovered.numEvents)))), CURSOR_SIZE / 2);
+        });
       }
     }
   }
 
+  private void renderSliceHover(RenderContext ctx) {
+    if (hoveredTitle != null) {
+      ctx.addOverlay(() -> {
+        ctx.setBackgroundColor(colors().hoverBackground);
+        ctx.fillRect(
+            mouseXpos + HOVER_MARGIN, mouseYpos, hoveredSize.w + 2 * HOVER_PADDING, hoveredSize.h);
+
+        ctx.setForegroundColor(colors().textMain);
+        ctx.drawText(Fonts.Style.Normal, hoveredTitle,
+            mouseXpos + HOVER_MARGIN + HOVER_PADDING, mouseYpos + HOVER_PADDING / 2);
+        if (!hoveredCategory.isEmpty()) {
+          ctx.setForegroundColor(colors().textAlt);
+          ctx.drawText(Fonts.Style.Normal, hoveredCategory,
+              mouseXpos + HOVER_MARGIN + HOVER_PADDING,
+              mouseYpos + hoveredSize.h / 2, hoveredSize.h / 2);
+        }
+      });
+    }
+  }
+
   private static String buildSliceTitle(String title, ArgSet args) {
     Object w = args.get("width"), h = args.get("height");
     return (w == null || h == null) ? title : title + " (" + w + "x" + h + ")";
@@ -34,6 +34,7 @@ import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.Selection.CombiningBuilder;
 import com.google.gapid.perfetto.models.SliceTrack;
 import com.google.gapid.perfetto.models.SliceTrack.Slice;
+import com.google.gapid.perfetto.models.Track;
 import com.google.gapid.perfetto.models.VulkanEventTrack;
 
 import org.eclipse.swt.SWT;
@@ -47,7 +48,8 @@ import java.util.Set;
 /**
  * Draws the GPU Queue slices.
  */
-public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectable {
+public class GpuQueuePanel extends TrackPanel<GpuQueuePanel>
+    implements Selectable, SubmissionFlowOverlay.Endpoint {
   private static final double SLICE_HEIGHT = 25 - 2 * TRACK_MARGIN;
   private static final double HOVER_MARGIN = 10;
   private static final double HOVER_PADDING = 4;
@@ -55,6 +57,8 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
 
   private final GpuInfo.Queue queue;
   protected final SliceTrack track;
+  private RangeIndex index;
+  private RangeIndex.Marks selectedMarks;
 
   protected double mouseXpos, mouseYpos;
   protected String hoveredTitle;
@@ -77,6 +81,21 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
     return queue.getDisplay();
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
+  @Override
+  public long getGpuTrackId() {
+    return queue.trackId;
+  }
+
+  @Override
+  public double getSliceCenterY(int depth) {
+    return TRACK_MARGIN + (depth + 0.5) * SLICE_HEIGHT;
+  }
+
   @Override
   public double getHeight() {
     return queue.maxDepth * SLICE_HEIGHT;
@@ -92,82 +111,61 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
         return;
       }
 
-      TimeSpan visible = state.getVisibleTime();
-      Selection selected = state.getSelection(Selection.Kind.Gpu);
+      Selection.Keys selected = state.getSelectedKeys(Selection.Kind.Gpu);
       List<Highlight> visibleSelected = Lists.newArrayList();
 
       Set<Long> selectedSIds = getSelectedSubmissionIdsInVulkanEventTrack(state);
       long[] sIds = data.getExtraLongs("submissionIds");
-      String[] concatedIds = data.getExtraStrings("concatedIds");
 
-      for (int i = 0; i < data.starts.length; i++) {
-        long tStart = data.starts[i];
-        long tEnd = data.ends[i];
-        int depth = data.depths[i];
-        long id = data.ids[i];
-        String title = buildSliceTitle(data.titles[i], data.args[i]);
-
-        if (tEnd <= visible.start || tStart >= visible.end) {
-          continue;
-        }
-        double rectStart = state.timeToPx(tStart);
-        double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-        double y = depth * SLICE_HEIGHT;
-
-        // Render slice entity.
-        // Grey out if there's vulkan api event selection but this GPU queue slice is not linked.
-        StyleConstants.Gradient color = getSliceColor(data.titles[i]);
-        if (!selectedSIds.isEmpty() && i < sIds.length && !selectedSIds.contains(sIds[i])) {
-          ctx.setBackgroundColor(color.disabled);
-        } else {
-          color.applyBase(ctx);
-        }
-        ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
+      index = RangeIndex.update(index, data.starts, data.ends, data.depths);
+      selectedMarks = RangeIndex.Marks.update(selectedMarks, index, state.getContentVersion(),
+          () -> (selected.isEmpty() && selectedSIds.isEmpty()) ? null : i ->
+              selected.contains(data.ids[i]) || data.idBuckets.intersects(i, selected) ||
+              (i < sIds.length && selectedSIds.contains(sIds[i])));
+      ctx.batch(() -> {
+        for (int d = 0; d < index.getDepthCount(); d++) {
+          index.forEachVisible(state, d, selectedMarks, (i, rectStart, rectWidth) -> {
+            int depth = data.depths[i];
+            long id = data.ids[i];
+            String title = buildSliceTitle(data.titles[i], data.args[i]);
+            double y = depth * SLICE_HEIGHT;
+
+            // Render slice entity.
+            // Grey out if there's vulkan api event selection but this GPU queue slice is not
+            // linked.
+            StyleConstants.Gradient color = getSliceColor(data.titles[i]);
+            if (!selectedSIds.isEmpty() && i < sIds.length && !selectedSIds.contains(sIds[i])) {
+              ctx.setBackgroundColor(color.disabled);
+            } else {
+              color.applyBase(ctx);
+            }
+            ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
 
-        // Highlight GPU queue slice if it's selected or linked by a vulkan api event.
-        if (selected.contains(id) || (i < sIds.length && selectedSIds.contains(sIds[i]))) { // Unquantized track.
-          visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-        }
-        if (i < concatedIds.length) {                                                       // Quantized track.
-          for (String cId : concatedIds[i].split(",")) {
-            if (selected.contains(Long.parseLong(cId))) {
+            // Highlight GPU queue slice if it's selected or linked by a vulkan api event.
+            if (selected.contains(id) || (i < sIds.length && selectedSIds.contains(sIds[i]))) { // Unquantized track.
+              visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
+            }
+            if (data.idBuckets.intersects(i, selected)) {                                       // Quantized track.
               visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-              break;
             }
-          }
-        }
 
-        // Don't render text when we have less than 7px to play with.
-        if (rectWidth < 7) {
-          continue;
-        }
+            // Don't render text when we have less than 7px to play with.
+            if (rectWidth < 7) {
+              return;
+            }
 
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(
-            Fonts.Style.Normal, title, rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
-      }
+            ctx.setForegroundColor(colors().textMain);
+            ctx.drawText(
+                Fonts.Style.Normal, title, rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
+          });
+        }
+      });
 
       // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
       for (Highlight highlight : visibleSelected) {
         ctx.setForegroundColor(highlight.color);
         ctx.drawRect(highlight.x, highlight.y, highlight.w, SLICE_HEIGHT, BOUNDING_BOX_LINE_WIDTH);
       }
-
-      if (hoveredTitle != null) {
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(
-            mouseXpos + HOVER_MARGIN, mouseYpos, hoveredSize.w + 2 * HOVER_PADDING, hoveredSize.h);
-
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Normal, hoveredTitle,
-            mouseXpos + HOVER_MARGIN + HOVER_PADDING, mouseYpos + HOVER_PADDING / 2);
-        if (!hoveredCategory.isEmpty()) {
-          ctx.setForegroundColor(colors().textAlt);
-          ctx.drawText(Fonts.Style.Normal, hoveredCategory,
-              mouseXpos + HOVER_MARGIN + HOVER_PADDING,
-              mouseYpos + hoveredSize.h / 2, hoveredSize.h / 2);
-        }
-      }
     });
   }
 
@@ -176,6 +174,34 @@ public class GpuQueuePanel extends TrackPanel<GpuQueuePanel> implements Selectab
     return (w == null || h == null) ? title : title + " (" + w + "x" + h + ")";
   }
 
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    if (hoveredTitle == null) {
+      return;
+    }
+
+    ctx.addOverlay(() -> {
+      ctx.setBackgroundColor(colors().hoverBackground);
+      ctx.fillRect(
+          mouseXpos + HOVER_MARGIN, mouseYpos, hoveredSize.w + 2 * HOVER_PADDING, hoveredSize.h);
+
+      ctx.setForegroundColor(colors().textMain);
+      ctx.drawText(Fonts.Style.Normal, hoveredTitle,
+          mouseXpos + HOVER_MARGIN + HOVER_PADDING, mouseYpos + HOVER_PADDING / 2);
+      if (!hoveredCategory.isEmpty()) {
+        ctx.setForegroundColor(colors().textAlt);
+        ctx.drawText(Fonts.Style.Normal, hoveredCategory,
+            mouseXpos + HOVER_MARGIN + HOVER_PADDING,
+            mouseYpos + hoveredSize.h / 2, hoveredSize.h / 2);
+      }
+    });
+  }
+
   @Override
   protected Hover onTrackMouseMove(Fonts.TextMeasurer m, double x, double y, int mods) {
     SliceTrack.Data data = track.getData(state.toRequest(), onUiThread());
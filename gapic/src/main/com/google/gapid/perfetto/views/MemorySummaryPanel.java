@@ -32,6 +32,7 @@ import com.google.gapid.perfetto.models.MemorySummaryTrack;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.Selection.CombiningBuilder;
 import com.google.gapid.perfetto.models.Selection.Kind;
+import com.google.gapid.perfetto.models.Track;
 import java.util.List;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Cursor;
@@ -67,6 +68,11 @@ public class MemorySummaryPanel extends TrackPanel<MemorySummaryPanel> implement
     return "Memory Usage";
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public double getHeight() {
     return HEIGHT;
@@ -82,7 +88,7 @@ public class MemorySummaryPanel extends TrackPanel<MemorySummaryPanel> implement
         return;
       }
 
-      Selection selected = state.getSelection(Selection.Kind.Memory);
+      Selection.Keys selected = state.getSelectedKeys(Selection.Kind.Memory);
       List<Integer> visibleSelected = Lists.newArrayList();
 
       memoryBuffersGradient().applyBase(ctx);
@@ -138,37 +144,50 @@ public class MemorySummaryPanel extends TrackPanel<MemorySummaryPanel> implement
         ctx.setBackgroundColor(memoryUsedGradient().highlight);
         ctx.fillRect(startX, h * (data.unused[index] + data.buffCache[index]) / data.total[index] - 1, endX - startX, 3);
       }
+    });
+  }
 
-      if (hovered != null) {
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(mouseXpos + HOVER_MARGIN, mouseYpos,
-            hovered.allSize.w + 3 * HOVER_PADDING + LEGEND_SIZE, hovered.allSize.h);
-
-        double x = mouseXpos + HOVER_MARGIN + HOVER_PADDING, y = mouseYpos;
-        double dy = hovered.allSize.h / 4;
-        ctx.setBackgroundColor(colors().background);
-        ctx.fillRect(x, y + 1 * dy + (dy - LEGEND_SIZE) / 2, LEGEND_SIZE, LEGEND_SIZE);
-        memoryBuffersGradient().applyBase(ctx);
-        ctx.fillRect(x, y + 2 * dy + (dy - LEGEND_SIZE) / 2, LEGEND_SIZE, LEGEND_SIZE);
-        memoryUsedGradient().applyBase(ctx);
-        ctx.fillRect(x, y + 3 * dy + (dy - LEGEND_SIZE) / 2, LEGEND_SIZE, LEGEND_SIZE);
-
-        x += LEGEND_SIZE + HOVER_PADDING;
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Bold, HoverCard.TOTAL_LABEL,     x, y + 0 * dy, dy);
-        ctx.drawText(Fonts.Style.Bold, HoverCard.FREE_LABEL,      x, y + 1 * dy, dy);
-        ctx.drawText(Fonts.Style.Bold, HoverCard.BUFFCACHE_LABEL, x, y + 2 * dy, dy);
-        ctx.drawText(Fonts.Style.Bold, HoverCard.USED_LABEL,      x, y + 3 * dy, dy);
-
-        x += hovered.labelSize.w + HOVER_PADDING + hovered.valueSize.w;
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.totalS,     x, y + 0 * dy, dy);
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.freeS,      x, y + 1 * dy, dy);
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.buffCacheS, x, y + 2 * dy, dy);
-        ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.usedS,      x, y + 3 * dy, dy);
-
-        ctx.drawCircle(mouseXpos, h * hovered.free / hovered.total, CURSOR_SIZE / 2);
-        ctx.drawCircle(mouseXpos, h * (hovered.free + hovered.buffCache) / hovered.total, CURSOR_SIZE / 2);
-      }
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    if (hovered == null) {
+      return;
+    }
+
+    ctx.addOverlay(() -> {
+      ctx.setBackgroundColor(colors().hoverBackground);
+      ctx.fillRect(mouseXpos + HOVER_MARGIN, mouseYpos,
+          hovered.allSize.w + 3 * HOVER_PADDING + LEGEND_SIZE, hovered.allSize.h);
+
+      double x = mouseXpos + HOVER_MARGIN + HOVER_PADDING, y = mouseYpos;
+      double dy = hovered.allSize.h / 4;
+      ctx.setBackgroundColor(colors().background);
+      ctx.fillRect(x, y + 1 * dy + (dy - LEGEND_SIZE) / 2, LEGEND_SIZE, LEGEND_SIZE);
+      memoryBuffersGradient().applyBase(ctx);
+      ctx.fillRect(x, y + 2 * dy + (dy - LEGEND_SIZE) / 2, LEGEND_SIZE, LEGEND_SIZE);
+      memoryUsedGradient().applyBase(ctx);
+      ctx.fillRect(x, y + 3 * dy + (dy - LEGEND_SIZE) / 2, LEGEND_SIZE, LEGEND_SIZE);
+
+      x += LEGEND_SIZE + HOVER_PADDING;
+      ctx.setForegroundColor(colors().textMain);
+      ctx.drawText(Fonts.Style.Bold, HoverCard.TOTAL_LABEL,     x, y + 0 * dy, dy);
+      ctx.drawText(Fonts.Style.Bold, HoverCard.FREE_LABEL,      x, y + 1 * dy, dy);
+      ctx.drawText(Fonts.Style.Bold, HoverCard.BUFFCACHE_LABEL, x, y + 2 * dy, dy);
+      ctx.drawText(Fonts.Style.Bold, HoverCard.USED_LABEL,      x, y + 3 * dy, dy);
+
+      x += hovered.labelSize.w + HOVER_PADDING + hovered.valueSize.w;
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.totalS,     x, y + 0 * dy, dy);
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.freeS,      x, y + 1 * dy, dy);
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.buffCacheS, x, y + 2 * dy, dy);
+      ctx.drawTextRightJustified(Fonts.Style.Normal, hovered.usedS,      x, y + 3 * dy, dy);
+
+      ctx.drawCircle(mouseXpos, h * hovered.free / hovered.total, CURSOR_SIZE / 2);
+      ctx.drawCircle(
+          mouseXpos, h * (hovered.free + hovered.buffCache) / hovered.total, CURSOR_SIZE / 2);
     });
   }
 
@@ -35,6 +35,7 @@ import com.google.gapid.perfetto.models.ProcessSummaryTrack;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.Selection.CombiningBuilder;
 import com.google.gapid.perfetto.models.ThreadInfo;
+import com.google.gapid.perfetto.models.Track;
 
 import com.google.gapid.util.Arrays;
 import org.eclipse.swt.SWT;
@@ -76,6 +77,11 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
     return track.getProcess().getDisplay();
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public String getSubTitle() {
     int count = track.getProcess().utids.size();
@@ -114,7 +120,7 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
     // TODO: dedupe with CpuRenderer
     long tStart = data.request.range.start;
     int start = Math.max(0, (int)((state.getVisibleTime().start - tStart) / data.bucketSize));
-    Selection selected = state.getSelection(Selection.Kind.Cpu);
+    Selection.Keys selected = state.getSelectedKeys(Selection.Kind.Cpu);
     List<Integer> visibleSelected = Lists.newArrayList();
 
     mainGradient().applyBaseAndBorder(ctx);
@@ -127,11 +133,8 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
         path.lineTo(x, y);
         path.lineTo(x, nextY);
         y = nextY;
-        for (String id : Arrays.getOrDefault(data.concatedIds, i, "").split(",")) {
-          if (!id.isEmpty() && !selected.isEmpty() && selected.contains(Long.parseLong(id))) {
-            visibleSelected.add(i);
-            break;
-          }
+        if (data.idBuckets.intersects(i, selected)) {
+          visibleSelected.add(i);
         }
       }
       path.lineTo(x, h);
@@ -147,71 +150,102 @@ public class ProcessSummaryPanel extends TrackPanel<ProcessSummaryPanel> impleme
           Math.round(h * (1 - data.utilizations[index])) - 1,
           state.durationToDeltaPx(data.bucketSize), 3);
     }
-
-    if (hovered != null && hovered.bucket >= start) {
-      double x = state.timeToPx(tStart + hovered.bucket * data.bucketSize + data.bucketSize / 2);
-      if (x < w) {
-        double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
-        double dy = HOVER_PADDING + hovered.size.h + HOVER_PADDING;
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(x + HOVER_MARGIN, h - HOVER_PADDING - dy, dx, dy);
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Normal, hovered.text, x + HOVER_MARGIN + HOVER_PADDING, h - dy);
-
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawCircle(x, h * (1 - hovered.utilization), CURSOR_SIZE / 2);
-      }
-    }
   }
 
   private void renderSlices(RenderContext ctx, ProcessSummaryTrack.Data data, double h) {
     // TODO: dedupe with CpuRenderer
     TimeSpan visible = state.getVisibleTime();
-    Selection selected = state.getSelection(Selection.Kind.Cpu);
+    Selection.Keys selected = state.getSelectedKeys(Selection.Kind.Cpu);
     List<Highlight> visibleSelected = Lists.newArrayList();
     int cpuCount = state.getCpuInfo().count();
     double cpuH = (h - cpuCount + 1) / cpuCount;
-    for (int i = 0; i < data.starts.length; i++) {
-      long tStart = data.starts[i];
-      long tEnd = data.ends[i];
-      CpuInfo.Cpu cpu = state.getCpuInfo().getById(data.cpus[i]);
-      long utid = data.utids[i];
-      if (cpu == null || tEnd <= visible.start || tStart >= visible.end) {
-        continue;
-      }
-      double rectStart = state.timeToPx(tStart);
-      double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-      ThreadInfo thread = state.getThreadInfo(utid);
+    ctx.batch(() -> {
+      for (int i = 0; i < data.starts.length; i++) {
+        long tStart = data.starts[i];
+        long tEnd = data.ends[i];
+        CpuInfo.Cpu cpu = state.getCpuInfo().getById(data.cpus[i]);
+        long utid = data.utids[i];
+        if (cpu == null || tEnd <= visible.start || tStart >= visible.end) {
+          continue;
+        }
+        double rectStart = state.timeToPx(tStart);
+        double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
+        ThreadInfo thread = state.getThreadInfo(utid);
 
-      double y = cpuH * cpu.index + cpu.index;
-      ctx.setBackgroundColor(state.getSliceColorForThread(thread));
-      ctx.fillRect(rectStart, y, rectWidth, cpuH);
+        double y = cpuH * cpu.index + cpu.index;
+        ctx.setBackgroundColor(state.getSliceColorForThread(thread));
+        ctx.fillRect(rectStart, y, rectWidth, cpuH);
 
-      if (selected.contains(data.ids[i])) {
-        visibleSelected.add(new Highlight(thread.getColor().border, rectStart, y, rectWidth));
+        if (selected.contains(data.ids[i])) {
+          visibleSelected.add(new Highlight(thread.getColor().border, rectStart, y, rectWidth));
+        }
       }
-    }
+    });
 
     // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
     for (Highlight highlight : visibleSelected) {
       ctx.setForegroundColor(highlight.color);
       ctx.drawRect(highlight.x, highlight.y, highlight.w, cpuH, BOUNDING_BOX_LINE_WIDTH);
     }
+  }
 
-    if (hoveredThread != null) {
-      ctx.setBackgroundColor(colors().hoverBackground);
-      ctx.fillRect(mouseXpos + HOVER_MARGIN, 0, hoveredWidth + 2 * HOVER_PADDING, h);
-
-      ctx.setForegroundColor(colors().textMain);
-      ctx.drawText(Fonts.Style.Normal, hoveredThread.title,
-          mouseXpos + HOVER_MARGIN + HOVER_PADDING, 2, (h / 2) - 4);
-      if (!hoveredThread.subTitle.isEmpty()) {
-        ctx.drawText(Fonts.Style.Normal, hoveredThread.subTitle,
-            mouseXpos + HOVER_MARGIN + HOVER_PADDING, (h / 2) + 2, (h / 2) - 4);
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    ProcessSummaryTrack.Data data = track.getData(state.toRequest(), onUiThread());
+    if (data == null) {
+      return;
+    }
+
+    switch (data.kind) {
+      case slice: renderSliceHover(ctx, h); break;
+      case summary: renderSummaryHover(ctx, data, w, h); break;
+    }
+  }
+
+  private void renderSummaryHover(
+      RenderContext ctx, ProcessSummaryTrack.Data data, double w, double h) {
+    long tStart = data.request.range.start;
+    int start = Math.max(0, (int)((state.getVisibleTime().start - tStart) / data.bucketSize));
+    if (hovered != null && hovered.bucket >= start) {
+      double x = state.timeToPx(tStart + hovered.bucket * data.bucketSize + data.bucketSize / 2);
+      if (x < w) {
+        ctx.addOverlay(() -> {
+          double dx = HOVER_PADDING + hovered.size.w + HOVER_PADDING;
+          double dy = HOVER_PADDING + hovered.size.h + HOVER_PADDING;
+          ctx.setBackgroundColor(colors().hoverBackground);
+          ctx.fillRect(x + HOVER_MARGIN, h - HOVER_PADDING - dy, dx, dy);
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawText(Fonts.Style.Normal, hovered.text, x + HOVER_MARGIN + HOVER_PADDING, h - dy);
+
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawCircle(x, h * (1 - hovered.utilization), CURSOR_SIZE / 2);
+        });
       }
     }
   }
 
+  private void renderSliceHover(RenderContext ctx, double h) {
+    if (hoveredThread != null) {
+      ctx.addOverlay(() -> {
+        ctx.setBackgroundColor(colors().hoverBackground);
+        ctx.fillRect(mouseXpos + HOVER_MARGIN, 0, hoveredWidth + 2 * HOVER_PADDING, h);
+
+        ctx.setForegroundColor(colors().textMain);
+        ctx.drawText(Fonts.Style.Normal, hoveredThread.title,
+            mouseXpos + HOVER_MARGIN + HOVER_PADDING, 2, (h / 2) - 4);
+        if (!hoveredThread.subTitle.isEmpty()) {
+          ctx.drawText(Fonts.Style.Normal, hoveredThread.subTitle,
+              mouseXpos + HOVER_MARGIN + HOVER_PADDING, (h / 2) + 2, (h / 2) - 4);
+        }
+      });
+    }
+  }
+
   @Override
   public Hover onTrackMouseMove(Fonts.TextMeasurer m, double x, double y, int mods) {
     ProcessSummaryTrack.Data data = track.getData(state.toRequest(), onUiThread());
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.views;
+
+import com.google.gapid.perfetto.TimeSpan;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Index over the start and end times of track data, used to only visit the elements that
+ * intersect the visible time range when rendering. The elements are partitioned by depth and
+ * sorted by start time within each depth. The index is built once per track data and should be
+ * re-used across repaints via {@link #update}.
+ */
+public class RangeIndex {
+  private static final int[] NO_DEPTHS = new int[0];
+
+  private final long[] starts;
+  private final long[] ends;
+  // The element indices of each depth, sorted by start time.
+  private final int[][] byDepth;
+  // The running maximum of the end times of the elements in byDepth.
+  private final long[][] maxEnds;
+
+  private RangeIndex(long[] starts, long[] ends, int[][] byDepth) {
+    this.starts = starts;
+    this.ends = ends;
+    this.byDepth = byDepth;
+    this.maxEnds = new long[byDepth.length][];
+    for (int d = 0; d < byDepth.length; d++) {
+      long[] max = maxEnds[d] = new long[byDepth[d].length];
+      long end = Long.MIN_VALUE;
+      for (int k = 0; k < max.length; k++) {
+        max[k] = end = Math.max(end, ends[byDepth[d][k]]);
+      }
+    }
+  }
+
+  /**
+   * Returns the given index if it was built for the given data, otherwise a new index for the
+   * data. All elements are assumed to be at depth 0 if the depths are {@code null}.
+   */
+  public static RangeIndex update(RangeIndex index, long[] starts, long[] ends, int[] depths) {
+    if (index != null && index.starts == starts && index.ends == ends) {
+      return index;
+    }
+    return new RangeIndex(starts, ends, partition(starts, (depths == null) ? NO_DEPTHS : depths));
+  }
+
+  private static int[][] partition(long[] starts, int[] depths) {
+    int maxDepth = 0;
+    for (int depth : depths) {
+      maxDepth = Math.max(maxDepth, depth);
+    }
+
+    int[] counts = new int[maxDepth + 1];
+    if (depths.length == 0) {
+      counts[0] = starts.length;
+    } else {
+      for (int depth : depths) {
+        counts[depth]++;
+      }
+    }
+
+    int[][] result = new int[maxDepth + 1][];
+    for (int d = 0; d < result.length; d++) {
+      result[d] = new int[counts[d]];
+      counts[d] = 0;
+    }
+    for (int i = 0; i < starts.length; i++) {
+      int depth = (depths.length == 0) ? 0 : depths[i];
+      result[depth][counts[depth]++] = i;
+    }
+
+    for (int[] indices : result) {
+      sortByStart(indices, starts);
+    }
+    return result;
+  }
+
+  private static void sortByStart(int[] indices, long[] starts) {
+    for (int k = 1; k < indices.length; k++) {
+      if (starts[indices[k - 1]] > starts[indices[k]]) {
+        // Not sorted, which is rare, e.g. for quantized data.
+        sortByStart(indices, starts, new int[indices.length], 0, indices.length);
+        return;
+      }
+    }
+  }
+
+  // Stable merge sort of indices[from, to) by start time, without boxing the indices.
+  private static void sortByStart(int[] indices, long[] starts, int[] tmp, int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+
+    int mid = (from + to) >>> 1;
+    sortByStart(indices, starts, tmp, from, mid);
+    sortByStart(indices, starts, tmp, mid, to);
+    if (starts[indices[mid - 1]] <= starts[indices[mid]]) {
+      return; // Already in order.
+    }
+
+    System.arraycopy(indices, from, tmp, from, to - from);
+    for (int k = from, a = from, b = mid; k < to; k++) {
+      if (b >= to || (a < mid && starts[tmp[a]] <= starts[tmp[b]])) {
+        indices[k] = tmp[a++];
+      } else {
+        indices[k] = tmp[b++];
+      }
+    }
+  }
+
+  public int getDepthCount() {
+    return byDepth.length;
+  }
+
+  /**
+   * @return the position within the given depth of the first element that may end after the
+   * given time. All elements before it end at or before the time.
+   */
+  public int first(int depth, long time) {
+    long[] max = maxEnds[depth];
+    int lo = 0, hi = max.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (max[mid] <= time) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * @return the position within the given depth of the first element that starts at or after the
+   * given time, i.e. the exclusive end of the elements that start before the time.
+   */
+  public int last(int depth, long time) {
+    int[] indices = byDepth[depth];
+    int lo = 0, hi = indices.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (starts[indices[mid]] < time) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * @return the index into the data arrays of the element at the given position of the depth.
+   */
+  public int get(int depth, int position) {
+    return byDepth[depth][position];
+  }
+
+  /**
+   * Visits all the elements of the given depth that intersect the visible time range, in start
+   * order. Consecutive elements narrower than a pixel are collapsed into a single pixel column,
+   * which is visited once, with the index of its first element. Thus the number of visited
+   * elements is bounded by the width of the visible range in pixels, rather than the data size.
+   */
+  public void forEachVisible(State state, int depth, Visitor visitor) {
+    forEachVisible(state, depth, null, visitor);
+  }
+
+  /**
+   * Same as {@link #forEachVisible(State, int, Visitor)}, except that a collapsed pixel column is
+   * visited with the index of its first marked element, if any, e.g. so that a selected element
+   * is not hidden by its neighbours. Finding the marked element of a column is a binary search,
+   * so the bound on the work per repaint still holds. The marks may be {@code null}.
+   */
+  public void forEachVisible(State state, int depth, Marks preferred, Visitor visitor) {
+    TimeSpan visible = state.getVisibleTime();
+    long[] max = maxEnds[depth];
+    int[] indices = byDepth[depth];
+    int end = last(depth, visible.end);
+    double columnEnd = Double.NEGATIVE_INFINITY;
+    for (int k = first(depth, visible.start); k < end; k++) {
+      int i = indices[k];
+      if (ends[i] <= visible.start) {
+        continue; // Overlaps a longer, earlier, element.
+      }
+
+      double x = state.timeToPx(starts[i]);
+      double xEnd = state.timeToPx(ends[i]);
+      if (xEnd - x >= 1) {
+        visitor.visit(i, x, xEnd - x);
+        columnEnd = Math.max(columnEnd, xEnd);
+        continue;
+      } else if (xEnd <= columnEnd) {
+        continue;
+      }
+
+      double column = Math.floor(x);
+      columnEnd = column + 1;
+
+      // Skip all following elements that end within this pixel column.
+      long columnEndTime = state.pxToTime(columnEnd);
+      int lo = k + 1, hi = end;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (max[mid] <= columnEndTime) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      int marked = (preferred == null) ? k : preferred.first(depth, k, lo);
+      visitor.visit(indices[marked], column, 1);
+      k = lo - 1;
+    }
+  }
+
+  /**
+   * The positions, per depth, of the elements of an index that match a predicate, e.g. the
+   * selected elements. Built once per index and selection and re-used across repaints via
+   * {@link #update}.
+   */
+  public static class Marks {
+    private final RangeIndex index;
+    private final int version;
+    // The marked positions of each depth, in increasing order.
+    private final int[][] byDepth;
+
+    private Marks(RangeIndex index, int version, IntPredicate predicate) {
+      this.index = index;
+      this.version = version;
+      this.byDepth = new int[index.byDepth.length][];
+      for (int d = 0; d < byDepth.length; d++) {
+        int[] indices = index.byDepth[d];
+        int[] marked = new int[indices.length];
+        int count = 0;
+        for (int k = 0; k < indices.length; k++) {
+          if (predicate.test(indices[k])) {
+            marked[count++] = k;
+          }
+        }
+        byDepth[d] = Arrays.copyOf(marked, count);
+      }
+    }
+
+    /**
+     * Returns the given marks if they were built for the given index and version, otherwise new
+     * marks of the elements matching the predicate. Returns {@code null} if the predicate is
+     * {@code null}, i.e. there is nothing to mark.
+     */
+    public static Marks update(
+        Marks marks, RangeIndex index, int version, Supplier<IntPredicate> predicate) {
+      if (marks != null && marks.index == index && marks.version == version) {
+        return marks;
+      }
+      IntPredicate p = predicate.get();
+      return (p == null) ? null : new Marks(index, version, p);
+    }
+
+    // Returns the first marked position in [from, to) of the depth, or from if there is none.
+    private int first(int depth, int from, int to) {
+      int[] marked = byDepth[depth];
+      int pos = Arrays.binarySearch(marked, from);
+      if (pos < 0) {
+        pos = -pos - 1;
+      }
+      return (pos < marked.length && marked[pos] < to) ? marked[pos] : from;
+    }
+  }
+
+  /**
+   * Callback for the visible elements.
+   */
+  public static interface Visitor {
+    /**
+     * @param index the index of the element in the data arrays.
+     * @param x the x coordinate of the element.
+     * @param w the width of the element, at least one pixel.
+     */
+    public void visit(int index, double x, double w);
+  }
+}
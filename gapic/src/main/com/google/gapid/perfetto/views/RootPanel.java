@@ -27,6 +27,7 @@ import static com.google.gapid.widgets.Widgets.exclusiveSelection;
 import static java.util.Arrays.stream;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gapid.models.Settings;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
@@ -36,6 +37,7 @@ import com.google.gapid.perfetto.canvas.PanelGroup;
 import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.Selection;
+import com.google.gapid.perfetto.models.Track;
 import com.google.gapid.perfetto.models.TrackConfig;
 import com.google.gapid.perfetto.models.VSync;
 import com.google.gapid.widgets.Theme;
@@ -47,6 +49,7 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.ToolBar;
 import org.eclipse.swt.widgets.ToolItem;
 
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.function.Consumer;
@@ -166,7 +169,9 @@ public abstract class RootPanel<S extends State> extends Panel.Base implements S
               a -> a.translate(0, topHeight - state.getScrollOffset())));
         });
       });
+      prefetchTracks(topHeight);
     }
+    updateShownTracks();
 
     postMainUiRender(ctx);
 
@@ -239,6 +244,23 @@ public abstract class RootPanel<S extends State> extends Panel.Base implements S
     }
   }
 
+  // Warms up the tracks within a screen height above and below the visible tracks, so their data
+  // is available quickly when scrolled into view.
+  private void prefetchTracks(double topHeight) {
+    double visibleHeight = height - topHeight;
+    bottom.visit(Visitor.of(TrackPanel.class, (track, $) -> track.getTrack().prefetch()),
+        new Area(0, state.getScrollOffset() - visibleHeight, width, 3 * visibleHeight));
+  }
+
+  // Tells the tracks which of them are on screen, including the pinned ones, so they are not
+  // released while shown.
+  private void updateShownTracks() {
+    Set<Track<?>> shown = Sets.newIdentityHashSet();
+    visit(Visitor.of(TrackPanel.class, (track, $) -> shown.add(track.getTrack())),
+        new Area(0, 0, width, height));
+    Track.setShown(shown);
+  }
+
   protected abstract void preTopUiRender(RenderContext ctx, Repainter repainter);
   protected abstract void preMainUiRender(RenderContext ctx, Repainter repainter);
   protected abstract void postMainUiRender(RenderContext ctx);
@@ -509,6 +531,14 @@ public abstract class RootPanel<S extends State> extends Panel.Base implements S
     settings.writeUi().getPerfettoBuilder().setShowVsync(showVSync);
   }
 
+  /**
+   * Toggles between showing all the flows between the visible tracks and only the flows of the
+   * selected slices.
+   */
+  public void toggleFlows() {
+    // Do nothing by default.
+  }
+
   public boolean zoom(double x, double zoomFactor) {
     TimeSpan visible = state.getVisibleTime();
     long cursorTime = state.pxToTime(x - LABEL_WIDTH);
@@ -520,9 +550,11 @@ public abstract class RootPanel<S extends State> extends Panel.Base implements S
   }
 
   public static class ForSystemTrace extends RootPanel<State.ForSystemTrace> {
+    private final SubmissionFlowOverlay flows;
 
     public ForSystemTrace(State.ForSystemTrace state, Settings settings) {
       super(state, settings);
+      this.flows = new SubmissionFlowOverlay(state);
     }
 
     @Override
@@ -552,10 +584,21 @@ public abstract class RootPanel<S extends State> extends Panel.Base implements S
 
     @Override
     protected void postMainUiRender(RenderContext ctx) {
+      if (state.hasData()) {
+        double topHeight = top.getPreferredHeight();
+        ctx.withClip(LABEL_WIDTH, topHeight, width - LABEL_WIDTH, height - topHeight, () ->
+          flows.render(ctx, bottom,
+              new Area(0, state.getScrollOffset(), width, height - topHeight)));
+      }
       // Render the Flag in the timeline panel and the vertical line in the bottom panel group
       renderFlags(ctx, bottom);
     }
 
+    @Override
+    public void toggleFlows() {
+      flows.toggleShowAll();
+    }
+
     private void renderFlags(RenderContext ctx, Panel panel) {
       flags.forEach((k,v) -> {
         double x = Math.rint(LABEL_WIDTH + state.timeToPx(k));
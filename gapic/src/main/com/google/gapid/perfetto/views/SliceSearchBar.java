@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.views;
+
+import static com.google.gapid.widgets.Widgets.createButton;
+import static com.google.gapid.widgets.Widgets.createCheckbox;
+import static com.google.gapid.widgets.Widgets.createLabel;
+import static com.google.gapid.widgets.Widgets.withLayoutData;
+import static com.google.gapid.widgets.Widgets.withMargin;
+import static java.util.logging.Level.WARNING;
+
+import com.google.gapid.models.Perfetto;
+import com.google.gapid.perfetto.TimeSpan;
+import com.google.gapid.perfetto.models.QueryEngine;
+import com.google.gapid.perfetto.models.SliceSearchIndex;
+import com.google.gapid.rpc.Rpc;
+import com.google.gapid.rpc.RpcException;
+import com.google.gapid.rpc.UiCallback;
+import com.google.gapid.util.Scheduler;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Text;
+
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Search bar to find slices by name across all tracks of a trace. The matches are selected and can
+ * be stepped through, without querying the trace processor, via a {@link SliceSearchIndex}.
+ */
+public class SliceSearchBar extends Composite {
+  private static final Logger LOG = Logger.getLogger(SliceSearchBar.class.getName());
+
+  // The maximum number of matches added to the selection.
+  private static final int MAX_SELECTED = 10000;
+
+  private final State.ForSystemTrace state;
+  private final Runnable repaint;
+  private final Text search;
+  private final Button prefix;
+  private final Label status;
+
+  private QueryEngine qe;
+  private SliceSearchIndex index;
+  private SliceSearchIndex.Matches matches;
+  private String matchesQuery = "";
+  private int current = -1;
+
+  public SliceSearchBar(Composite parent, State.ForSystemTrace state, Runnable repaint) {
+    super(parent, SWT.NONE);
+    this.state = state;
+    this.repaint = repaint;
+
+    setLayout(withMargin(new GridLayout(6, false), 5, 2));
+    withLayoutData(createLabel(this, "Find slices:"),
+        new GridData(SWT.BEGINNING, SWT.CENTER, false, false));
+    search = withLayoutData(
+        new Text(this, SWT.SINGLE | SWT.SEARCH | SWT.ICON_SEARCH | SWT.ICON_CANCEL),
+        new GridData(SWT.FILL, SWT.CENTER, true, false));
+    prefix = withLayoutData(createCheckbox(this, "Prefix", false, e -> updateCount()),
+        new GridData(SWT.BEGINNING, SWT.CENTER, false, false));
+    withLayoutData(createButton(this, "Previous", e -> step(false)),
+        new GridData(SWT.BEGINNING, SWT.CENTER, false, false));
+    withLayoutData(createButton(this, "Next", e -> step(true)),
+        new GridData(SWT.BEGINNING, SWT.CENTER, false, false));
+    status = withLayoutData(createLabel(this, ""),
+        new GridData(SWT.BEGINNING, SWT.CENTER, false, false));
+
+    search.addListener(SWT.Modify, e -> updateCount());
+    search.addListener(SWT.DefaultSelection, e -> {
+      if (e.detail != SWT.ICON_CANCEL) {
+        step((e.stateMask & SWT.SHIFT) == 0);
+      }
+    });
+    setSearchEnabled(false);
+  }
+
+  /**
+   * Builds the search index of the given trace in the background.
+   */
+  public void update(Perfetto.Data data) {
+    if (data.qe == qe) {
+      return;
+    }
+
+    qe = data.qe;
+    index = null;
+    clearMatches();
+    buildIndex();
+  }
+
+  private void buildIndex() {
+    setSearchEnabled(false);
+    setStatus("Indexing slices...");
+    QueryEngine forQe = qe;
+    Rpc.listen(SliceSearchIndex.build(qe),
+        new UiCallback<SliceSearchIndex, SliceSearchIndex>(this, LOG) {
+      @Override
+      protected SliceSearchIndex onRpcThread(Rpc.Result<SliceSearchIndex> result) {
+        try {
+          return result.get();
+        } catch (RpcException | ExecutionException e) {
+          LOG.log(WARNING, "Failed to index the slices", e);
+          return null;
+        }
+      }
+
+      @Override
+      protected void onUiThread(SliceSearchIndex newIndex) {
+        if (forQe != qe) {
+          return;
+        }
+        index = newIndex;
+        // On failure, the search is still enabled, so the indexing can be retried.
+        setSearchEnabled(true);
+        if (newIndex == null) {
+          setStatus("Failed to index slices. Press enter to retry.");
+        } else {
+          updateCount();
+        }
+      }
+    });
+  }
+
+  private void setSearchEnabled(boolean enabled) {
+    search.setEnabled(enabled);
+    prefix.setEnabled(enabled);
+  }
+
+  // Updates the number of matches while typing, the selection is updated on navigation.
+  private void updateCount() {
+    if (index == null) {
+      return;
+    }
+    String query = search.getText().trim();
+    if (query.isEmpty()) {
+      setStatus(index.getNumberOfSlices() + " slices indexed");
+    } else {
+      int count = index.count(query, prefix.getSelection());
+      setStatus((count == 1) ? "1 match" : count + " matches");
+    }
+  }
+
+  // Selects all matches of the current query, if changed, and reveals the next or previous one.
+  private void step(boolean forward) {
+    if (index == null) {
+      if (qe != null && search.isEnabled()) {
+        buildIndex(); // The previous attempt failed.
+      }
+      return;
+    }
+
+    String query = search.getText().trim();
+    String key = (prefix.getSelection() ? "^" : "*") + query;
+    if (!key.equals(matchesQuery)) {
+      clearMatches();
+      if (query.isEmpty()) {
+        updateCount();
+        return;
+      }
+      matchesQuery = key;
+      matches = index.search(query, prefix.getSelection());
+      if (!matches.isEmpty()) {
+        SliceSearchIndex.Matches selected = matches;
+        state.setSelection(Scheduler.COMPUTE.submit(
+            () -> selected.toSelection(state::getThreadInfo, MAX_SELECTED)));
+      }
+    }
+
+    if (matches.isEmpty()) {
+      setStatus("No matches");
+      return;
+    }
+
+    if (current < 0) {
+      TimeSpan visible = state.getVisibleTime();
+      current = matches.indexOfFirstAtOrAfter(visible.start);
+      if (!forward) {
+        current--;
+      }
+    } else {
+      current += forward ? 1 : -1;
+    }
+    current = (current + matches.size()) % matches.size();
+    reveal(matches.getSpan(current));
+    setStatus((current + 1) + " of " + matches.size());
+  }
+
+  private void reveal(TimeSpan span) {
+    TimeSpan visible = state.getVisibleTime();
+    if (span.getDuration() > visible.getDuration()) {
+      state.setVisibleTime(span);
+    } else if (!visible.contains(span)) {
+      state.scrollToX(span.start + span.getDuration() / 2 - visible.getDuration() / 2);
+    }
+    state.setHighlight(span);
+    repaint.run();
+  }
+
+  private void clearMatches() {
+    matches = null;
+    matchesQuery = "";
+    current = -1;
+  }
+
+  private void setStatus(String text) {
+    status.setText(text);
+    layout();
+  }
+}
@@ -27,6 +27,7 @@ import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.models.CpuInfo;
 import com.google.gapid.perfetto.models.ProcessInfo;
 import com.google.gapid.perfetto.models.Selection;
+import com.google.gapid.perfetto.models.SubmissionFlows;
 import com.google.gapid.perfetto.models.ThreadInfo;
 import com.google.gapid.perfetto.models.Track;
 import com.google.gapid.perfetto.models.TrackConfig;
@@ -68,6 +69,9 @@ public abstract class State {
   private final AtomicInteger lastSelectionUpdateId = new AtomicInteger(0);
   private HashMultimap<Long, Long> selectedThreads;     // upid -> utids
   private TimeSpan highlight = TimeSpan.ZERO;
+  // Incremented whenever state affecting the rendered track content, other than the visible
+  // time, changes. Used to invalidate the offscreen caches of the track panels.
+  private int contentVersion = 0;
 
   private final Events.ListenerCollection<Listener> listeners = Events.listeners(Listener.class);
 
@@ -86,6 +90,17 @@ public abstract class State {
     this.selection = null;
     this.selectedThreads = HashMultimap.create();
     this.highlight = TimeSpan.ZERO;
+    contentVersion++;
+    update();
+    listeners.fire().onDataChanged();
+  }
+
+  /**
+   * Notifies the listeners that more data of the current trace has become available, keeping the
+   * visible time and selection.
+   */
+  protected void updateData() {
+    contentVersion++;
     update();
     listeners.fire().onDataChanged();
   }
@@ -138,6 +153,26 @@ public abstract class State {
     }
   }
 
+  /**
+   * @return the compiled keys of the current selection of the given kind, for allocation free
+   * highlight tests while rendering.
+   */
+  public Selection.Keys getSelectedKeys(Selection.Kind type) {
+    if (selection == null) {
+      return Selection.Keys.EMPTY;
+    } else {
+      return selection.getKeys(type);
+    }
+  }
+
+  /**
+   * @return a version number that changes whenever the selection, or any other state that affects
+   * how track content is rendered, except for the visible time, changes.
+   */
+  public int getContentVersion() {
+    return contentVersion;
+  }
+
   public RGBA getSliceColorForThread(ThreadInfo thread) {
     if (selectedThreads.isEmpty() || selectedThreads.containsValue(thread.utid)) {
       return thread.getColor().base;
@@ -227,6 +262,7 @@ public abstract class State {
       setSelection(type, newSel);
     } else {
       selection.addSelection(type, newSel);
+      contentVersion++;
       listeners.fire().onSelectionChanged(selection);
     }
   }
@@ -239,6 +275,7 @@ public abstract class State {
           setSelection(newSelection);
         } else {
           selection.addSelection(newSelection);
+          contentVersion++;
           listeners.fire().onSelectionChanged(selection);
         }
       }
@@ -270,6 +307,7 @@ public abstract class State {
   public void setSelection(Selection.MultiSelection selection) {
     lastSelectionUpdateId.incrementAndGet();
     this.selection = selection;
+    contentVersion++;
     // If selection is cleared or set to a non-cpu one, don't do color grouping for cpu slices.
     if (selection == null || selection.getSelection(Selection.Kind.Cpu).isEmpty()) {
       clearSelectedThreads();
@@ -279,15 +317,23 @@ public abstract class State {
 
   public void clearSelectedThreads() {
     selectedThreads = HashMultimap.create();
+    contentVersion++;
   }
 
+  /**
+   * Adds the given thread to the selected threads. The thread info may be {@code null}, e.g. if a
+   * CPU slice is selected before the threads of the trace have been loaded, and is then ignored.
+   */
   public void addSelectedThread(ThreadInfo threadInfo) {
-    selectedThreads.put(threadInfo.upid, threadInfo.utid);
+    if (threadInfo != null) {
+      selectedThreads.put(threadInfo.upid, threadInfo.utid);
+      contentVersion++;
+    }
   }
 
   public void setSelectedThread(ThreadInfo threadInfo) {
     clearSelectedThreads();
-    selectedThreads.put(threadInfo.upid, threadInfo.utid);
+    addSelectedThread(threadInfo);
   }
 
   public void setHighlight(TimeSpan highlight) {
@@ -357,9 +403,15 @@ public abstract class State {
     }
 
     public void update(Perfetto.Data newData) {
+      boolean sameTrace = data != null && newData != null && data.qe == newData.qe;
       this.data = newData;
-      this.pinnedTracks.clear();
-      super.update((data == null) ? TimeSpan.ZERO : data.traceTime);
+      if (sameTrace) {
+        // More tracks of the trace being loaded, don't reset the view or the pinned tracks.
+        updateData();
+      } else {
+        this.pinnedTracks.clear();
+        super.update((data == null) ? TimeSpan.ZERO : data.traceTime);
+      }
     }
 
     public boolean hasData() {
@@ -385,6 +437,10 @@ public abstract class State {
       return data.vsync;
     }
 
+    public SubmissionFlows getSubmissionFlows() {
+      return data.flows;
+    }
+
     public TrackConfig getTracks() {
       return data.tracks;
     }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.perfetto.views;
+
+import static com.google.gapid.perfetto.views.StyleConstants.LABEL_WIDTH;
+import static com.google.gapid.perfetto.views.StyleConstants.colors;
+
+import com.google.common.collect.Maps;
+import com.google.gapid.perfetto.canvas.Area;
+import com.google.gapid.perfetto.canvas.Panel;
+import com.google.gapid.perfetto.canvas.RenderContext;
+import com.google.gapid.perfetto.models.Selection;
+import com.google.gapid.perfetto.models.SubmissionFlows;
+
+import java.util.Map;
+
+/**
+ * Draws the {@link SubmissionFlows} between the visible Vulkan event and GPU queue tracks as
+ * arrows from the submitting Vulkan events to the GPU queue slices executing the submission. By
+ * default, only the flows of the selected slices are shown.
+ */
+public class SubmissionFlowOverlay {
+  // The maximum number of flows drawn per frame.
+  private static final int MAX_FLOWS = 5000;
+  private static final double ARROW_LENGTH = 8;
+  private static final double ARROW_HALF_WIDTH = 3;
+
+  private final State.ForSystemTrace state;
+  private boolean showAll = false;
+
+  public SubmissionFlowOverlay(State.ForSystemTrace state) {
+    this.state = state;
+  }
+
+  public void toggleShowAll() {
+    showAll = !showAll;
+  }
+
+  /**
+   * Renders the flows between the tracks of the given panel that are visible within the given
+   * area, in the coordinates of the panel.
+   */
+  public void render(RenderContext ctx, Panel panel, Area visible) {
+    SubmissionFlows flows = state.getSubmissionFlows();
+    Selection.Keys events = state.getSelectedKeys(Selection.Kind.VulkanEvent);
+    Selection.Keys slices = state.getSelectedKeys(Selection.Kind.Gpu);
+    if (flows.isEmpty() || (!showAll && events.isEmpty() && slices.isEmpty())) {
+      return;
+    }
+
+    Map<Long, Endpoint> endpoints = Maps.newHashMap();
+    panel.visit(Panel.Visitor.of(Endpoint.class, (endpoint, $) -> {
+      if (!Double.isNaN(endpoint.getRenderedY())) {
+        endpoints.putIfAbsent(endpoint.getGpuTrackId(), endpoint);
+      }
+    }), visible);
+    if (endpoints.isEmpty()) {
+      return;
+    }
+
+    ctx.trace("Flows", () -> {
+      ctx.setForegroundColor(colors().textMain);
+      ctx.setBackgroundColor(colors().textMain);
+      flows.forEachFlow(state.getVisibleTime(), MAX_FLOWS,
+          (srcId, srcTrack, srcDepth, srcTs, dstId, dstTrack, dstDepth, dstTs) -> {
+        if (!showAll && !events.contains(srcId) && !slices.contains(dstId)) {
+          return;
+        }
+        Endpoint src = endpoints.get(srcTrack), dst = endpoints.get(dstTrack);
+        if (src == null || dst == null) {
+          return;
+        }
+
+        double srcY = src.getRenderedY() + src.getSliceCenterY(srcDepth);
+        double dstY = dst.getRenderedY() + dst.getSliceCenterY(dstDepth);
+        drawArrow(ctx, LABEL_WIDTH + state.timeToPx(srcTs), srcY,
+            LABEL_WIDTH + state.timeToPx(dstTs), dstY);
+      });
+    });
+  }
+
+  private static void drawArrow(RenderContext ctx, double x1, double y1, double x2, double y2) {
+    ctx.drawLine(x1, y1, x2, y2);
+    double dx = x2 - x1, dy = y2 - y1, len = Math.sqrt(dx * dx + dy * dy);
+    if (len < ARROW_LENGTH) {
+      return;
+    }
+
+    dx /= len;
+    dy /= len;
+    double bx = x2 - ARROW_LENGTH * dx, by = y2 - ARROW_LENGTH * dy;
+    ctx.fillPolygon(new double[] {
+        x2, bx - ARROW_HALF_WIDTH * dy, bx + ARROW_HALF_WIDTH * dy
+    }, new double[] {
+        y2, by + ARROW_HALF_WIDTH * dx, by - ARROW_HALF_WIDTH * dx
+    }, 3);
+  }
+
+  /**
+   * A {@link TrackPanel} displaying the slices of a GPU track that are connected by flows.
+   */
+  public static interface Endpoint {
+    /**
+     * Returns the id of the GPU track displayed by this panel.
+     */
+    public long getGpuTrackId();
+
+    /**
+     * See {@link TrackPanel#getRenderedY()}.
+     */
+    public double getRenderedY();
+
+    /**
+     * Returns the y coordinate of the center of the slices at the given depth, relative to the
+     * top of the panel.
+     */
+    public double getSliceCenterY(int depth);
+  }
+}
@@ -36,6 +36,7 @@ import com.google.gapid.perfetto.models.SliceTrack;
 import com.google.gapid.perfetto.models.SliceTrack.Slice;
 import com.google.gapid.perfetto.models.ThreadTrack;
 import com.google.gapid.perfetto.models.ThreadTrack.StateSlice;
+import com.google.gapid.perfetto.models.Track;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Cursor;
@@ -58,6 +59,9 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
 
   protected final ThreadTrack track;
   private boolean expanded;
+  private RangeIndex schedIndex;
+  private RangeIndex sliceIndex;
+  private RangeIndex.Marks selectedSliceMarks;
 
   protected double mouseXpos, mouseYpos;
   protected String hoveredTitle;
@@ -84,6 +88,11 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
     return track.getThread().getDisplay();
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
   @Override
   public String getTooltip() {
     ProcessInfo process = state.getProcessInfo(track.getThread().upid);
@@ -109,150 +118,162 @@ public class ThreadPanel extends TrackPanel<ThreadPanel> implements Selectable {
       }
 
       TimeSpan visible = state.getVisibleTime();
-      Selection selectedCpu = state.getSelection(Selection.Kind.Cpu);
-      Selection selectedThreadState = state.getSelection(Selection.Kind.ThreadState);
-      Selection selectedThread = state.getSelection(Selection.Kind.Thread);
+      Selection.Keys selectedCpu = state.getSelectedKeys(Selection.Kind.Cpu);
+      Selection.Keys selectedThreadState = state.getSelectedKeys(Selection.Kind.ThreadState);
+      Selection.Keys selectedThread = state.getSelectedKeys(Selection.Kind.Thread);
       List<Highlight> visibleSelected = Lists.newArrayList();
 
-      boolean merging = false;
-      double mergeStartX = 0;
-      double mergeEndX = 0;
-      ThreadState mergeState = ThreadState.NONE;
-      for (int i = 0; i < data.schedStarts.length; i++) {
-        long tStart = data.schedStarts[i];
-        long tEnd = data.schedEnds[i];
-        if (tEnd <= visible.start || tStart >= visible.end) {
-          continue;
-        }
-        final double rectStart = state.timeToPx(tStart);
-        double rectEnd = state.timeToPx(tEnd);
-        final double rectWidth = rectEnd - rectStart;
-
-        if (merging && (rectStart - mergeEndX) > MERGE_GAP_THRESHOLD) {
-          double mergeWidth = Math.max(1, mergeEndX - mergeStartX);
-          mergeState.color.get().applyBase(ctx);
-          ctx.fillRect(mergeStartX, 0, mergeWidth, SLICE_HEIGHT);
-          if (mergeWidth > 7) {
-            ctx.setForegroundColor(colors().textMain);
-            ctx.drawText(Fonts.Style.Normal, mergeState.label,
-                rectStart + 2, 2, rectWidth - 4, SLICE_HEIGHT - 4);
+      ctx.batch(() -> {
+        boolean merging = false;
+        double mergeStartX = 0;
+        double mergeEndX = 0;
+        ThreadState mergeState = ThreadState.NONE;
+        schedIndex = RangeIndex.update(schedIndex, data.schedStarts, data.schedEnds, null);
+        int schedEnd = schedIndex.last(0, visible.end);
+        for (int k = schedIndex.first(0, visible.start); k < schedEnd; k++) {
+          int i = schedIndex.get(0, k);
+          long tStart = data.schedStarts[i];
+          long tEnd = data.schedEnds[i];
+          if (tEnd <= visible.start) {
+            continue;
           }
-          merging = false;
-        }
-        if (rectWidth < MERGE_SLICE_THRESHOLD) {
-          if (merging) {
-            double ratio = (mergeEndX - mergeStartX) / rectWidth;
-            if (ratio < 1 / MERGE_STATE_RATIO) {
+          final double rectStart = state.timeToPx(tStart);
+          double rectEnd = state.timeToPx(tEnd);
+          final double rectWidth = rectEnd - rectStart;
+
+          if (merging && (rectStart - mergeEndX) > MERGE_GAP_THRESHOLD) {
+            double mergeWidth = Math.max(1, mergeEndX - mergeStartX);
+            mergeState.color.get().applyBase(ctx);
+            ctx.fillRect(mergeStartX, 0, mergeWidth, SLICE_HEIGHT);
+            if (mergeWidth > 7) {
+              ctx.setForegroundColor(colors().textMain);
+              ctx.drawText(Fonts.Style.Normal, mergeState.label,
+                  rectStart + 2, 2, rectWidth - 4, SLICE_HEIGHT - 4);
+            }
+            merging = false;
+          }
+          if (rectWidth < MERGE_SLICE_THRESHOLD) {
+            if (merging) {
+              double ratio = (mergeEndX - mergeStartX) / rectWidth;
+              if (ratio < 1 / MERGE_STATE_RATIO) {
+                mergeState = data.schedStates[i];
+              } else if (ratio < MERGE_STATE_RATIO) {
+                mergeState = mergeState.merge(data.schedStates[i]);
+              }
+              mergeEndX = rectEnd;
+            } else {
+              merging = true;
+              mergeStartX = rectStart;
+              mergeEndX = rectEnd;
               mergeState = data.schedStates[i];
-            } else if (ratio < MERGE_STATE_RATIO) {
-              mergeState = mergeState.merge(data.schedStates[i]);
             }
-            mergeEndX = rectEnd;
           } else {
-            merging = true;
-            mergeStartX = rectStart;
-            mergeEndX = rectEnd;
-            mergeState = data.schedStates[i];
-          }
-        } else {
-          ThreadState ts = data.schedStates[i];
-          double drawStart = rectStart, drawWidth = rectWidth;
-          if (merging) {
-            double ratio = (mergeEndX - mergeStartX) / rectWidth;
-            if (ratio > MERGE_STATE_RATIO) {
-              ts = mergeState;
-            } else if (ratio > 1 / MERGE_STATE_RATIO) {
-              ts = mergeState.merge(ts);
+            ThreadState ts = data.schedStates[i];
+            double drawStart = rectStart, drawWidth = rectWidth;
+            if (merging) {
+              double ratio = (mergeEndX - mergeStartX) / rectWidth;
+              if (ratio > MERGE_STATE_RATIO) {
+                ts = mergeState;
+              } else if (ratio > 1 / MERGE_STATE_RATIO) {
+                ts = mergeState.merge(ts);
+              }
+              drawStart = mergeStartX;
+              drawWidth = rectEnd - mergeStartX;
+              merging = false;
+            }
+
+            ts.color.get().applyBase(ctx);
+            ctx.fillRect(drawStart, 0, drawWidth, SLICE_HEIGHT);
+            if (drawWidth > 7) {
+              ctx.setForegroundColor(colors().textMain);
+              ctx.drawText(Fonts.Style.Normal, ts.label,
+                  drawStart + 2, 2, drawWidth - 4, SLICE_HEIGHT - 4);
             }
-            drawStart = mergeStartX;
-            drawWidth = rectEnd - mergeStartX;
-            merging = false;
           }
 
-          ts.color.get().applyBase(ctx);
-          ctx.fillRect(drawStart, 0, drawWidth, SLICE_HEIGHT);
-          if (drawWidth > 7) {
-            ctx.setForegroundColor(colors().textMain);
-            ctx.drawText(Fonts.Style.Normal, ts.label,
-                drawStart + 2, 2, drawWidth - 4, SLICE_HEIGHT - 4);
+          if (data.isSched[i] && selectedCpu.contains(data.ids[i])
+              || !data.isSched[i] && selectedThreadState.contains(data.ids[i])) {
+            visibleSelected.add(
+                new Highlight(data.schedStates[i].color.get().border, rectStart, 0, rectWidth));
           }
         }
-
-        if (data.isSched[i] && selectedCpu.contains(data.ids[i])
-            || !data.isSched[i] && selectedThreadState.contains(data.ids[i])) {
-          visibleSelected.add(
-              new Highlight(data.schedStates[i].color.get().border, rectStart, 0, rectWidth));
+        if (merging) {
+          mergeState.color.get().applyBase(ctx);
+          ctx.fillRect(mergeStartX, 0, mergeEndX - mergeStartX, SLICE_HEIGHT);
         }
-      }
-      if (merging) {
-        mergeState.color.get().applyBase(ctx);
-        ctx.fillRect(mergeStartX, 0, mergeEndX - mergeStartX, SLICE_HEIGHT);
-      }
 
-      if (expanded) {
-        SliceTrack.Data slices = data.slices;
-        String[] concatedIds = slices.getExtraStrings("concatedIds");
-        for (int i = 0; i < slices.starts.length; i++) {
-          long tStart = slices.starts[i];
-          long tEnd = slices.ends[i];
-          int depth = slices.depths[i];
-          long id = slices.ids[i];
-          //String cat = data.categories[i];
-          String title = slices.titles[i];
-          if (tEnd <= visible.start || tStart >= visible.end) {
-            continue;
-          }
-          double rectStart = state.timeToPx(tStart);
-          double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-          double y = (1 + depth) * SLICE_HEIGHT;
-
-          StyleConstants.Gradient color = getSliceColor(title, depth);
-          color.applyBase(ctx);
-          ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
-
-          if (selectedThread.contains(id)) { // Unquantized track.
-            visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-          }
-          if (i < concatedIds.length) {      // Quantized track.
-            for (String cId : concatedIds[i].split(",")) {
-              if (selectedThread.contains(Long.parseLong(cId))) {
+        if (expanded) {
+          SliceTrack.Data slices = data.slices;
+          sliceIndex = RangeIndex.update(sliceIndex, slices.starts, slices.ends, slices.depths);
+          selectedSliceMarks = RangeIndex.Marks.update(
+              selectedSliceMarks, sliceIndex, state.getContentVersion(),
+              () -> selectedThread.isEmpty() ? null : i ->
+                  selectedThread.contains(slices.ids[i]) ||
+                  slices.idBuckets.intersects(i, selectedThread));
+          for (int d = 0; d < sliceIndex.getDepthCount(); d++) {
+            sliceIndex.forEachVisible(state, d, selectedSliceMarks, (i, rectStart, rectWidth) -> {
+              int depth = slices.depths[i];
+              long id = slices.ids[i];
+              //String cat = data.categories[i];
+              String title = slices.titles[i];
+              double y = (1 + depth) * SLICE_HEIGHT;
+
+              StyleConstants.Gradient color = getSliceColor(title, depth);
+              color.applyBase(ctx);
+              ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
+
+              if (selectedThread.contains(id)) { // Unquantized track.
+                visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
+              }
+              if (slices.idBuckets.intersects(i, selectedThread)) {      // Quantized track.
                 visibleSelected.add(new Highlight(color.border, rectStart, y, rectWidth));
-                break;
               }
-            }
-          }
 
-          // Don't render text when we have less than 7px to play with.
-          if (rectWidth < 7) {
-            continue;
-          }
+              // Don't render text when we have less than 7px to play with.
+              if (rectWidth < 7) {
+                return;
+              }
 
-          ctx.setForegroundColor(colors().textMain);
-          ctx.drawText(Fonts.Style.Normal, title,
-              rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
+              ctx.setForegroundColor(colors().textMain);
+              ctx.drawText(Fonts.Style.Normal, title,
+                  rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
+            });
+          }
         }
-      }
+      });
 
       // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
       for (Highlight hl : visibleSelected) {
         ctx.setForegroundColor(hl.color);
         ctx.drawRect(hl.x, hl.y, hl.w, SLICE_HEIGHT, BOUNDING_BOX_LINE_WIDTH);
       }
+    });
+  }
 
-      if (hoveredTitle != null) {
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(
-            mouseXpos + HOVER_MARGIN, mouseYpos, hoveredSize.w + 2 * HOVER_PADDING, hoveredSize.h);
-
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Normal, hoveredTitle,
-            mouseXpos + HOVER_MARGIN + HOVER_PADDING, mouseYpos + HOVER_PADDING / 2);
-        if (!hoveredCategory.isEmpty()) {
-          ctx.setForegroundColor(colors().textAlt);
-          ctx.drawText(Fonts.Style.Normal, hoveredCategory,
-              mouseXpos + HOVER_MARGIN + HOVER_PADDING,
-              mouseYpos + hoveredSize.h / 2, hoveredSize.h / 2);
-        }
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    if (hoveredTitle == null) {
+      return;
+    }
+
+    ctx.addOverlay(() -> {
+      ctx.setBackgroundColor(colors().hoverBackground);
+      ctx.fillRect(
+          mouseXpos + HOVER_MARGIN, mouseYpos, hoveredSize.w + 2 * HOVER_PADDING, hoveredSize.h);
+
+      ctx.setForegroundColor(colors().textMain);
+      ctx.drawText(Fonts.Style.Normal, hoveredTitle,
+          mouseXpos + HOVER_MARGIN + HOVER_PADDING, mouseYpos + HOVER_PADDING / 2);
+      if (!hoveredCategory.isEmpty()) {
+        ctx.setForegroundColor(colors().textAlt);
+        ctx.drawText(Fonts.Style.Normal, hoveredCategory,
+            mouseXpos + HOVER_MARGIN + HOVER_PADDING,
+            mouseYpos + hoveredSize.h / 2, hoveredSize.h / 2);
       }
     });
   }
@@ -31,6 +31,7 @@ import static com.google.gapid.widgets.Widgets.withMargin;
 import com.google.gapid.models.Analytics;
 import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
+import com.google.gapid.perfetto.canvas.FrameProfiler;
 import com.google.gapid.perfetto.canvas.PanelCanvas;
 import com.google.gapid.perfetto.models.Selection.MultiSelection;
 import com.google.gapid.perfetto.views.RootPanel.MouseMode;
@@ -175,6 +176,15 @@ public abstract class TraceComposite<S extends State> extends Composite implemen
           }
           break;
         }
+        case 'l':
+          rootPanel.toggleFlows();
+          redraw = true;
+          break;
+        case 'p':
+          if (FrameProfiler.isEnabled()) {
+            FrameProfiler.get().export();
+          }
+          break;
         case 'v':
           rootPanel.toggleVSync();
           redraw = true;
@@ -205,6 +215,10 @@ public abstract class TraceComposite<S extends State> extends Composite implemen
     return state;
   }
 
+  public void repaint() {
+    canvas.redraw(Area.FULL, true);
+  }
+
   public void requestFocus() {
     scheduleIfNotDisposed(canvas, canvas::setFocus);
   }
@@ -25,14 +25,18 @@ import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gapid.perfetto.TimeSpan;
 import com.google.gapid.perfetto.canvas.Area;
 import com.google.gapid.perfetto.canvas.Fonts;
+import com.google.gapid.perfetto.canvas.FrameProfiler;
+import com.google.gapid.perfetto.canvas.OffscreenCache;
 import com.google.gapid.perfetto.canvas.Panel;
 import com.google.gapid.perfetto.canvas.RenderContext;
 import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.Track;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 /**
@@ -46,6 +50,11 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
 
   protected final State state;
   protected Tooltip tooltip;
+  private final OffscreenCache content = new OffscreenCache();
+  // Label of the render time of the panel, per panel type.
+  private final String traceLabel = "Panel " + FrameProfiler.typeName(getClass());
+  // The y offset of the panel within the rendered canvas, the last time it was rendered.
+  private double renderedY = Double.NaN;
 
   public TrackPanel(State state) {
     this.state = state;
@@ -58,13 +67,36 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
 
   public abstract double getHeight();
 
+  /**
+   * Returns the {@link Track} providing the data displayed by this panel.
+   */
+  public abstract Track<?> getTrack();
+
+  /**
+   * Returns the y offset of this panel within the canvas, as of the last time it was rendered, or
+   * {@code NaN} if it has not been rendered yet. Since scrolling and changes to the panel structure
+   * redraw all the visible panels, this is up to date for any panel that is currently visible.
+   */
+  public double getRenderedY() {
+    return renderedY;
+  }
+
   @Override
   public void render(RenderContext ctx, Repainter repainter) {
+    renderedY = ctx.getOffsetY();
     double w = width - LABEL_WIDTH, h = height - 2 * TRACK_MARGIN;
-    drawGridLines(ctx, state, LABEL_WIDTH, 0, w, height);
-    ctx.withTranslation(LABEL_WIDTH, TRACK_MARGIN, () ->
-      ctx.withClip(0, -TRACK_MARGIN, w, h + 2 * TRACK_MARGIN, () ->
-        renderTrack(ctx, repainter, w, h)));
+    ctx.trace(traceLabel, () -> {
+      // The track content is rendered into an offscreen cache, so hover feedback only needs to
+      // copy the cached image and draw the hover overlays on top.
+      Object key = getContentKey(repainter, w, h);
+      ctx.withOffscreenCache(content, key, LABEL_WIDTH, 0, w, height, c -> {
+        drawGridLines(c, state, 0, 0, w, height);
+        c.withTranslation(0, TRACK_MARGIN, () ->
+          c.withClip(0, -TRACK_MARGIN, w, h + 2 * TRACK_MARGIN, () ->
+            renderTrack(c, repainter, w, h)));
+      });
+      ctx.withTranslation(LABEL_WIDTH, TRACK_MARGIN, () -> renderHover(ctx, w, h));
+    });
 
     if (tooltip != null) {
       ctx.addOverlay(() -> {
@@ -86,6 +118,33 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
 
   protected abstract void renderTrack(RenderContext ctx, Repainter repainter, double w, double h);
 
+  /**
+   * Renders the hover feedback of the track, which is not part of the cached track content. The
+   * feedback should be drawn via {@link RenderContext#addOverlay}.
+   */
+  @SuppressWarnings("unused")
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    // Do nothing by default.
+  }
+
+  /**
+   * Returns the data rendered by {@link #renderTrack}, if the rendered track content may be cached
+   * until the data changes, or {@code null} to not cache the content.
+   */
+  @SuppressWarnings("unused")
+  protected Track.Data getContentData(Repainter repainter) {
+    return null;
+  }
+
+  private Object getContentKey(Repainter repainter, double w, double h) {
+    Track.Data data = getContentData(repainter);
+    if (data == null || !data.request.satisfies(state.toRequest())) {
+      // Don't cache partially loaded content.
+      return null;
+    }
+    return new ContentKey(data, state.getVisibleTime(), state.getContentVersion(), w, h);
+  }
+
   @Override
   public void visit(Visitor v, Area area) {
     area.intersect(LABEL_WIDTH, TRACK_MARGIN, width - LABEL_WIDTH, height - 2 * TRACK_MARGIN)
@@ -163,6 +222,41 @@ public abstract class TrackPanel<T extends TrackPanel<T>> extends Panel.Base
     return getSliceColor(title, 0);
   }
 
+  // Identifies the rendered content of a track.
+  private static class ContentKey {
+    private final Track.Data data;
+    private final TimeSpan visible;
+    private final int version;
+    private final StyleConstants.Colors colors;
+    private final double w, h;
+
+    public ContentKey(Track.Data data, TimeSpan visible, int version, double w, double h) {
+      this.data = data;
+      this.visible = visible;
+      this.version = version;
+      this.colors = colors();
+      this.w = w;
+      this.h = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(visible, version, w, h);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof ContentKey)) {
+        return false;
+      }
+      ContentKey o = (ContentKey)obj;
+      return data == o.data && visible.equals(o.visible) && version == o.version &&
+          colors == o.colors && w == o.w && h == o.h;
+    }
+  }
+
   private static class Tooltip {
     private static final Splitter LINE_SPLITTER =
         Splitter.on(CharMatcher.anyOf("\r\n")).omitEmptyStrings().trimResults();
@@ -18,6 +18,7 @@ package com.google.gapid.perfetto.views;
 
 import static com.google.gapid.perfetto.views.Loading.drawLoading;
 import static com.google.gapid.perfetto.views.StyleConstants.SELECTION_THRESHOLD;
+import static com.google.gapid.perfetto.views.StyleConstants.TRACK_MARGIN;
 import static com.google.gapid.perfetto.views.StyleConstants.colors;
 import static com.google.gapid.util.MoreFutures.transform;
 
@@ -31,6 +32,7 @@ import com.google.gapid.perfetto.canvas.Size;
 import com.google.gapid.perfetto.models.GpuInfo;
 import com.google.gapid.perfetto.models.Selection;
 import com.google.gapid.perfetto.models.Selection.CombiningBuilder;
+import com.google.gapid.perfetto.models.Track;
 import com.google.gapid.perfetto.models.VulkanEventTrack;
 
 import org.eclipse.swt.SWT;
@@ -39,7 +41,8 @@ import org.eclipse.swt.widgets.Display;
 
 import java.util.List;
 
-public class VulkanEventPanel extends TrackPanel<VulkanEventPanel> implements Selectable {
+public class VulkanEventPanel extends TrackPanel<VulkanEventPanel>
+    implements Selectable, SubmissionFlowOverlay.Endpoint {
   private static final double ARROW_HEIGHT = 10;
   private static final double ARROW_WIDTH_MIN = 10;
   private static final double ARROW_TIP = 2;
@@ -72,6 +75,21 @@ public class VulkanEventPanel extends TrackPanel<VulkanEventPanel> implements Se
     return vkApiEvent.getDisplay();
   }
 
+  @Override
+  public Track<?> getTrack() {
+    return track;
+  }
+
+  @Override
+  public long getGpuTrackId() {
+    return vkApiEvent.trackId;
+  }
+
+  @Override
+  public double getSliceCenterY(int depth) {
+    return TRACK_MARGIN + SLICE_Y + (depth + 0.5) * SLICE_HEIGHT;
+  }
+
   @Override
   public double getHeight() {
     return SLICE_Y + vkApiEvent.maxDepth * SLICE_HEIGHT;
@@ -88,38 +106,40 @@ public class VulkanEventPanel extends TrackPanel<VulkanEventPanel> implements Se
       }
 
       TimeSpan visible = state.getVisibleTime();
-      Selection selected = state.getSelection(Selection.Kind.VulkanEvent);
+      Selection.Keys selected = state.getSelectedKeys(Selection.Kind.VulkanEvent);
       List<Integer> visibleSelected = Lists.newArrayList();
 
-      for (int i = 0; i < data.starts.length; i++) {
-        long tStart = data.starts[i];
-        long tEnd = data.ends[i];
-        int depth = data.depths[i];
+      ctx.batch(() -> {
+        for (int i = 0; i < data.starts.length; i++) {
+          long tStart = data.starts[i];
+          long tEnd = data.ends[i];
+          int depth = data.depths[i];
 
-        if (tEnd <= visible.start || tStart >= visible.end) {
-          continue;
-        }
-        double rectStart = state.timeToPx(tStart);
-        double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
-        double y = SLICE_Y + depth * SLICE_HEIGHT;
+          if (tEnd <= visible.start || tStart >= visible.end) {
+            continue;
+          }
+          double rectStart = state.timeToPx(tStart);
+          double rectWidth = Math.max(1, state.timeToPx(tEnd) - rectStart);
+          double y = SLICE_Y + depth * SLICE_HEIGHT;
 
-        getSliceColor(data.names[i]).applyBase(ctx);
-        ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
+          getSliceColor(data.names[i]).applyBase(ctx);
+          ctx.fillRect(rectStart, y, rectWidth, SLICE_HEIGHT);
 
-        if (selected.contains(data.ids[i])) {
-          visibleSelected.add(i);
-        }
+          if (selected.contains(data.ids[i])) {
+            visibleSelected.add(i);
+          }
 
-        // Don't render text when we have less than 7px to play with.
-        if (rectWidth < 7) {
-          continue;
-        }
+          // Don't render text when we have less than 7px to play with.
+          if (rectWidth < 7) {
+            continue;
+          }
 
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(
-            Fonts.Style.Normal, data.names[i], rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
+          ctx.setForegroundColor(colors().textMain);
+          ctx.drawText(Fonts.Style.Normal, data.names[i],
+              rectStart + 2, y + 2, rectWidth - 4, SLICE_HEIGHT - 4);
 
-      }
+        }
+      });
 
       // Draw bounding rectangles after all the slices are rendered, so that the border is on the top.
       for (int index : visibleSelected) {
@@ -137,15 +157,27 @@ public class VulkanEventPanel extends TrackPanel<VulkanEventPanel> implements Se
         ctx.drawLine(mid + arrowWidth, ARROW_TIP, mid + arrowWidth - ARROW_TIP, 0);
         ctx.drawLine(mid + arrowWidth, ARROW_TIP, mid + arrowWidth - ARROW_TIP, ARROW_TIP * 2);
       }
+    });
+  }
 
-      if (hoveredName != null) {
-        ctx.setBackgroundColor(colors().hoverBackground);
-        ctx.fillRect(
-            mouseXpos + HOVER_MARGIN, mouseYpos, hoveredSize.w + 2 * HOVER_PADDING, hoveredSize.h);
-        ctx.setForegroundColor(colors().textMain);
-        ctx.drawText(Fonts.Style.Normal, hoveredName,
-            mouseXpos + HOVER_MARGIN + HOVER_PADDING, mouseYpos + HOVER_PADDING / 2);
-      }
+  @Override
+  protected Track.Data getContentData(Repainter repainter) {
+    return track.getData(state.toRequest(), onUiThread(repainter));
+  }
+
+  @Override
+  protected void renderHover(RenderContext ctx, double w, double h) {
+    if (hoveredName == null) {
+      return;
+    }
+
+    ctx.addOverlay(() -> {
+      ctx.setBackgroundColor(colors().hoverBackground);
+      ctx.fillRect(
+          mouseXpos + HOVER_MARGIN, mouseYpos, hoveredSize.w + 2 * HOVER_PADDING, hoveredSize.h);
+      ctx.setForegroundColor(colors().textMain);
+      ctx.drawText(Fonts.Style.Normal, hoveredName,
+          mouseXpos + HOVER_MARGIN + HOVER_PADDING, mouseYpos + HOVER_PADDING / 2);
     });
   }
 
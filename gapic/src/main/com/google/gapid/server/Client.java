@@ -315,7 +315,7 @@ public class Client {
       Supplier<String> stackMessage, Function<Stack, ListenableFuture<V>> call) {
     SettableFuture<V> result = SettableFuture.create();
     Stack stack = new Stack(stackMessage);
-    Scheduler.EXECUTOR.execute(() -> {
+    Scheduler.UI_FEED.execute(() -> {
       if (LOG.isLoggable(FINE)) {
         LOG.log(FINE, stackMessage.get());
       }
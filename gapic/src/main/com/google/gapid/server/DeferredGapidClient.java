@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gapid.proto.log.Log;
+import com.google.gapid.proto.service.Service;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A {@link GapidClient} that can be used before the connection to the server has been established.
+ * Requests made before the connection is ready are queued and sent as soon as the actual client
+ * is set, or fail if the connection fails. This allows the UI and models to be created while the
+ * server is still starting up.
+ */
+public class DeferredGapidClient implements GapidClient {
+  private final SettableFuture<GapidClient> delegate = SettableFuture.create();
+
+  /**
+   * Sets the connected client, sending all queued requests.
+   */
+  public void setDelegate(GapidClient client) {
+    delegate.set(client);
+  }
+
+  /**
+   * Fails all queued and future requests with the given connection failure.
+   */
+  public void setFailed(Throwable cause) {
+    delegate.setException(cause);
+  }
+
+  private <T> ListenableFuture<T> call(AsyncFunction<GapidClient, T> call) {
+    // The queued requests are sent on the thread setting the delegate, which is fine, as sending
+    // a request does not block. Cancelling a queued request must not cancel the connection.
+    return Futures.transformAsync(
+        Futures.nonCancellationPropagating(delegate), call, directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<Void> ping() {
+    return call(c -> c.ping());
+  }
+
+  @Override
+  public ListenableFuture<Service.GetServerInfoResponse> getServerInfo(
+      Service.GetServerInfoRequest request) {
+    return call(c -> c.getServerInfo(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.CheckForUpdatesResponse> checkForUpdates(
+      Service.CheckForUpdatesRequest request) {
+    return call(c -> c.checkForUpdates(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetResponse> get(Service.GetRequest request) {
+    return call(c -> c.get(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.SetResponse> set(Service.SetRequest request) {
+    return call(c -> c.set(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.FollowResponse> follow(Service.FollowRequest request) {
+    return call(c -> c.follow(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetPerformanceCountersResponse> getPerformanceCounters(
+      Service.GetPerformanceCountersRequest request) {
+    return call(c -> c.getPerformanceCounters(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetProfileResponse> getProfile(
+      Service.GetProfileRequest request) {
+    return call(c -> c.getProfile(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetAvailableStringTablesResponse> getAvailableStringTables(
+      Service.GetAvailableStringTablesRequest request) {
+    return call(c -> c.getAvailableStringTables(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetStringTableResponse> getStringTable(
+      Service.GetStringTableRequest request) {
+    return call(c -> c.getStringTable(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.ImportCaptureResponse> importCapture(
+      Service.ImportCaptureRequest request) {
+    return call(c -> c.importCapture(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.LoadCaptureResponse> loadCapture(
+      Service.LoadCaptureRequest request) {
+    return call(c -> c.loadCapture(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.SaveCaptureResponse> saveCapture(
+      Service.SaveCaptureRequest request) {
+    return call(c -> c.saveCapture(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetDevicesResponse> getDevices(
+      Service.GetDevicesRequest request) {
+    return call(c -> c.getDevices(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetDevicesForReplayResponse> getDevicesForReplay(
+      Service.GetDevicesForReplayRequest request) {
+    return call(c -> c.getDevicesForReplay(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GetFramebufferAttachmentResponse> getFramebufferAttachment(
+      Service.GetFramebufferAttachmentRequest request) {
+    return call(c -> c.getFramebufferAttachment(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.ClientEventResponse> postClientEvent(
+      Service.ClientEventRequest request) {
+    return call(c -> c.postClientEvent(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.TraceTargetTreeNodeResponse> getTraceTargetTreeNode(
+      Service.TraceTargetTreeNodeRequest request) {
+    return call(c -> c.getTraceTargetTreeNode(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.UpdateSettingsResponse> updateSettings(
+      Service.UpdateSettingsRequest request) {
+    return call(c -> c.updateSettings(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.PerfettoQueryResponse> perfettoQuery(
+      Service.PerfettoQueryRequest request) {
+    return call(c -> c.perfettoQuery(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.GpuProfileResponse> profile(Service.GpuProfileRequest request) {
+    return call(c -> c.profile(request));
+  }
+
+  @Override
+  public ListenableFuture<Service.ValidateDeviceResponse> validateDevice(
+      Service.ValidateDeviceRequest request) {
+    return call(c -> c.validateDevice(request));
+  }
+
+  @Override
+  public ListenableFuture<Void> streamLog(Consumer<Log.Message> onLogMessage) {
+    return call(c -> c.streamLog(onLogMessage));
+  }
+
+  @Override
+  public ListenableFuture<Void> streamStatus(
+      Service.ServerStatusRequest request, Consumer<Service.ServerStatusResponse> onStatus) {
+    return call(c -> c.streamStatus(request, onStatus));
+  }
+
+  @Override
+  public ListenableFuture<Void> streamSearch(
+      Service.FindRequest request, Consumer<Service.FindResponse> onResult) {
+    return call(c -> c.streamSearch(request, onResult));
+  }
+
+  @Override
+  public StreamSender<Service.TraceRequest> streamTrace(
+      StreamConsumer<Service.TraceResponse> onTraceResponse) {
+    DeferredSender<Service.TraceRequest> sender = new DeferredSender<Service.TraceRequest>();
+    Futures.addCallback(delegate, new FutureCallback<GapidClient>() {
+      @Override
+      public void onSuccess(GapidClient client) {
+        if (!sender.future.isCancelled()) {
+          sender.connect(client.streamTrace(onTraceResponse));
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        sender.future.setException(t);
+      }
+    }, directExecutor());
+    return sender;
+  }
+
+  /**
+   * A {@link StreamSender} that queues the sent values until the stream has been opened, once
+   * connected to the server.
+   */
+  private static class DeferredSender<T> implements StreamSender<T> {
+    public final SettableFuture<Void> future = SettableFuture.create();
+    private final List<T> queued = Lists.newArrayList(); // guarded by this
+    private boolean finished = false; // guarded by this
+    private StreamSender<T> sender; // guarded by this
+
+    public DeferredSender() {
+    }
+
+    public void connect(StreamSender<T> newSender) {
+      synchronized (this) {
+        sender = newSender;
+        for (T value : queued) {
+          sender.send(value);
+        }
+        queued.clear();
+        if (finished) {
+          sender.finish();
+        }
+      }
+      // Cancelling this future cancels the stream.
+      future.setFuture(newSender.getFuture());
+    }
+
+    @Override
+    public ListenableFuture<Void> getFuture() {
+      return future;
+    }
+
+    @Override
+    public synchronized void send(T value) {
+      if (sender == null) {
+        queued.add(value);
+      } else {
+        sender.send(value);
+      }
+    }
+
+    @Override
+    public synchronized void finish() {
+      if (sender == null) {
+        finished = true;
+      } else {
+        sender.finish();
+      }
+    }
+  }
+}
@@ -15,24 +15,81 @@
  */
 package com.google.gapid.server;
 
+import static com.google.gapid.util.MoreFutures.transform;
+import static com.google.gapid.util.MoreFutures.transformAsync;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.logging.Level.FINE;
+
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.proto.service.GapidGrpc;
 import com.google.gapid.proto.service.Service;
+import com.google.gapid.util.Caches;
 import com.google.gapid.util.FutureCache;
+import com.google.gapid.util.Scheduler;
+import com.google.gapid.util.SingleFlight;
+import com.google.protobuf.MessageLite;
+
+import java.util.logging.Logger;
 
 /**
- * A caching {@link GapidClientGrpc}.
+ * A caching {@link GapidClientGrpc}. The results of {@link #get} and {@link #follow} are cached,
+ * and concurrent identical requests of those, {@link #getFramebufferAttachment} and
+ * {@link #perfettoQuery} share a single RPC. The cached results share the budgets of a
+ * {@link Caches.SizeClassCache}, so large values, such as images, don't evict the small ones.
+ * Responses to requests for immutable capture data are additionally persisted in a
+ * {@link PersistentResponseCache}, which is consulted before the server on a miss.
  */
 public class GapidClientCache extends GapidClientGrpc {
+  private static final Logger LOG = Logger.getLogger(GapidClientCache.class.getName());
+
+  private final Caches.SizeClassCache<MessageLite, MessageLite> cache;
+  private final PersistentResponseCache diskCache;
   private final FutureCache<Service.GetRequest, Service.GetResponse> getCache;
   private final FutureCache<Service.FollowRequest, Service.FollowResponse> followCache;
+  private final SingleFlight<Service.GetFramebufferAttachmentRequest,
+      Service.GetFramebufferAttachmentResponse> framebufferAttachments;
+  private final SingleFlight<Service.PerfettoQueryRequest, Service.PerfettoQueryResponse>
+      perfettoQueries;
 
-  public GapidClientCache(GapidGrpc.GapidFutureStub client, GapidGrpc.GapidStub stub) {
+  public GapidClientCache(GapidGrpc.GapidFutureStub client, GapidGrpc.GapidStub stub,
+      Caches.Budgets budgets, PersistentResponseCache diskCache) {
     super(client, stub);
-    this.getCache = FutureCache.softCache(
-        client::get, result -> result.getResCase() == Service.GetResponse.ResCase.VALUE);
-    this.followCache = FutureCache.softCache(
+    this.cache = Caches.sizeClassCache(budgets);
+    this.diskCache = diskCache;
+    this.getCache = new FutureCache<>(cache.view(), "get",
+        this::fetch, result -> result.getResCase() == Service.GetResponse.ResCase.VALUE);
+    this.followCache = new FutureCache<>(cache.view(), "follow",
         client::follow, result -> result.getResCase() == Service.FollowResponse.ResCase.PATH);
+    this.framebufferAttachments =
+        new SingleFlight<>("getFramebufferAttachment", client::getFramebufferAttachment);
+    this.perfettoQueries = new SingleFlight<>("perfettoQuery", client::perfettoQuery);
+
+    if (LOG.isLoggable(FINE)) {
+      Scheduler.TIMERS.scheduleWithFixedDelay(
+          () -> LOG.log(FINE, "Response cache: " + cache.getStatsSummary()), 1, 1, MINUTES);
+    }
+  }
+
+  private ListenableFuture<Service.GetResponse> fetch(Service.GetRequest request) {
+    if (diskCache == PersistentResponseCache.NONE ||
+        !PersistentResponseCache.isCacheable(request)) {
+      return super.get(request);
+    }
+
+    // Read the disk cache off the calling thread, as this may be the UI thread.
+    return transformAsync(Scheduler.IO.submit(() -> diskCache.get(request)), cached -> {
+      if (cached != null) {
+        return Futures.immediateFuture(cached);
+      }
+      return transform(super.get(request), result -> {
+        if (result.getResCase() == Service.GetResponse.ResCase.VALUE) {
+          // Don't hold up the response on compressing and writing it to disk.
+          Scheduler.IO.execute(() -> diskCache.put(request, result));
+        }
+        return result;
+      });
+    });
   }
 
   @Override
@@ -44,4 +101,16 @@ public class GapidClientCache extends GapidClientGrpc {
   public ListenableFuture<Service.FollowResponse> follow(Service.FollowRequest request) {
     return followCache.get(request);
   }
+
+  @Override
+  public ListenableFuture<Service.GetFramebufferAttachmentResponse> getFramebufferAttachment(
+      Service.GetFramebufferAttachmentRequest request) {
+    return framebufferAttachments.get(request);
+  }
+
+  @Override
+  public ListenableFuture<Service.PerfettoQueryResponse> perfettoQuery(
+      Service.PerfettoQueryRequest request) {
+    return perfettoQueries.get(request);
+  }
 }
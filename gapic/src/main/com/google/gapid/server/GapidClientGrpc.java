@@ -39,18 +39,23 @@ import com.google.gapid.util.MoreFutures;
 
 import java.util.function.Consumer;
 
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
 /**
- * A {@link GapidClient} based on a gRPC service.
+ * A {@link GapidClient} based on a gRPC service. Concurrent {@link #get} calls are combined into
+ * batched RPCs by a {@link GetBatcher}, if the server supports it.
  */
 public class GapidClientGrpc implements GapidClient {
   private final GapidGrpc.GapidFutureStub client;
   private final GapidGrpc.GapidStub stub;
+  private final GetBatcher batcher;
 
   public GapidClientGrpc(GapidGrpc.GapidFutureStub client, GapidGrpc.GapidStub stub) {
     this.client = client;
     this.stub = stub;
+    this.batcher = new GetBatcher(client, stub);
   }
 
   @Override
@@ -61,7 +66,10 @@ public class GapidClientGrpc implements GapidClient {
   @Override
   public ListenableFuture<Service.GetServerInfoResponse> getServerInfo(
       Service.GetServerInfoRequest request) {
-    return client.getServerInfo(request);
+    return MoreFutures.transform(client.getServerInfo(request), response -> {
+      batcher.setServerFeatures(response.getInfo().getFeaturesList());
+      return response;
+    });
   }
 
   @Override
@@ -72,7 +80,7 @@ public class GapidClientGrpc implements GapidClient {
 
   @Override
   public ListenableFuture<Service.GetResponse> get(Service.GetRequest request) {
-    return client.get(request);
+    return batcher.get(request);
   }
 
   @Override
@@ -207,7 +215,10 @@ public class GapidClientGrpc implements GapidClient {
     return Sender.wrap(handler.future, stub.trace(handler));
   }
 
-  private static class StreamHandler<T> implements StreamObserver<T> {
+  /**
+   * Adapts a gRPC response stream to a future. Cancelling the future cancels the stream.
+   */
+  private static class StreamHandler<T> implements ClientResponseObserver<Object, T> {
     public final SettableFuture<Void> future = SettableFuture.create();
     private final GapidClient.StreamConsumer<T> consumer;
 
@@ -226,8 +237,20 @@ public class GapidClientGrpc implements GapidClient {
       return new StreamHandler<T>(consumer);
     }
 
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Object> requestStream) {
+      future.addListener(() -> {
+        if (future.isCancelled()) {
+          requestStream.cancel("Stream cancelled by the client", null);
+        }
+      }, directExecutor());
+    }
+
     @Override
     public void onNext(T value) {
+      if (future.isDone()) {
+        return;
+      }
       GapidClient.Result result = consumer.consume(value);
       if (result.error != null) {
         onError(result.error);
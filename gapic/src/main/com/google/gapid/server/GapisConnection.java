@@ -19,6 +19,7 @@ import static io.grpc.ClientInterceptors.intercept;
 import static io.grpc.stub.MetadataUtils.newAttachHeadersInterceptor;
 
 import com.google.gapid.proto.service.GapidGrpc;
+import com.google.gapid.util.Caches;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -42,7 +43,8 @@ public abstract class GapisConnection implements Closeable {
     }
 
     @Override
-    public GapidClient createGapidClient(boolean caching) throws IOException {
+    public GapidClient createGapidClient(boolean caching, Caches.Budgets cacheBudgets,
+        PersistentResponseCache diskCache) throws IOException {
       throw new IOException("Not connected");
     }
 
@@ -70,7 +72,12 @@ public abstract class GapisConnection implements Closeable {
 
   public abstract boolean isConnected();
 
-  public abstract GapidClient createGapidClient(boolean caching) throws IOException;
+  /**
+   * Creates a client for this connection, caching the responses within the given budgets and
+   * persisting the immutable ones to the given disk cache, if caching is enabled.
+   */
+  public abstract GapidClient createGapidClient(boolean caching, Caches.Budgets cacheBudgets,
+      PersistentResponseCache diskCache) throws IOException;
 
   public static interface CloseListener {
     public void onClose(GapisConnection connection);
@@ -116,10 +123,12 @@ public abstract class GapisConnection implements Closeable {
     }
 
     @Override
-    public GapidClient createGapidClient(boolean caching) throws IOException {
+    public GapidClient createGapidClient(boolean caching, Caches.Budgets cacheBudgets,
+        PersistentResponseCache diskCache) throws IOException {
       GapidGrpc.GapidFutureStub futureStub = GapidGrpc.newFutureStub(channel);
       GapidGrpc.GapidStub stub = GapidGrpc.newStub(channel);
-      GapidClient client = caching ? new GapidClientCache(futureStub, stub) :
+      GapidClient client = caching ?
+          new GapidClientCache(futureStub, stub, cacheBudgets, diskCache) :
           new GapidClientGrpc(futureStub, stub);
       if (heartbeatRateMS > 0) {
         new Heartbeat(client, heartbeatRateMS).start();
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gapid.proto.service.GapidGrpc;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.util.Scheduler;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Gathers the get requests issued within a short tick into a single {@code GetBatch} RPC and fans
+ * the responses back out to the individual requests. The server streams each response as soon as
+ * it is resolved, so a slow request does not hold up the others of its batch. If the server does
+ * not support batching, the requests are sent individually.
+ */
+public class GetBatcher {
+  private static final Logger LOG = Logger.getLogger(GetBatcher.class.getName());
+
+  private static final String FEATURE = "get-batch";
+
+  // How long to wait for more requests after the first request of a batch.
+  private static final long TICK_MS = 2;
+  private static final int MAX_BATCH_SIZE = 256;
+
+  private final GapidGrpc.GapidFutureStub client;
+  private final GapidGrpc.GapidStub stub;
+  private volatile boolean enabled = false;
+  private List<Pending> pending = Lists.newArrayList();
+
+  public GetBatcher(GapidGrpc.GapidFutureStub client, GapidGrpc.GapidStub stub) {
+    this.client = client;
+    this.stub = stub;
+  }
+
+  /**
+   * Enables or disables batching, based on the features reported by the server.
+   */
+  public void setServerFeatures(List<String> features) {
+    enabled = features.contains(FEATURE);
+  }
+
+  public ListenableFuture<Service.GetResponse> get(Service.GetRequest request) {
+    if (!enabled) {
+      return client.get(request);
+    }
+
+    Pending req = new Pending(request);
+    boolean first, full;
+    synchronized (this) {
+      pending.add(req);
+      first = pending.size() == 1;
+      full = pending.size() >= MAX_BATCH_SIZE;
+    }
+
+    if (full) {
+      flush();
+    } else if (first) {
+      Scheduler.TIMERS.schedule(this::flush, TICK_MS, MILLISECONDS);
+    }
+    return req.result;
+  }
+
+  private void flush() {
+    List<Pending> batch;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      batch = pending;
+      pending = Lists.newArrayList();
+    }
+
+    if (batch.size() == 1 || !enabled) {
+      sendIndividually(batch);
+      return;
+    }
+
+    Service.GetBatchRequest.Builder request = Service.GetBatchRequest.newBuilder();
+    for (Pending req : batch) {
+      request.addRequests(req.request);
+    }
+    LOG.log(FINE, "Sending a batch of {0} get requests", batch.size());
+    stub.getBatch(request.build(), new StreamObserver<Service.GetBatchResponse>() {
+      @Override
+      public void onNext(Service.GetBatchResponse response) {
+        int index = response.getIndex();
+        if (index < batch.size()) {
+          batch.get(index).result.set(response.getResponse());
+        } else {
+          LOG.log(WARNING, "Got a response for request " + index + " of a batch of " +
+              batch.size() + " get requests");
+        }
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        if (Status.fromThrowable(t).getCode() == Status.Code.UNIMPLEMENTED) {
+          LOG.log(WARNING, "Server does not implement batched gets, disabling batching");
+          enabled = false;
+          sendIndividually(batch);
+          return;
+        }
+        for (Pending req : batch) {
+          // Only affects the requests whose responses have not been received.
+          req.result.setException(t);
+        }
+      }
+
+      @Override
+      public void onCompleted() {
+        for (Pending req : batch) {
+          req.result.setException(
+              new IllegalStateException("Missing response in a batch of get requests"));
+        }
+      }
+    });
+  }
+
+  private void sendIndividually(List<Pending> batch) {
+    for (Pending req : batch) {
+      if (!req.result.isDone()) {
+        req.result.setFuture(client.get(req.request));
+      }
+    }
+  }
+
+  private static class Pending {
+    public final Service.GetRequest request;
+    public final SettableFuture<Service.GetResponse> result = SettableFuture.create();
+
+    public Pending(Service.GetRequest request) {
+      this.request = request;
+    }
+  }
+}
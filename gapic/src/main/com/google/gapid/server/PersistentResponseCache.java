@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.server;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.gapid.proto.service.Service;
+import com.google.gapid.proto.service.path.Path;
+import com.google.protobuf.ByteString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A persistent cache of the server responses to requests for immutable capture data, e.g. the
+ * resources or the command tree nodes of a capture, so a capture can be re-opened in a later
+ * session without requesting all this data from the server again.
+ *
+ * <p>The responses are keyed by the serialized request, which identifies the capture via its ID,
+ * and stored deflated in a file of length-prefixed and checksummed records. Each record is written
+ * followed by an end marker, so a partially written record, e.g. due to a crash, or stale data
+ * after the last record is discarded when opened, without ever truncating the file. The records
+ * present when the file is opened are memory-mapped and indexed in memory. Once the file reaches
+ * its maximum size, the cache starts over from the beginning of the file.
+ */
+public class PersistentResponseCache implements Closeable {
+  private static final Logger LOG = Logger.getLogger(PersistentResponseCache.class.getName());
+
+  public static final PersistentResponseCache NONE = new PersistentResponseCache();
+
+  private static final byte[] MAGIC = "AGICRC02".getBytes(US_ASCII);
+  // Key length, data length, raw length and CRC32 of the data.
+  private static final int RECORD_HEADER_SIZE = 16;
+  // The end marker following the last record, in place of the key length of the next record.
+  private static final int END_MARKER = -1;
+  private static final int END_MARKER_SIZE = 4;
+  private static final long MAX_FILE_SIZE = 1L << 30;
+  // The paths of requests resolving to data that only depends on the capture and request.
+  private static final ImmutableSet<Path.Any.PathCase> CACHEABLE_PATHS = ImmutableSet.of(
+      Path.Any.PathCase.COMMAND_TREE_NODE, Path.Any.PathCase.CONSTANT_SET,
+      Path.Any.PathCase.EVENTS, Path.Any.PathCase.REPORT, Path.Any.PathCase.RESOURCES);
+
+  private final FileChannel channel;
+  private final MappedByteBuffer mapped;
+  private final Map<ByteString, Entry> index = Maps.newHashMap();
+  // The end of the records that can be read from the mapped file.
+  private long mappedEnd;
+  // The end of the last record.
+  private long size;
+  // Incremented whenever the cache starts over, invalidating all entries read before.
+  private int generation;
+
+  private PersistentResponseCache() {
+    this.channel = null;
+    this.mapped = null;
+    this.mappedEnd = 0;
+  }
+
+  private PersistentResponseCache(FileChannel channel) throws IOException {
+    this.channel = channel;
+    long fileSize = channel.size();
+    if (fileSize < MAGIC.length || !hasMagic(channel)) {
+      // Not mapped yet, so the file can still be truncated.
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap(MAGIC), 0);
+      fileSize = MAGIC.length;
+    }
+    this.mapped =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, MAX_FILE_SIZE));
+    this.mappedEnd = readIndex();
+    this.size = mappedEnd;
+    if (mappedEnd < fileSize && !hasEndMarker(mappedEnd)) {
+      // The file is mapped, so it cannot be truncated on all platforms. Instead, the end marker
+      // hides the partially written record, which will be overwritten by the next one.
+      LOG.log(WARNING, "Discarding the partially written record of the response cache");
+      writeEndMarker(mappedEnd);
+    }
+  }
+
+  /**
+   * Opens, or creates, the cache file of the given version in the given directory, deleting the
+   * cache files of other versions. Returns {@link #NONE} if the file cannot be opened.
+   */
+  public static PersistentResponseCache open(File dir, String version) {
+    String name = "responses-" + version.replaceAll("[^A-Za-z0-9.]", "_") + ".cache";
+    try {
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Failed to create " + dir);
+      }
+      File[] files = dir.listFiles((d, n) -> n.startsWith("responses-") && !n.equals(name));
+      for (File file : (files == null) ? new File[0] : files) {
+        if (!file.delete()) {
+          LOG.log(FINE, "Failed to delete stale response cache " + file);
+        }
+      }
+
+      return new PersistentResponseCache(FileChannel.open(new File(dir, name).toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    } catch (IOException e) {
+      LOG.log(WARNING, "Failed to open the response cache in " + dir, e);
+      return NONE;
+    }
+  }
+
+  /**
+   * Returns whether the response to the given request only depends on the request and may thus be
+   * persisted. Requests whose responses contain server generated IDs, such as the command tree, are
+   * not cacheable, since the server needs to see them to resolve the IDs later.
+   */
+  public static boolean isCacheable(Service.GetRequest request) {
+    return CACHEABLE_PATHS.contains(request.getPath().getPathCase());
+  }
+
+  private static boolean hasMagic(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length);
+    channel.read(buffer, 0);
+    return Arrays.equals(buffer.array(), MAGIC);
+  }
+
+  // Indexes the records of the mapped file and returns the end of the last complete record.
+  private long readIndex() {
+    int pos = MAGIC.length, limit = mapped.limit();
+    while (pos + RECORD_HEADER_SIZE <= limit) {
+      int keyLength = mapped.getInt(pos);
+      int dataLength = mapped.getInt(pos + 4);
+      int rawLength = mapped.getInt(pos + 8);
+      int crc = mapped.getInt(pos + 12);
+      long end = (long)pos + RECORD_HEADER_SIZE + keyLength + dataLength;
+      if (keyLength < 0 || dataLength < 0 || rawLength < 0 || end > limit) {
+        break;
+      }
+
+      byte[] key = new byte[keyLength];
+      ByteBuffer buffer = mapped.duplicate();
+      buffer.position(pos + RECORD_HEADER_SIZE);
+      buffer.get(key);
+      index.put(ByteString.copyFrom(key),
+          new Entry(pos + RECORD_HEADER_SIZE + keyLength, dataLength, rawLength, crc));
+      pos = (int)end;
+    }
+    return pos;
+  }
+
+  private boolean hasEndMarker(long pos) {
+    return pos + END_MARKER_SIZE <= mapped.limit() && mapped.getInt((int)pos) == END_MARKER;
+  }
+
+  private void writeEndMarker(long pos) throws IOException {
+    ByteBuffer marker = ByteBuffer.allocate(END_MARKER_SIZE).putInt(0, END_MARKER);
+    while (marker.hasRemaining()) {
+      pos += channel.write(marker, pos);
+    }
+  }
+
+  /**
+   * Returns the cached response to the given request, or {@code null} if not cached.
+   */
+  public Service.GetResponse get(Service.GetRequest request) {
+    if (channel == null) {
+      return null;
+    }
+
+    Entry entry;
+    int readGeneration;
+    synchronized (this) {
+      entry = index.get(request.toByteString());
+      readGeneration = generation;
+    }
+    if (entry == null) {
+      return null;
+    }
+
+    try {
+      byte[] data = read(entry, readGeneration);
+      if (data == null || checksum(data) != entry.crc) {
+        // Overwritten, since the cache started over, or corrupted.
+        return null;
+      }
+      return Service.GetResponse.parseFrom(inflate(data, entry.rawLength));
+    } catch (IOException | DataFormatException e) {
+      LOG.log(FINE, "Failed to read a response from the response cache", e);
+      return null;
+    }
+  }
+
+  /**
+   * Adds the response to the given request to the cache. If there is no room left, the cache is
+   * started over, discarding all previously added responses.
+   */
+  public void put(Service.GetRequest request, Service.GetResponse response) {
+    if (channel == null) {
+      return;
+    }
+
+    ByteString key = request.toByteString();
+    synchronized (this) {
+      if (index.containsKey(key)) {
+        return;
+      }
+    }
+
+    byte[] raw = response.toByteArray();
+    byte[] data = deflate(raw);
+    int crc = checksum(data);
+    int recordSize = RECORD_HEADER_SIZE + key.size() + data.length;
+    if (MAGIC.length + recordSize + END_MARKER_SIZE > MAX_FILE_SIZE) {
+      return;
+    }
+    // The record is followed by the end marker, which the next record overwrites.
+    ByteBuffer record = ByteBuffer.allocate(recordSize + END_MARKER_SIZE);
+    record.putInt(key.size()).putInt(data.length).putInt(raw.length).putInt(crc);
+    key.copyTo(record);
+    record.put(data).putInt(END_MARKER).flip();
+
+    synchronized (this) {
+      if (index.containsKey(key)) {
+        return;
+      }
+      if (size + record.remaining() > MAX_FILE_SIZE) {
+        startOver();
+      }
+      try {
+        long pos = size;
+        while (record.hasRemaining()) {
+          pos += channel.write(record, pos);
+        }
+        index.put(key,
+            new Entry(size + RECORD_HEADER_SIZE + key.size(), data.length, raw.length, crc));
+        size += recordSize;
+      } catch (IOException e) {
+        LOG.log(FINE, "Failed to write a response to the response cache", e);
+      }
+    }
+  }
+
+  // Discards all entries and continues writing from the start of the file. The records are
+  // overwritten in place, since the mapped file cannot be truncated on all platforms.
+  private void startOver() {
+    LOG.log(FINE, "The response cache is full, starting over");
+    index.clear();
+    size = MAGIC.length;
+    mappedEnd = 0;
+    generation++;
+  }
+
+  // Returns the data of the given entry, or null if the cache started over since the entry was
+  // looked up in the given generation.
+  private byte[] read(Entry entry, int readGeneration) throws IOException {
+    byte[] data = new byte[entry.dataLength];
+    boolean fromMapped;
+    synchronized (this) {
+      if (readGeneration != generation) {
+        return null;
+      }
+      fromMapped = entry.offset + entry.dataLength <= mappedEnd;
+    }
+
+    if (fromMapped) {
+      ByteBuffer buffer = mapped.duplicate();
+      buffer.position((int)entry.offset);
+      buffer.get(data);
+    } else {
+      // Added during this session, after the file was mapped.
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+          throw new IOException("Unexpected end of the response cache");
+        }
+      }
+    }
+    return data;
+  }
+
+  private static int checksum(byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return (int)crc.getValue();
+  }
+
+  private static byte[] deflate(byte[] raw) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(raw);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] data, int rawLength) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      byte[] raw = new byte[rawLength];
+      int n = 0;
+      while (n < rawLength && !inflater.finished()) {
+        int read = inflater.inflate(raw, n, rawLength - n);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Truncated response");
+        }
+        n += read;
+      }
+      return raw;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.log(FINE, "Failed to close the response cache", e);
+      }
+    }
+  }
+
+  private static class Entry {
+    public final long offset;
+    public final int dataLength;
+    public final int rawLength;
+    public final int crc;
+
+    public Entry(long offset, int dataLength, int rawLength, int crc) {
+      this.offset = offset;
+      this.dataLength = dataLength;
+      this.rawLength = rawLength;
+      this.crc = crc;
+    }
+  }
+}
@@ -15,9 +15,12 @@
  */
 package com.google.gapid.util;
 
+import com.google.common.cache.AbstractCache;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.protobuf.MessageLite;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -26,6 +29,9 @@ import java.util.concurrent.ExecutionException;
  * Utilities for {@link Cache} instances.
  */
 public class Caches {
+  // Estimated per entry memory overhead, in addition to the serialized size of the protos.
+  private static final int ENTRY_OVERHEAD = 64;
+
   private Caches() {
   }
 
@@ -37,6 +43,35 @@ public class Caches {
     return CacheBuilder.newBuilder().build();
   }
 
+  /**
+   * Returns a cache of protos that evicts the least recently used entries, once the estimated
+   * memory used by the entries exceeds the given number of bytes. The memory used by an entry is
+   * estimated from the serialized size of its key and value.
+   */
+  public static <K extends MessageLite, V extends MessageLite> Cache<K, V> weightedCache(
+      long maxBytes) {
+    return CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .<K, V>weigher((key, value) -> estimateSize(key, value))
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns a cache of protos, with separate {@link #weightedCache weighted} budgets for large
+   * values, e.g. images or memory, and for all other, metadata, values. This prevents a few large
+   * values from evicting many small, frequently used ones.
+   */
+  public static <K extends MessageLite, V extends MessageLite> SizeClassCache<K, V> sizeClassCache(
+      Budgets budgets) {
+    return new SizeClassCache<K, V>(budgets);
+  }
+
+  private static int estimateSize(MessageLite key, MessageLite value) {
+    long size = (long)ENTRY_OVERHEAD + key.getSerializedSize() + value.getSerializedSize();
+    return (int)Math.min(Integer.MAX_VALUE, size);
+  }
+
   /**
    * Calls and returns the result of {@link Cache#get(Object, Callable)}, where the loader
    * {@link Callable} is guaranteed not to throw a checked exception. Unchecked exceptions are
@@ -49,4 +84,112 @@ public class Caches {
       throw new AssertionError(e);
     }
   }
+
+  /**
+   * The memory budgets of a {@link SizeClassCache}.
+   */
+  public static class Budgets {
+    // Values estimated to be at least this large are considered blobs.
+    public static final int DEFAULT_BLOB_THRESHOLD = 64 * 1024;
+    private static final long MB = 1024 * 1024;
+
+    public final long metadataBytes;
+    public final long blobBytes;
+    public final int blobThreshold;
+
+    public Budgets(long metadataBytes, long blobBytes, int blobThreshold) {
+      this.metadataBytes = metadataBytes;
+      this.blobBytes = blobBytes;
+      this.blobThreshold = blobThreshold;
+    }
+
+    /**
+     * Returns the budgets with the given sizes in MB, using defaults relative to the maximum
+     * heap size for sizes that are not positive.
+     */
+    public static Budgets ofMegabytes(int metadataMb, int blobMb) {
+      long maxHeap = Runtime.getRuntime().maxMemory();
+      return new Budgets((metadataMb > 0) ? metadataMb * MB : maxHeap / 16,
+          (blobMb > 0) ? blobMb * MB : maxHeap / 4, DEFAULT_BLOB_THRESHOLD);
+    }
+  }
+
+  /**
+   * A cache of protos keeping the metadata and the blob values in two separately budgeted
+   * {@link #weightedCache weighted caches}. See {@link Caches#sizeClassCache}.
+   */
+  public static class SizeClassCache<K extends MessageLite, V extends MessageLite>
+      extends AbstractCache<K, V> {
+    private final Cache<K, V> metadata;
+    private final Cache<K, V> blobs;
+    private final int blobThreshold;
+
+    protected SizeClassCache(Budgets budgets) {
+      this.metadata = weightedCache(budgets.metadataBytes);
+      this.blobs = weightedCache(budgets.blobBytes);
+      this.blobThreshold = budgets.blobThreshold;
+    }
+
+    @Override
+    public V getIfPresent(Object key) {
+      V result = metadata.getIfPresent(key);
+      return (result != null) ? result : blobs.getIfPresent(key);
+    }
+
+    @Override
+    public void put(K key, V value) {
+      if (estimateSize(key, value) >= blobThreshold) {
+        metadata.invalidate(key);
+        blobs.put(key, value);
+      } else {
+        blobs.invalidate(key);
+        metadata.put(key, value);
+      }
+    }
+
+    @Override
+    public void invalidate(Object key) {
+      metadata.invalidate(key);
+      blobs.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+      metadata.invalidateAll();
+      blobs.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+      return metadata.size() + blobs.size();
+    }
+
+    @Override
+    public void cleanUp() {
+      metadata.cleanUp();
+      blobs.cleanUp();
+    }
+
+    /**
+     * Returns a view of this cache for a subset of the key and value types, allowing different
+     * types of requests to share the budgets. The keys of the different views must be distinct.
+     */
+    @SuppressWarnings("unchecked")
+    public <K2 extends K, V2 extends V> Cache<K2, V2> view() {
+      return (Cache<K2, V2>)(Cache<?, ?>)this;
+    }
+
+    /**
+     * Returns a summary of the per class statistics, for logging.
+     */
+    public String getStatsSummary() {
+      CacheStats meta = metadata.stats(), blob = blobs.stats();
+      // All look ups that miss the metadata cache are looked up in the blob cache.
+      return "metadata: " + metadata.size() + " entries, " + meta.hitCount() + " hits, " +
+          meta.evictionCount() + " evictions; " +
+          "blobs: " + blobs.size() + " entries, " + blob.hitCount() + " hits, " +
+          blob.evictionCount() + " evictions; " +
+          blob.missCount() + " misses";
+    }
+  }
 }
@@ -15,8 +15,6 @@
  */
 package com.google.gapid.util;
 
-import static com.google.gapid.util.Scheduler.EXECUTOR;
-
 import com.google.common.cache.Cache;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -24,16 +22,29 @@ import com.google.common.util.concurrent.ListenableFuture;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+/**
+ * A cache of asynchronously fetched values. Cache hits are served on the calling thread, and
+ * concurrent misses for the same key share a single fetch via a {@link SingleFlight}.
+ */
 public class FutureCache<K, V> {
   private final Cache<K, V> cache;
-  private final Function<K, ListenableFuture<V>> fetcher;
-  private final Predicate<V> shouldCache;
+  private final SingleFlight<K, V> fetcher;
 
   public FutureCache(
       Cache<K, V> cache, Function<K, ListenableFuture<V>> fetcher, Predicate<V> shouldCache) {
+    this(cache, "cache", fetcher, shouldCache);
+  }
+
+  public FutureCache(Cache<K, V> cache, String name, Function<K, ListenableFuture<V>> fetcher,
+      Predicate<V> shouldCache) {
     this.cache = cache;
-    this.fetcher = fetcher;
-    this.shouldCache = shouldCache;
+    this.fetcher = new SingleFlight<K, V>(name, key ->
+      MoreFutures.transform(fetcher.apply(key), value -> {
+        if (shouldCache.test(value)) {
+          cache.put(key, value);
+        }
+        return value;
+      }));
   }
 
   public static <K, V> FutureCache<K, V> softCache(
@@ -41,26 +52,24 @@ public class FutureCache<K, V> {
     return new FutureCache<K, V>(Caches.softCache(), fetcher, shouldCache);
   }
 
+  public static <K, V> FutureCache<K, V> softCache(
+      String name, Function<K, ListenableFuture<V>> fetcher, Predicate<V> shouldCache) {
+    return new FutureCache<K, V>(Caches.softCache(), name, fetcher, shouldCache);
+  }
+
   public static <K, V> FutureCache<K, V> hardCache(
       Function<K, ListenableFuture<V>> fetcher, Predicate<V> shouldCache) {
     return new FutureCache<K, V>(Caches.hardCache(), fetcher, shouldCache);
   }
 
   public ListenableFuture<V> get(K key) {
-    // Look up the value in the cache using the executor.
-    ListenableFuture<V> cacheLookUp = EXECUTOR.submit(() -> cache.getIfPresent(key));
-    return MoreFutures.transformAsync(cacheLookUp, fromCache -> {
-      if (fromCache != null) {
-        return Futures.immediateFuture(fromCache);
-      }
-
-      return MoreFutures.transform(fetcher.apply(key), value -> {
-        if (shouldCache.test(value)) {
-          cache.put(key, value);
-        }
-        return value;
-      });
-    });
+    V fromCache = cache.getIfPresent(key);
+    if (fromCache != null) {
+      return Futures.immediateFuture(fromCache);
+    }
+    // The value is cached before the in-flight fetch is completed, so there is no window in which
+    // a request for the key is neither cached, nor shares the in-flight fetch.
+    return fetcher.get(key);
   }
 
   public V getIfPresent(K key) {
@@ -71,4 +80,3 @@ public class FutureCache<K, V> {
     cache.invalidateAll();
   }
 }
-
@@ -36,18 +36,18 @@ public class MoreFutures {
 
   public static <V> void addCallback(
       ListenableFuture<V> future, FutureCallback<? super V> callback) {
-    Futures.addCallback(future, callback, Scheduler.EXECUTOR);
+    Futures.addCallback(future, callback, Scheduler.UI_FEED);
   }
 
   public static <I, O> ListenableFuture<O> transform(
       ListenableFuture<I> input, Function<? super I, ? extends O> function) {
-    return Futures.transform(input, function, Scheduler.EXECUTOR);
+    return Futures.transform(input, function, Scheduler.UI_FEED);
   }
 
   public static <I, O> ListenableFuture<O> transformAsync(
       ListenableFuture<I> input,
       AsyncFunction<? super I, ? extends O> function) {
-    return Futures.transformAsync(input, function, Scheduler.EXECUTOR);
+    return Futures.transformAsync(input, function, Scheduler.UI_FEED);
   }
 
   public static void logFailure(Logger log, ListenableFuture<?> future) {
@@ -67,7 +67,7 @@ public class MoreFutures {
         results.add(Result.getUninterruptibly(future));
       }
       return fun.apply(results);
-    }, Scheduler.EXECUTOR);
+    }, Scheduler.UI_FEED);
   }
 
   public static <I, O> ListenableFuture<O> combineAsync(
@@ -78,7 +78,7 @@ public class MoreFutures {
         results.add(Result.getUninterruptibly(future));
       }
       return fun.apply(results);
-    }, Scheduler.EXECUTOR);
+    }, Scheduler.UI_FEED);
   }
 
   public static interface Combiner<I, O> {
@@ -28,6 +28,7 @@ import com.google.gapid.views.Formatter;
 import com.google.protobuf.Message;
 
 import java.util.LinkedList;
+import java.util.function.IntToLongFunction;
 import java.util.function.Predicate;
 
 /**
@@ -403,17 +404,34 @@ public class Paths {
     } else if (isNull(b)) {
       return 1;
     }
+    return compareIndices(a.getIndicesCount(), a::getIndices, b.getIndicesCount(), b::getIndices);
+  }
 
-    for (int i = 0; i < a.getIndicesCount(); i++) {
-      if (i >= b.getIndicesCount()) {
+  /**
+   * Compares the command tree nodes a and b by their position in a pre-order traversal of the tree,
+   * returning a negative value if a comes before b, a positive value if b comes before a and 0 if
+   * they are equal. Both nodes are assumed to be of the same tree.
+   */
+  public static int compare(Path.CommandTreeNode a, Path.CommandTreeNode b) {
+    return compareIndices(a.getIndicesCount(), a::getIndices, b.getIndicesCount(), b::getIndices);
+  }
+
+  /**
+   * Lexicographically compares the index lists a and b, where a prefix comes before the longer
+   * list.
+   */
+  private static int compareIndices(
+      int aCount, IntToLongFunction a, int bCount, IntToLongFunction b) {
+    for (int i = 0; i < aCount; i++) {
+      if (i >= bCount) {
         return 1;
       }
-      int r = Long.compare(a.getIndices(i), b.getIndices(i));
+      int r = Long.compare(a.applyAsLong(i), b.applyAsLong(i));
       if (r != 0) {
         return r;
       }
     }
-    return (a.getIndicesCount() == b.getIndicesCount()) ? 0 : -1;
+    return (aCount == bCount) ? 0 : -1;
   }
 
   public static boolean contains(Path.Any path, Predicate<Object> predicate) {
@@ -15,12 +15,115 @@
  */
 package com.google.gapid.util;
 
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.logging.Level.FINE;
+
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.logging.Logger;
 
+/**
+ * The executors used for background work. The work is split into bounded pools by its kind, so a
+ * burst of one kind of work, e.g. CPU heavy image conversion, cannot starve another, e.g. the
+ * latency sensitive timeline queries.
+ */
 public class Scheduler {
-  public static final ListeningScheduledExecutorService EXECUTOR =
-      MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(10));
+  private static final Logger LOG = Logger.getLogger(Scheduler.class.getName());
+
+  private static final List<Pool> POOLS = Lists.newArrayList();
+
+  /**
+   * Short, latency sensitive work feeding the UI, such as dispatching RPCs, the continuations of
+   * their results and the scheduling of track queries.
+   */
+  public static final ListeningScheduledExecutorService UI_FEED = pool("ui-feed", 6);
+
+  /**
+   * CPU bound work, such as image conversion, histograms and filtering large in-memory data.
+   */
+  public static final ListeningScheduledExecutorService COMPUTE =
+      pool("compute", Math.max(2, Runtime.getRuntime().availableProcessors() - 1));
+
+  /**
+   * Work that blocks on I/O, such as reading from disk or waiting for the server to start.
+   */
+  public static final ListeningScheduledExecutorService IO = pool("io", 4);
+
+  /**
+   * Delayed and periodic tasks that only hand off work to another pool or update some state, such
+   * as status and hover timers. Tasks run on this pool should never block.
+   */
+  public static final ListeningScheduledExecutorService TIMERS = pool("timers", 1);
+
+  private Scheduler() {
+  }
+
+  private static ListeningScheduledExecutorService pool(String name, int threads) {
+    Pool pool = new Pool(name, threads);
+    POOLS.add(pool);
+    return MoreExecutors.listeningDecorator(pool);
+  }
+
+  /**
+   * Logs the queue metrics of all pools every minute, if {@code FINE} logging is enabled.
+   */
+  public static void startStatsLogging() {
+    if (LOG.isLoggable(FINE)) {
+      TIMERS.scheduleWithFixedDelay(
+          () -> LOG.log(FINE, "Executors: " + getStatsSummary()), 1, 1, MINUTES);
+    }
+  }
+
+  public static String getStatsSummary() {
+    StringBuilder sb = new StringBuilder();
+    for (Pool pool : POOLS) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      pool.appendStats(sb);
+    }
+    return sb.toString();
+  }
+
+  public static void shutdownNow() {
+    for (Pool pool : POOLS) {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * A fixed size pool of named threads that keeps track of its queue metrics.
+   */
+  private static class Pool extends ScheduledThreadPoolExecutor {
+    private final String name;
+    private int maxQueued = 0;
+
+    public Pool(String name, int threads) {
+      super(threads, new ThreadFactoryBuilder().setNameFormat(name + "-%d").build());
+      this.name = name;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+      super.beforeExecute(t, r);
+      int queued = getQueue().size();
+      synchronized (this) {
+        maxQueued = Math.max(maxQueued, queued);
+      }
+    }
+
+    public synchronized void appendStats(StringBuilder sb) {
+      sb.append(name)
+          .append(" {active: ").append(getActiveCount()).append('/').append(getCorePoolSize())
+          .append(", queued: ").append(getQueue().size())
+          .append(", max queued: ").append(maxQueued)
+          .append(", completed: ").append(getCompletedTaskCount())
+          .append('}');
+    }
+  }
 }
@@ -63,7 +63,7 @@ public abstract class SelectionHandler<W extends Widget> {
 
     int currentSelection = lastSelectionEventId.incrementAndGet();
     lastSelectionFuture.cancel(true);
-    ListenableFuture<T> future = Scheduler.EXECUTOR.submit(onBgThread);
+    ListenableFuture<T> future = Scheduler.UI_FEED.submit(onBgThread);
     lastSelectionFuture = future;
 
     MoreFutures.addCallback(future, new LoggingCallback<T>(log) {
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.gapid.util;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.logging.Level.FINE;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Deduplicates concurrent requests for the same key: while a request is in flight, all other
+ * requests for an equal key share its result, rather than being fetched again. Once the request
+ * completes, the next request for the key is fetched again. The deduplicated requests are logged
+ * at the {@code FINE} level.
+ *
+ * <p>Since the in-flight future is shared, cancelling a returned future does not cancel the
+ * underlying request.
+ */
+public class SingleFlight<K, V> {
+  private static final Logger LOG = Logger.getLogger(SingleFlight.class.getName());
+
+  private final String name;
+  private final Function<K, ListenableFuture<V>> fetcher;
+  private final ConcurrentMap<K, ListenableFuture<V>> inFlight = Maps.newConcurrentMap();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong deduplicated = new AtomicLong();
+
+  public SingleFlight(String name, Function<K, ListenableFuture<V>> fetcher) {
+    this.name = name;
+    this.fetcher = fetcher;
+  }
+
+  public ListenableFuture<V> get(K key) {
+    requests.incrementAndGet();
+    SettableFuture<V> result = SettableFuture.create();
+    ListenableFuture<V> existing = inFlight.putIfAbsent(key, result);
+    if (existing != null) {
+      long count = deduplicated.incrementAndGet();
+      if (LOG.isLoggable(FINE)) {
+        LOG.log(FINE, "Deduplicated in-flight " + name + " request (" + count + " of " +
+            requests.get() + ")");
+      }
+      return Futures.nonCancellationPropagating(existing);
+    }
+
+    // Remove the request once done, before any of the listeners of the result run.
+    result.addListener(() -> inFlight.remove(key, result), directExecutor());
+    try {
+      result.setFuture(fetcher.apply(key));
+    } catch (RuntimeException e) {
+      result.setException(e);
+    }
+    return Futures.nonCancellationPropagating(result);
+  }
+}
@@ -50,7 +50,7 @@ public class UpdateWatcher {
     this.client = client;
     this.listener = listener;
     if (settings.preferences().getUpdateAvailable()) {
-      logFailure(LOG, Scheduler.EXECUTOR.schedule(this::doCheck, 0, TimeUnit.MILLISECONDS));
+      logFailure(LOG, Scheduler.IO.schedule(this::doCheck, 0, TimeUnit.MILLISECONDS));
     } else {
       scheduleCheck();
     }
@@ -60,7 +60,7 @@ public class UpdateWatcher {
     long now = System.currentTimeMillis();
     long timeSinceLastUpdateMS = now - settings.preferences().getLastCheckForUpdates();
     long delay = Math.max(CHECK_INTERVAL_MS - timeSinceLastUpdateMS, 0);
-    logFailure(LOG, Scheduler.EXECUTOR.schedule(this::doCheck, delay, TimeUnit.MILLISECONDS));
+    logFailure(LOG, Scheduler.IO.schedule(this::doCheck, delay, TimeUnit.MILLISECONDS));
   }
 
   private void doCheck() {
@@ -20,10 +20,12 @@ import static com.google.gapid.models.ImagesModel.THUMB_SIZE;
 import static com.google.gapid.util.Colors.getRandomColor;
 import static com.google.gapid.util.Colors.lerp;
 import static com.google.gapid.util.Loadable.MessageType.Error;
-import static com.google.gapid.util.Paths.lastCommand;
+import static com.google.gapid.util.Logging.throttleLogRpcError;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.models.Analytics.View;
@@ -33,7 +35,6 @@ import com.google.gapid.models.CommandStream.CommandIndex;
 import com.google.gapid.models.CommandStream.Node;
 import com.google.gapid.models.Follower;
 import com.google.gapid.models.Models;
-import com.google.gapid.proto.service.Service;
 import com.google.gapid.proto.service.Service.ClientAction;
 import com.google.gapid.proto.service.api.API;
 import com.google.gapid.proto.service.path.Path;
@@ -45,6 +46,7 @@ import com.google.gapid.util.Events;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Messages;
 import com.google.gapid.util.MoreFutures;
+import com.google.gapid.util.Paths;
 import com.google.gapid.util.SelectionHandler;
 import com.google.gapid.views.Formatter.StylingString;
 import com.google.gapid.widgets.LinkifiedTreeWithImages;
@@ -68,10 +70,14 @@ import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.Shell;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 /**
@@ -86,6 +92,7 @@ public class CommandTree extends Composite
   protected final Tree tree;
   private final SelectionHandler<Control> selectionHandler;
   private final SingleInFlight searchController = new SingleInFlight();
+  private SearchMatches searchMatches = null;
 
   public CommandTree(Composite parent, Models models, Widgets widgets) {
     super(parent, SWT.NONE);
@@ -128,26 +135,24 @@ public class CommandTree extends Composite
     Menu popup = new Menu(tree.getControl());
     Widgets.createMenuItem(popup, "&Edit", SWT.MOD1 + 'E', e -> {
       CommandStream.Node node = tree.getSelection();
-      if (node != null && node.getData() != null && node.getCommand() != null) {
-        widgets.editor.showEditPopup(getShell(), lastCommand(node.getData().getCommands()),
+      if (node != null && node.getCommand() != null) {
+        widgets.editor.showEditPopup(getShell(), node.getLastCommand(),
             node.getCommand(), node.device);
       }
     });
     tree.setPopupMenu(popup, node ->
-        node.getData() != null && node.getCommand() != null &&
-        CommandEditor.shouldShowEditPopup(node.getCommand()));
+        node.getCommand() != null && CommandEditor.shouldShowEditPopup(node.getCommand()));
 
     tree.registerAsCopySource(widgets.copypaste, node -> {
       models.analytics.postInteraction(View.Commands, ClientAction.Copy);
-      Service.CommandTreeNode data = node.getData();
-      if (data == null) {
+      if (!node.isLoaded()) {
         // Copy before loaded. Not ideal, but this is unlikely.
         return new String[] { "Loading..." };
       }
 
       StringBuilder result = new StringBuilder();
-      if (data.getGroup().isEmpty() && data.hasCommands()) {
-        result.append(data.getCommands().getTo(0)).append(": ");
+      if (node.getGroup().isEmpty() && node.hasCommands()) {
+        result.append(node.getLastCommandIndices()[0]).append(": ");
         API.Command cmd = node.getCommand();
         if (cmd == null) {
           // Copy before loaded. Not ideal, but this is unlikely.
@@ -156,7 +161,7 @@ public class CommandTree extends Composite
           result.append(Formatter.toString(cmd, models.constants::getConstants));
         }
       } else {
-        result.append(data.getCommands().getFrom(0)).append(": ").append(data.getGroup());
+        result.append(node.getFirstCommandIndices()[0]).append(": ").append(node.getGroup());
       }
       return new String[] { result.toString() };
     }, true);
@@ -164,17 +169,64 @@ public class CommandTree extends Composite
 
   private void search(String text, boolean regex) {
     models.analytics.postInteraction(View.Commands, ClientAction.Search);
-    CommandStream.Node parent = models.commands.getData();
-    if (parent != null && !text.isEmpty()) {
-      CommandStream.Node selection = tree.getSelection();
-      if (selection != null) {
-        parent = selection;
+    CommandStream.Node root = models.commands.getData();
+    if (root == null || text.isEmpty()) {
+      clearSearch();
+      return;
+    }
+
+    if (searchMatches == null || !searchMatches.isFor(root, text, regex)) {
+      startSearch(root, text, regex);
+    }
+    searchMatches.jumpToNext();
+  }
+
+  /**
+   * Starts a new search, streaming all the matches of the whole tree into a local index. Any
+   * previous search still in progress is cancelled.
+   */
+  private void startSearch(CommandStream.Node root, String text, boolean regex) {
+    SearchMatches matches = new SearchMatches(root, text, regex);
+    searchMatches = matches;
+    tree.setSearchMatches(matches);
+    searchController.start().listen(models.commands.searchAll(root, text, regex, matches::add),
+        new UiCallback<Void, Void>(tree, LOG) {
+      @Override
+      protected Void onRpcThread(Rpc.Result<Void> result) {
+        try {
+          result.get();
+        } catch (RpcException | ExecutionException e) {
+          // Still finish the search, so a pending jump doesn't wait forever.
+          throttleLogRpcError(LOG, "Command search failed", e);
+        }
+        return null;
+      }
+
+      @Override
+      protected void onUiThread(Void result) {
+        matches.onDone();
       }
-      searchController.start().listen(
-          MoreFutures.transformAsync(models.commands.search(parent, text, regex),
-              r -> getTreePath(models.commands.getData(), Lists.newArrayList(),
-                  r.getCommandTreeNode().getIndicesList().iterator())),
-          new UiCallback<TreePath, TreePath>(tree, LOG) {
+    });
+  }
+
+  private void clearSearch() {
+    if (searchMatches != null) {
+      searchController.start().cancel();
+      searchMatches = null;
+      tree.setSearchMatches(null);
+    }
+  }
+
+  /**
+   * Jumps to the first match after the current selection.
+   */
+  private void selectNextMatch(SearchMatches matches) {
+    CommandStream.Node selection = tree.getSelection();
+    Path.CommandTreeNode next = matches.next((selection == null) ? null :
+        selection.getPath(Path.CommandTreeNode.newBuilder()).build());
+    if (next != null) {
+      Rpc.listen(getTreePath(models.commands.getData(), Lists.newArrayList(),
+          next.getIndicesList().iterator()), new UiCallback<TreePath, TreePath>(tree, LOG) {
         @Override
         protected TreePath onRpcThread(Rpc.Result<TreePath> result)
             throws RpcException, ExecutionException {
@@ -183,7 +235,9 @@ public class CommandTree extends Composite
 
         @Override
         protected void onUiThread(TreePath result) {
-          select(result);
+          if (matches == searchMatches) {
+            select(result);
+          }
         }
       });
     }
@@ -217,6 +271,7 @@ public class CommandTree extends Composite
 
   @Override
   public void onCommandsLoaded() {
+    clearSearch();
     updateTree(false);
   }
 
@@ -281,30 +336,137 @@ public class CommandTree extends Composite
     return getTreePath(child, path, indices);
   }
 
+  /**
+   * Index of the matches of a streaming search. Matches are collected on the RPC thread as they
+   * arrive and are merged into the index on the UI thread in batches, so the tree can highlight
+   * them and "find next" can jump between them without querying the server again.
+   */
+  private class SearchMatches {
+    private final CommandStream.Node root;
+    private final String text;
+    private final boolean regex;
+    private final Queue<Path.CommandTreeNode> incoming = Queues.newConcurrentLinkedQueue();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // Matches in tree order and the set of their child indices for fast lookups.
+    private final List<Path.CommandTreeNode> sorted = Lists.newArrayList();
+    private final Set<List<Long>> index = Sets.newHashSet();
+    private boolean done = false;
+    private boolean jumpPending = false;
+
+    public SearchMatches(CommandStream.Node root, String text, boolean regex) {
+      this.root = root;
+      this.text = text;
+      this.regex = regex;
+    }
+
+    public boolean isFor(CommandStream.Node newRoot, String newText, boolean newRegex) {
+      return root == newRoot && text.equals(newText) && regex == newRegex;
+    }
+
+    // Called on the RPC thread.
+    public void add(Path.CommandTreeNode match) {
+      incoming.add(match);
+      if (!drainScheduled.getAndSet(true)) {
+        Widgets.scheduleIfNotDisposed(tree, this::drain);
+      }
+    }
+
+    private void drain() {
+      drainScheduled.set(false);
+      if (this != searchMatches) {
+        incoming.clear();
+        return;
+      }
+
+      for (Path.CommandTreeNode match = incoming.poll(); match != null; match = incoming.poll()) {
+        if (match.getIndicesCount() == 0 || !index.add(match.getIndicesList())) {
+          continue; // Ignore the root and duplicates.
+        }
+        // Results are streamed in tree order, so this is usually an append.
+        int pos = sorted.size();
+        if (pos > 0 && Paths.compare(sorted.get(pos - 1), match) > 0) {
+          pos = -Collections.binarySearch(sorted, match, Paths::compare) - 1;
+        }
+        sorted.add(pos, match);
+      }
+      tree.invalidateLabels();
+
+      if (jumpPending) {
+        jumpToNext();
+      }
+    }
+
+    public void onDone() {
+      done = true;
+      drain();
+    }
+
+    public boolean contains(CommandStream.Node node) {
+      return !index.isEmpty() &&
+          index.contains(node.getPath(Path.CommandTreeNode.newBuilder()).getIndicesList());
+    }
+
+    /**
+     * Returns the first match after the given node, wrapping around to the first match. Returns
+     * {@code null} if the next match has not arrived yet or there are no matches.
+     */
+    public Path.CommandTreeNode next(Path.CommandTreeNode from) {
+      if (sorted.isEmpty()) {
+        return null;
+      } else if (from == null) {
+        return sorted.get(0);
+      }
+
+      int pos = Collections.binarySearch(sorted, from, Paths::compare);
+      pos = (pos < 0) ? -pos - 1 : pos + 1;
+      if (pos < sorted.size()) {
+        return sorted.get(pos);
+      }
+      // Only wrap once the search has completed, a later match may still be streaming in.
+      return done ? sorted.get(0) : null;
+    }
+
+    public void jumpToNext() {
+      CommandStream.Node selection = tree.getSelection();
+      Path.CommandTreeNode from = (selection == null) ? null :
+          selection.getPath(Path.CommandTreeNode.newBuilder()).build();
+      jumpPending = next(from) == null && !done;
+      if (!jumpPending) {
+        selectNextMatch(this);
+      }
+    }
+  }
+
   private static class Tree extends LinkifiedTreeWithImages<CommandStream.Node, String> {
     private static final float COLOR_INTENSITY = 0.15f;
 
     protected final Models models;
     private final Widgets widgets;
     private final Map<Long, Color> threadBackgroundColors = Maps.newHashMap();
+    private SearchMatches searchMatches;
 
     public Tree(Composite parent, Models models, Widgets widgets) {
-      super(parent, SWT.H_SCROLL | SWT.V_SCROLL | SWT.MULTI, widgets);
+      super(parent, SWT.H_SCROLL | SWT.V_SCROLL | SWT.MULTI | SWT.VIRTUAL, widgets);
       this.models = models;
       this.widgets = widgets;
     }
 
     @Override
-    protected ContentProvider<Node> createContentProvider() {
-      return new ContentProvider<CommandStream.Node>() {
+    protected LazyContentProvider<Node> createContentProvider() {
+      return new LazyContentProvider<CommandStream.Node>() {
+        @Override
+        protected int getChildCount(CommandStream.Node element) {
+          return element.getChildCount();
+        }
+
         @Override
-        protected boolean hasChildNodes(CommandStream.Node element) {
-          return element.getChildCount() > 0;
+        protected CommandStream.Node getChildNode(CommandStream.Node parent, int index) {
+          return parent.getChild(index);
         }
 
         @Override
-        protected CommandStream.Node[] getChildNodes(CommandStream.Node node) {
-          return node.getChildren();
+        protected int getIndexInParent(CommandStream.Node child) {
+          return child.getIndexInParent();
         }
 
         @Override
@@ -314,25 +476,30 @@ public class CommandTree extends Composite
 
         @Override
         protected boolean isLoaded(CommandStream.Node element) {
-          return element.getData() != null;
+          return element.isLoaded();
         }
 
         @Override
         protected void load(CommandStream.Node node, Runnable callback) {
           models.commands.load(node, callback);
         }
+
+        @Override
+        protected void load(List<CommandStream.Node> nodes, Runnable callback) {
+          models.commands.load(nodes, callback);
+        }
       };
     }
 
     @Override
     protected <S extends StylingString> S format(
         CommandStream.Node element, S string, Follower.Prefetcher<String> follower) {
-      Service.CommandTreeNode data = element.getData();
-      if (data == null) {
+      if (!element.isLoaded()) {
         string.append("Loading...", string.structureStyle());
       } else {
-        if (data.getGroup().isEmpty() && data.hasCommands()) {
-          string.append(Formatter.lastIndex(data.getCommands()) + ": ", string.defaultStyle());
+        if (element.getGroup().isEmpty() && element.hasCommands()) {
+          string.append(
+              Formatter.index(element.getLastCommandIndices()) + ": ", string.defaultStyle());
           API.Command cmd = element.getCommand();
           if (cmd == null) {
             string.append("Loading...", string.structureStyle());
@@ -341,9 +508,10 @@ public class CommandTree extends Composite
                 string, string.identifierStyle());
           }
         } else {
-          string.append(Formatter.firstIndex(data.getCommands()) + ": ", string.defaultStyle());
-          string.append(data.getGroup(), string.labelStyle());
-          long count = data.getNumCommands();
+          string.append(
+              Formatter.index(element.getFirstCommandIndices()) + ": ", string.defaultStyle());
+          string.append(element.getGroup(), string.labelStyle());
+          long count = element.getNumCommands();
           string.append(
               " (" + count + " command" + (count != 1 ? "s" : "") + ")", string.structureStyle());
         }
@@ -351,8 +519,17 @@ public class CommandTree extends Composite
       return string;
     }
 
+    public void setSearchMatches(SearchMatches searchMatches) {
+      this.searchMatches = searchMatches;
+      invalidateLabels();
+    }
+
     @Override
     protected Color getBackgroundColor(CommandStream.Node node) {
+      if (searchMatches != null && searchMatches.contains(node)) {
+        return widgets.theme.searchMatchBackground();
+      }
+
       API.Command cmd = node.getCommand();
       if (cmd == null) {
         return null;
@@ -382,7 +559,7 @@ public class CommandTree extends Composite
     @Override
     protected boolean shouldShowImage(CommandStream.Node node) {
       return models.images.isReady() &&
-          node.getData() != null && !node.getData().getGroup().isEmpty();
+          node.isLoaded() && !node.getGroup().isEmpty();
     }
 
     @Override
@@ -421,6 +598,11 @@ public class CommandTree extends Composite
       return models.follower.prepare(node, cb);
     }
 
+    @Override
+    protected void prefetchFollowers(List<CommandStream.Node> nodes) {
+      models.follower.prefetch(nodes);
+    }
+
     @Override
     protected void follow(Path.Any path) {
       models.follower.onFollow(path);
@@ -18,6 +18,7 @@ package com.google.gapid.views;
 import static java.util.function.Function.identity;
 
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 import com.google.common.primitives.UnsignedInts;
 import com.google.common.primitives.UnsignedLongs;
 import com.google.gapid.models.Follower;
@@ -483,6 +484,10 @@ public class Formatter {
     return constant.getName() + " (0x" + Long.toHexString(constant.getValue()) + ")";
   }
 
+  public static String index(long[] cmd) {
+    return index(Longs.asList(cmd));
+  }
+
   public static String index(List<Long> cmd) {
     switch (cmd.size()) {
       case 0: return "";
@@ -21,13 +21,12 @@ import static com.google.gapid.perfetto.views.StyleConstants.TITLE_HEIGHT;
 import static com.google.gapid.perfetto.views.StyleConstants.colors;
 import static com.google.gapid.util.Loadable.MessageType.Error;
 import static com.google.gapid.util.Loadable.MessageType.Loading;
-import static java.util.stream.Collectors.toList;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gapid.models.Capture;
+import com.google.gapid.models.GpuSliceIndex;
 import com.google.gapid.models.Models;
 import com.google.gapid.models.Profile;
 import com.google.gapid.models.Settings;
@@ -47,7 +46,6 @@ import com.google.gapid.perfetto.views.RootPanel;
 import com.google.gapid.perfetto.views.State;
 import com.google.gapid.perfetto.views.TraceComposite;
 import com.google.gapid.perfetto.views.TrackPanel;
-import com.google.gapid.proto.service.Service;
 import com.google.gapid.util.Loadable;
 import com.google.gapid.util.Messages;
 import com.google.gapid.util.Scheduler;
@@ -55,8 +53,6 @@ import com.google.gapid.widgets.LoadablePanel;
 import com.google.gapid.widgets.Theme;
 import com.google.gapid.widgets.Widgets;
 
-import java.util.Arrays;
-import java.util.Set;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Composite;
@@ -154,19 +150,10 @@ public class ProfileView extends Composite implements Tab, Capture.Listener, Pro
     public void update(Profile.Data data) {
       panels.clear();
 
-      Service.ProfilingData.GpuSlices slices = data.getSlices();
-      for (Service.ProfilingData.GpuSlices.Track track : slices.getTracksList()) {
-        List<Service.ProfilingData.GpuSlices.Slice> matched = Lists.newArrayList();
-        int maxDepth = 0;
-        for (Service.ProfilingData.GpuSlices.Slice slice : slices.getSlicesList()) {
-          if (slice.getTrackId() == track.getId()) {
-            matched.add(slice);
-            maxDepth = Math.max(maxDepth, slice.getDepth());
-          }
-        }
+      for (GpuSliceIndex.Track track : data.getSliceIndex().getTracks()) {
         panels.add(new Container(new GpuQueuePanel(state,
-            new GpuInfo.Queue(track.getId(), track.getName(), maxDepth + 1),
-            new GpuSliceTrack(track.getId(), matched))));
+            new GpuInfo.Queue(track.id, track.name, track.maxDepth + 1),
+            new GpuSliceTrack(track))));
       }
 
       state.update(data.getSlicesTimeSpan());
@@ -273,40 +260,35 @@ public class ProfileView extends Composite implements Tab, Capture.Listener, Pro
     }
 
     private static class GpuSliceTrack extends SliceTrack {
-      private final List<Service.ProfilingData.GpuSlices.Slice> slices;
+      private final GpuSliceIndex.Track slices;
 
-      protected GpuSliceTrack(long trackId, List<Service.ProfilingData.GpuSlices.Slice> slices) {
-        super(trackId);
+      protected GpuSliceTrack(GpuSliceIndex.Track slices) {
+        super(slices.id);
         this.slices = slices;
       }
 
       @Override
       public ListenableFuture<Slice> getSlice(long id) {
-        for (Service.ProfilingData.GpuSlices.Slice s : slices) {
-          if (s.getId() == id) {
-            return Futures.immediateFuture(toSlice(s));
-          }
-        }
-        return Futures.immediateFuture(null);
+        int index = slices.indexOf(id);
+        return Futures.immediateFuture((index < 0) ? null : toSlice(index));
       }
 
       @Override
       public ListenableFuture<List<Slice>> getSlices(String concatedId) {
-        Set<Long> ids = Sets.newHashSet();
-        Arrays.stream(concatedId.split(",")).mapToLong(Long::parseLong).forEach(ids::add);
-        return Scheduler.EXECUTOR.submit(() -> slices.stream()
-            .filter(s -> ids.contains(s.getId()))
-            .map(this::toSlice)
-            .collect(toList()));
+        return Scheduler.COMPUTE.submit(() -> {
+          List<Slice> result = Lists.newArrayList();
+          slices.forEachIndex(concatedId, i -> result.add(toSlice(i)));
+          return result;
+        });
       }
 
       @Override
       public ListenableFuture<List<Slice>> getSlices(TimeSpan ts, int minDepth, int maxDepth) {
-        return Scheduler.EXECUTOR.submit(() -> slices.stream()
-            .filter(s -> ts.overlaps(s.getTs(), s.getTs() + s.getDur()))
-            .filter(s -> s.getDepth() >= minDepth && s.getDepth() <= maxDepth)
-            .map(this::toSlice)
-            .collect(toList()));
+        return Scheduler.COMPUTE.submit(() -> {
+          List<Slice> result = Lists.newArrayList();
+          slices.forEachOverlapping(ts, minDepth, maxDepth, i -> result.add(toSlice(i)));
+          return result;
+        });
       }
 
       @Override
@@ -316,34 +298,12 @@ public class ProfileView extends Composite implements Tab, Capture.Listener, Pro
 
       @Override
       protected ListenableFuture<Data> computeData(DataRequest req) {
-        return Scheduler.EXECUTOR.submit(() -> {
-          List<Service.ProfilingData.GpuSlices.Slice> matched = Lists.newArrayList();
-          for (int i = 0; i < slices.size(); i++) {
-            Service.ProfilingData.GpuSlices.Slice slice = slices.get(i);
-            if (req.range.overlaps(slice.getTs(), slice.getTs() + slice.getDur())) {
-              matched.add(slice);
-            }
-          }
-
-          int n = matched.size();
-          Data data = new Data(req, new long[n], new long[n], new long[n], new int[n], new String[n],
-              new String[n], new ArgSet[n]);
-          for (int i = 0; i < n; i++) {
-            Service.ProfilingData.GpuSlices.Slice s = matched.get(i);
-            data.ids[i] = s.getId();
-            data.starts[i] = s.getTs();
-            data.ends[i] = s.getTs() + s.getDur();
-            data.depths[i] = s.getDepth();
-            data.titles[i] = s.getLabel();
-            data.categories[i] = "";
-            data.args[i] = ArgSet.EMPTY;
-          }
-          return data;
-        });
+        return Scheduler.COMPUTE.submit(() -> slices.getData(req));
       }
 
-      private Slice toSlice(Service.ProfilingData.GpuSlices.Slice s) {
-        return new Slice(s.getId(), s.getTs(), s.getDur(), "", s.getLabel(), s.getDepth(), -1, -1, ArgSet.EMPTY) {
+      private Slice toSlice(int i) {
+        return new Slice(slices.getId(i), slices.getStart(i), slices.getEnd(i) - slices.getStart(i),
+            "", slices.getLabel(i), slices.getDepth(i), -1, -1, ArgSet.EMPTY) {
           @Override
           public String getTitle() {
             return "GPU Render Stages";
@@ -78,6 +78,8 @@ public class StateView extends Composite
   private final SelectionHandler<Control> selectionHandler;
   protected List<Path.Any> scheduledExpandedPaths;
   protected Point scheduledScrollPos;
+  // The state currently shown in the tree, which the model may have patched in place.
+  private ApiState.Node shownRoot;
 
   public StateView(Composite parent, Models models, Widgets widgets) {
     super(parent, SWT.NONE);
@@ -88,6 +90,12 @@ public class StateView extends Composite
     loading = LoadablePanel.create(this, widgets, panel -> new StateTree(panel, models, widgets));
     tree = loading.getContents();
 
+    tree.getControl().addListener(SWT.Expand, e -> {
+      if (e.item != null && e.item.getData() instanceof ApiState.Node) {
+        models.state.prefetch((ApiState.Node)e.item.getData());
+      }
+    });
+
     models.capture.addListener(this);
     models.commands.addListener(this);
     models.state.addListener(this);
@@ -201,22 +209,32 @@ public class StateView extends Composite
 
   @Override
   public void onStateLoadingStart() {
+    models.state.setExpandedNodes(getExpandedNodes());
     loading.startLoading();
   }
 
   @Override
   public void onStateLoaded(Loadable.Message error) {
     if (error != null) {
+      shownRoot = null;
       loading.showMessage(error);
       return;
     }
 
     loading.stopLoading();
+    if (shownRoot != null && shownRoot == models.state.getData()) {
+      // The shown tree has been updated to the new state in place.
+      tree.refresh();
+      return;
+    }
+
+    shownRoot = models.state.getData();
     if (scheduledExpandedPaths == null) {
       scheduledExpandedPaths = getExpandedPaths();
       scheduledScrollPos = tree.getScrollPos();
     }
     tree.setInput(models.state.getData());
+    models.state.prefetch(models.state.getData());
     updateExpansionState(scheduledExpandedPaths, scheduledExpandedPaths.size());
   }
 
@@ -239,6 +257,12 @@ public class StateView extends Composite
         });
   }
 
+  private List<ApiState.Node> getExpandedNodes() {
+    return stream(tree.getExpandedElements())
+        .map(n -> (ApiState.Node)n)
+        .collect(toList());
+  }
+
   private List<Path.Any> getExpandedPaths() {
     return stream(tree.getExpandedElements())
         .map(n -> ((ApiState.Node)n).getData())
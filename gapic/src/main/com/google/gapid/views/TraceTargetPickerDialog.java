@@ -60,6 +60,7 @@ import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeItem;
 
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Dialog to allow the user to pick a trace target for tracing.
@@ -77,9 +78,11 @@ public class TraceTargetPickerDialog extends DialogBase implements TraceTargets.
   protected final TraceTargets targets;
   protected final ImageLoader imageLoader = new ImageLoader();
 
+  private Text search;
   private LoadablePanel<Tree> loading;
   protected TreeViewer tree;
   protected LocalResourceManager resources;
+  private Widgets.Refresher refresher;
 
   private Loadable.Message lastLoadError;
   private TraceTargets.Node selected;
@@ -107,6 +110,14 @@ public class TraceTargetPickerDialog extends DialogBase implements TraceTargets.
     }
   }
 
+  @Override
+  public void onCatalogLoaded() {
+    if (search != null && !search.isDisposed() && !search.getText().trim().isEmpty()) {
+      // Re-apply the filter using the index.
+      updateFilter();
+    }
+  }
+
   @Override
   public int open() {
     models.analytics.postInteraction(View.Trace, ClientAction.ShowActivityPicker);
@@ -145,13 +156,15 @@ public class TraceTargetPickerDialog extends DialogBase implements TraceTargets.
     Composite container = createComposite(area, new GridLayout(1, false));
     container.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
 
-    Text search = new Text(container, SWT.SINGLE | SWT.SEARCH | SWT.ICON_SEARCH | SWT.ICON_CANCEL);
+    search = new Text(container, SWT.SINGLE | SWT.SEARCH | SWT.ICON_SEARCH | SWT.ICON_CANCEL);
     search.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
 
-    loading = LoadablePanel.create(container, widgets, p -> createTreeForViewer(p, SWT.BORDER));
+    // The tree is virtual, so only the labels of the visible nodes are requested and loaded.
+    loading = LoadablePanel.create(
+        container, widgets, p -> createTreeForViewer(p, SWT.BORDER | SWT.VIRTUAL));
     loading.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
     tree = Widgets.createTreeViewer(loading.getContents());
-    Widgets.Refresher refresher = Widgets.withAsyncRefresh(tree);
+    refresher = Widgets.withAsyncRefresh(tree);
     tree.setContentProvider(new ITreeContentProvider() {
       @Override
       public Object[] getElements(Object element) {
@@ -217,30 +230,67 @@ public class TraceTargetPickerDialog extends DialogBase implements TraceTargets.
       }
     });
 
-    search.addListener(SWT.Modify, e -> {
-      String query = search.getText().trim();
-      if (query.isEmpty()) {
-        tree.resetFilters();
-        return;
-      }
+    search.addListener(SWT.Modify, e -> updateFilter());
 
-      String[] parts = stream(SEARCH_SPLITTER.split(query).spliterator(), false)
-          .map(String::toLowerCase)
-          .toArray(String[]::new);
-      boolean lastWasSeparator = SEARCH_SEPARATOR.matches(query.charAt(query.length() - 1));
+    if (lastLoadError != null) {
+      loading.showMessage(lastLoadError);
+    } else if (targets.isLoaded()) {
+      loading.stopLoading();
+      tree.setInput(targets.getData());
+    } else {
+      loading.startLoading();
+    }
 
-      tree.setFilters(new ViewerFilter() {
-        @Override
-        public boolean select(Viewer viewer, Object parentElement, Object element) {
-          return matches(cast(element));
-        }
+    return area;
+  }
 
-        private boolean matches(TraceTargets.Node node) {
-          Service.TraceTargetTreeNode data = node.getData();
-          int depth = node.getDepth();
-          if (depth > parts.length) {
+  private void updateFilter() {
+    String query = search.getText().trim();
+    if (query.isEmpty()) {
+      tree.resetFilters();
+      return;
+    }
+
+    String[] parts = stream(SEARCH_SPLITTER.split(query).spliterator(), false)
+        .map(String::toLowerCase)
+        .toArray(String[]::new);
+    if (parts.length == 0) {
+      // The query consists only of separators.
+      tree.resetFilters();
+      return;
+    }
+    boolean lastWasSeparator = SEARCH_SEPARATOR.matches(query.charAt(query.length() - 1));
+    TraceTargets.Catalog catalog = targets.getCatalog();
+    Set<TraceTargets.Node> found = (catalog == null) ? null : catalog.search(parts);
+
+    tree.setFilters(new ViewerFilter() {
+      @Override
+      public boolean select(Viewer viewer, Object parentElement, Object element) {
+        return matches(cast(element));
+      }
+
+      private boolean matches(TraceTargets.Node node) {
+        int depth = node.getDepth();
+        if (depth > parts.length) {
+          return true;
+        } else if (catalog != null && catalog.contains(node)) {
+          if (!found.contains(node)) {
+            return false;
+          } else if (depth == parts.length) {
+            if (lastWasSeparator && !tree.getExpandedState(node)) {
+              tree.setExpandedState(node, true);
+            }
             return true;
-          } else if (data == null) {
+          } else if (depth < catalog.getDepth()) {
+            if (!tree.getExpandedState(node)) {
+              tree.setExpandedState(node, true);
+            }
+            return true;
+          }
+          // The part for the children of this node is below the index, check the children.
+        } else {
+          Service.TraceTargetTreeNode data = node.getData();
+          if (data == null) {
             targets.load(node, refresher::refresh);
             return true;
           } else if (!data.getName().toLowerCase().contains(parts[depth - 1])) {
@@ -250,33 +300,23 @@ public class TraceTargetPickerDialog extends DialogBase implements TraceTargets.
               tree.setExpandedState(node, true);
             }
             return true;
-          } else if (node.getChildCount() == 0) {
-            return false;
-          }
-          if (!tree.getExpandedState(node)) {
-            tree.setExpandedState(node, true);
-          }
-          for (int i = 0; i < node.getChildCount(); i++) {
-            if (matches(node.getChild(i))) {
-              return true;
-            }
           }
+        }
+
+        if (node.getChildCount() == 0) {
           return false;
         }
-      });
+        if (!tree.getExpandedState(node)) {
+          tree.setExpandedState(node, true);
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+          if (matches(node.getChild(i))) {
+            return true;
+          }
+        }
+        return false;
+      }
     });
-
-
-    if (lastLoadError != null) {
-      loading.showMessage(lastLoadError);
-    } else if (targets.isLoaded()) {
-      loading.stopLoading();
-      tree.setInput(targets.getData());
-    } else {
-      loading.startLoading();
-    }
-
-    return area;
   }
 
   @Override
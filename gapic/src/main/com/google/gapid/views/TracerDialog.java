@@ -353,7 +353,7 @@ public class TracerDialog {
           deviceLoader.startLoading();
           // By waiting a tiny bit, the icon will change to the loading indicator, giving the user
           // feedback that something is happening, in case the refresh is really quick.
-          logFailure(LOG, Scheduler.EXECUTOR.schedule(refreshDevices, 300, TimeUnit.MILLISECONDS));
+          logFailure(LOG, Scheduler.TIMERS.schedule(refreshDevices, 300, TimeUnit.MILLISECONDS));
         });
 
         apiLabel = createLabel(mainGroup, "Type*:");
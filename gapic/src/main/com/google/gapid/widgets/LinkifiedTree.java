@@ -20,21 +20,26 @@ import static com.google.gapid.util.Arrays.last;
 import static com.google.gapid.widgets.Widgets.createTreeViewer;
 import static com.google.gapid.widgets.Widgets.withAsyncRefresh;
 
+import com.google.common.collect.Lists;
 import com.google.gapid.models.Follower;
 import com.google.gapid.proto.service.path.Path;
 import com.google.gapid.util.Events;
 import com.google.gapid.util.GeoUtils;
 import com.google.gapid.util.MouseAdapter;
+import com.google.gapid.util.Trees;
 import com.google.gapid.views.Formatter.LinkableStyledString;
 import com.google.gapid.views.Formatter.StylingString;
 import com.google.gapid.widgets.CopySources.ColumnTextProvider;
 
+import org.eclipse.jface.viewers.IContentProvider;
+import org.eclipse.jface.viewers.ILazyTreeContentProvider;
 import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.OwnerDrawLabelProvider;
 import org.eclipse.jface.viewers.StyledString;
 import org.eclipse.jface.viewers.TreePath;
 import org.eclipse.jface.viewers.TreeSelection;
 import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.events.MouseEvent;
@@ -54,6 +59,8 @@ import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeItem;
 import org.eclipse.swt.widgets.Widget;
 
+import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
 
 /**
@@ -63,7 +70,7 @@ import java.util.function.Predicate;
 public abstract class LinkifiedTree<T, F> extends Composite {
   private final TreeViewer viewer;
   protected final Widgets.Refresher refresher;
-  protected final ContentProvider<T> contentProvider;
+  protected final BaseContentProvider<T> contentProvider;
   protected final LabelProvider labelProvider;
 
   public LinkifiedTree(Composite parent, int treeStyle, Widgets widgets) {
@@ -171,11 +178,72 @@ public abstract class LinkifiedTree<T, F> extends Composite {
   public void setSelection(TreePath selection) {
     if (selection == null || (selection.getSegmentCount() == 0)) {
       viewer.setSelection(new TreeSelection(), true);
+    } else if (contentProvider instanceof LazyContentProvider) {
+      setLazySelection((LazyContentProvider<T>)contentProvider, selection);
     } else {
       viewer.setSelection(new TreeSelection(selection), true);
     }
   }
 
+  /**
+   * Selects and reveals the given path in a virtual tree. Rather than letting JFace materialize
+   * all the siblings along the path, only the items on the path are requested, by index.
+   */
+  private void setLazySelection(LazyContentProvider<T> provider, TreePath selection) {
+    Tree tree = viewer.getTree();
+    Object parent = viewer.getInput();
+    TreeItem item = null;
+    for (int i = 0; i < selection.getSegmentCount(); i++) {
+      T element = cast(selection.getSegment(i));
+      if (element.equals(parent)) {
+        continue; // The path may start with the input.
+      }
+
+      int index = provider.getIndexInParent(element);
+      provider.updateChildCount(parent, -1);
+      if (item != null) {
+        item.setExpanded(true);
+      }
+      if (index >= ((item == null) ? tree.getItemCount() : item.getItemCount())) {
+        return;
+      }
+      item = (item == null) ? tree.getItem(index) : item.getItem(index);
+      if (item.getData() == null) {
+        provider.updateElement(parent, index);
+      }
+      parent = element;
+    }
+
+    if (item != null) {
+      tree.setSelection(item);
+      tree.showSelection();
+    }
+  }
+
+  /**
+   * Marks all cached labels as stale, causing them to be re-formatted the next time they are
+   * painted, e.g. because their background color has changed.
+   */
+  public void invalidateLabels() {
+    labelProvider.invalidate();
+    refresher.refresh();
+  }
+
+  /**
+   * Refreshes the tree after its elements have been updated in place. Elements that are still
+   * present keep their expansion state, all labels are re-formatted and visible elements that are
+   * no longer loaded are loaded again.
+   */
+  public void refresh() {
+    labelProvider.invalidate();
+    viewer.refresh();
+    Set<TreeItem> visible = Trees.getVisibleItems(viewer.getTree());
+    if (visible != null) {
+      visible.forEach(labelProvider::onShow);
+    }
+    refresher.refresh();
+  }
+
   public Object[] getExpandedElements() {
     return viewer.getExpandedElements();
   }
@@ -216,13 +284,21 @@ public abstract class LinkifiedTree<T, F> extends Composite {
     CopySources.registerTreeAsCopySource(cp, viewer, (ColumnTextProvider<Object>)columns, align);
   }
 
-  protected abstract ContentProvider<T> createContentProvider();
+  protected abstract BaseContentProvider<T> createContentProvider();
   protected abstract <S extends StylingString> S
       format(T node, S string, Follower.Prefetcher<F> follower);
   protected abstract Color getBackgroundColor(T node);
   protected abstract Follower.Prefetcher<F> prepareFollower(T node, Runnable callback);
   protected abstract void follow(Path.Any path);
 
+  /**
+   * Prefetches the follow paths of the given, newly visible, loaded nodes in a single batch, so
+   * that {@link #prepareFollower} can be served from the cache once the user hovers over them.
+   */
+  protected void prefetchFollowers(@SuppressWarnings("unused") List<T> nodes) {
+    // Do nothing by default.
+  }
+
   protected void reset() {
     labelProvider.reset();
   }
@@ -236,10 +312,36 @@ public abstract class LinkifiedTree<T, F> extends Composite {
     return cast(item.getData());
   }
 
+  /**
+   * The part of the view data model shared by eager and lazy trees.
+   */
+  protected abstract static class BaseContentProvider<T> implements IContentProvider {
+    public Object getParent(Object element) {
+      return getParentNode(cast(element));
+    }
+
+    protected abstract boolean hasChildNodes(T element);
+    protected abstract T getParentNode(T child);
+    protected abstract boolean isLoaded(T element);
+    protected abstract void load(T node, Runnable callback);
+
+    /**
+     * Loads all the given nodes, invoking the callback on the UI thread as they are loaded. The
+     * default loads each node individually. Implementations backed by a model that supports bulk
+     * requests should override this.
+     */
+    protected void load(List<T> nodes, Runnable callback) {
+      for (T node : nodes) {
+        load(node, callback);
+      }
+    }
+  }
+
   /**
    * View data model for the tree.
    */
-  protected abstract static class ContentProvider<T> implements ITreeContentProvider {
+  protected abstract static class ContentProvider<T> extends BaseContentProvider<T>
+      implements ITreeContentProvider {
     @Override
     public Object[] getElements(Object inputElement) {
       return getChildren(inputElement);
@@ -255,16 +357,45 @@ public abstract class LinkifiedTree<T, F> extends Composite {
       return hasChildNodes(cast(element));
     }
 
+    protected abstract T[] getChildNodes(T parent);
+  }
+
+  /**
+   * View data model for a tree created with {@link SWT#VIRTUAL}. Children are requested by index,
+   * as their items are shown, so large child lists are never materialized as a whole.
+   */
+  protected abstract static class LazyContentProvider<T> extends BaseContentProvider<T>
+      implements ILazyTreeContentProvider {
+    private TreeViewer viewer;
+
+    @Override
+    public void inputChanged(Viewer newViewer, Object oldInput, Object newInput) {
+      this.viewer = (TreeViewer)newViewer;
+    }
+
     @Override
-    public Object getParent(Object element) {
-      return getParentNode(cast(element));
+    public void updateElement(Object parent, int index) {
+      T child = getChildNode(cast(parent), index);
+      viewer.replace(parent, index, child);
+      viewer.setChildCount(child, getChildCount(child));
     }
 
-    protected abstract boolean hasChildNodes(T element);
-    protected abstract T[] getChildNodes(T parent);
-    protected abstract T getParentNode(T child);
-    protected abstract boolean isLoaded(T element);
-    protected abstract void load(T node, Runnable callback);
+    @Override
+    public void updateChildCount(Object element, int currentChildCount) {
+      int count = getChildCount(cast(element));
+      if (count != currentChildCount) {
+        viewer.setChildCount(element, count);
+      }
+    }
+
+    @Override
+    protected boolean hasChildNodes(T element) {
+      return getChildCount(element) > 0;
+    }
+
+    protected abstract int getChildCount(T element);
+    protected abstract T getChildNode(T parent, int index);
+    protected abstract int getIndexInParent(T child);
   }
 
   /**
@@ -275,8 +406,11 @@ public abstract class LinkifiedTree<T, F> extends Composite {
 
     private final Theme theme;
     private final TextLayout layout;
+    private int generation = 0;
     private TreeItem lastHovered;
     private Follower.Prefetcher<F> lastPrefetcher = nullPrefetcher();
+    private final List<TreeItem> shown = Lists.newArrayList();
+    private final List<TreeItem> toPrefetch = Lists.newArrayList();
 
     public LabelProvider(Theme theme) {
       this.theme = theme;
@@ -285,13 +419,70 @@ public abstract class LinkifiedTree<T, F> extends Composite {
 
     @Override
     public void onShow(TreeItem item) {
-      T element = getElement(item);
-      contentProvider.load(element, () -> {
-        if (!item.isDisposed()) {
-          update(item);
+      // Collect all the items shown within the same UI event, so they can be loaded in bulk.
+      shown.add(item);
+      if (shown.size() == 1) {
+        Widgets.scheduleIfNotDisposed(LinkifiedTree.this, this::loadShown);
+      }
+    }
+
+    private void loadShown() {
+      List<TreeItem> items = Lists.newArrayList();
+      List<T> elements = Lists.newArrayList();
+      for (TreeItem item : shown) {
+        // Items of a virtual tree may not have been bound to their element yet.
+        if (item.isDisposed() || item.getData() == null) {
+          continue;
+        }
+
+        T element = getElement(item);
+        if (contentProvider.isLoaded(element)) {
+          schedulePrefetch(item);
+        } else {
+          items.add(item);
+          elements.add(element);
+        }
+      }
+      shown.clear();
+
+      if (!elements.isEmpty()) {
+        contentProvider.load(elements, () -> {
+          for (TreeItem item : items) {
+            // The callback may be invoked more than once, only update newly loaded items.
+            if (!item.isDisposed() && !getLabelNoUpdate(item).loaded &&
+                contentProvider.isLoaded(getElement(item))) {
+              update(item);
+              schedulePrefetch(item);
+            }
+          }
           refresher.refresh();
+        });
+      }
+    }
+
+    /**
+     * Queues the given item for the next follow prefetch batch. All items shown or loaded within
+     * the same UI event are collected into a single batch.
+     */
+    private void schedulePrefetch(TreeItem item) {
+      toPrefetch.add(item);
+      if (toPrefetch.size() == 1) {
+        Widgets.scheduleIfNotDisposed(LinkifiedTree.this, this::prefetch);
+      }
+    }
+
+    private void prefetch() {
+      List<T> nodes = Lists.newArrayList();
+      for (TreeItem item : toPrefetch) {
+        if (!item.isDisposed()) {
+          nodes.add(getElement(item));
         }
-      });
+      }
+      toPrefetch.clear();
+
+      if (!nodes.isEmpty()) {
+        prefetchFollowers(nodes);
+      }
     }
 
     @Override
@@ -393,6 +584,7 @@ public abstract class LinkifiedTree<T, F> extends Composite {
       updateText(item, label, element);
       label.bounds = null;
       label.loaded = contentProvider.isLoaded(element);
+      label.generation = generation;
       item.setText(label.string.getString());
     }
 
@@ -420,6 +612,8 @@ public abstract class LinkifiedTree<T, F> extends Composite {
               refresher.refresh();
             });
           });
+          // Show any links that were already known from the prefetch cache.
+          updateText(item, getLabelNoUpdate(item), getElement(item));
         }
         refresher.refresh();
       }
@@ -461,7 +655,8 @@ public abstract class LinkifiedTree<T, F> extends Composite {
       if (result == null) {
         item.setData(Label.KEY, result = new Label(theme));
         update((TreeItem)item);
-      } else if (contentProvider.isLoaded(getElement(item)) != result.loaded) {
+      } else if (contentProvider.isLoaded(getElement(item)) != result.loaded ||
+          result.generation != generation) {
         update((TreeItem)item);
       }
       return result;
@@ -475,8 +670,15 @@ public abstract class LinkifiedTree<T, F> extends Composite {
       return result;
     }
 
+    public void invalidate() {
+      generation++;
+    }
+
     public void reset() {
       layout.dispose();
+      lastPrefetcher.cancel();
+      shown.clear();
+      toPrefetch.clear();
     }
   }
 
@@ -490,6 +692,7 @@ public abstract class LinkifiedTree<T, F> extends Composite {
     public StyledString string;
     public Rectangle bounds;
     public boolean loaded;
+    public int generation;
 
     public Label(Theme theme) {
       this.background = null;
@@ -197,7 +197,7 @@ public abstract class LinkifiedTreeWithImages<T, F> extends LinkifiedTree<T, F>
         lastScheduledFuture.cancel(true);
         lastHoveredImage = item;
         if (item != null) {
-          lastScheduledFuture = Scheduler.EXECUTOR.schedule(() ->
+          lastScheduledFuture = Scheduler.TIMERS.schedule(() ->
               Widgets.scheduleIfNotDisposed(item, () -> showBalloon(item)),
               PREVIEW_HOVER_DELAY_MS, TimeUnit.MILLISECONDS);
         }
@@ -151,6 +151,9 @@ public interface Theme {
   @RGB(argb = 0xfffadcdc) public Color memoryWriteHighlight();
   @RGB(argb = 0xffdcdcfa) public Color memorySelectionHighlight();
 
+  // Command tree search highlight color.
+  @RGB(argb = 0xfffff3a0) public Color searchMatchBackground();
+
   // About & Welcome dialog text colors
   @RGB(argb = 0xffa9a9a9) public Color welcomeVersionColor();
 
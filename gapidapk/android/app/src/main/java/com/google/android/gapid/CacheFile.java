@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gapid;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * CacheFile is a persistent key-value store backed by a single append-only file. The index of the
+ * file is read into memory once, when the file is opened, after which a lookup is a single read.
+ * <p/>
+ * The file starts with a header holding a version stamp. If the stamp does not match the version
+ * the file is opened with, all entries are discarded. The header is followed by the records,
+ * each of which is: <code>[int keyLength][int dataLength][int crc32][key][data]</code>, where
+ * the checksum covers both the key and the data. Entries failing the checksum are dropped.
+ * <p/>
+ * When the size of the live entries exceeds the byte budget, the least recently used entries are
+ * evicted. Once the file grows beyond twice the budget, it is compacted, writing the live entries
+ * in least recently used order, so the order survives a reload.
+ * <p/>
+ * This class does not depend on the Android framework, so it can be tested off-device.
+ */
+class CacheFile {
+    private static final int MAGIC = 0x47464331; // "GFC1"
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final String version;
+    private final long maxSize;
+    // Access ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private RandomAccessFile data;
+    private long liveSize = 0;
+
+    private CacheFile(File file, String version, long maxSize) {
+        this.file = file;
+        this.version = version;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Opens the cache file at the given path, creating it if it doesn't exist, and loads its index.
+     *
+     * @param version the version stamp of the entries. A file written with a different version is
+     *         cleared.
+     * @param maxSize the byte budget of the live entries.
+     */
+    static CacheFile open(File file, String version, long maxSize) throws IOException {
+        CacheFile cache = new CacheFile(file, version, maxSize);
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * @return the data stored for the given key or null if the key is not in the cache.
+     */
+    synchronized byte[] get(String key) throws IOException {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        byte[] value = new byte[entry.dataLength];
+        data.seek(entry.offset + RECORD_HEADER_SIZE + entry.keyLength);
+        data.readFully(value);
+        if (checksum(key.getBytes(UTF8), value) != entry.crc) {
+            remove(key);
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Stores the given data for the given key, replacing any previous data.
+     */
+    synchronized void put(String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF8);
+        int crc = checksum(keyBytes, value);
+        ByteBuffer record =
+                ByteBuffer.allocate(RECORD_HEADER_SIZE + keyBytes.length + value.length);
+        record.putInt(keyBytes.length).putInt(value.length).putInt(crc).put(keyBytes).put(value);
+
+        long offset = data.length();
+        data.seek(offset);
+        data.write(record.array());
+        add(key, new Entry(offset, keyBytes.length, value.length, crc));
+        evict();
+    }
+
+    synchronized void close() throws IOException {
+        data.close();
+    }
+
+    private void load() throws IOException {
+        data = new RandomAccessFile(file, "rw");
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] stamp = version.getBytes(UTF8);
+            if (in.readInt() != MAGIC || in.readInt() != stamp.length) {
+                clear();
+                return;
+            }
+            byte[] fileStamp = new byte[stamp.length];
+            in.readFully(fileStamp);
+            if (!Arrays.equals(stamp, fileStamp)) {
+                clear();
+                return;
+            }
+
+            long end = data.length(), offset = 8 + stamp.length;
+            while (offset + RECORD_HEADER_SIZE <= end) {
+                int keyLength = in.readInt(), dataLength = in.readInt(), crc = in.readInt();
+                if (keyLength < 0 || dataLength < 0 ||
+                        offset + RECORD_HEADER_SIZE + keyLength + dataLength > end) {
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                in.skipBytes(dataLength);
+                Entry entry = new Entry(offset, keyLength, dataLength, crc);
+                add(new String(key, UTF8), entry);
+                offset += entry.size();
+            }
+
+            if (offset < end) {
+                // Drop the partially written record at the end.
+                data.setLength(offset);
+            }
+        } catch (EOFException e) {
+            clear();
+        }
+    }
+
+    private void clear() throws IOException {
+        index.clear();
+        liveSize = 0;
+        data.setLength(0);
+        writeHeader(data);
+    }
+
+    // Writes the header, [int magic][int versionLength][version], returning its size.
+    private long writeHeader(RandomAccessFile out) throws IOException {
+        byte[] stamp = version.getBytes(UTF8);
+        out.seek(0);
+        out.writeInt(MAGIC);
+        out.writeInt(stamp.length);
+        out.write(stamp);
+        return out.getFilePointer();
+    }
+
+    private void add(String key, Entry entry) {
+        Entry old = index.put(key, entry);
+        if (old != null) {
+            liveSize -= old.size();
+        }
+        liveSize += entry.size();
+    }
+
+    private void remove(String key) {
+        Entry old = index.remove(key);
+        if (old != null) {
+            liveSize -= old.size();
+        }
+    }
+
+    private void evict() throws IOException {
+        for (Iterator<Entry> it = index.values().iterator(); liveSize > maxSize && it.hasNext(); ) {
+            liveSize -= it.next().size();
+            it.remove();
+        }
+        if (data.length() > 2 * maxSize) {
+            compact();
+        }
+    }
+
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Map<String, Entry> compacted = new LinkedHashMap<>();
+        try {
+            try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+                out.setLength(0);
+                long offset = writeHeader(out);
+                for (Map.Entry<String, Entry> e : index.entrySet()) {
+                    Entry entry = e.getValue();
+                    byte[] record = new byte[(int)entry.size()];
+                    data.seek(entry.offset);
+                    data.readFully(record);
+                    out.write(record);
+                    compacted.put(e.getKey(), new Entry(offset, entry.keyLength, entry.dataLength,
+                            entry.crc));
+                    offset += record.length;
+                }
+            }
+
+            data.close();
+            boolean renamed = tmp.renameTo(file);
+            data = new RandomAccessFile(file, "rw");
+            if (!renamed) {
+                throw new IOException("Failed to replace " + file + " with the compacted " + tmp);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Don't leave the partially written or unused copy behind.
+            tmp.delete();
+            throw e;
+        }
+        index.clear();
+        index.putAll(compacted);
+    }
+
+    private static int checksum(byte[] key, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(value);
+        return (int)crc.getValue();
+    }
+
+    /**
+     * The location of a record in the file.
+     */
+    private static class Entry {
+        final long offset;
+        final int keyLength;
+        final int dataLength;
+        final int crc;
+
+        Entry(long offset, int keyLength, int dataLength, int crc) {
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.dataLength = dataLength;
+            this.crc = crc;
+        }
+
+        long size() {
+            return RECORD_HEADER_SIZE + keyLength + dataLength;
+        }
+    }
+}
@@ -17,18 +17,37 @@
 package com.google.android.gapid;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * FileCache is a {@link Cache} that also uses the applications cache directory as a second level
- * cache.
+ * FileCache is a {@link Cache} that also uses a {@link CacheFile} in the applications cache
+ * directory as a second level cache. Each named cache is stored in a single file, which is opened
+ * once per process. The entries are invalidated whenever this application is updated.
  */
 public abstract class FileCache {
+    private static final String TAG = "gapid-filecache";
+
+    /**
+     * The byte budget of each cache file.
+     */
+    private static final long MAX_SIZE = 32 * 1024 * 1024;
+
+    private static final String SUFFIX = ".cache";
+
+    /**
+     * The file marking that the files of older versions of this cache have been deleted.
+     */
+    private static final String LEGACY_MARKER = "legacy-deleted";
+
+    private static final Map<String, CacheFile> FILES = new HashMap<>();
+
     private FileCache() {
     }
 
@@ -37,7 +56,7 @@ public abstract class FileCache {
             final String name,
             final Builder<K, V> builder) {
 
-        final File cacheDir = context.getCacheDir();
+        final CacheFile file = open(context, name);
 
         return Cache.create(new Cache.Builder<K, V>() {
             @Override
@@ -48,49 +67,26 @@ public abstract class FileCache {
             }
 
             private V scopedBuild(K key) {
-                String name;
-                File path = null;
-                try (Counter.Scope t = Counter.time("filename")) {
-                    try (Counter.Scope t2 = Counter.time("generate")) {
-                        name = builder.filename(key);
-                    }
-                    if (name != null) {
-                        try (Counter.Scope t2 = Counter.time("sanitize")) {
-                            char[] src = name.toCharArray();
-                            char[] dst = new char[src.length];
-                            for (int i = 0; i < src.length; i++) {
-                                char c = src[i];
-                                if ((c != '.') && (c != '-') &&
-                                        !(c >= 'a' && c <= 'z') &&
-                                        !(c >= 'A' && c <= 'Z') &&
-                                        !(c >= '0' && c <= '9')) {
-                                    c = '_';
-                                }
-                                dst[i] = c;
-                            }
-                            name = new String(dst);
-                        }
+                String cacheKey = null;
+                if (file != null) {
+                    try (Counter.Scope t = Counter.time("key")) {
+                        cacheKey = builder.key(key);
                     }
                 }
 
-                if (name != null) {
-                    path = new File(cacheDir, name);
-                    if (path.exists()) {
-                        try (Counter.Scope t = Counter.time("load")) {
-                            try (FileInputStream file = new FileInputStream(path)) {
-                                byte[] bytes = IOUtils.readAll(file);
-                                if (bytes.length == 0) {
-                                    return null;
-                                }
-                                try (Counter.Scope t2 = Counter.time("decode")) {
-                                    return builder.decode(bytes);
-                                }
-                            } catch (FileNotFoundException e) {
-                                // Fallthrough
-                            } catch (IOException e) {
-                                // Fallthrough
+                if (cacheKey != null) {
+                    try (Counter.Scope t = Counter.time("load")) {
+                        byte[] bytes = file.get(cacheKey);
+                        if (bytes != null) {
+                            if (bytes.length == 0) {
+                                return null;
+                            }
+                            try (Counter.Scope t2 = Counter.time("decode")) {
+                                return builder.decode(bytes);
                             }
                         }
+                    } catch (IOException e) {
+                        // Fallthrough
                     }
                 }
 
@@ -99,21 +95,17 @@ public abstract class FileCache {
                     value = builder.build(key);
                 }
 
-                if (path != null) {
+                if (cacheKey != null) {
                     try (Counter.Scope t = Counter.time("store")) {
-                        try (FileOutputStream file = new FileOutputStream(path)) {
-                            if (value != null) {
-                                byte[] data;
-                                try (Counter.Scope t2 = Counter.time("encode")) {
-                                    data = builder.encode(value);
-                                }
-                                IOUtils.writeAll(file, data);
+                        byte[] data = null;
+                        if (value != null) {
+                            try (Counter.Scope t2 = Counter.time("encode")) {
+                                data = builder.encode(value);
                             }
-                        } catch (FileNotFoundException e) {
-                            // Fallthrough
-                        } catch (IOException e) {
-                            // Fallthrough
                         }
+                        file.put(cacheKey, (data == null) ? new byte[0] : data);
+                    } catch (IOException e) {
+                        // Fallthrough
                     }
                 }
 
@@ -122,18 +114,80 @@ public abstract class FileCache {
         });
     }
 
+    /**
+     * @return the cache file with the given name, opening it if needed, or null if it can't be
+     *         opened.
+     */
+    private static synchronized CacheFile open(Context context, String name) {
+        CacheFile file = FILES.get(name);
+        if (file == null) {
+            File cacheDir = context.getCacheDir();
+            if (FILES.isEmpty()) {
+                deleteLegacyFiles(cacheDir);
+            }
+            try (Counter.Scope t = Counter.time("FileCache.open<" + name + ">")) {
+                file = CacheFile.open(
+                        new File(cacheDir, name + SUFFIX), version(context), MAX_SIZE);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to open the cache file " + name, e);
+                return null;
+            }
+            FILES.put(name, file);
+        }
+        return file;
+    }
+
+    /**
+     * @return the version stamp of the cache entries, which changes whenever this application is
+     *         installed or updated.
+     */
+    private static String version(Context context) {
+        try {
+            PackageInfo pi =
+                    context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return pi.versionCode + "." + pi.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Deletes the files of older versions of this cache, which used one file per entry. This is
+     * only done once, after which a marker file is left in the cache directory.
+     */
+    private static void deleteLegacyFiles(File cacheDir) {
+        File marker = new File(cacheDir, LEGACY_MARKER);
+        if (marker.exists()) {
+            return;
+        }
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile() && !file.getName().endsWith(SUFFIX)) {
+                file.delete();
+            }
+        }
+        try {
+            marker.createNewFile();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to create the legacy cache marker", e);
+        }
+    }
+
     /**
      * Builder is the interface implemented by users of the {@link FileCache} to encode, decode
-     * and name the cache files.
+     * and key the cached values.
      * @param <K> the cache key type.
      * @param <V> the cache value type.
      */
     public interface Builder<K, V> extends Cache.Builder<K, V> {
         /**
-         * @return the unique filename for the given data key. If null is returned, then the cache
-         *         is skipped.
+         * @return the unique key string for the given data key. If null is returned, then the
+         *         cache is skipped.
          */
-        String filename(K key);
+        String key(K key);
 
         /**
          * @return the encoded value data as bytes that can be serialized.
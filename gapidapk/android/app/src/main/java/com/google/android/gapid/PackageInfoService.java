@@ -30,24 +30,22 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.util.Base64;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.Pair;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * An {@link IntentService} subclass for providing installed package information to GAPIS / GAPIC.
@@ -67,6 +65,11 @@ public class PackageInfoService extends GapidService {
 
     private static final boolean PROFILE = false;
 
+    /**
+     * The number of threads processing the packages in parallel.
+     */
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
     /**
      * Action used to start waiting for an incoming connection on the local-abstract port
      * {@link #EXTRA_SOCKET_NAME}. When a connection is made, the package information is send to the
@@ -128,7 +131,7 @@ public class PackageInfoService extends GapidService {
             this.launchIntentForPackage = FileCache.create(context, "launchIntentForPackage",
                     new FileCache.Builder<PackageInfo, Intent>() {
                         @Override
-                        public String filename(PackageInfo key) {
+                        public String key(PackageInfo key) {
                             return "launch-intent." +
                                     key.packageName + "." +
                                     key.versionName + "." +
@@ -155,7 +158,7 @@ public class PackageInfoService extends GapidService {
             this.launchActivityForPackage = FileCache.create(context, "launchActivityForPackage",
                     new FileCache.Builder<PackageInfo, ActivityInfo>() {
                         @Override
-                        public String filename(PackageInfo key) {
+                        public String key(PackageInfo key) {
                             return "launch-activity." +
                                     key.packageName + "." +
                                     key.versionName + "." +
@@ -217,6 +220,9 @@ public class PackageInfoService extends GapidService {
 
     /**
      * Handler for the {@link #ACTION_SEND_PKG_INFO} intent.
+     * <p/>
+     * The packages are processed in parallel, starting while waiting for the incoming connection,
+     * and streamed to the connection in order as they are processed.
      */
     private void handleSendPackageInfo(
             final Caches caches,
@@ -225,33 +231,45 @@ public class PackageInfoService extends GapidService {
             final boolean includeIcons,
             final float iconDensityScale) {
 
-        final ExecutorService executor = Executors.newCachedThreadPool();
-        final IconStore icons = new IconStore(this, (int)(BASE_ICON_DENSITY * iconDensityScale));
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final IconStore icons = includeIcons ?
+                new IconStore(this, (int)(BASE_ICON_DENSITY * iconDensityScale)) : null;
 
-        Callable<byte[]> packageInfoFuture = new Callable<byte[]>() {
-            @Override
-            public byte[] call() throws Exception {
-                String json;
-                try (Counter.Scope t = Counter.time("getPackageInfo")) {
-                    json = getPackageInfo(caches, includeIcons ? icons : null, onlyDebug);
-                }
-                return json.getBytes("UTF-8");
-            }
-        };
+        final Future<List<Future<PackageInfoWriter.Package>>> packagesFuture = executor.submit(
+                new Callable<List<Future<PackageInfoWriter.Package>>>() {
+                    @Override
+                    public List<Future<PackageInfoWriter.Package>> call() {
+                        return processPackages(executor, caches, icons, onlyDebug);
+                    }
+                });
 
         try {
-            SocketWriter.connectAndWrite(socketName, executor.submit(packageInfoFuture));
+            SocketWriter.connectAndWrite(socketName, new SocketWriter.DataWriter() {
+                @Override
+                public void write(OutputStream out) throws Exception {
+                    try (Counter.Scope t = Counter.time("writePackageInfo")) {
+                        writePackageInfo(out, packagesFuture.get(), icons);
+                    }
+                }
+            });
         } catch (Exception ex) {
             Log.e(TAG, "Error occurred", ex);
         } finally {
-            executor.shutdown();
+            executor.shutdownNow();
         }
     }
 
-    private String getPackageInfo(
-            Caches caches,
-            IconStore icons,
-            boolean onlyDebug) throws JSONException {
+    /**
+     * Submits the processing of all installed packages to the given executor.
+     *
+     * @return the futures of the processed packages, in order. The future of a package that is
+     *         skipped resolves to null.
+     */
+    private List<Future<PackageInfoWriter.Package>> processPackages(
+            ExecutorService executor,
+            final Caches caches,
+            final IconStore icons,
+            final boolean onlyDebug) {
 
         List<PackageInfo> packages;
         try (Counter.Scope t = Counter.time("getInstalledPackages")) {
@@ -261,44 +279,54 @@ public class PackageInfoService extends GapidService {
         }
 
         // The ApplicationInfo.primaryCpuAbi field is hidden. Use reflection to get at it.
-        Field primaryCpuAbiField = null;
+        Field field = null;
         try {
-            primaryCpuAbiField = ApplicationInfo.class.getField("primaryCpuAbi");
+            field = ApplicationInfo.class.getField("primaryCpuAbi");
         } catch (NoSuchFieldException e) {
             Log.w(TAG, "Unable to find 'primaryCpuAbi' ApplicationInfo hidden field");
         }
+        final Field primaryCpuAbiField = field;
+
+        List<Future<PackageInfoWriter.Package>> futures = new ArrayList<>(packages.size());
+        for (final PackageInfo packageInfo : packages) {
+            futures.add(executor.submit(new Callable<PackageInfoWriter.Package>() {
+                @Override
+                public PackageInfoWriter.Package call() {
+                    ApplicationInfo applicationInfo = packageInfo.applicationInfo;
+                    boolean isDebuggable =
+                            applicationInfo != null &&
+                                    (applicationInfo.flags & ApplicationInfo.FLAG_DEBUGGABLE) > 0;
+                    if (!isDebuggable && onlyDebug) {
+                        return null;
+                    }
 
-        JSONArray packagesJson = new JSONArray();
-
-        for (PackageInfo packageInfo : packages) {
-            ApplicationInfo applicationInfo = packageInfo.applicationInfo;
-            boolean isDebuggable =
-                    applicationInfo != null &&
-                            (applicationInfo.flags & ApplicationInfo.FLAG_DEBUGGABLE) > 0;
-            if (!isDebuggable && onlyDebug) {
-                continue;
-            }
-
-            JSONObject packageJson;
-            try (Counter.Scope t = Counter.time("getPackageJson")) {
-                packageJson = getPackageJson(caches, packageInfo, icons, primaryCpuAbiField, isDebuggable);
-            }
-            packagesJson.put(packageJson);
+                    try (Counter.Scope t = Counter.time("getPackage")) {
+                        return getPackage(
+                                caches, packageInfo, icons, primaryCpuAbiField, isDebuggable);
+                    }
+                }
+            }));
         }
+        return futures;
+    }
 
-        JSONObject root = new JSONObject();
-        root.put("packages", packagesJson);
-        root.put("icons", icons != null ? icons.json() : new JSONArray());
+    private void writePackageInfo(
+            OutputStream out,
+            List<Future<PackageInfoWriter.Package>> packages,
+            IconStore icons) throws Exception {
 
-        return root.toString();
+        PackageInfoWriter writer = new PackageInfoWriter(out);
+        writer.writePackages(packages);
+        // All packages have been processed, so all icons have been added.
+        writer.finish(icons != null ? icons.icons() : Collections.<byte[]>emptyList());
     }
 
-    private JSONObject getPackageJson(
+    private PackageInfoWriter.Package getPackage(
             Caches caches,
             PackageInfo packageInfo,
             IconStore icons,
             Field primaryCpuAbiField,
-            boolean isDebuggable) throws JSONException {
+            boolean isDebuggable) {
 
         ApplicationInfo applicationInfo = packageInfo.applicationInfo;
 
@@ -326,7 +354,7 @@ public class PackageInfoService extends GapidService {
             intents.add(intent);
         }
 
-        JSONArray activitiesJson = new JSONArray();
+        List<PackageInfoWriter.Activity> activities = new ArrayList<>();
         if (packageInfo.activities != null) {
             for (ActivityInfo activityInfo : packageInfo.activities) {
                 int iconIndex = -1;
@@ -340,28 +368,24 @@ public class PackageInfoService extends GapidService {
                 ActivityInfo launchActivityInfo = caches.launchActivityForPackage.get(packageInfo);
                 boolean isLaunchActivity = (launchActivityInfo != null) ?
                         launchActivityInfo.name.equals(activityInfo.name) : false;
-                JSONArray actionsJson = new JSONArray();
+                List<PackageInfoWriter.Action> actions = new ArrayList<>();
                 List<IntentFilter> intents = activityIntents.get(activityInfo.name);
                 if (intents != null) {
                     for (IntentFilter intent : intents) {
                         for (int i = 0; i < intent.countActions(); i++) {
                             String action = intent.getAction(i);
-                            JSONObject actionJson = new JSONObject();
-                            actionJson.put("name", action);
+                            Boolean isLaunch = null;
                             if (isLaunchActivity) {
                                 Intent launchIntent = caches.launchIntentForPackage.get(packageInfo);
-                                actionJson.put("isLaunch", action.equals(launchIntent.getAction()));
+                                isLaunch = action.equals(launchIntent.getAction());
                             }
-                            actionsJson.put(actionJson);
+                            actions.add(new PackageInfoWriter.Action(action, isLaunch));
                         }
                     }
                 }
 
-                JSONObject activityJson = new JSONObject();
-                activityJson.put("name", activityInfo.name);
-                activityJson.put("icon", iconIndex);
-                activityJson.put("actions", actionsJson);
-                activitiesJson.put(activityJson);
+                activities.add(
+                        new PackageInfoWriter.Activity(activityInfo.name, iconIndex, actions));
             }
         }
 
@@ -384,27 +408,18 @@ public class PackageInfoService extends GapidService {
             }
         }
 
-        JSONObject packageJson = new JSONObject();
-        packageJson.put("name", packageInfo.packageName);
-        packageJson.put("debuggable", isDebuggable);
-        packageJson.put("icon", iconIndex);
-        if (primaryCpuAbi != null) {
-            packageJson.put("ABI", primaryCpuAbi);
-        }
-        packageJson.put("activities", activitiesJson);
         // An application can use developer driver if it's debuggable or it has the
         // com.android.graphics.developerdriver.enable set to true.
-        packageJson.put("developerDriverEnabled", isDebuggable || developerDriverEnabled);
-        return packageJson;
+        return new PackageInfoWriter.Package(packageInfo.packageName, isDebuggable, iconIndex,
+                primaryCpuAbi, activities, isDebuggable || developerDriverEnabled);
     }
 
     /**
-     * IconStore stores all {@link Drawable}s as PNG, base-64 encoded images.
-     * Duplicates are only stored once.
+     * IconStore stores all {@link Drawable}s as PNG images in a {@link PackageInfoWriter.Icons}.
+     * Icons can be added concurrently.
      */
     private class IconStore {
-        private final Map<String, Integer> dataMap = new HashMap<>();
-        private final JSONArray json = new JSONArray();
+        private final PackageInfoWriter.Icons pngs = new PackageInfoWriter.Icons();
         private final int iconDensity;
         private final Cache<Pair<Resources, Integer>, byte[]> cache;
 
@@ -413,7 +428,7 @@ public class PackageInfoService extends GapidService {
             this.cache = FileCache.create(context, "icons",
                     new FileCache.Builder<Pair<Resources, Integer>, byte[]>() {
                         @Override
-                        public String filename(Pair<Resources, Integer> key) {
+                        public String key(Pair<Resources, Integer> key) {
                             Resources resources = key.first;
                             int id = key.second;
                             try {
@@ -447,7 +462,7 @@ public class PackageInfoService extends GapidService {
         /**
          * add the specified drawable to the store.
          *
-         * @return The index of the image stored in the {@link JSONArray} returned by {@link #json}.
+         * @return The index of the image stored in the list returned by {@link #icons}.
          */
         public int add(Resources resources, int iconId) {
             if (resources == null || iconId <= 0) {
@@ -457,7 +472,7 @@ public class PackageInfoService extends GapidService {
             if (bytes == null) {
                 return -1;
             }
-            return store(bytes);
+            return pngs.add(bytes);
         }
 
         private byte[] data(Resources resources, int iconId) {
@@ -514,26 +529,11 @@ public class PackageInfoService extends GapidService {
             return stream.toByteArray();
         }
 
-        private int store(byte[] data) {
-            String pngBase64;
-            try (Counter.Scope t = Counter.time("Base64.encodeToString")) {
-                pngBase64 = Base64.encodeToString(data, Base64.NO_WRAP);
-            }
-            if (!dataMap.containsKey(pngBase64)) {
-                int index = json.length();
-                dataMap.put(pngBase64, index);
-                json.put(pngBase64);
-                return index;
-            } else {
-                return dataMap.get(pngBase64);
-            }
-        }
-
         /**
-         * @return The {@link JSONArray} object holding all the base-64, PNG encoded images.
+         * @return The list holding all the PNG encoded images.
          */
-        public JSONArray json() {
-            return json;
+        public List<byte[]> icons() {
+            return pngs.get();
         }
     }
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gapid;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * PackageInfoWriter streams the installed package information as the JSON document expected by
+ * GAPIS: <code>{"packages":[...],"icons":[...]}</code>. Each package is written as soon as it is
+ * produced, so the document is never held in memory as a whole. The icons are referenced by their
+ * index from the packages and written, as base-64 encoded PNGs, at the end.
+ * <p/>
+ * This class does not depend on the Android framework, so the encoding can be tested off-device.
+ */
+class PackageInfoWriter {
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    private boolean firstPackage = true;
+
+    PackageInfoWriter(OutputStream out) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        this.out.write("{\"packages\":[");
+    }
+
+    /**
+     * Writes the given package to the packages array.
+     */
+    void writePackage(Package pkg) throws IOException {
+        if (!firstPackage) {
+            out.write(',');
+        }
+        firstPackage = false;
+
+        out.write("{\"name\":");
+        writeString(pkg.name);
+        out.write(",\"debuggable\":");
+        out.write(Boolean.toString(pkg.debuggable));
+        out.write(",\"icon\":");
+        out.write(Integer.toString(pkg.icon));
+        if (pkg.abi != null) {
+            out.write(",\"ABI\":");
+            writeString(pkg.abi);
+        }
+        out.write(",\"activities\":[");
+        for (int i = 0; i < pkg.activities.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeActivity(pkg.activities.get(i));
+        }
+        out.write("],\"developerDriverEnabled\":");
+        out.write(Boolean.toString(pkg.developerDriverEnabled));
+        out.write('}');
+    }
+
+    /**
+     * Writes the given packages to the packages array, in order, waiting for each to be processed.
+     * Packages that resolve to null are skipped.
+     */
+    void writePackages(List<Future<Package>> packages)
+            throws IOException, InterruptedException, ExecutionException {
+        for (Future<Package> future : packages) {
+            Package pkg = future.get();
+            if (pkg != null) {
+                writePackage(pkg);
+            }
+        }
+    }
+
+    /**
+     * Ends the packages array, writes the given PNG icons and ends the document.
+     */
+    void finish(List<byte[]> icons) throws IOException {
+        out.write("],\"icons\":[");
+        for (int i = 0; i < icons.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write('"');
+            writeBase64(icons.get(i));
+            out.write('"');
+        }
+        out.write("]}");
+        out.flush();
+    }
+
+    private void writeActivity(Activity activity) throws IOException {
+        out.write("{\"name\":");
+        writeString(activity.name);
+        out.write(",\"icon\":");
+        out.write(Integer.toString(activity.icon));
+        out.write(",\"actions\":[");
+        for (int i = 0; i < activity.actions.size(); i++) {
+            Action action = activity.actions.get(i);
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("{\"name\":");
+            writeString(action.name);
+            if (action.isLaunch != null) {
+                out.write(",\"isLaunch\":");
+                out.write(action.isLaunch.toString());
+            }
+            out.write('}');
+        }
+        out.write("]}");
+    }
+
+    private void writeString(String str) throws IOException {
+        out.write('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    out.write('\\');
+                    out.write(c);
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write("\\u00");
+                        out.write(HEX[c >> 4]);
+                        out.write(HEX[c & 0xf]);
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    private void writeBase64(byte[] data) throws IOException {
+        int i = 0;
+        for (; i + 2 < data.length; i += 3) {
+            int bits =
+                    ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+            out.write(BASE64[(bits >> 18) & 0x3f]);
+            out.write(BASE64[(bits >> 12) & 0x3f]);
+            out.write(BASE64[(bits >> 6) & 0x3f]);
+            out.write(BASE64[bits & 0x3f]);
+        }
+        if (i < data.length) {
+            int bits = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length) {
+                bits |= (data[i + 1] & 0xff) << 8;
+            }
+            out.write(BASE64[(bits >> 18) & 0x3f]);
+            out.write(BASE64[(bits >> 12) & 0x3f]);
+            out.write((i + 1 < data.length) ? BASE64[(bits >> 6) & 0x3f] : '=');
+            out.write('=');
+        }
+    }
+
+    /**
+     * Icons stores the PNG encoded icons referenced by the packages. Duplicates, identified by a
+     * hash of their content, are only stored once. Icons can be added concurrently.
+     */
+    static class Icons {
+        private final Map<ByteBuffer, Integer> dataMap = new HashMap<>();
+        private final List<byte[]> pngs = new ArrayList<>();
+
+        /**
+         * Adds the given PNG image to the store.
+         *
+         * @return The index of the image in the list returned by {@link #get}.
+         */
+        int add(byte[] png) {
+            ByteBuffer hash;
+            try (Counter.Scope t = Counter.time("hash")) {
+                hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-1").digest(png));
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            synchronized (dataMap) {
+                Integer index = dataMap.get(hash);
+                if (index == null) {
+                    index = pngs.size();
+                    dataMap.put(hash, index);
+                    pngs.add(png);
+                }
+                return index;
+            }
+        }
+
+        /**
+         * @return The list holding all the PNG encoded images.
+         */
+        List<byte[]> get() {
+            synchronized (dataMap) {
+                return new ArrayList<>(pngs);
+            }
+        }
+    }
+
+    /**
+     * An installed package.
+     */
+    static class Package {
+        final String name;
+        final boolean debuggable;
+        final int icon;
+        final String abi;
+        final List<Activity> activities;
+        final boolean developerDriverEnabled;
+
+        Package(String name, boolean debuggable, int icon, String abi, List<Activity> activities,
+                boolean developerDriverEnabled) {
+            this.name = name;
+            this.debuggable = debuggable;
+            this.icon = icon;
+            this.abi = abi;
+            this.activities = activities;
+            this.developerDriverEnabled = developerDriverEnabled;
+        }
+    }
+
+    /**
+     * An activity of an installed package.
+     */
+    static class Activity {
+        final String name;
+        final int icon;
+        final List<Action> actions;
+
+        Activity(String name, int icon, List<Action> actions) {
+            this.name = name;
+            this.icon = icon;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * An intent action of an activity. isLaunch is null, if the activity is not the launch
+     * activity of its package.
+     */
+    static class Action {
+        final String name;
+        final Boolean isLaunch;
+
+        Action(String name, Boolean isLaunch) {
+            this.name = name;
+            this.isLaunch = isLaunch;
+        }
+    }
+}
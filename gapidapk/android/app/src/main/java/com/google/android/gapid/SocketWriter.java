@@ -19,6 +19,7 @@ package com.google.android.gapid;
 import android.net.LocalServerSocket;
 import android.net.LocalSocket;
 import java.io.DataOutputStream;
+import java.io.OutputStream;
 import java.util.concurrent.Future;
 
 class SocketWriter {
@@ -35,12 +36,11 @@ class SocketWriter {
      * @param socketName The name of the local-abstract socket to listen on.
      * @param data The data to send to the first accepted socket.
      */
-    static void connectAndWrite(String socketName, Future<byte[]> data) throws Exception {
-        LocalServerSocket server = new LocalServerSocket(socketName);
-        try {
-            LocalSocket socket = server.accept();
-            try {
-                DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+    static void connectAndWrite(String socketName, final Future<byte[]> data) throws Exception {
+        connectAndWrite(socketName, new DataWriter() {
+            @Override
+            public void write(OutputStream out) throws Exception {
+                DataOutputStream dos = new DataOutputStream(out);
                 byte[] bytes;
                 try (Counter.Scope t = Counter.time("data.get()")) {
                     bytes = data.get();
@@ -49,6 +49,26 @@ class SocketWriter {
                     dos.write(bytes);
                     dos.flush();
                 }
+            }
+        });
+    }
+
+    /**
+     * connectAndWrite waits for the incoming connection to the specified local-abstract socket.
+     * When a connection is made, the data writer is called to stream the data to the accepted
+     * connection, then both sockets are closed.
+     *
+     * @param socketName The name of the local-abstract socket to listen on.
+     * @param data The writer of the data to send to the first accepted socket.
+     */
+    static void connectAndWrite(String socketName, DataWriter data) throws Exception {
+        LocalServerSocket server = new LocalServerSocket(socketName);
+        try {
+            LocalSocket socket = server.accept();
+            try {
+                try (Counter.Scope t = Counter.time("stream")) {
+                    data.write(socket.getOutputStream());
+                }
             } finally {
                 socket.close();
             }
@@ -56,4 +76,11 @@ class SocketWriter {
             server.close();
         }
     }
+
+    /**
+     * DataWriter writes the data sent to an accepted connection.
+     */
+    interface DataWriter {
+        void write(OutputStream out) throws Exception;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gapid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class CacheFileTest {
+    private static final String VERSION = "v1";
+    // The size of the header written for VERSION.
+    private static final long HEADER_SIZE = 8 + 2;
+    // The size of a record with a two character key and RECORD_DATA_SIZE bytes of data.
+    private static final int RECORD_DATA_SIZE = 10;
+    private static final long RECORD_SIZE = 12 + 2 + RECORD_DATA_SIZE;
+    // Large enough for three records.
+    private static final long MAX_SIZE = 3 * RECORD_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File path;
+
+    @Before
+    public void setUp() {
+        path = new File(folder.getRoot(), "test.cache");
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        CacheFile cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        assertNull(cache.get("k1"));
+        cache.put("k1", value(1));
+        cache.put("k2", new byte[0]);
+        assertArrayEquals(value(1), cache.get("k1"));
+        assertArrayEquals(new byte[0], cache.get("k2"));
+        cache.put("k1", value(2));
+        assertArrayEquals(value(2), cache.get("k1"));
+        cache.close();
+
+        cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        assertArrayEquals(value(2), cache.get("k1"));
+        assertArrayEquals(new byte[0], cache.get("k2"));
+        assertNull(cache.get("k3"));
+        cache.close();
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws Exception {
+        CacheFile cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        cache.put("k1", value(1));
+        cache.put("k2", value(2));
+        cache.close();
+
+        // Cut the last record short, as if the process died while writing it.
+        truncate(path.length() - 3);
+
+        cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        assertEquals(HEADER_SIZE + RECORD_SIZE, path.length());
+        assertArrayEquals(value(1), cache.get("k1"));
+        assertNull(cache.get("k2"));
+        cache.put("k3", value(3));
+        cache.close();
+
+        cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        assertArrayEquals(value(1), cache.get("k1"));
+        assertNull(cache.get("k2"));
+        assertArrayEquals(value(3), cache.get("k3"));
+        cache.close();
+    }
+
+    @Test
+    public void testTornHeaderClearsFile() throws Exception {
+        CacheFile cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        cache.put("k1", value(1));
+        cache.close();
+
+        truncate(5);
+
+        cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        assertEquals(HEADER_SIZE, path.length());
+        assertNull(cache.get("k1"));
+        cache.close();
+    }
+
+    @Test
+    public void testChecksumMismatchDropsEntry() throws Exception {
+        CacheFile cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        cache.put("k1", value(1));
+        cache.put("k2", value(2));
+        cache.close();
+
+        // Flip a bit in the data of the first record.
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            long offset = HEADER_SIZE + RECORD_SIZE - 1;
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 1);
+        }
+
+        cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        assertNull(cache.get("k1"));
+        assertNull(cache.get("k1"));
+        assertArrayEquals(value(2), cache.get("k2"));
+        cache.put("k1", value(3));
+        assertArrayEquals(value(3), cache.get("k1"));
+        cache.close();
+    }
+
+    @Test
+    public void testVersionChangeClearsFile() throws Exception {
+        CacheFile cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        cache.put("k1", value(1));
+        cache.close();
+
+        cache = CacheFile.open(path, "v2", MAX_SIZE);
+        assertEquals(HEADER_SIZE, path.length());
+        assertNull(cache.get("k1"));
+        cache.put("k2", value(2));
+        cache.close();
+
+        cache = CacheFile.open(path, "v2", MAX_SIZE);
+        assertNull(cache.get("k1"));
+        assertArrayEquals(value(2), cache.get("k2"));
+        cache.close();
+
+        // Same length, different stamp.
+        cache = CacheFile.open(path, "v3", MAX_SIZE);
+        assertNull(cache.get("k2"));
+        cache.close();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        CacheFile cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        cache.put("k1", value(1));
+        cache.put("k2", value(2));
+        cache.put("k3", value(3));
+        assertArrayEquals(value(1), cache.get("k1"));
+        cache.put("k4", value(4));
+
+        assertNull(cache.get("k2"));
+        assertArrayEquals(value(1), cache.get("k1"));
+        assertArrayEquals(value(3), cache.get("k3"));
+        assertArrayEquals(value(4), cache.get("k4"));
+
+        // Least recently used is now k1.
+        cache.put("k5", value(5));
+        assertNull(cache.get("k1"));
+        assertArrayEquals(value(3), cache.get("k3"));
+        assertArrayEquals(value(4), cache.get("k4"));
+        assertArrayEquals(value(5), cache.get("k5"));
+        cache.close();
+    }
+
+    @Test
+    public void testCompactionKeepsOrder() throws Exception {
+        CacheFile cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        cache.put("k1", value(1));
+        cache.put("k2", value(2));
+        cache.put("k3", value(3));
+        // Grow the file by replacing entries, without evicting any. The last put pushes the file
+        // past twice the budget, triggering a compaction. The resulting order is: k2, k3, k1.
+        cache.put("k2", value(12));
+        cache.put("k3", value(13));
+        assertEquals(HEADER_SIZE + 5 * RECORD_SIZE, path.length());
+        cache.put("k1", value(11));
+        assertEquals(HEADER_SIZE + 3 * RECORD_SIZE, path.length());
+        assertFalse(new File(path.getPath() + ".tmp").exists());
+        cache.close();
+
+        cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        // Evicts the least recently used entry, which is k2, if the order survived the reload.
+        cache.put("k4", value(4));
+        assertNull(cache.get("k2"));
+        assertArrayEquals(value(13), cache.get("k3"));
+        assertArrayEquals(value(11), cache.get("k1"));
+        assertArrayEquals(value(4), cache.get("k4"));
+        cache.close();
+    }
+
+    @Test
+    public void testFailedCompactionDeletesTemporaryFile() throws Exception {
+        // A directory in place of the temporary file makes the compaction fail.
+        File tmp = new File(path.getPath() + ".tmp");
+        assertTrue(tmp.mkdir());
+
+        CacheFile cache = CacheFile.open(path, VERSION, MAX_SIZE);
+        cache.put("k1", value(1));
+        cache.put("k2", value(2));
+        cache.put("k3", value(3));
+        cache.put("k2", value(12));
+        cache.put("k3", value(13));
+        try {
+            cache.put("k1", value(11));
+            fail("Expected the compaction to fail");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertFalse(tmp.exists());
+
+        // The cache is still usable.
+        assertArrayEquals(value(11), cache.get("k1"));
+        assertArrayEquals(value(12), cache.get("k2"));
+        assertArrayEquals(value(13), cache.get("k3"));
+        cache.put("k4", value(4));
+        assertEquals(HEADER_SIZE + 3 * RECORD_SIZE, path.length());
+        cache.close();
+    }
+
+    private void truncate(long length) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(length);
+        }
+    }
+
+    private static byte[] value(int id) {
+        byte[] value = new byte[RECORD_DATA_SIZE];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte)(id * 31 + i);
+        }
+        return value;
+    }
+}
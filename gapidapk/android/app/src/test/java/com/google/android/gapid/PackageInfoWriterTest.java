@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gapid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PackageInfoWriterTest {
+    private static final String NO_PACKAGES = "{\"packages\":[],\"icons\":[]}";
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(NO_PACKAGES, write(Collections.<PackageInfoWriter.Package>emptyList(),
+                Collections.<byte[]>emptyList()));
+    }
+
+    @Test
+    public void testPackage() throws Exception {
+        PackageInfoWriter.Package pkg = new PackageInfoWriter.Package("com.example", true, 1,
+                "arm64-v8a", Arrays.asList(
+                        new PackageInfoWriter.Activity("Main", 2, Arrays.asList(
+                                new PackageInfoWriter.Action("MAIN", true),
+                                new PackageInfoWriter.Action("VIEW", null)))),
+                false);
+        assertEquals("{\"packages\":[{\"name\":\"com.example\",\"debuggable\":true,\"icon\":1," +
+                "\"ABI\":\"arm64-v8a\",\"activities\":[{\"name\":\"Main\",\"icon\":2," +
+                "\"actions\":[{\"name\":\"MAIN\",\"isLaunch\":true},{\"name\":\"VIEW\"}]}]," +
+                "\"developerDriverEnabled\":false}],\"icons\":[]}",
+                write(Arrays.asList(pkg), Collections.<byte[]>emptyList()));
+    }
+
+    @Test
+    public void testStringEscaping() throws Exception {
+        assertEquals("\"plain\"", writeName("plain"));
+        assertEquals("\"a\\\"b\\\\c\"", writeName("a\"b\\c"));
+        assertEquals("\"\\n\\r\\t\"", writeName("\n\r\t"));
+        assertEquals("\"\\u0000\\u001f\\u0008\"", writeName("\u0000\u001f\b"));
+        assertEquals("\"/\u00e9\u4e2d \u007f\"", writeName("/\u00e9\u4e2d \u007f"));
+    }
+
+    @Test
+    public void testBase64() throws Exception {
+        assertEquals("", writeIcon(new byte[0]));
+        assertEquals("Zg==", writeIcon(bytes("f")));
+        assertEquals("Zm8=", writeIcon(bytes("fo")));
+        assertEquals("Zm9v", writeIcon(bytes("foo")));
+        assertEquals("Zm9vYg==", writeIcon(bytes("foob")));
+        assertEquals("Zm9vYmE=", writeIcon(bytes("fooba")));
+        assertEquals("Zm9vYmFy", writeIcon(bytes("foobar")));
+        assertEquals("AP+Afw==", writeIcon(new byte[] { 0, -1, -128, 127 }));
+        assertEquals("+/8=", writeIcon(new byte[] { -5, -1 }));
+    }
+
+    @Test
+    public void testIconsDedupe() throws Exception {
+        PackageInfoWriter.Icons icons = new PackageInfoWriter.Icons();
+        assertEquals(0, icons.add(bytes("a")));
+        assertEquals(1, icons.add(bytes("b")));
+        assertEquals(0, icons.add(bytes("a")));
+        assertEquals(2, icons.add(bytes("c")));
+        assertEquals(1, icons.add(bytes("b")));
+
+        List<byte[]> pngs = icons.get();
+        assertEquals(3, pngs.size());
+        assertArrayEquals(bytes("a"), pngs.get(0));
+        assertArrayEquals(bytes("b"), pngs.get(1));
+        assertArrayEquals(bytes("c"), pngs.get(2));
+
+        assertEquals("{\"packages\":[],\"icons\":[\"YQ==\",\"Yg==\",\"Yw==\"]}",
+                write(Collections.<PackageInfoWriter.Package>emptyList(), pngs));
+    }
+
+    @Test
+    public void testIconsDedupeConcurrently() throws Exception {
+        final PackageInfoWriter.Icons icons = new PackageInfoWriter.Icons();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> indices = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                final byte[] png = bytes("icon" + (i % 10));
+                indices.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return icons.add(png);
+                    }
+                }));
+            }
+
+            int[] resolved = new int[indices.size()];
+            for (int i = 0; i < resolved.length; i++) {
+                resolved[i] = indices.get(i).get();
+            }
+
+            List<byte[]> pngs = icons.get();
+            assertEquals(10, pngs.size());
+            for (int i = 0; i < resolved.length; i++) {
+                assertArrayEquals(bytes("icon" + (i % 10)), pngs.get(resolved[i]));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPackageOrderWhenProcessedInParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<PackageInfoWriter.Package>> futures = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                final int id = i;
+                // The packages finish out of order and every third package is skipped.
+                futures.add(executor.submit(new Callable<PackageInfoWriter.Package>() {
+                    @Override
+                    public PackageInfoWriter.Package call() throws Exception {
+                        Thread.sleep((100 - id) % 7);
+                        return (id % 3 == 0) ? null : pkg("p" + id);
+                    }
+                }));
+                if (id % 3 != 0) {
+                    expected.add(json("p" + id));
+                }
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PackageInfoWriter writer = new PackageInfoWriter(out);
+            writer.writePackages(futures);
+            writer.finish(Collections.<byte[]>emptyList());
+            assertEquals("{\"packages\":[" + join(expected) + "],\"icons\":[]}",
+                    out.toString("UTF-8"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PackageInfoWriter.Package pkg(String name) {
+        return new PackageInfoWriter.Package(
+                name, false, -1, null, Collections.<PackageInfoWriter.Activity>emptyList(), false);
+    }
+
+    private static String json(String name) {
+        return "{\"name\":\"" + name + "\",\"debuggable\":false,\"icon\":-1,\"activities\":[]," +
+                "\"developerDriverEnabled\":false}";
+    }
+
+    private static String join(List<String> strings) {
+        StringBuilder sb = new StringBuilder();
+        for (String str : strings) {
+            sb.append(sb.length() == 0 ? "" : ",").append(str);
+        }
+        return sb.toString();
+    }
+
+    // Returns the JSON encoding of the given package name.
+    private static String writeName(String name) throws Exception {
+        String json = write(Arrays.asList(pkg(name)), Collections.<byte[]>emptyList());
+        String prefix = "{\"packages\":[{\"name\":";
+        String suffix = ",\"debuggable\":false,\"icon\":-1,\"activities\":[]," +
+                "\"developerDriverEnabled\":false}],\"icons\":[]}";
+        assertEquals(prefix, json.substring(0, prefix.length()));
+        assertEquals(suffix, json.substring(json.length() - suffix.length()));
+        return json.substring(prefix.length(), json.length() - suffix.length());
+    }
+
+    // Returns the base-64 encoding of the given icon.
+    private static String writeIcon(byte[] icon) throws Exception {
+        String json =
+                write(Collections.<PackageInfoWriter.Package>emptyList(), Arrays.asList(icon));
+        String prefix = "{\"packages\":[],\"icons\":[\"", suffix = "\"]}";
+        assertEquals(prefix, json.substring(0, prefix.length()));
+        assertEquals(suffix, json.substring(json.length() - suffix.length()));
+        return json.substring(prefix.length(), json.length() - suffix.length());
+    }
+
+    private static String write(List<PackageInfoWriter.Package> packages, List<byte[]> icons)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PackageInfoWriter writer = new PackageInfoWriter(out);
+        for (PackageInfoWriter.Package pkg : packages) {
+            writer.writePackage(pkg);
+        }
+        writer.finish(icons);
+        return out.toString("UTF-8");
+    }
+
+    private static byte[] bytes(String str) throws Exception {
+        return str.getBytes("UTF-8");
+    }
+}
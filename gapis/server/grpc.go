@@ -222,6 +222,38 @@ func (s *grpcServer) Get(ctx xctx.Context, req *service.GetRequest) (*service.Ge
 	return &service.GetResponse{Res: &service.GetResponse_Value{Value: val}}, nil
 }
 
+func (s *grpcServer) GetBatch(req *service.GetBatchRequest, server service.Gapid_GetBatchServer) error {
+	defer s.inRPC()()
+	ctx := server.Context()
+	// Each response is sent as soon as it is resolved, so that a slow request
+	// doesn't hold up the others. Send must not be called concurrently.
+	mutex := sync.Mutex{}
+	var sendErr error
+	wg := sync.WaitGroup{}
+	for i, r := range req.Requests {
+		i, r := i, r
+		wg.Add(1)
+		crash.Go(func() {
+			defer wg.Done()
+			res := &service.GetResponse{}
+			val, err := s.handler.Get(s.bindCtx(ctx), r.Path, r.Config)
+			if err := service.NewError(err); err != nil {
+				res.Res = &service.GetResponse_Error{Error: err}
+			} else {
+				res.Res = &service.GetResponse_Value{Value: service.NewValue(val)}
+			}
+
+			mutex.Lock()
+			defer mutex.Unlock()
+			if sendErr == nil {
+				sendErr = server.Send(&service.GetBatchResponse{Index: uint32(i), Response: res})
+			}
+		})
+	}
+	wg.Wait()
+	return sendErr
+}
+
 func (s *grpcServer) Set(ctx xctx.Context, req *service.SetRequest) (*service.SetResponse, error) {
 	defer s.inRPC()()
 	res, err := s.handler.Set(s.bindCtx(ctx), req.Path, req.Value.Get(), req.Config)
@@ -179,6 +179,24 @@ def gapic_dependencies(no_maven = False, no_swt = False, no_jface = False, local
             sha256_src = "170dbf09858d1cffdaaa53d4d6ab15e6253c845318b0cc3bf21f8dffa9d433ab",
         )
 
+        # Test dependencies.
+        ############################################################################
+        maybe_repository(
+            maven_jar,
+            name = "junit",
+            locals = locals,
+            artifact = "junit:junit:4.12",
+            sha256 = "59721f0805e223d84b90677887d9ff567dc534d7c502ca903c0c2b17f05c116a",
+        )
+
+        maybe_repository(
+            maven_jar,
+            name = "org_hamcrest_core",
+            locals = locals,
+            artifact = "org.hamcrest:hamcrest-core:1.3",
+            sha256 = "66fdef91e9739348df7a096aa384a5685f4e875584cce89386a7a47251c4d8e9",
+        )
+
     if not no_swt:
         maybe_repository(
             swt,